@@ -0,0 +1,162 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Ejecuta trabajos pesados (armar, simplificar y validar geometrías) en un hilo de trabajo y entrega el resultado
+ * en el hilo de la interfaz. Un trabajo recibe sólo datos inmutables y no toca la interfaz; el resultado se entrega
+ * con el {@link Executor} principal, que en la actividad publica en un Handler.
+ * <p>
+ * Un trabajo cancelado desde el hilo de la interfaz nunca entrega su resultado, aunque ya haya terminado: la
+ * entrega vuelve a mirar la cancelación en ese mismo hilo. Si todavía no empezó no se ejecuta, y si está en curso se
+ * interrumpe su hilo y puede consultar {@link Task#isCancelled()} para dejar de trabajar antes.
+ */
+public class BackgroundWorker {
+
+  /**
+   * Trabajo a ejecutar fuera del hilo de la interfaz.
+   */
+  public interface Job<T> {
+    T run(Task task) throws Exception;
+  }
+
+  /**
+   * Recibe el resultado en el hilo de la interfaz.
+   */
+  public interface Callback<T> {
+    void onResult(T result);
+
+    void onError(Exception e);
+  }
+
+  /**
+   * Un trabajo enviado; permite cancelarlo.
+   */
+  public static class Task {
+    private volatile boolean cancelled;
+
+    private volatile boolean done;
+
+    private Future<?> future;
+
+    /**
+     * Cancela el trabajo; su resultado ya no se entrega. Debe llamarse desde el hilo de la interfaz.
+     */
+    public void cancel() {
+      if (cancelled || done) {
+        return;
+      }
+      cancelled = true;
+      Future<?> f;
+      synchronized (this) {
+        f = future;
+      }
+      if (f != null) {
+        f.cancel(true);
+      }
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * @return true si el resultado o el error ya se entregó.
+     */
+    public boolean isDone() {
+      return done;
+    }
+  }
+
+  private final ExecutorService mWorker;
+
+  private final Executor mMain;
+
+  private volatile boolean mShutdown;
+
+  /**
+   * @param worker Hilos de trabajo; con un solo hilo los trabajos terminan en el orden en que se envían.
+   * @param main Entrega los resultados en el hilo de la interfaz.
+   */
+  public BackgroundWorker(ExecutorService worker, Executor main) {
+    mWorker = worker;
+    mMain = main;
+  }
+
+  /**
+   * Envía un trabajo. Debe llamarse desde el hilo de la interfaz.
+   */
+  public <T> Task submit(final Job<T> job, final Callback<T> callback) {
+    final Task task = new Task();
+    Runnable run = new Runnable() {
+      @Override
+      public void run() {
+        if (task.isCancelled()) {
+          return;
+        }
+        T result = null;
+        Exception error = null;
+        try {
+          result = job.run(task);
+        } catch (Exception e) {
+          error = e;
+        }
+        deliver(task, callback, result, error);
+      }
+    };
+    try {
+      Future<?> future = mWorker.submit(run);
+      synchronized (task) {
+        task.future = future;
+      }
+    } catch (RejectedExecutionException e) {
+      // El trabajador ya se cerró: nadie espera el resultado
+      task.cancelled = true;
+    }
+    return task;
+  }
+
+  /**
+   * Cancela los trabajos en curso y descarta los pendientes; no se entregan más resultados.
+   */
+  public void shutdown() {
+    mShutdown = true;
+    mWorker.shutdownNow();
+  }
+
+  private <T> void deliver(final Task task, final Callback<T> callback, final T result, final Exception error) {
+    mMain.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (mShutdown || task.isCancelled()) {
+          return;
+        }
+        task.done = true;
+        if (error != null) {
+          callback.onError(error);
+        } else {
+          callback.onResult(result);
+        }
+      }
+    });
+  }
+}
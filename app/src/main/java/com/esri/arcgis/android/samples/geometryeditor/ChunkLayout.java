@@ -0,0 +1,349 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.Arrays;
+
+/**
+ * Reparto de una lista en trozos de capacidad fija dentro de arreglos planos, para que insertar o eliminar en medio
+ * desplace sólo el resto de un trozo y no el resto de la lista. Cada trozo ocupa su propia región de
+ * {@code chunkSize} posiciones físicas; el orden de los trozos y sus largos se llevan aparte, con los inicios en
+ * unas {@link PrefixSums}.
+ * <p>
+ * Insertar o eliminar cuesta O(chunkSize + log n); de vez en cuando un trozo lleno se parte o dos trozos casi vacíos
+ * se unen, y eso rearma el orden en O(n / chunkSize). Ubicar una posición cuesta O(log n), u O(1) si cae en el
+ * mismo trozo que la anterior, como al recorrer la lista en orden o al editar cerca de la última edición.
+ * <p>
+ * La clase no guarda los datos: el {@link Storage} los copia cuando cambia su posición física. Como recuerda el
+ * último trozo ubicado, no es segura entre hilos ni siquiera para leer.
+ */
+public class ChunkLayout {
+
+  /**
+   * Arreglos con los datos de la lista, indexados por posición física.
+   */
+  public interface Storage {
+    /**
+     * Los arreglos deben tener lugar para {@code capacity} posiciones físicas, conservando lo que tienen.
+     */
+    void ensureCapacity(int capacity);
+
+    /**
+     * Copia {@code length} elementos de la posición física {@code from} a {@code to}; los tramos pueden solaparse.
+     */
+    void move(int from, int to, int length);
+  }
+
+  // Capacidad mínima del primer trozo, que crece hasta chunkSize antes de que haya otros
+  private static final int MIN_CAPACITY = 16;
+
+  private final int mChunkSize;
+
+  private final int mShift;
+
+  private final int mInitialCapacity;
+
+  private final Storage mStorage;
+
+  // Posiciones físicas que tiene el Storage
+  private int mCapacity;
+
+  // Trozos en orden: la región física de cada uno y su largo
+  private int[] mOrder = new int[4];
+
+  private int[] mLength = new int[4];
+
+  private int mChunkCount;
+
+  // Lugar en el orden de cada región en uso, y regiones libres
+  private int[] mRank = new int[4];
+
+  private int[] mFree = new int[4];
+
+  private int mFreeCount;
+
+  private int mRegionCount;
+
+  // Inicio de cada trozo, como suma de los largos de los anteriores
+  private final PrefixSums mStarts = new PrefixSums();
+
+  private int mSize;
+
+  // Último trozo ubicado: su lugar en el orden, la posición de su primer elemento, la siguiente a la última y su
+  // primera posición física. Sin trozo ubicado, inicio y fin son iguales
+  private int mCachedRank;
+
+  private int mCachedStart;
+
+  private int mCachedEnd;
+
+  private int mCachedBase;
+
+  /**
+   * @param chunkSize Capacidad de cada trozo; una potencia de dos.
+   * @param initialCapacity Posiciones físicas que se piden al Storage con el primer elemento.
+   */
+  public ChunkLayout(int chunkSize, int initialCapacity, Storage storage) {
+    if (chunkSize < 2 || Integer.bitCount(chunkSize) != 1) {
+      throw new IllegalArgumentException("chunkSize " + chunkSize);
+    }
+    mChunkSize = chunkSize;
+    mShift = Integer.numberOfTrailingZeros(chunkSize);
+    mInitialCapacity = initialCapacity;
+    mStorage = storage;
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * @return Posición física del elemento de una posición de la lista.
+   */
+  public int physical(int index) {
+    if (index < mCachedStart || index >= mCachedEnd) {
+      if (index < 0 || index >= mSize) {
+        throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+      }
+      int rank = mStarts.find(index);
+      cache(rank, mStarts.prefix(rank));
+    }
+    return mCachedBase + index - mCachedStart;
+  }
+
+  /**
+   * @return Posición en la lista del elemento que está en una posición física en uso.
+   */
+  public int indexOf(int physical) {
+    int rank = mRank[physical >>> mShift];
+    int start = rank == mCachedRank ? mCachedStart : mStarts.prefix(rank);
+    return start + (physical & (mChunkSize - 1));
+  }
+
+  /**
+   * Hace lugar para un elemento en una posición de la lista, desplazando los siguientes de su trozo.
+   *
+   * @return Posición física donde escribir el elemento nuevo.
+   */
+  public int insert(int index) {
+    if (index < 0 || index > mSize) {
+      throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+    }
+    if (mChunkCount == 0) {
+      insertChunk(0);
+      mStarts.build(mLength, mChunkCount);
+    }
+    int rank;
+    int offset;
+    if (index == mSize) {
+      rank = mChunkCount - 1;
+      offset = mLength[rank];
+    } else {
+      offset = physical(index) - mCachedBase;
+      rank = mCachedRank;
+    }
+    if (offset == 0 && rank > 0 && mLength[rank - 1] < mChunkSize) {
+      // Al principio de un trozo: si el anterior tiene lugar, va al final de ese sin desplazar nada
+      rank--;
+      offset = mLength[rank];
+    }
+    int length = mLength[rank];
+    if (length == mCapacity && length < mChunkSize) {
+      // El único trozo todavía no llegó a su capacidad
+      ensureCapacity(Math.min(mChunkSize, mCapacity * 2));
+    } else if (length == mChunkSize) {
+      if (rank == mChunkCount - 1 && offset == length) {
+        // Agregar al final: un trozo nuevo, así los trozos de una lista armada en orden quedan llenos
+        insertChunk(++rank);
+        offset = 0;
+      } else {
+        int half = mChunkSize / 2;
+        split(rank, half);
+        if (offset > half) {
+          rank++;
+          offset -= half;
+        }
+      }
+      mStarts.build(mLength, mChunkCount);
+      length = mLength[rank];
+    }
+    int base = mOrder[rank] << mShift;
+    mStorage.move(base + offset, base + offset + 1, length - offset);
+    mLength[rank] = length + 1;
+    mStarts.add(rank, 1);
+    mSize++;
+    mCachedRank = rank;
+    mCachedStart = index - offset;
+    mCachedEnd = mCachedStart + length + 1;
+    mCachedBase = base;
+    return base + offset;
+  }
+
+  /**
+   * Quita el elemento de una posición de la lista, desplazando los siguientes de su trozo.
+   */
+  public void remove(int index) {
+    int offset = physical(index) - mCachedBase;
+    int rank = mCachedRank;
+    int start = mCachedStart;
+    int base = mCachedBase;
+    int length = mLength[rank] - 1;
+    mStorage.move(base + offset + 1, base + offset, length - offset);
+    mLength[rank] = length;
+    mSize--;
+    int half = mChunkSize / 2;
+    if (length == 0) {
+      removeChunk(rank);
+    } else if (rank + 1 < mChunkCount && length + mLength[rank + 1] <= half) {
+      merge(rank);
+    } else if (rank > 0 && length + mLength[rank - 1] <= half) {
+      merge(rank - 1);
+    } else {
+      mStarts.add(rank, -1);
+      mCachedEnd = start + length;
+      return;
+    }
+    mStarts.build(mLength, mChunkCount);
+  }
+
+  /**
+   * Vacía la lista; el Storage conserva su capacidad.
+   */
+  public void clear() {
+    mChunkCount = 0;
+    mRegionCount = 0;
+    mFreeCount = 0;
+    mSize = 0;
+    mStarts.clear();
+    uncache();
+  }
+
+  /**
+   * @return Trozos en uso; junto con {@link #getChunkBase} y {@link #getChunkLength} permite recorrer la lista en
+   *         orden sin ubicar cada posición.
+   */
+  public int getChunkCount() {
+    return mChunkCount;
+  }
+
+  /**
+   * @return Posición física del primer elemento de un trozo; los demás le siguen.
+   */
+  public int getChunkBase(int rank) {
+    return mOrder[rank] << mShift;
+  }
+
+  public int getChunkLength(int rank) {
+    return mLength[rank];
+  }
+
+  private void cache(int rank, int start) {
+    mCachedRank = rank;
+    mCachedStart = start;
+    mCachedEnd = start + mLength[rank];
+    mCachedBase = mOrder[rank] << mShift;
+  }
+
+  private void uncache() {
+    mCachedRank = -1;
+    mCachedStart = 0;
+    mCachedEnd = 0;
+  }
+
+  /**
+   * Pasa la segunda mitad de un trozo lleno a un trozo nuevo que le sigue.
+   */
+  private void split(int rank, int half) {
+    insertChunk(rank + 1);
+    mStorage.move((mOrder[rank] << mShift) + half, mOrder[rank + 1] << mShift, mLength[rank] - half);
+    mLength[rank + 1] = mLength[rank] - half;
+    mLength[rank] = half;
+  }
+
+  /**
+   * Pasa el trozo que sigue a uno al final de éste y lo quita.
+   */
+  private void merge(int rank) {
+    int next = rank + 1;
+    mStorage.move(mOrder[next] << mShift, (mOrder[rank] << mShift) + mLength[rank], mLength[next]);
+    mLength[rank] += mLength[next];
+    removeChunk(next);
+  }
+
+  /**
+   * Agrega un trozo vacío en un lugar del orden. Hay que rearmar los inicios después.
+   */
+  private void insertChunk(int rank) {
+    int region = newRegion();
+    if (mChunkCount == mOrder.length) {
+      mOrder = Arrays.copyOf(mOrder, mChunkCount * 2);
+      mLength = Arrays.copyOf(mLength, mChunkCount * 2);
+    }
+    System.arraycopy(mOrder, rank, mOrder, rank + 1, mChunkCount - rank);
+    System.arraycopy(mLength, rank, mLength, rank + 1, mChunkCount - rank);
+    mOrder[rank] = region;
+    mLength[rank] = 0;
+    mChunkCount++;
+    renumber(rank);
+  }
+
+  /**
+   * Quita un trozo del orden y libera su región. Hay que rearmar los inicios después.
+   */
+  private void removeChunk(int rank) {
+    mFree[mFreeCount++] = mOrder[rank];
+    System.arraycopy(mOrder, rank + 1, mOrder, rank, mChunkCount - rank - 1);
+    System.arraycopy(mLength, rank + 1, mLength, rank, mChunkCount - rank - 1);
+    mChunkCount--;
+    renumber(rank);
+  }
+
+  private void renumber(int fromRank) {
+    for (int r = fromRank; r < mChunkCount; r++) {
+      mRank[mOrder[r]] = r;
+    }
+    uncache();
+  }
+
+  private int newRegion() {
+    if (mFreeCount > 0) {
+      return mFree[--mFreeCount];
+    }
+    int region = mRegionCount++;
+    if (region == mRank.length) {
+      mRank = Arrays.copyOf(mRank, region * 2);
+      mFree = Arrays.copyOf(mFree, region * 2);
+    }
+    if (region == 0) {
+      // Una lista corta no ocupa un trozo entero
+      int capacity = mInitialCapacity > mChunkSize
+          ? (mInitialCapacity + mChunkSize - 1) & -mChunkSize
+          : Math.min(mChunkSize, Math.max(mInitialCapacity, MIN_CAPACITY));
+      if (capacity > mCapacity) {
+        ensureCapacity(capacity);
+      }
+    } else if ((region + 1) << mShift > mCapacity) {
+      ensureCapacity(Math.max((region + 1) << mShift, mCapacity * 2));
+    }
+    return region;
+  }
+
+  private void ensureCapacity(int capacity) {
+    mStorage.ensureCapacity(capacity);
+    mCapacity = capacity;
+  }
+}
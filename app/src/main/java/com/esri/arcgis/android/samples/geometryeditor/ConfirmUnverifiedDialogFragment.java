@@ -0,0 +1,93 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.app.DialogFragment;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * Esta clase implementa un DialogFragment que pregunta al usuario si vuelve a enviar las entidades que el servidor
+ * pudo haber guardado sin confirmarlo. Si lo cierra sin elegir, siguen retenidas.
+ */
+public class ConfirmUnverifiedDialogFragment extends DialogFragment {
+  String mMessage;
+
+  View.OnClickListener mYesListener;
+
+  View.OnClickListener mNoListener;
+
+  // Constructor
+  public ConfirmUnverifiedDialogFragment() {
+  }
+
+  /**
+   * Mensaje de Usuario.
+   *
+   * @param message
+   */
+  public void setMessage(String message) {
+    mMessage = message;
+  }
+
+  /**
+   * Establece el listener del botón que las vuelve a enviar.
+   *
+   * @param listener
+   */
+  public void setYesListener(View.OnClickListener listener) {
+    mYesListener = listener;
+  }
+
+  /**
+   * Establece el listener del botón que las da por guardadas.
+   *
+   * @param listener
+   */
+  public void setNoListener(View.OnClickListener listener) {
+    mNoListener = listener;
+  }
+
+  //crear la actividad
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setStyle(DialogFragment.STYLE_NORMAL, 0);
+  }
+
+  //Metodo que representa la interface de nuestros componentes
+  @Override
+  public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+    View view = inflater.inflate(R.layout.confirm_unverified, container, false);
+    getDialog().setTitle(R.string.title_confirm_unverified);
+    TextView textView = (TextView) view.findViewById(R.id.unverified_msg);
+    textView.setText(mMessage);
+    Button button = (Button) view.findViewById(R.id.no_key);
+    if (mNoListener != null) {
+      button.setOnClickListener(mNoListener);
+    }
+    button = (Button) view.findViewById(R.id.yes_key);
+    if (mYesListener != null) {
+      button.setOnClickListener(mYesListener);
+    }
+    return view;
+  }
+}
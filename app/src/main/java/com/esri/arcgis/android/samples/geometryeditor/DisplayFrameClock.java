@@ -0,0 +1,95 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reloj de cuadros de la pantalla. Usa el {@link Choreographer} desde Jelly Bean; en versiones anteriores lo
+ * aproxima con el {@link Handler} del hilo principal y un intervalo de {@value #FALLBACK_FRAME_MS} ms.
+ */
+public class DisplayFrameClock implements RefreshScheduler.FrameClock {
+
+  // Un cuadro a 60 Hz
+  static final long FALLBACK_FRAME_MS = 16;
+
+  private final Handler mHandler;
+
+  // Llamadas del Choreographer ya creadas para cada tarea, para poder quitarlas
+  private final Map<Runnable, Object> mCallbacks = new HashMap<Runnable, Object>();
+
+  /**
+   * @param handler Handler del hilo principal; sólo se usa antes de Jelly Bean.
+   */
+  public DisplayFrameClock(Handler handler) {
+    mHandler = handler;
+  }
+
+  @Override
+  public void postFrameCallback(Runnable task) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      Object callback = mCallbacks.get(task);
+      if (callback == null) {
+        callback = Frames.wrap(task);
+        mCallbacks.put(task, callback);
+      }
+      Frames.post(callback);
+    } else {
+      mHandler.postDelayed(task, FALLBACK_FRAME_MS);
+    }
+  }
+
+  @Override
+  public void removeFrameCallback(Runnable task) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      Object callback = mCallbacks.get(task);
+      if (callback != null) {
+        Frames.remove(callback);
+      }
+    } else {
+      mHandler.removeCallbacks(task);
+    }
+  }
+
+  /**
+   * Acceso al {@link Choreographer} aislado en su propia clase, que sólo se carga desde Jelly Bean.
+   */
+  private static class Frames {
+
+    static Object wrap(final Runnable task) {
+      return new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          task.run();
+        }
+      };
+    }
+
+    static void post(Object callback) {
+      Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) callback);
+    }
+
+    static void remove(Object callback) {
+      Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) callback);
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.IOException;
+
+/**
+ * Registro de deshacer / rehacer basado en deltas. Cada operación (insertar, mover o eliminar un vértice) se guarda
+ * como una entrada de tamaño fijo en arreglos primitivos, de modo que el costo de memoria por edición es constante
+ * y no depende del número de vértices del boceto.
+ * <p>
+ * Las entradas se guardan en un buffer circular: cuando se alcanza el presupuesto de memoria se descarta la
+ * operación más antigua.
+ */
+public class EditHistory {
+
+  /**
+   * Destino sobre el que se aplican las operaciones al deshacer o rehacer.
+   */
+  public interface Target {
+    void insertVertex(int index, double x, double y);
+
+    void moveVertex(int index, double x, double y);
+
+    void removeVertex(int index);
+  }
+
+  // Tamaño aproximado de una entrada: tipo, índice y cuatro coordenadas
+  public static final int BYTES_PER_ENTRY = 1 + 4 + 4 * 8;
+
+  // Presupuesto por defecto, unas 7000 operaciones
+  public static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+  private static final byte INSERT = 1;
+
+  private static final byte MOVE = 2;
+
+  private static final byte DELETE = 3;
+
+  private final int capacity;
+
+  private final byte[] types;
+
+  private final int[] indices;
+
+  // Coordenadas de origen (mover / eliminar)
+  private final double[] fromX;
+
+  private final double[] fromY;
+
+  // Coordenadas de destino (insertar / mover)
+  private final double[] toX;
+
+  private final double[] toY;
+
+  // Posición de la entrada más antigua en el buffer
+  private int head;
+
+  // Número de operaciones que se pueden deshacer
+  private int undoCount;
+
+  // Número de operaciones que se pueden rehacer
+  private int redoCount;
+
+  public EditHistory() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes Presupuesto de memoria del registro.
+   */
+  public EditHistory(int maxBytes) {
+    capacity = Math.max(1, maxBytes / BYTES_PER_ENTRY);
+    types = new byte[capacity];
+    indices = new int[capacity];
+    fromX = new double[capacity];
+    fromY = new double[capacity];
+    toX = new double[capacity];
+    toY = new double[capacity];
+  }
+
+  /**
+   * Registra la inserción de un vértice.
+   */
+  public void recordInsert(int index, double x, double y) {
+    record(INSERT, index, 0, 0, x, y);
+  }
+
+  /**
+   * Registra el desplazamiento de un vértice.
+   */
+  public void recordMove(int index, double oldX, double oldY, double newX, double newY) {
+    record(MOVE, index, oldX, oldY, newX, newY);
+  }
+
+  /**
+   * Registra la eliminación de un vértice junto con sus coordenadas.
+   */
+  public void recordDelete(int index, double x, double y) {
+    record(DELETE, index, x, y, 0, 0);
+  }
+
+  private void record(byte type, int index, double x0, double y0, double x1, double y1) {
+    // Una nueva operación invalida lo que se podía rehacer
+    redoCount = 0;
+    if (undoCount == capacity) {
+      head = (head + 1) % capacity;
+      undoCount--;
+    }
+    int pos = (head + undoCount) % capacity;
+    types[pos] = type;
+    indices[pos] = index;
+    fromX[pos] = x0;
+    fromY[pos] = y0;
+    toX[pos] = x1;
+    toY[pos] = y1;
+    undoCount++;
+  }
+
+  /**
+   * Aplica la inversa de la última operación.
+   *
+   * @return false si no hay nada que deshacer.
+   */
+  public boolean undo(Target target) {
+    if (undoCount == 0) {
+      return false;
+    }
+    int pos = (head + undoCount - 1) % capacity;
+    switch (types[pos]) {
+      case INSERT:
+        target.removeVertex(indices[pos]);
+        break;
+      case MOVE:
+        target.moveVertex(indices[pos], fromX[pos], fromY[pos]);
+        break;
+      case DELETE:
+        target.insertVertex(indices[pos], fromX[pos], fromY[pos]);
+        break;
+    }
+    undoCount--;
+    redoCount++;
+    return true;
+  }
+
+  /**
+   * Vuelve a aplicar la última operación deshecha.
+   *
+   * @return false si no hay nada que rehacer.
+   */
+  public boolean redo(Target target) {
+    if (redoCount == 0) {
+      return false;
+    }
+    int pos = (head + undoCount) % capacity;
+    switch (types[pos]) {
+      case INSERT:
+        target.insertVertex(indices[pos], toX[pos], toY[pos]);
+        break;
+      case MOVE:
+        target.moveVertex(indices[pos], toX[pos], toY[pos]);
+        break;
+      case DELETE:
+        target.removeVertex(indices[pos]);
+        break;
+    }
+    undoCount++;
+    redoCount--;
+    return true;
+  }
+
+  public boolean canUndo() {
+    return undoCount > 0;
+  }
+
+  public boolean canRedo() {
+    return redoCount > 0;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Escribe las entradas, de la más antigua a la más nueva, incluidas las que se pueden rehacer.
+   */
+  void writeTo(SketchSnapshot.Writer out) {
+    int total = undoCount + redoCount;
+    out.writeVarint(undoCount);
+    out.writeVarint(redoCount);
+    for (int k = 0; k < total; k++) {
+      int pos = (head + k) % capacity;
+      out.writeByte(types[pos]);
+      out.writeVarint(indices[pos]);
+      if (types[pos] != INSERT) {
+        out.writePoint(fromX[pos], fromY[pos]);
+      }
+      if (types[pos] != DELETE) {
+        out.writePoint(toX[pos], toY[pos]);
+      }
+    }
+  }
+
+  /**
+   * Reemplaza el registro por lo escrito con {@link #writeTo}. Si trae más entradas de las que caben, se descartan
+   * las más antiguas.
+   */
+  void readFrom(SketchSnapshot.Reader in) throws IOException {
+    clear();
+    int undo = (int) in.readVarint();
+    int redo = (int) in.readVarint();
+    int total = undo + redo;
+    for (int k = 0; k < total; k++) {
+      int pos = k % capacity;
+      types[pos] = in.readByte();
+      indices[pos] = (int) in.readVarint();
+      if (types[pos] != INSERT) {
+        in.readPoint();
+        fromX[pos] = in.getX();
+        fromY[pos] = in.getY();
+      }
+      if (types[pos] != DELETE) {
+        in.readPoint();
+        toX[pos] = in.getX();
+        toY[pos] = in.getY();
+      }
+    }
+    int dropped = Math.max(0, total - capacity);
+    if (dropped > undo) {
+      // Ni siquiera caben las operaciones que se pueden rehacer
+      clear();
+      return;
+    }
+    head = dropped % capacity;
+    undoCount = undo - dropped;
+    redoCount = redo;
+  }
+
+  /**
+   * Borra el registro completo.
+   */
+  public void clear() {
+    head = 0;
+    undoCount = 0;
+    redoCount = 0;
+  }
+}
@@ -0,0 +1,456 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de altas pendientes guardado en el dispositivo. Es un registro binario de sólo agregado: cada alta guarda
+ * la URL de la capa, el nombre de la plantilla y la geometría del boceto, y cada confirmación del servidor agrega
+ * un registro de acuse. Las escrituras se acumulan en memoria y se llevan al disco con un solo fsync en
+ * {@link #sync()}.
+ * <p>
+ * {@link #append} y {@link #acknowledge} sólo tocan la memoria y se pueden llamar desde el hilo de la interfaz
+ * mientras otro hilo ejecuta {@link #sync()}: el disco, el fsync y la compactación se hacen fuera del bloqueo que
+ * comparten. Lo que se agrega durante una sincronización va al disco en la siguiente.
+ * <p>
+ * Cada registro lleva su longitud y un CRC32; al abrir el diario se descarta un registro final incompleto o
+ * dañado (por ejemplo tras un corte de energía a mitad de escritura). Cuando los acuses superan a las altas
+ * pendientes el diario se compacta reescribiendo sólo las pendientes en un archivo nuevo que reemplaza al anterior.
+ * <p>
+ * Cada alta lleva una clave de cliente al azar, guardada con ella, que identifica la entidad en el servidor aunque
+ * se reenvíe en otra sesión. Los números de alta no sirven para eso porque vuelven a empezar cuando el diario se
+ * vacía y se compacta.
+ */
+public class EditJournal {
+
+  public static final byte POINT = 0;
+
+  public static final byte POLYLINE = 1;
+
+  public static final byte POLYGON = 2;
+
+  private static final int MAGIC = 0x454A3031; // "EJ01"
+
+  private static final byte RECORD_ADD = 1;
+
+  private static final byte RECORD_ACK = 2;
+
+  // Alta con su clave de cliente; los diarios anteriores sólo tienen RECORD_ADD
+  private static final byte RECORD_ADD_KEYED = 3;
+
+  // Acuses acumulados a partir de los cuales se considera compactar
+  private static final int COMPACT_THRESHOLD = 64;
+
+  // Tamaño máximo aceptado para un registro al leer, para no confiar en una longitud dañada
+  private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * Un alta pendiente de subir al servidor.
+   */
+  public static class Entry {
+    private final long seq;
+
+    private final String layerUrl;
+
+    private final String templateName;
+
+    private final byte geometryType;
+
+    private final double[] coords;
+
+    private final String clientKey;
+
+    Entry(long seq, String clientKey, String layerUrl, String templateName, byte geometryType, double[] coords) {
+      this.seq = seq;
+      this.clientKey = clientKey;
+      this.layerUrl = layerUrl;
+      this.templateName = templateName;
+      this.geometryType = geometryType;
+      this.coords = coords;
+    }
+
+    public long getSeq() {
+      return seq;
+    }
+
+    /**
+     * @return Clave única del alta, que se guarda con la entidad para encontrarla en el servidor.
+     */
+    public String getClientKey() {
+      return clientKey;
+    }
+
+    public String getLayerUrl() {
+      return layerUrl;
+    }
+
+    public String getTemplateName() {
+      return templateName;
+    }
+
+    public byte getGeometryType() {
+      return geometryType;
+    }
+
+    /**
+     * @return Coordenadas intercaladas x0, y0, x1, y1, ...
+     */
+    public double[] getCoords() {
+      return coords;
+    }
+  }
+
+  private final File mFile;
+
+  private final Map<Long, Entry> mPending = new LinkedHashMap<Long, Entry>();
+
+  private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+
+  private final ByteArrayOutputStream mRecord = new ByteArrayOutputStream();
+
+  private final CRC32 mCrc = new CRC32();
+
+  // Sólo lo usa quien tiene mSyncLock
+  private FileOutputStream mOut;
+
+  // Una sincronización a la vez; se toma antes que el bloqueo del diario
+  private final Object mSyncLock = new Object();
+
+  private long mNextSeq = 1;
+
+  // Última alta que ya está en el disco
+  private long mSyncedSeq;
+
+  private int mAckCount;
+
+  /**
+   * Abre el diario, recuperando las altas pendientes y descartando un registro final dañado.
+   */
+  public EditJournal(File file) throws IOException {
+    mFile = file;
+    File tmp = compactionFile();
+    if (tmp.exists() && !tmp.delete()) {
+      throw new IOException("No se pudo borrar " + tmp);
+    }
+    long valid = recover();
+    RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+    try {
+      if (valid == 0) {
+        raf.setLength(0);
+        raf.writeInt(MAGIC);
+        raf.getFD().sync();
+      } else if (raf.length() != valid) {
+        raf.setLength(valid);
+        raf.getFD().sync();
+      }
+    } finally {
+      raf.close();
+    }
+    mOut = new FileOutputStream(mFile, true);
+    mSyncedSeq = mNextSeq - 1;
+  }
+
+  /**
+   * Agrega un alta al diario. Queda en memoria hasta la siguiente llamada a {@link #sync()}.
+   */
+  public synchronized Entry append(String layerUrl, String templateName, byte geometryType, double[] coords)
+      throws IOException {
+    Entry entry = new Entry(mNextSeq++, newClientKey(), layerUrl, templateName, geometryType, coords);
+    writeAdd(entry, mBuffer);
+    mPending.put(entry.getSeq(), entry);
+    return entry;
+  }
+
+  /**
+   * Registra que el servidor confirmó (o rechazó definitivamente) un alta. Queda en memoria hasta la siguiente
+   * llamada a {@link #sync()}.
+   */
+  public synchronized void acknowledge(long seq) throws IOException {
+    if (mPending.remove(seq) == null) {
+      return;
+    }
+    DataOutputStream out = beginRecord(RECORD_ACK);
+    out.writeLong(seq);
+    endRecord(mBuffer);
+    mAckCount++;
+  }
+
+  /**
+   * Lleva al disco todo lo agregado desde la última sincronización con un solo fsync, y compacta el diario si
+   * hay muchos acuses. Se llama desde un hilo de fondo; las altas y acuses agregados mientras tanto esperan a la
+   * siguiente llamada.
+   */
+  public void sync() throws IOException {
+    synchronized (mSyncLock) {
+      flushBuffer();
+      boolean compact;
+      synchronized (this) {
+        compact = mAckCount >= COMPACT_THRESHOLD && mAckCount > mPending.size();
+      }
+      if (compact) {
+        rewrite();
+      }
+    }
+  }
+
+  /**
+   * @return Número de secuencia de la última alta que ya está en el disco.
+   */
+  public synchronized long getSyncedSeq() {
+    return mSyncedSeq;
+  }
+
+  /**
+   * @return Altas pendientes en el orden en que se agregaron.
+   */
+  public synchronized List<Entry> getPending() {
+    return new ArrayList<Entry>(mPending.values());
+  }
+
+  public synchronized int getPendingCount() {
+    return mPending.size();
+  }
+
+  /**
+   * Reescribe el diario con sólo las altas pendientes. El archivo nuevo se escribe aparte y luego reemplaza al
+   * anterior con un renombrado, de modo que un corte a mitad deja intacto el diario original.
+   */
+  public void compact() throws IOException {
+    synchronized (mSyncLock) {
+      flushBuffer();
+      rewrite();
+    }
+  }
+
+  public void close() throws IOException {
+    synchronized (mSyncLock) {
+      sync();
+      mOut.close();
+    }
+  }
+
+  /**
+   * Escribe lo acumulado en memoria. El bloqueo del diario sólo se toma para tomar el búfer, no durante el fsync.
+   */
+  private void flushBuffer() throws IOException {
+    byte[] data;
+    long seq;
+    synchronized (this) {
+      data = mBuffer.toByteArray();
+      mBuffer.reset();
+      seq = mNextSeq - 1;
+    }
+    if (data.length > 0) {
+      mOut.write(data);
+      mOut.flush();
+      mOut.getFD().sync();
+    }
+    synchronized (this) {
+      mSyncedSeq = seq;
+    }
+  }
+
+  /**
+   * Reemplaza el diario por uno con sólo las altas pendientes. El estado en memoria (acuses, búfer y archivo
+   * abierto) sólo cambia si el renombrado sale bien; si falla, el diario sigue escribiendo en el archivo anterior y
+   * la siguiente sincronización vuelve a intentar la compactación.
+   */
+  private void rewrite() throws IOException {
+    byte[] snapshot;
+    int buffered;
+    int acks;
+    long seq;
+    synchronized (this) {
+      ByteArrayOutputStream data = new ByteArrayOutputStream();
+      new DataOutputStream(data).writeInt(MAGIC);
+      for (Entry entry : mPending.values()) {
+        writeAdd(entry, data);
+      }
+      snapshot = data.toByteArray();
+      // Lo agregado después de flushBuffer ya está en la foto de las altas pendientes
+      buffered = mBuffer.size();
+      acks = mAckCount;
+      seq = mNextSeq - 1;
+    }
+    File tmp = compactionFile();
+    // El archivo nuevo queda abierto: después del renombrado es el diario, sin tener que volver a abrirlo
+    FileOutputStream out = new FileOutputStream(tmp);
+    boolean replaced = false;
+    try {
+      out.write(snapshot);
+      out.flush();
+      out.getFD().sync();
+      if (!tmp.renameTo(mFile)) {
+        throw new IOException("No se pudo reemplazar " + mFile);
+      }
+      replaced = true;
+    } finally {
+      if (!replaced) {
+        try {
+          out.close();
+        } finally {
+          tmp.delete();
+        }
+      }
+    }
+    FileOutputStream old = mOut;
+    mOut = out;
+    synchronized (this) {
+      byte[] data = mBuffer.toByteArray();
+      mBuffer.reset();
+      mBuffer.write(data, buffered, data.length - buffered);
+      mAckCount -= acks;
+      mSyncedSeq = seq;
+    }
+    try {
+      old.close();
+    } catch (IOException e) {
+      // El archivo anterior ya no es el diario
+    }
+  }
+
+  /**
+   * Lee el diario existente.
+   *
+   * @return Longitud de la parte válida del archivo, 0 si hay que empezar uno nuevo.
+   */
+  private long recover() throws IOException {
+    if (!mFile.exists() || mFile.length() < 4) {
+      return 0;
+    }
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+    try {
+      if (in.readInt() != MAGIC) {
+        return 0;
+      }
+      long valid = 4;
+      while (true) {
+        int length;
+        int crc;
+        byte[] data;
+        try {
+          length = in.readInt();
+          crc = in.readInt();
+          if (length < 1 || length > MAX_RECORD_BYTES) {
+            break;
+          }
+          data = new byte[length];
+          in.readFully(data);
+        } catch (EOFException e) {
+          // Registro incompleto al final: se descarta
+          break;
+        }
+        mCrc.reset();
+        mCrc.update(data, 0, length);
+        if ((int) mCrc.getValue() != crc) {
+          break;
+        }
+        apply(data);
+        valid += 8 + length;
+      }
+      return valid;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void apply(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    byte type = in.readByte();
+    if (type == RECORD_ADD || type == RECORD_ADD_KEYED) {
+      long seq = in.readLong();
+      // Las altas anteriores a las claves se enviaron sin ella: reciben una nueva
+      String clientKey = type == RECORD_ADD_KEYED ? in.readUTF() : newClientKey();
+      String layerUrl = in.readUTF();
+      String templateName = in.readUTF();
+      byte geometryType = in.readByte();
+      int count = in.readInt();
+      double[] coords = new double[count];
+      for (int i = 0; i < count; i++) {
+        coords[i] = in.readDouble();
+      }
+      mPending.put(seq, new Entry(seq, clientKey, layerUrl, templateName, geometryType, coords));
+      mNextSeq = Math.max(mNextSeq, seq + 1);
+    } else if (type == RECORD_ACK) {
+      long seq = in.readLong();
+      if (mPending.remove(seq) != null) {
+        mAckCount++;
+      }
+      mNextSeq = Math.max(mNextSeq, seq + 1);
+    }
+  }
+
+  private void writeAdd(Entry entry, ByteArrayOutputStream target) throws IOException {
+    DataOutputStream out = beginRecord(RECORD_ADD_KEYED);
+    out.writeLong(entry.getSeq());
+    out.writeUTF(entry.getClientKey());
+    out.writeUTF(entry.getLayerUrl());
+    out.writeUTF(entry.getTemplateName());
+    out.writeByte(entry.getGeometryType());
+    double[] coords = entry.getCoords();
+    out.writeInt(coords.length);
+    for (double c : coords) {
+      out.writeDouble(c);
+    }
+    endRecord(target);
+  }
+
+  private static String newClientKey() {
+    return UUID.randomUUID().toString();
+  }
+
+  private DataOutputStream beginRecord(byte type) throws IOException {
+    mRecord.reset();
+    DataOutputStream out = new DataOutputStream(mRecord);
+    out.writeByte(type);
+    return out;
+  }
+
+  /**
+   * Agrega el registro en construcción al destino precedido de su longitud y su CRC32.
+   */
+  private void endRecord(ByteArrayOutputStream target) throws IOException {
+    byte[] data = mRecord.toByteArray();
+    mCrc.reset();
+    mCrc.update(data, 0, data.length);
+    DataOutputStream out = new DataOutputStream(target);
+    out.writeInt(data.length);
+    out.writeInt((int) mCrc.getValue());
+    out.write(data);
+  }
+
+  private File compactionFile() {
+    return new File(mFile.getPath() + ".tmp");
+  }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Medición de los caminos críticos del editor: un histograma de latencias por temporizador y contadores simples.
+ * Registrar una medición no asigna memoria; desactivada, cada punto de medición se reduce a leer un booleano.
+ * <p>
+ * Uso típico:
+ *
+ * <pre>
+ * long start = EditorMetrics.start();
+ * ...
+ * EditorMetrics.stop(EditorMetrics.REFRESH, start);
+ * </pre>
+ */
+public final class EditorMetrics {
+
+  // Temporizadores
+
+  public static final int TAP = 0;
+
+  public static final int REFRESH = 1;
+
+  public static final int ACTION_BAR = 2;
+
+  public static final int TEMPLATE_CATALOG = 3;
+
+  public static final int SAVE_ROUND_TRIP = 4;
+
+  public static final int DRAG = 5;
+
+  public static final int SKETCH_SAVE = 6;
+
+  public static final int SKETCH_RESTORE = 7;
+
+  public static final int SNAP = 8;
+
+  public static final int SAVE_PREPARE = 9;
+
+  private static final String[] TIMER_NAMES = {
+      "handleTap", "refresh", "updateActionBar", "templateCatalog", "saveRoundTrip", "dragMove", "sketchSave",
+      "sketchRestore", "snap", "savePrepare"
+  };
+
+  // Contadores
+
+  public static final int FEATURES_SAVED = 0;
+
+  public static final int FEATURES_FAILED = 1;
+
+  public static final int CATALOG_BUILDS = 2;
+
+  public static final int REFRESH_REQUESTS = 3;
+
+  public static final int FRAMES_RENDERED = 4;
+
+  public static final int FEATURE_CACHE_HITS = 5;
+
+  public static final int FEATURE_CACHE_MISSES = 6;
+
+  public static final int SAVES_CANCELLED = 7;
+
+  private static final String[] COUNTER_NAMES = {
+      "featuresSaved", "featuresFailed", "catalogBuilds", "refreshRequests", "framesRendered", "featureCacheHits",
+      "featureCacheMisses", "savesCancelled"
+  };
+
+  private static final LatencyHistogram[] sTimers = new LatencyHistogram[TIMER_NAMES.length];
+
+  private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_NAMES.length);
+
+  private static volatile boolean sEnabled;
+
+  static {
+    for (int i = 0; i < sTimers.length; i++) {
+      sTimers[i] = new LatencyHistogram();
+    }
+  }
+
+  private EditorMetrics() {
+  }
+
+  public static void setEnabled(boolean enabled) {
+    sEnabled = enabled;
+  }
+
+  public static boolean isEnabled() {
+    return sEnabled;
+  }
+
+  /**
+   * @return Marca de tiempo para {@link #stop}, o 0 si la medición está desactivada.
+   */
+  public static long start() {
+    return sEnabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Registra el tiempo transcurrido desde {@link #start()}.
+   */
+  public static void stop(int timer, long start) {
+    if (start != 0) {
+      record(timer, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Registra una duración medida por otros medios, por ejemplo entre dos llamadas de retorno.
+   */
+  public static void record(int timer, long nanos) {
+    if (!sEnabled) {
+      return;
+    }
+    LatencyHistogram histogram = sTimers[timer];
+    synchronized (histogram) {
+      histogram.record(nanos);
+    }
+  }
+
+  public static void increment(int counter) {
+    add(counter, 1);
+  }
+
+  public static void add(int counter, long delta) {
+    if (sEnabled) {
+      sCounters.addAndGet(counter, delta);
+    }
+  }
+
+  public static void reset() {
+    for (LatencyHistogram histogram : sTimers) {
+      synchronized (histogram) {
+        histogram.reset();
+      }
+    }
+    for (int i = 0; i < COUNTER_NAMES.length; i++) {
+      sCounters.set(i, 0);
+    }
+  }
+
+  /**
+   * Escribe una instantánea legible de todas las mediciones, una línea por temporizador o contador, con los
+   * tiempos en microsegundos.
+   */
+  public static void report(Appendable out) throws IOException {
+    LatencyHistogram snapshot = new LatencyHistogram();
+    for (int i = 0; i < sTimers.length; i++) {
+      synchronized (sTimers[i]) {
+        sTimers[i].copyInto(snapshot);
+      }
+      out.append(String.format(Locale.US, "%-16s n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f mean=%.1f us%n",
+          TIMER_NAMES[i], snapshot.getCount(), micros(snapshot.getValueAtPercentile(50)),
+          micros(snapshot.getValueAtPercentile(90)), micros(snapshot.getValueAtPercentile(99)),
+          micros(snapshot.getMax()), snapshot.getMean() / 1000));
+    }
+    for (int i = 0; i < COUNTER_NAMES.length; i++) {
+      out.append(String.format(Locale.US, "%-16s %d%n", COUNTER_NAMES[i], sCounters.get(i)));
+    }
+  }
+
+  private static double micros(long nanos) {
+    return nanos / 1000.0;
+  }
+}
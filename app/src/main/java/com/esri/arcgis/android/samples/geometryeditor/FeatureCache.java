@@ -0,0 +1,514 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché de respuestas de consultas a capas de entidades, en dos niveles: uno en memoria y otro en disco, ambos LRU
+ * y acotados en bytes. La clave es la capa y la consulta, que para las capas ONDEMAND lleva el recuadro de la
+ * porción del mapa pedida, alineado por {@link FeatureCacheProxy} a una rejilla fija; así una edición nuestra sólo
+ * invalida las porciones que toca.
+ * <p>
+ * El disco guarda un archivo por respuesta, con la clave completa en la cabecera para descartar colisiones del
+ * nombre. El orden de uso se guarda en la fecha de modificación de los archivos, así que sobrevive a reiniciar la
+ * aplicación. El índice del disco se carga la primera vez que se usa la caché, fuera del hilo de la interfaz.
+ * <p>
+ * Es seguro entre hilos; la lectura y escritura de los archivos se hace fuera del bloqueo. Una consulta que salió a
+ * la red antes de una invalidación puede volver después: cada capa lleva una generación que cambia al invalidarla,
+ * y {@link #put} descarta las respuestas pedidas con una generación anterior.
+ */
+public class FeatureCache {
+
+  private static final int MAGIC = 0x46433031; // "FC01"
+
+  private static final String SUFFIX = ".fc";
+
+  /**
+   * Una consulta a una capa. El recuadro es NaN si la consulta no lo tiene.
+   */
+  public static class Key {
+    private final String layer;
+
+    private final String query;
+
+    private final double xmin;
+
+    private final double ymin;
+
+    private final double xmax;
+
+    private final double ymax;
+
+    /**
+     * @param layer URL de la capa.
+     * @param query Parámetros de la consulta, tal como se envían.
+     */
+    public Key(String layer, String query, double xmin, double ymin, double xmax, double ymax) {
+      this.layer = layer;
+      this.query = query;
+      this.xmin = xmin;
+      this.ymin = ymin;
+      this.xmax = xmax;
+      this.ymax = ymax;
+    }
+
+    public String getLayer() {
+      return layer;
+    }
+
+    public String getQuery() {
+      return query;
+    }
+
+    boolean intersects(double xmin, double ymin, double xmax, double ymax) {
+      // Sin recuadro conocido se supone que la consulta puede incluir cualquier entidad
+      return Double.isNaN(this.xmin) || (this.xmin <= xmax && xmin <= this.xmax && this.ymin <= ymax
+          && ymin <= this.ymax);
+    }
+
+    String id() {
+      return layer + '?' + query;
+    }
+  }
+
+  /**
+   * Una respuesta guardada.
+   */
+  public static class Response {
+    private final String contentType;
+
+    private final byte[] body;
+
+    private final long storedAt;
+
+    public Response(String contentType, byte[] body, long storedAt) {
+      this.contentType = contentType;
+      this.body = body;
+      this.storedAt = storedAt;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+
+    public long getStoredAt() {
+      return storedAt;
+    }
+
+    int size() {
+      return body.length + contentType.length() * 2 + 64;
+    }
+  }
+
+  private static class Memory {
+    final Key key;
+
+    final Response response;
+
+    Memory(Key key, Response response) {
+      this.key = key;
+      this.response = response;
+    }
+  }
+
+  private static class Disk {
+    final Key key;
+
+    final File file;
+
+    final long size;
+
+    Disk(Key key, File file) {
+      this.key = key;
+      this.file = file;
+      this.size = file.length();
+    }
+  }
+
+  private final File mDir;
+
+  private final long mMaxMemoryBytes;
+
+  private final long mMaxDiskBytes;
+
+  private final long mMaxAgeMillis;
+
+  // Ordenados del menos al más recientemente usado
+  private final LinkedHashMap<String, Memory> mMemory = new LinkedHashMap<String, Memory>(16, 0.75f, true);
+
+  private final LinkedHashMap<String, Disk> mDisk = new LinkedHashMap<String, Disk>(16, 0.75f, true);
+
+  private long mMemoryBytes;
+
+  private long mDiskBytes;
+
+  private boolean mLoaded;
+
+  // Invalidaciones de cada capa
+  private final HashMap<String, Long> mGenerations = new HashMap<String, Long>();
+
+  private long mTempCounter;
+
+  /**
+   * @param dir Directorio del nivel en disco; se crea si no existe.
+   * @param maxMemoryBytes Bytes máximos en memoria.
+   * @param maxDiskBytes Bytes máximos en disco.
+   * @param maxAgeMillis Edad a partir de la cual una respuesta se vuelve a pedir, por los cambios de otros usuarios.
+   */
+  public FeatureCache(File dir, long maxMemoryBytes, long maxDiskBytes, long maxAgeMillis) {
+    mDir = dir;
+    mMaxMemoryBytes = maxMemoryBytes;
+    mMaxDiskBytes = maxDiskBytes;
+    mMaxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * Busca una respuesta, primero en memoria y luego en disco; la del disco sube a memoria.
+   *
+   * @return La respuesta, o null si no está o es más vieja que la edad máxima.
+   */
+  public Response get(Key key) {
+    String id = key.id();
+    Disk disk;
+    synchronized (this) {
+      load();
+      Memory memory = mMemory.get(id);
+      if (memory != null) {
+        if (isFresh(memory.response)) {
+          // También cuenta como uso en el disco, para que no se descarte primero allí
+          mDisk.get(id);
+          return memory.response;
+        }
+        removeMemory(id);
+      }
+      disk = mDisk.get(id);
+    }
+    if (disk == null) {
+      return null;
+    }
+    Response response = null;
+    try {
+      response = read(disk.file, id);
+    } catch (IOException e) {
+      // Archivo borrado por otro hilo o dañado: se trata como ausente
+    }
+    synchronized (this) {
+      if (response == null || !isFresh(response)) {
+        if (mDisk.get(id) == disk) {
+          removeDisk(id);
+        }
+        return null;
+      }
+      disk.file.setLastModified(now());
+      putMemory(id, key, response);
+    }
+    return response;
+  }
+
+  /**
+   * @return Generación actual de una capa; se toma antes de pedir una consulta a la red y se pasa a {@link #put}.
+   */
+  public synchronized long generation(String layer) {
+    Long generation = mGenerations.get(layer);
+    return generation != null ? generation : 0;
+  }
+
+  /**
+   * Guarda una respuesta en ambos niveles, si la capa no se invalidó desde que se tomó su generación.
+   *
+   * @param generation Lo que devolvía {@link #generation} al pedir la consulta.
+   * @return false si la respuesta quedó vieja y se descartó.
+   */
+  public boolean put(Key key, String contentType, byte[] body, long generation) throws IOException {
+    String id = key.id();
+    Response response = new Response(contentType, body, now());
+    File temp;
+    synchronized (this) {
+      if (generation != generation(key.layer)) {
+        return false;
+      }
+      load();
+      putMemory(id, key, response);
+      temp = new File(mDir, fileName(id) + '.' + (mTempCounter++) + ".tmp");
+    }
+    write(temp, key, response);
+    synchronized (this) {
+      if (generation != generation(key.layer)) {
+        // Se invalidó mientras se escribía
+        temp.delete();
+        Memory memory = mMemory.get(id);
+        if (memory != null && memory.response == response) {
+          removeMemory(id);
+        }
+        return false;
+      }
+      File file = new File(mDir, fileName(id) + SUFFIX);
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        throw new IOException("No se pudo escribir " + file);
+      }
+      Disk old = mDisk.remove(id);
+      if (old != null) {
+        mDiskBytes -= old.size;
+      }
+      Disk disk = new Disk(key, file);
+      mDisk.put(id, disk);
+      mDiskBytes += disk.size;
+      trimDisk();
+    }
+    return true;
+  }
+
+  /**
+   * Guarda una respuesta recién pedida, sin invalidaciones de por medio.
+   */
+  public void put(Key key, String contentType, byte[] body) throws IOException {
+    put(key, contentType, body, generation(key.layer));
+  }
+
+  /**
+   * Descarta las consultas de una capa cuyo recuadro se cruza con el dado, por ejemplo después de guardar una
+   * entidad en ese lugar.
+   */
+  public synchronized void invalidate(String layer, double xmin, double ymin, double xmax, double ymax) {
+    mGenerations.put(layer, generation(layer) + 1);
+    load();
+    for (Iterator<Map.Entry<String, Memory>> it = mMemory.entrySet().iterator(); it.hasNext();) {
+      Memory memory = it.next().getValue();
+      if (memory.key.layer.equals(layer) && memory.key.intersects(xmin, ymin, xmax, ymax)) {
+        mMemoryBytes -= memory.response.size();
+        it.remove();
+      }
+    }
+    for (Iterator<Map.Entry<String, Disk>> it = mDisk.entrySet().iterator(); it.hasNext();) {
+      Disk disk = it.next().getValue();
+      if (disk.key.layer.equals(layer) && disk.key.intersects(xmin, ymin, xmax, ymax)) {
+        mDiskBytes -= disk.size;
+        disk.file.delete();
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Descarta todas las consultas de una capa.
+   */
+  public void invalidate(String layer) {
+    invalidate(layer, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.POSITIVE_INFINITY);
+  }
+
+  public synchronized long getMemoryBytes() {
+    return mMemoryBytes;
+  }
+
+  public synchronized long getDiskBytes() {
+    load();
+    return mDiskBytes;
+  }
+
+  /**
+   * Hora actual en milisegundos; las pruebas la reemplazan.
+   */
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+
+  private boolean isFresh(Response response) {
+    return now() - response.storedAt < mMaxAgeMillis;
+  }
+
+  private void putMemory(String id, Key key, Response response) {
+    removeMemory(id);
+    if (response.size() > mMaxMemoryBytes) {
+      return;
+    }
+    mMemory.put(id, new Memory(key, response));
+    mMemoryBytes += response.size();
+    Iterator<Memory> it = mMemory.values().iterator();
+    while (mMemoryBytes > mMaxMemoryBytes && it.hasNext()) {
+      mMemoryBytes -= it.next().response.size();
+      it.remove();
+    }
+  }
+
+  private void removeMemory(String id) {
+    Memory old = mMemory.remove(id);
+    if (old != null) {
+      mMemoryBytes -= old.response.size();
+    }
+  }
+
+  private void removeDisk(String id) {
+    Disk old = mDisk.remove(id);
+    if (old != null) {
+      mDiskBytes -= old.size;
+      old.file.delete();
+    }
+  }
+
+  private void trimDisk() {
+    Iterator<Disk> it = mDisk.values().iterator();
+    while (mDiskBytes > mMaxDiskBytes && it.hasNext()) {
+      Disk disk = it.next();
+      mDiskBytes -= disk.size;
+      disk.file.delete();
+      it.remove();
+    }
+  }
+
+  /**
+   * Arma el índice del disco desde los archivos, del menos al más recientemente usado. Los temporales de una
+   * escritura interrumpida y los archivos ilegibles se borran.
+   */
+  private void load() {
+    if (mLoaded) {
+      return;
+    }
+    mLoaded = true;
+    mDir.mkdirs();
+    File[] files = mDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        long ta = a.lastModified();
+        long tb = b.lastModified();
+        return ta < tb ? -1 : (ta == tb ? 0 : 1);
+      }
+    });
+    for (File file : files) {
+      Key key = null;
+      if (file.getName().endsWith(SUFFIX)) {
+        try {
+          key = readKey(file);
+        } catch (IOException e) {
+          key = null;
+        }
+      }
+      if (key == null) {
+        file.delete();
+        continue;
+      }
+      Disk disk = new Disk(key, file);
+      mDisk.put(key.id(), disk);
+      mDiskBytes += disk.size;
+    }
+    trimDisk();
+  }
+
+  /**
+   * Nombre de archivo de una clave: un hash de 64 bits en hexadecimal.
+   */
+  static String fileName(String id) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      hash ^= id.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    String hex = Long.toHexString(hash);
+    return "0000000000000000".substring(hex.length()) + hex;
+  }
+
+  private static void write(File file, Key key, Response response) throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(MAGIC);
+      writeString(out, key.layer);
+      writeString(out, key.query);
+      out.writeDouble(key.xmin);
+      out.writeDouble(key.ymin);
+      out.writeDouble(key.xmax);
+      out.writeDouble(key.ymax);
+      out.writeLong(response.storedAt);
+      writeString(out, response.contentType);
+      out.writeInt(response.body.length);
+      out.write(response.body);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Key readKey(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+    try {
+      return readKey(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Key readKey(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Archivo de caché desconocido");
+    }
+    String layer = readString(in);
+    String query = readString(in);
+    return new Key(layer, query, in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+  }
+
+  private static Response read(File file, String id) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (!readKey(in).id().equals(id)) {
+        return null;
+      }
+      long storedAt = in.readLong();
+      String contentType = readString(in);
+      byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      return new Response(contentType, body, storedAt);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > 1024 * 1024) {
+      throw new IOException("Longitud inválida: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+}
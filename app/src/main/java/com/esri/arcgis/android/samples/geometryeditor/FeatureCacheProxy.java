@@ -0,0 +1,607 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Servidor HTTP local que se interpone entre las capas de entidades y la red. Las capas se crean con la URL que
+ * devuelve {@link #wrap}, que apunta a este servidor; las consultas GET a {@code .../query} se responden desde
+ * {@link FeatureCache} cuando se puede, y todo lo demás (descripción de la capa, applyEdits) pasa tal cual al
+ * servidor original, con sus cabeceras y su estado.
+ * <p>
+ * Las capas ONDEMAND piden el recuadro exacto de la vista, distinto en cada desplazamiento. Antes de buscar en la
+ * caché el recuadro se agranda a una rejilla fija de porciones cuyo tamaño depende del zoom (la potencia de dos
+ * que cubre la vista), y esa es la consulta que va al servidor: los desplazamientos dentro de las mismas porciones
+ * piden exactamente lo mismo y se responden desde la caché.
+ * <p>
+ * La URL original puede ser http o https; el servidor local es quien habla con el servidor de entidades, así que
+ * el cifrado llega hasta él y sólo la interfaz local va sin cifrar. Si el servidor local no arranca, {@link #wrap}
+ * devuelve la URL sin cambios y las capas van directo a la red.
+ * <p>
+ * Cualquier aplicación del dispositivo puede conectarse a la interfaz local, así que el servidor no es un relé
+ * abierto: las rutas llevan una clave al azar que cambia en cada sesión, y sólo se reenvían los pedidos a las capas
+ * registradas con {@link #wrap} y a lo que cuelga de ellas. El resto recibe 403.
+ */
+public class FeatureCacheProxy {
+
+  private static final String HTTP = "http://";
+
+  private static final String HTTPS = "https://";
+
+  private static final int MAX_LINE_BYTES = 16 * 1024;
+
+  // Cuerpo máximo de un pedido; alcanza para guardar un boceto de cientos de miles de vértices
+  private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+  // Cabeceras de cada conexión que no se reenvían. Accept-Encoding tampoco: la conexión al servidor descomprime
+  // sola y la caché guarda el cuerpo descomprimido
+  private static final String[] HOP_BY_HOP = { "connection", "keep-alive", "proxy-authenticate",
+      "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length",
+      "accept-encoding", "content-encoding" };
+
+  private static final int CONNECT_TIMEOUT_MS = 15000;
+
+  private static final int READ_TIMEOUT_MS = 30000;
+
+  // Bytes al azar de la clave de sesión
+  private static final int TOKEN_BYTES = 16;
+
+  private static final Pattern ENVELOPE_FIELD = Pattern.compile(
+      "\"(xmin|ymin|xmax|ymax)\"\\s*:\\s*(-?[0-9.eE+-]+)");
+
+  private final FeatureCache mCache;
+
+  private final ExecutorService mExecutor;
+
+  private ServerSocket mServer;
+
+  // Prefijo de las URL envueltas, con la clave de la sesión; se conserva después de stop() para poder seguir
+  // desenvolviéndolas
+  private volatile String mPrefix;
+
+  // Ruta local que precede a las URL envueltas: "/" + clave + "/"
+  private volatile String mPath;
+
+  // URL de las capas envueltas sin el esquema -> URL original; una capa se acepta por http y por https, para que
+  // siga pasando por aquí si el servidor la redirige a https
+  private final Map<String, String> mLayers = new ConcurrentHashMap<String, String>();
+
+  /**
+   * @param threads Conexiones atendidas a la vez.
+   */
+  public FeatureCacheProxy(FeatureCache cache, int threads) {
+    mCache = cache;
+    mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "FeatureCacheProxy");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Empieza a escuchar en un puerto libre de la interfaz local.
+   */
+  public synchronized void start() throws IOException {
+    if (mServer != null) {
+      return;
+    }
+    final ServerSocket server = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+    mServer = server;
+    mPath = "/" + newToken() + "/";
+    mPrefix = HTTP + "127.0.0.1:" + server.getLocalPort() + mPath;
+    Thread accept = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        acceptLoop(server);
+      }
+    }, "FeatureCacheProxy-accept");
+    accept.setDaemon(true);
+    accept.start();
+  }
+
+  /**
+   * Deja de aceptar conexiones; las que están en curso terminan.
+   */
+  public synchronized void stop() {
+    if (mServer == null) {
+      return;
+    }
+    try {
+      mServer.close();
+    } catch (IOException e) {
+      // Ya cerrado
+    }
+    mServer = null;
+    mExecutor.shutdown();
+  }
+
+  /**
+   * URL con que se debe crear una capa para que sus pedidos pasen por la caché. Desde ahora el servidor local
+   * acepta los pedidos a esa capa y a lo que cuelga de ella.
+   */
+  public String wrap(String url) {
+    String prefix = mPrefix;
+    String scheme = scheme(url);
+    if (prefix == null || scheme == null) {
+      return url;
+    }
+    while (url.endsWith("/")) {
+      url = url.substring(0, url.length() - 1);
+    }
+    String layer = url.substring(scheme.length() + 3);
+    mLayers.put(layer, url);
+    return prefix + scheme + "/" + layer;
+  }
+
+  /**
+   * URL original de una capa creada con {@link #wrap}; las demás se devuelven sin cambios. Es la que se debe
+   * guardar, porque el puerto local cambia en cada sesión.
+   */
+  public String unwrap(String url) {
+    String prefix = mPrefix;
+    if (prefix == null || url == null || !url.startsWith(prefix)) {
+      return url;
+    }
+    String target = url.substring(prefix.length());
+    int slash = target.indexOf('/');
+    return slash < 0 ? url : target.substring(0, slash) + "://" + target.substring(slash + 1);
+  }
+
+  private void acceptLoop(ServerSocket server) {
+    while (!server.isClosed()) {
+      final Socket socket;
+      try {
+        socket = server.accept();
+      } catch (IOException e) {
+        // Cerrado por stop()
+        return;
+      }
+      mExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          handle(socket);
+        }
+      });
+    }
+  }
+
+  /**
+   * Atiende un pedido por conexión; la respuesta siempre cierra la conexión.
+   */
+  void handle(Socket socket) {
+    try {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      String[] request = readLine(in).split(" ");
+      if (request.length < 2 || !request[1].startsWith("/")) {
+        writeError(out, 400);
+        return;
+      }
+      // Ruta sin la clave de la sesión: esquema, servidor, ruta y consulta
+      String path = mPath;
+      String target = path != null && request[1].startsWith(path) ? request[1].substring(path.length()) : "";
+      int slash = target.indexOf('/');
+      String scheme = slash > 0 ? target.substring(0, slash) : "";
+      String rest = target.substring(slash + 1);
+      String layer = findLayer(rest);
+      if (!(scheme.equals("http") || scheme.equals("https")) || layer == null) {
+        writeError(out, 403);
+        return;
+      }
+      String method = request[0];
+      int contentLength = 0;
+      boolean chunked = false;
+      List<String[]> headers = new ArrayList<String[]>();
+      for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+        int colon = line.indexOf(':');
+        if (colon < 0) {
+          continue;
+        }
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        String lower = name.toLowerCase(Locale.US);
+        if (lower.equals("content-length")) {
+          contentLength = Integer.parseInt(value);
+        } else if (lower.equals("transfer-encoding")) {
+          chunked = true;
+        }
+        if (!isHopByHop(lower)) {
+          headers.add(new String[] { name, value });
+        }
+      }
+      if (chunked) {
+        writeError(out, 411);
+        return;
+      }
+      if (contentLength < 0 || contentLength > MAX_BODY_BYTES) {
+        writeError(out, contentLength < 0 ? 400 : 413);
+        return;
+      }
+      byte[] body = readFully(in, contentLength);
+      String upstream = scheme + "://" + rest;
+
+      // La clave usa la URL con que se envolvió la capa, aunque el pedido llegue por el otro esquema
+      FeatureCache.Key key = "GET".equals(method)
+          ? queryKey(layer + rest.substring(layer.length() - layer.indexOf("://") - 3)) : null;
+      if (key != null) {
+        FeatureCache.Response cached = mCache.get(key);
+        if (cached != null) {
+          EditorMetrics.increment(EditorMetrics.FEATURE_CACHE_HITS);
+          List<String[]> cachedHeaders = new ArrayList<String[]>();
+          cachedHeaders.add(new String[] { "Content-Type", cached.getContentType() });
+          writeResponse(out, 200, "OK", cachedHeaders, cached.getBody());
+          return;
+        }
+        EditorMetrics.increment(EditorMetrics.FEATURE_CACHE_MISSES);
+        // Al servidor va la consulta alineada a las porciones, la misma que queda en la caché
+        int question = upstream.indexOf('?');
+        upstream = (question < 0 ? upstream : upstream.substring(0, question))
+            + (key.getQuery().length() > 0 ? "?" + key.getQuery() : "");
+      }
+
+      // Una invalidación mientras la consulta está en camino deja vieja su respuesta
+      long generation = key != null ? mCache.generation(key.getLayer()) : 0;
+      HttpURLConnection connection = (HttpURLConnection) new URL(upstream).openConnection();
+      try {
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Las redirecciones llegan a la capa, con Location apuntando aquí si siguen en una capa envuelta
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod(method);
+        for (String[] header : headers) {
+          connection.addRequestProperty(header[0], header[1]);
+        }
+        if (contentLength > 0) {
+          connection.setDoOutput(true);
+          OutputStream upload = connection.getOutputStream();
+          upload.write(body);
+          upload.close();
+        }
+        int status = connection.getResponseCode();
+        InputStream response = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] responseBody = response != null ? readAll(response) : new byte[0];
+        String responseType = connection.getContentType();
+        if (responseType == null) {
+          responseType = "application/octet-stream";
+        }
+        // Los errores del servicio REST llegan con estado 200 y no se guardan
+        if (key != null && status == 200 && !isServiceError(responseBody)) {
+          try {
+            mCache.put(key, responseType, responseBody, generation);
+          } catch (IOException e) {
+            // Sin disco: igual se responde
+          }
+        }
+        writeResponse(out, status, connection.getResponseMessage(), responseHeaders(connection), responseBody);
+      } finally {
+        connection.disconnect();
+      }
+    } catch (IOException e) {
+      try {
+        writeError(socket.getOutputStream(), 502);
+      } catch (IOException ignored) {
+        // La conexión ya no sirve
+      }
+    } catch (RuntimeException e) {
+      try {
+        writeError(socket.getOutputStream(), 400);
+      } catch (IOException ignored) {
+        // La conexión ya no sirve
+      }
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nada más que hacer
+      }
+    }
+  }
+
+  /**
+   * URL original de la capa envuelta a la que pide una ruta sin esquema (servidor, ruta y consulta), o null si no
+   * pide una capa envuelta ni algo que cuelga de ella.
+   */
+  private String findLayer(String target) {
+    // Sin subir de carpeta por encima de la capa, ni siquiera codificado
+    if (target.indexOf("..") >= 0 || target.toLowerCase(Locale.US).indexOf("%2e") >= 0) {
+      return null;
+    }
+    for (Map.Entry<String, String> entry : mLayers.entrySet()) {
+      String layer = entry.getKey();
+      if (target.startsWith(layer) && (target.length() == layer.length() || target.charAt(layer.length()) == '/'
+          || target.charAt(layer.length()) == '?')) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Cabeceras de la respuesta del servidor que se pasan a la capa. Location se cambia a la URL local si sigue en
+   * una capa envuelta.
+   */
+  private List<String[]> responseHeaders(HttpURLConnection connection) {
+    List<String[]> headers = new ArrayList<String[]>();
+    for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+      String name = field.getKey();
+      // La línea de estado viene sin nombre
+      if (name == null || isHopByHop(name.toLowerCase(Locale.US))) {
+        continue;
+      }
+      for (String value : field.getValue()) {
+        headers.add(new String[] { name, name.equalsIgnoreCase("Location") ? local(value) : value });
+      }
+    }
+    return headers;
+  }
+
+  /**
+   * URL local de una URL que cae en una capa envuelta; las demás se devuelven sin cambios.
+   */
+  private String local(String url) {
+    String prefix = mPrefix;
+    String scheme = scheme(url);
+    if (prefix == null || scheme == null) {
+      return url;
+    }
+    String target = url.substring(scheme.length() + 3);
+    return findLayer(target) != null ? prefix + scheme + "/" + target : url;
+  }
+
+  private static String scheme(String url) {
+    return url.startsWith(HTTP) ? "http" : url.startsWith(HTTPS) ? "https" : null;
+  }
+
+  private static boolean isHopByHop(String lowerCaseName) {
+    for (String name : HOP_BY_HOP) {
+      if (name.equals(lowerCaseName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String newToken() {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+    for (byte b : bytes) {
+      token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return token.toString();
+  }
+
+  /**
+   * Clave de caché de una consulta a una capa, o null si el pedido no es una consulta. Si la consulta lleva un
+   * recuadro, la clave lleva el recuadro alineado a las porciones (ver {@link #alignToTiles}) y su consulta es la
+   * que se debe pedir al servidor.
+   */
+  static FeatureCache.Key queryKey(String url) {
+    int question = url.indexOf('?');
+    String path = question < 0 ? url : url.substring(0, question);
+    if (!path.endsWith("/query")) {
+      return null;
+    }
+    String query = question < 0 ? "" : url.substring(question + 1);
+    String layer = path.substring(0, path.length() - "/query".length());
+    double[] envelope = { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+    StringBuilder aligned = new StringBuilder(query.length());
+    try {
+      for (String param : query.split("&")) {
+        if (param.startsWith("geometry=")) {
+          String geometry = URLDecoder.decode(param.substring("geometry=".length()), "UTF-8");
+          parseEnvelope(geometry, envelope);
+          if (alignToTiles(envelope)) {
+            param = "geometry=" + URLEncoder.encode(formatEnvelope(geometry, envelope), "UTF-8");
+          }
+        }
+        if (aligned.length() > 0) {
+          aligned.append('&');
+        }
+        aligned.append(param);
+      }
+    } catch (IOException e) {
+      // UTF-8 siempre existe
+    }
+    return new FeatureCache.Key(layer, aligned.toString(), envelope[0], envelope[1], envelope[2], envelope[3]);
+  }
+
+  /**
+   * Agranda un recuadro hasta los bordes de la rejilla de porciones de su zoom. El lado de las porciones es la menor
+   * potencia de dos que cubre el lado mayor del recuadro, así que el resultado tiene a lo sumo dos porciones por
+   * lado y no cambia mientras la vista se desplace dentro de ellas.
+   *
+   * @return false si el recuadro no tiene superficie o no es finito, y queda sin cambios.
+   */
+  static boolean alignToTiles(double[] envelope) {
+    double size = Math.max(envelope[2] - envelope[0], envelope[3] - envelope[1]);
+    if (!(size > 0) || Double.isInfinite(size)) {
+      return false;
+    }
+    double tile = Math.scalb(1.0, Math.getExponent(size));
+    if (tile < size) {
+      tile *= 2;
+    }
+    envelope[0] = Math.floor(envelope[0] / tile) * tile;
+    envelope[1] = Math.floor(envelope[1] / tile) * tile;
+    envelope[2] = Math.ceil(envelope[2] / tile) * tile;
+    envelope[3] = Math.ceil(envelope[3] / tile) * tile;
+    return true;
+  }
+
+  /**
+   * Escribe un recuadro en el mismo formato que la geometría original; en JSON se conservan los demás campos, como
+   * la referencia espacial.
+   */
+  private static String formatEnvelope(String geometry, double[] envelope) {
+    if (!geometry.trim().startsWith("{")) {
+      return number(envelope[0]) + "," + number(envelope[1]) + "," + number(envelope[2]) + ","
+          + number(envelope[3]);
+    }
+    StringBuffer json = new StringBuffer(geometry.length());
+    Matcher m = ENVELOPE_FIELD.matcher(geometry);
+    while (m.find()) {
+      String field = m.group(1);
+      int i = field.equals("xmin") ? 0 : field.equals("ymin") ? 1 : field.equals("xmax") ? 2 : 3;
+      m.appendReplacement(json, "\"" + field + "\":" + number(envelope[i]));
+    }
+    m.appendTail(json);
+    return json.toString();
+  }
+
+  /**
+   * Número sin exponente ni ceros de más; los bordes de las porciones son exactos en binario.
+   */
+  private static String number(double v) {
+    return v == 0 ? "0" : new BigDecimal(v).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * Lee un recuadro en JSON ({"xmin":...}) o como "xmin,ymin,xmax,ymax". Otras geometrías quedan en NaN.
+   */
+  static void parseEnvelope(String geometry, double[] envelope) {
+    try {
+      if (geometry.trim().startsWith("{")) {
+        double[] parsed = { Double.NaN, Double.NaN, Double.NaN, Double.NaN };
+        Matcher m = ENVELOPE_FIELD.matcher(geometry);
+        while (m.find()) {
+          String field = m.group(1);
+          int i = field.equals("xmin") ? 0 : field.equals("ymin") ? 1 : field.equals("xmax") ? 2 : 3;
+          parsed[i] = Double.parseDouble(m.group(2));
+        }
+        System.arraycopy(parsed, 0, envelope, 0, 4);
+      } else {
+        String[] parts = geometry.split(",");
+        if (parts.length == 4) {
+          for (int i = 0; i < 4; i++) {
+            envelope[i] = Double.parseDouble(parts[i].trim());
+          }
+        }
+      }
+    } catch (NumberFormatException e) {
+      envelope[0] = envelope[1] = envelope[2] = envelope[3] = Double.NaN;
+    }
+    for (double v : envelope) {
+      if (Double.isNaN(v)) {
+        envelope[0] = envelope[1] = envelope[2] = envelope[3] = Double.NaN;
+        return;
+      }
+    }
+  }
+
+  private static boolean isServiceError(byte[] body) {
+    int length = Math.min(body.length, 32);
+    String start = new String(body, 0, length).replace(" ", "");
+    return start.startsWith("{\"error\"");
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    int c;
+    while ((c = in.read()) != '\n') {
+      if (c < 0) {
+        throw new EOFException();
+      }
+      if (c != '\r') {
+        if (line.size() >= MAX_LINE_BYTES) {
+          throw new IOException("Línea demasiado larga");
+        }
+        line.write(c);
+      }
+    }
+    return line.toString("ISO-8859-1");
+  }
+
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+    byte[] data = new byte[length];
+    int read = 0;
+    while (read < length) {
+      int n = in.read(data, read, length - read);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      read += n;
+    }
+    return data;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeError(OutputStream out, int status) throws IOException {
+    String reason = status == 400 ? "Bad Request" : status == 403 ? "Forbidden" : status == 411 ? "Length Required"
+        : status == 413 ? "Payload Too Large" : "Bad Gateway";
+    List<String[]> headers = new ArrayList<String[]>();
+    headers.add(new String[] { "Content-Type", "text/plain" });
+    writeResponse(out, status, reason, headers, new byte[0]);
+  }
+
+  /**
+   * @param reason Frase del estado tal como la mandó el servidor; puede ser null.
+   */
+  private static void writeResponse(OutputStream out, int status, String reason, List<String[]> headers,
+      byte[] body) throws IOException {
+    StringBuilder head = new StringBuilder(256);
+    head.append("HTTP/1.1 ").append(status).append(' ').append(reason != null ? reason : "").append("\r\n");
+    for (String[] header : headers) {
+      head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+    }
+    head.append("Content-Length: ").append(body.length).append("\r\nConnection: close\r\n\r\n");
+    out.write(head.toString().getBytes("ISO-8859-1"));
+    out.write(body);
+    out.flush();
+  }
+}
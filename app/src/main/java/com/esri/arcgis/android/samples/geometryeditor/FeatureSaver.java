@@ -0,0 +1,932 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.esri.android.map.Layer;
+import com.esri.android.map.MapView;
+import com.esri.android.map.ags.ArcGISFeatureLayer;
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.Polyline;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.CallbackListener;
+import com.esri.core.map.Feature;
+import com.esri.core.map.FeatureEditResult;
+import com.esri.core.map.FeatureResult;
+import com.esri.core.map.FeatureTemplate;
+import com.esri.core.map.FeatureType;
+import com.esri.core.map.Graphic;
+import com.esri.core.tasks.query.QueryParameters;
+import com.esri.core.tasks.query.QueryTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lleva las entidades del editor al servidor. Generaliza el boceto en el hilo de trabajo, registra el alta en el
+ * {@link EditJournal}, construye la geometría y la pone en la {@link SaveQueue}, que la envía por lotes con
+ * applyEdits. Lleva los acuses al diario, vuelve a enviar lo que quedó pendiente y descarta de la
+ * {@link FeatureCache} las consultas que cubren lo guardado.
+ * <p>
+ * Debe usarse desde el hilo de la interfaz; el {@link Listener} también se llama en él.
+ */
+public class FeatureSaver {
+
+  /**
+   * Recibe lo que la actividad muestra del guardado.
+   */
+  public interface Listener {
+    /**
+     * Terminó la preparación pedida con {@link #save}.
+     *
+     * @param committed true si la entidad quedó en camino; false si no se pudo preparar.
+     */
+    void onPreparationFinished(boolean committed);
+
+    /**
+     * Resultado de un lote. Las entidades sin respuesta del servidor siguen en el diario.
+     *
+     * @param rejected Entidades que el servidor rechazó; reintentar no serviría.
+     * @param unverified Entidades que pudieron haberse guardado sin que el servidor pueda confirmarlo. Quedan
+     *          retenidas hasta que el usuario elija {@link #resendUnverified} o {@link #discardUnverified}.
+     * @param unreachable Entidades que no llegaron al servidor.
+     */
+    void onBatchComplete(List<SaveQueue.Entry<Graphic>> saved, List<SaveQueue.Entry<Graphic>> rejected,
+        List<SaveQueue.Entry<Graphic>> unverified, int unreachable);
+
+    /**
+     * Cambió algo de lo que devuelven {@link #getStatus}, {@link #getOfflineCount} o {@link #isBusy}.
+     */
+    void onStatusChanged();
+  }
+
+  // Entidades por lote de guardado y espera máxima antes de enviar un lote incompleto
+  private static final int SAVE_BATCH_SIZE = 25;
+
+  private static final long SAVE_MAX_DELAY_MS = 5000;
+
+  // Lotes en camino por capa, y espera entre reintentos de un lote sin respuesta del servidor
+  private static final int SAVE_MAX_IN_FLIGHT = 2;
+
+  private static final long SAVE_RETRY_BASE_MS = 2000;
+
+  private static final long SAVE_RETRY_MAX_MS = 60 * 1000;
+
+  private static final int SAVE_RETRY_ATTEMPTS = 5;
+
+  // Campo de texto donde cada alta guarda su clave de cliente, para buscarla antes de reenviar un lote sin
+  // respuesta. En las capas sin este campo se busca una entidad con la misma geometría y atributos
+  private static final String CLIENT_KEY_FIELD = "ClientKey";
+
+  // Intentos con media tolerancia si la geometría generalizada se cruza consigo misma
+  private static final int GENERALIZE_ATTEMPTS = 3;
+
+  private final MapView mMapView;
+
+  private final FeatureCacheProxy mFeatureCacheProxy;
+
+  private final FeatureCache mFeatureCache;
+
+  // Hilo de la interfaz
+  private final Executor mMain;
+
+  // Hilo de trabajo para armar, simplificar y validar geometrías
+  private final BackgroundWorker mWorker;
+
+  private final SaveQueue<ArcGISFeatureLayer, Graphic> mSaveQueue;
+
+  private JournalReplayer mReplayer;
+
+  // Hilo de las escrituras del diario, para que el fsync no ocupe el hilo de la interfaz
+  private ExecutorService mJournalExecutor;
+
+  private Listener mListener;
+
+  // Guardado cuya geometría se está preparando, null si ninguno
+  private BackgroundWorker.Task mPreparation;
+
+  // Geometrías en construcción para la cola de guardado, y si hay que enviar todo al terminarlas
+  private int mFeaturesBuilding;
+
+  private boolean mFlushWhenBuilt;
+
+  // Entidades que no se pudieron verificar, con su capa, a la espera de lo que decida el usuario
+  private final Map<SaveQueue.Entry<Graphic>, ArcGISFeatureLayer> mUnverified =
+      new LinkedHashMap<SaveQueue.Entry<Graphic>, ArcGISFeatureLayer>();
+
+  /**
+   * @param proxy Caché local por la que pasan las capas; sus URL se guardan sin ella.
+   * @param cache Caché de consultas que se invalida al guardar.
+   * @param handler Handler del hilo de la interfaz.
+   */
+  public FeatureSaver(MapView mapView, FeatureCacheProxy proxy, FeatureCache cache, final Handler handler) {
+    mMapView = mapView;
+    mFeatureCacheProxy = proxy;
+    mFeatureCache = cache;
+    mMain = new Executor() {
+
+      @Override
+      public void execute(Runnable command) {
+        handler.post(command);
+      }
+
+    };
+
+    // Las geometrías se preparan en un solo hilo, en el orden en que se guardan
+    mWorker = new BackgroundWorker(Executors.newSingleThreadExecutor(), mMain);
+
+    // Cola de guardado por lotes
+    mSaveQueue = new SaveQueue<ArcGISFeatureLayer, Graphic>(new FeatureLayerUploader(), new SaveQueue.Timer() {
+
+      @Override
+      public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+      }
+
+      @Override
+      public void removeCallbacks(Runnable task) {
+        handler.removeCallbacks(task);
+      }
+
+    }, SAVE_BATCH_SIZE, SAVE_MAX_DELAY_MS, SAVE_MAX_IN_FLIGHT, new SaveQueue.Backoff(SAVE_RETRY_BASE_MS,
+        SAVE_RETRY_MAX_MS, SAVE_RETRY_ATTEMPTS, new Random()));
+    mSaveQueue.setListener(new SaveQueue.Listener<ArcGISFeatureLayer, Graphic>() {
+
+      @Override
+      public void onBatchComplete(ArcGISFeatureLayer layer, List<SaveQueue.Entry<Graphic>> saved,
+          List<SaveQueue.Entry<Graphic>> failed) {
+        invalidateFeatureCache(layer, saved);
+        completeBatch(layer, saved, failed);
+      }
+
+    });
+    mSaveQueue.setStatusListener(new SaveQueue.StatusListener() {
+
+      @Override
+      public void onStatusChanged(SaveQueue.Status status) {
+        notifyStatus();
+      }
+
+    });
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Abre el diario de altas: lo que no llegó al servidor en una sesión anterior se vuelve a enviar con
+   * {@link #replayPending}. Si no se puede abrir, las altas se envían igual pero no sobreviven a un cierre.
+   */
+  public void openJournal(File file) {
+    mJournalExecutor = Executors.newSingleThreadExecutor();
+    try {
+      mReplayer = new JournalReplayer(new EditJournal(file), new JournalSink(), mJournalExecutor, mMain);
+    } catch (IOException e) {
+      Log.e(GeometryEditorActivity.TAG, "No se pudo abrir el diario de ediciones", e);
+      mReplayer = null;
+    }
+  }
+
+  /**
+   * Prepara y envía una entidad. La generalización y la validación corren en el hilo de trabajo sobre las
+   * coordenadas recibidas; al terminar se llama a {@link Listener#onPreparationFinished}.
+   *
+   * @param geometryType Una de las constantes de {@link EditJournal}.
+   * @param coords Coordenadas intercaladas x0, y0, x1, y1, ...; no se deben modificar después.
+   * @param rule Generalización de la plantilla.
+   * @return false si ya hay una preparación en curso.
+   */
+  public boolean save(final ArcGISFeatureLayer layer, final FeatureTemplate template, final byte geometryType,
+      final double[] coords, final GeneralizationSettings.Rule rule) {
+    if (mPreparation != null) {
+      return false;
+    }
+    mPreparation = mWorker.submit(new BackgroundWorker.Job<double[]>() {
+
+      @Override
+      public double[] run(BackgroundWorker.Task task) {
+        long start = EditorMetrics.start();
+        double[] result = generalize(geometryType, coords, rule);
+        EditorMetrics.stop(EditorMetrics.SAVE_PREPARE, start);
+        return result;
+      }
+
+    }, new BackgroundWorker.Callback<double[]>() {
+
+      @Override
+      public void onResult(double[] generalized) {
+        mPreparation = null;
+        commitSave(layer, template, geometryType, generalized);
+        notifyStatus();
+        if (mListener != null) {
+          mListener.onPreparationFinished(true);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        Log.e(GeometryEditorActivity.TAG, "No se pudo preparar la geometria", e);
+        mPreparation = null;
+        notifyStatus();
+        if (mListener != null) {
+          mListener.onPreparationFinished(false);
+        }
+      }
+
+    });
+    notifyStatus();
+    return true;
+  }
+
+  public boolean isPreparing() {
+    return mPreparation != null;
+  }
+
+  /**
+   * Cancela el guardado en preparación, si lo hay, porque el boceto cambió o se descartó.
+   */
+  public void cancelPreparation() {
+    if (mPreparation != null) {
+      mPreparation.cancel();
+      mPreparation = null;
+      EditorMetrics.increment(EditorMetrics.SAVES_CANCELLED);
+      notifyStatus();
+    }
+  }
+
+  /**
+   * @return true mientras haya una entidad en preparación, en construcción o por enviar.
+   */
+  public boolean isBusy() {
+    return !mSaveQueue.getStatus().isIdle() || mPreparation != null || mFeaturesBuilding > 0;
+  }
+
+  public SaveQueue.Status getStatus() {
+    return mSaveQueue.getStatus();
+  }
+
+  /**
+   * @return Altas del diario que no están en camino y esperan el próximo {@link #replayPending}.
+   */
+  public int getOfflineCount() {
+    return mReplayer != null ? mReplayer.getWaitingCount() : 0;
+  }
+
+  /**
+   * @return true si las altas sin respuesta quedan en el diario para la próxima vez.
+   */
+  public boolean hasJournal() {
+    return mReplayer != null;
+  }
+
+  /**
+   * Vuelve a enviar las altas del diario que no tienen respuesta del servidor.
+   */
+  public void replayPending() {
+    if (mReplayer != null) {
+      mReplayer.replay();
+    }
+  }
+
+  /**
+   * @return Entidades retenidas porque no se pudo comprobar si el servidor las guardó.
+   */
+  public int getUnverifiedCount() {
+    return mUnverified.size();
+  }
+
+  /**
+   * El usuario comprobó que las entidades retenidas no están en el servidor: se envían de nuevo, sin buscarlas
+   * antes.
+   */
+  public void resendUnverified() {
+    for (Map.Entry<SaveQueue.Entry<Graphic>, ArcGISFeatureLayer> held : mUnverified.entrySet()) {
+      SaveQueue.Entry<Graphic> entry = held.getKey();
+      if (mReplayer != null && entry.getId() != 0) {
+        mReplayer.onResent(entry.getId());
+      }
+      mSaveQueue.add(held.getValue(), entry.getId(), entry.getFeature(), entry.getLabel(), false);
+    }
+    mUnverified.clear();
+    notifyStatus();
+  }
+
+  /**
+   * El usuario comprobó que las entidades retenidas ya están en el servidor: salen del diario sin reenviarse.
+   */
+  public void discardUnverified() {
+    if (mReplayer != null) {
+      try {
+        for (SaveQueue.Entry<Graphic> entry : mUnverified.keySet()) {
+          if (entry.getId() != 0) {
+            mReplayer.onCompleted(entry.getId());
+          }
+        }
+        mReplayer.sync();
+      } catch (IOException e) {
+        Log.e(GeometryEditorActivity.TAG, "No se pudo escribir en el diario de ediciones", e);
+      }
+    }
+    mUnverified.clear();
+    notifyStatus();
+  }
+
+  /**
+   * Envía ya todo lo que espera en la cola.
+   */
+  public void flushAll() {
+    mSaveQueue.flushAll();
+  }
+
+  /**
+   * Puede haber vuelto la conexión: no esperar a que venzan los reintentos.
+   */
+  public void retryNow() {
+    mSaveQueue.retryNow();
+  }
+
+  /**
+   * Detiene el hilo de trabajo y los temporizadores. Lo que no se envió sigue en el diario para la próxima sesión;
+   * las escrituras ya pedidas terminan antes de cerrarlo.
+   */
+  public void shutdown() {
+    mWorker.shutdown();
+    mSaveQueue.cancelTimers();
+    if (mReplayer != null) {
+      mReplayer.close();
+    }
+    if (mJournalExecutor != null) {
+      mJournalExecutor.shutdown();
+    }
+  }
+
+  /**
+   * URL original de una capa, sin el paso por la caché local; es la que se guarda en el diario y en el boceto,
+   * porque el puerto de la caché cambia en cada sesión.
+   */
+  public String layerUrl(Layer layer) {
+    return mFeatureCacheProxy.unwrap(layer.getUrl());
+  }
+
+  /**
+   * Busca entre las capas del mapa la capa de entidades con una URL dada.
+   */
+  public ArcGISFeatureLayer findFeatureLayer(String url) {
+    Layer[] layers = mMapView.getLayers();
+    if (layers != null) {
+      for (Layer l : layers) {
+        if (l instanceof ArcGISFeatureLayer && url.equals(layerUrl(l))) {
+          return (ArcGISFeatureLayer) l;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Busca por nombre una plantilla de una capa de entidades, primero en sus tipos y luego en la capa.
+   */
+  public static FeatureTemplate findTemplate(ArcGISFeatureLayer layer, String name) {
+    FeatureType[] types = layer.getTypes();
+    if (types != null) {
+      for (FeatureType type : types) {
+        for (FeatureTemplate template : type.getTemplates()) {
+          if (name.equals(template.getName())) {
+            return template;
+          }
+        }
+      }
+    }
+    FeatureTemplate[] templates = layer.getTemplates();
+    if (templates != null) {
+      for (FeatureTemplate template : templates) {
+        if (name.equals(template.getName())) {
+          return template;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Registra en el diario la entidad ya generalizada y la pone en camino.
+   */
+  private void commitSave(ArcGISFeatureLayer layer, FeatureTemplate template, byte geometryType, double[] coords) {
+    // Registra el alta en el diario antes de enviarla; el usuario puede empezar la siguiente entidad
+    boolean queued = false;
+    if (mReplayer != null) {
+      try {
+        mReplayer.record(layerUrl(layer), template.getName(), geometryType, coords);
+        queued = true;
+      } catch (IOException e) {
+        Log.e(GeometryEditorActivity.TAG, "No se pudo escribir en el diario de ediciones", e);
+      }
+    }
+    if (!queued) {
+      // Sin diario: se envía igual, aunque no sobrevive a un cierre de la aplicación
+      queueFeature(layer, template, 0, UUID.randomUUID().toString(), false, geometryType, coords);
+    }
+  }
+
+  /**
+   * Construye la geometría de una entidad en el hilo de trabajo; en el hilo de la interfaz sólo se crea el gráfico
+   * con la plantilla y se pone en la cola de guardado.
+   *
+   * @param seq Número del alta en el diario, 0 si no está en el diario.
+   * @param clientKey Clave que se guarda con la entidad para encontrarla en el servidor.
+   * @param unconfirmed true si el alta pudo haberse enviado antes sin respuesta.
+   */
+  private void queueFeature(final ArcGISFeatureLayer layer, final FeatureTemplate template, final long seq,
+      final String clientKey, final boolean unconfirmed, final byte geometryType, final double[] coords) {
+    final SpatialReference sr = mMapView.getSpatialReference();
+    mFeaturesBuilding++;
+    mWorker.submit(new BackgroundWorker.Job<Geometry>() {
+
+      @Override
+      public Geometry run(BackgroundWorker.Task task) {
+        long start = EditorMetrics.start();
+        Geometry geometry = buildGeometry(geometryType, coords, sr);
+        EditorMetrics.stop(EditorMetrics.SAVE_PREPARE, start);
+        return geometry;
+      }
+
+    }, new BackgroundWorker.Callback<Geometry>() {
+
+      @Override
+      public void onResult(Geometry geometry) {
+        Graphic g = withClientKey(layer, layer.createFeatureWithTemplate(template, geometry), clientKey);
+        mSaveQueue.add(layer, seq, g, template.getName(), unconfirmed);
+        featureBuilt();
+      }
+
+      @Override
+      public void onError(Exception e) {
+        // Queda en el diario para la próxima sesión
+        Log.e(GeometryEditorActivity.TAG, "No se pudo construir la geometria de " + template.getName(), e);
+        featureBuilt();
+      }
+
+    });
+  }
+
+  /**
+   * Copia de un gráfico con la clave de cliente en sus atributos, si la capa tiene el campo.
+   */
+  private static Graphic withClientKey(ArcGISFeatureLayer layer, Graphic graphic, String clientKey) {
+    if (layer.getField(CLIENT_KEY_FIELD) == null) {
+      return graphic;
+    }
+    Map<String, Object> attributes = new HashMap<String, Object>();
+    if (graphic.getAttributes() != null) {
+      attributes.putAll(graphic.getAttributes());
+    }
+    attributes.put(CLIENT_KEY_FIELD, clientKey);
+    return new Graphic(graphic.getGeometry(), graphic.getSymbol(), attributes);
+  }
+
+  /**
+   * Una geometría en construcción terminó; si se pidió enviar todo mientras tanto, se envía ahora.
+   */
+  private void featureBuilt() {
+    mFeaturesBuilding--;
+    if (mFeaturesBuilding == 0 && mFlushWhenBuilt) {
+      mFlushWhenBuilt = false;
+      mSaveQueue.flushAll();
+    }
+    notifyStatus();
+  }
+
+  /**
+   * Construye la geometría de una entidad a partir de las coordenadas del boceto. Se llama desde el hilo de trabajo.
+   *
+   * @param geometryType Tipo de geometría, una de las constantes de {@link EditJournal}.
+   * @param coords Coordenadas intercaladas x0, y0, x1, y1, ...
+   * @param sr Referencia espacial del mapa.
+   * @return Un punto, o la polilínea o polígono ya simplificados.
+   */
+  private static Geometry buildGeometry(byte geometryType, double[] coords, SpatialReference sr) {
+    if (geometryType == EditJournal.POINT) {
+      // Para un punto, basta con crear un gráfico desde el punto
+      return new Point(coords[0], coords[1]);
+    }
+
+    // Simple geometria de puntos
+    return GeometryEngine.simplify(buildMultiPath(geometryType, coords), sr);
+  }
+
+  /**
+   * Crea el MultiPath de una polilínea o polígono desde coordenadas intercaladas, sin simplificarlo.
+   */
+  private static MultiPath buildMultiPath(byte geometryType, double[] coords) {
+    MultiPath multipath = geometryType == EditJournal.POLYLINE ? new Polyline() : new Polygon();
+    multipath.startPath(coords[0], coords[1]);
+    for (int i = 2; i < coords.length; i += 2) {
+      multipath.lineTo(coords[i], coords[i + 1]);
+    }
+    return multipath;
+  }
+
+  /**
+   * Reduce los vértices de una polilínea o polígono según la configuración de su plantilla. Si el resultado se
+   * corta a sí mismo se reintenta con media tolerancia, y al final se guardan las coordenadas originales. Se llama
+   * desde el hilo de trabajo.
+   */
+  private static double[] generalize(byte geometryType, double[] coords, GeneralizationSettings.Rule rule) {
+    if (geometryType == EditJournal.POINT) {
+      return coords;
+    }
+    return Generalizer.simplifyWithoutCrossings(coords, geometryType == EditJournal.POLYGON, rule.getMethod(),
+        rule.getTolerance(), GENERALIZE_ATTEMPTS);
+  }
+
+  /**
+   * Lleva el resultado de un lote al diario y a las mediciones, y lo informa al {@link Listener}.
+   */
+  private void completeBatch(ArcGISFeatureLayer layer, List<SaveQueue.Entry<Graphic>> saved,
+      List<SaveQueue.Entry<Graphic>> failed) {
+    long now = System.nanoTime();
+    for (SaveQueue.Entry<Graphic> entry : saved) {
+      EditorMetrics.record(EditorMetrics.SAVE_ROUND_TRIP, now - entry.getEnqueuedNanos());
+    }
+    EditorMetrics.add(EditorMetrics.FEATURES_SAVED, saved.size());
+    EditorMetrics.add(EditorMetrics.FEATURES_FAILED, failed.size());
+    List<SaveQueue.Entry<Graphic>> rejected = new ArrayList<SaveQueue.Entry<Graphic>>();
+    List<SaveQueue.Entry<Graphic>> unverified = new ArrayList<SaveQueue.Entry<Graphic>>();
+    int unreachable = 0;
+    for (SaveQueue.Entry<Graphic> entry : failed) {
+      if (entry.isRetryable()) {
+        // Sin respuesta del servidor: queda en el diario para reenviarla
+        unreachable++;
+        if (mReplayer != null) {
+          mReplayer.onUnreachable(entry.getId());
+        }
+      } else if (entry.isUnverified()) {
+        // Pudo haberse guardado: queda en el diario, pero no se reenvía sin que lo decida el usuario
+        unverified.add(entry);
+        mUnverified.put(entry, layer);
+        if (mReplayer != null && entry.getId() != 0) {
+          mReplayer.onUnverified(entry.getId());
+        }
+      } else {
+        rejected.add(entry);
+      }
+    }
+    if (mReplayer != null) {
+      try {
+        for (SaveQueue.Entry<Graphic> entry : saved) {
+          mReplayer.onCompleted(entry.getId());
+        }
+        // El servidor rechazó estas entidades: reintentar no serviría
+        for (SaveQueue.Entry<Graphic> entry : rejected) {
+          mReplayer.onCompleted(entry.getId());
+        }
+        // Los acuses se llevan al disco en el hilo del diario
+        mReplayer.sync();
+      } catch (IOException e) {
+        Log.e(GeometryEditorActivity.TAG, "No se pudo escribir en el diario de ediciones", e);
+      }
+    }
+    if (mListener != null) {
+      mListener.onBatchComplete(saved, rejected, unverified, unreachable);
+    }
+    notifyStatus();
+
+    // El servidor volvió a responder: enviar lo que haya quedado pendiente
+    if (!saved.isEmpty()) {
+      replayPending();
+    }
+  }
+
+  /**
+   * Descarta de la caché las consultas que cubren las entidades que acabamos de guardar, para que la capa las
+   * vuelva a pedir con ellas.
+   */
+  private void invalidateFeatureCache(ArcGISFeatureLayer layer, List<SaveQueue.Entry<Graphic>> saved) {
+    Envelope envelope = new Envelope();
+    String url = layerUrl(layer);
+    for (SaveQueue.Entry<Graphic> entry : saved) {
+      Geometry geometry = entry.getFeature().getGeometry();
+      if (geometry == null) {
+        mFeatureCache.invalidate(url);
+        continue;
+      }
+      geometry.queryEnvelope(envelope);
+      mFeatureCache.invalidate(url, envelope.getXMin(), envelope.getYMin(), envelope.getXMax(), envelope.getYMax());
+    }
+  }
+
+  private void notifyStatus() {
+    if (mListener != null) {
+      mListener.onStatusChanged();
+    }
+  }
+
+  /**
+   * Convierte las altas del diario en gráficos de su capa y las pone en la cola de guardado; las geometrías se
+   * construyen en el hilo de trabajo.
+   */
+  private class JournalSink implements JournalReplayer.Sink {
+
+    @Override
+    public boolean submit(EditJournal.Entry entry, boolean unconfirmed) {
+      ArcGISFeatureLayer layer = findFeatureLayer(entry.getLayerUrl());
+      if (layer == null || !layer.isInitialized()) {
+        return false;
+      }
+      FeatureTemplate template = findTemplate(layer, entry.getTemplateName());
+      if (template == null) {
+        return false;
+      }
+      queueFeature(layer, template, entry.getSeq(), entry.getClientKey(), unconfirmed, entry.getGeometryType(),
+          entry.getCoords());
+      return true;
+    }
+
+    @Override
+    public void flush() {
+      // Las geometrías todavía en construcción entran a la cola después; se envían cuando estén todas
+      if (mFeaturesBuilding > 0) {
+        mFlushWhenBuilt = true;
+      } else {
+        mSaveQueue.flushAll();
+      }
+    }
+
+    @Override
+    public void onJournalError(IOException e) {
+      Log.e(GeometryEditorActivity.TAG, "No se pudo escribir en el diario de ediciones", e);
+    }
+  }
+
+  /**
+   * Envía los lotes de la cola de guardado con una sola llamada applyEdits por lote y devuelve el resultado de
+   * cada entidad en el hilo de la interfaz. Las altas sin confirmar se buscan por su clave, o por su geometría y
+   * atributos si la capa no guarda claves, con una consulta directa al servidor, sin pasar por la caché de
+   * consultas.
+   */
+  private class FeatureLayerUploader implements SaveQueue.Uploader<ArcGISFeatureLayer, Graphic> {
+
+    @Override
+    public void upload(ArcGISFeatureLayer layer, List<Graphic> features, final SaveQueue.Callback callback) {
+      Graphic[] adds = features.toArray(new Graphic[features.size()]);
+      layer.applyEdits(adds, null, null, new CallbackListener<FeatureEditResult[][]>() {
+
+        @Override
+        public void onError(final Throwable e) {
+          Log.d(GeometryEditorActivity.TAG, "applyEdits: " + e.getMessage());
+          mMain.execute(new Runnable() {
+            @Override
+            public void run() {
+              callback.onFailure(e.getMessage());
+            }
+          });
+        }
+
+        @Override
+        public void onCallback(FeatureEditResult[][] results) {
+          // results[0] son los resultados de las altas, en el mismo orden que el lote
+          FeatureEditResult[] addResults = results != null && results.length > 0 ? results[0] : null;
+          final String[] errors = new String[addResults != null ? addResults.length : 0];
+          for (int i = 0; i < errors.length; i++) {
+            if (!addResults[i].isSuccess()) {
+              errors[i] = addResults[i].getError() != null ? addResults[i].getError().getDescription() : "";
+            }
+          }
+          mMain.execute(new Runnable() {
+            @Override
+            public void run() {
+              callback.onResults(errors);
+            }
+          });
+        }
+
+      });
+    }
+
+    @Override
+    public void findStored(ArcGISFeatureLayer layer, List<Graphic> features,
+        final SaveQueue.LookupCallback callback) {
+      if (layer.getField(CLIENT_KEY_FIELD) != null) {
+        findByClientKey(layer, features, callback);
+      } else {
+        findByContent(layer, features, callback);
+      }
+    }
+
+    /**
+     * Busca las entidades por la clave de cliente que se guardó con ellas.
+     */
+    private void findByClientKey(ArcGISFeatureLayer layer, List<Graphic> features,
+        final SaveQueue.LookupCallback callback) {
+      final String[] keys = new String[features.size()];
+      StringBuilder where = new StringBuilder();
+      for (int i = 0; i < keys.length; i++) {
+        Object key = features.get(i).getAttributeValue(CLIENT_KEY_FIELD);
+        if (key == null) {
+          continue;
+        }
+        // Las claves son UUID: no llevan comillas que escapar
+        keys[i] = key.toString();
+        where.append(where.length() == 0 ? CLIENT_KEY_FIELD + " IN ('" : "','").append(keys[i]);
+      }
+      if (where.length() == 0) {
+        // Entidades creadas antes de que la capa tuviera el campo: no hay cómo saberlo
+        callback.onFound(unknown(keys.length));
+        return;
+      }
+      where.append("')");
+      QueryParameters query = new QueryParameters();
+      query.setWhere(where.toString());
+      query.setOutFields(new String[] { CLIENT_KEY_FIELD });
+      query.setReturnGeometry(false);
+      new QueryTask(layerUrl(layer)).execute(query, new LookupListener(callback) {
+
+        @Override
+        byte[] match(FeatureResult result) {
+          Set<String> found = new HashSet<String>();
+          if (result != null) {
+            for (Object feature : result) {
+              if (feature instanceof Feature) {
+                found.add(String.valueOf(((Feature) feature).getAttributeValue(CLIENT_KEY_FIELD)));
+              }
+            }
+          }
+          byte[] results = new byte[keys.length];
+          for (int i = 0; i < keys.length; i++) {
+            results[i] = keys[i] == null ? SaveQueue.LOOKUP_UNKNOWN
+                : found.contains(keys[i]) ? SaveQueue.LOOKUP_STORED : SaveQueue.LOOKUP_MISSING;
+          }
+          return results;
+        }
+
+      });
+    }
+
+    /**
+     * La capa no guarda claves: busca en la extensión del lote entidades con los mismos atributos de plantilla y
+     * la misma geometría. Si los atributos coinciden pero la geometría no (el servidor pudo haberla redondeado),
+     * no hay cómo saberlo.
+     */
+    private void findByContent(ArcGISFeatureLayer layer, final List<Graphic> features,
+        final SaveQueue.LookupCallback callback) {
+      final SpatialReference sr = mMapView.getSpatialReference();
+      Envelope extent = null;
+      Set<String> fields = new HashSet<String>();
+      for (Graphic feature : features) {
+        if (feature.getGeometry() == null) {
+          continue;
+        }
+        Envelope envelope = new Envelope();
+        feature.getGeometry().queryEnvelope(envelope);
+        if (extent == null) {
+          extent = envelope;
+        } else {
+          extent.merge(envelope);
+        }
+        if (feature.getAttributes() != null) {
+          fields.addAll(feature.getAttributes().keySet());
+        }
+      }
+      if (extent == null) {
+        callback.onFound(unknown(features.size()));
+        return;
+      }
+      QueryParameters query = new QueryParameters();
+      query.setGeometry(extent);
+      query.setInSpatialReference(sr);
+      query.setOutSpatialReference(sr);
+      query.setOutFields(fields.isEmpty() ? new String[] { "*" } : fields.toArray(new String[fields.size()]));
+      query.setReturnGeometry(true);
+      new QueryTask(layerUrl(layer)).execute(query, new LookupListener(callback) {
+
+        @Override
+        byte[] match(FeatureResult result) {
+          byte[] results = new byte[features.size()];
+          if (result == null) {
+            return results;
+          }
+          for (Object candidate : result) {
+            if (!(candidate instanceof Feature)) {
+              continue;
+            }
+            Feature stored = (Feature) candidate;
+            for (int i = 0; i < results.length; i++) {
+              Graphic feature = features.get(i);
+              if (results[i] == SaveQueue.LOOKUP_STORED || feature.getGeometry() == null
+                  || !sameAttributes(feature, stored)) {
+                continue;
+              }
+              results[i] = stored.getGeometry() != null
+                  && GeometryEngine.equals(feature.getGeometry(), stored.getGeometry(), sr)
+                  ? SaveQueue.LOOKUP_STORED : SaveQueue.LOOKUP_UNKNOWN;
+            }
+          }
+          for (int i = 0; i < results.length; i++) {
+            if (features.get(i).getGeometry() == null) {
+              results[i] = SaveQueue.LOOKUP_UNKNOWN;
+            }
+          }
+          return results;
+        }
+
+      });
+    }
+  }
+
+  /**
+   * true si la entidad del servidor tiene los mismos valores en los atributos que lleva la nuestra. Los números se
+   * comparan como texto porque el servidor puede devolverlos con otro tipo.
+   */
+  private static boolean sameAttributes(Graphic feature, Feature stored) {
+    if (feature.getAttributes() == null) {
+      return true;
+    }
+    for (Map.Entry<String, Object> attribute : feature.getAttributes().entrySet()) {
+      Object value = stored.getAttributeValue(attribute.getKey());
+      if (!String.valueOf(attribute.getValue()).equals(String.valueOf(value))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] unknown(int count) {
+    byte[] results = new byte[count];
+    Arrays.fill(results, SaveQueue.LOOKUP_UNKNOWN);
+    return results;
+  }
+
+  /**
+   * Lleva al hilo de la interfaz la respuesta de una búsqueda de {@link FeatureLayerUploader#findStored}.
+   */
+  private abstract class LookupListener implements CallbackListener<FeatureResult> {
+
+    private final SaveQueue.LookupCallback mCallback;
+
+    LookupListener(SaveQueue.LookupCallback callback) {
+      mCallback = callback;
+    }
+
+    /**
+     * Resultado de cada entidad buscada, en el hilo de la consulta.
+     */
+    abstract byte[] match(FeatureResult result);
+
+    @Override
+    public void onError(final Throwable e) {
+      Log.d(GeometryEditorActivity.TAG, "query: " + e.getMessage());
+      mMain.execute(new Runnable() {
+        @Override
+        public void run() {
+          mCallback.onFailure(e.getMessage());
+        }
+      });
+    }
+
+    @Override
+    public void onCallback(FeatureResult result) {
+      final byte[] results = match(result);
+      mMain.execute(new Runnable() {
+        @Override
+        public void run() {
+          mCallback.onFound(results);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.esri.android.map.GraphicsLayer;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiVertexGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.map.Graphic;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mantiene un {@link SnapIndex} con los bordes y vértices de las entidades que las capas ya descargaron. Las capas
+ * ONDEMAND piden entidades nuevas al mover el mapa sin avisar cuándo llegan, así que {@link #sync} compara los
+ * gráficos de cada capa con los indexados: sólo lee la geometría de los nuevos y elimina los que la capa soltó.
+ * <p>
+ * Debe usarse desde un solo hilo.
+ */
+public class FeatureSnapper {
+
+  private final List<GraphicsLayer> mLayers = new ArrayList<GraphicsLayer>();
+
+  private final SnapIndex mIndex = new SnapIndex();
+
+  // Dueños indexados: número de capa en los 32 bits altos e identificador del gráfico en los bajos
+  private final Set<Long> mIndexed = new HashSet<Long>();
+
+  private final Set<Long> mPresent = new HashSet<Long>();
+
+  private double[] mCoords = new double[64];
+
+  private long mLastSync;
+
+  public void addLayer(GraphicsLayer layer) {
+    mLayers.add(layer);
+  }
+
+  /**
+   * Milisegundos desde la última sincronización, según {@link System#currentTimeMillis}.
+   */
+  public long getSyncAge() {
+    return System.currentTimeMillis() - mLastSync;
+  }
+
+  /**
+   * Pone el índice al día con los gráficos de las capas. Si llegan muchas entidades juntas (por ejemplo la primera
+   * vez) el árbol se vuelve a armar de una vez; si son pocas se insertan una por una.
+   * <p>
+   * Recorre todos los gráficos de las capas, así que no va en el camino de un toque: {@link #snap} usa el índice
+   * que haya y la sincronización se programa aparte.
+   */
+  public void sync() {
+    mLastSync = System.currentTimeMillis();
+    mPresent.clear();
+    List<Long> added = new ArrayList<Long>();
+    for (int l = 0; l < mLayers.size(); l++) {
+      int[] ids = mLayers.get(l).getGraphicIDs();
+      if (ids == null) {
+        continue;
+      }
+      for (int id : ids) {
+        long owner = ((long) l << 32) | (id & 0xffffffffL);
+        mPresent.add(owner);
+        if (!mIndexed.contains(owner)) {
+          added.add(owner);
+        }
+      }
+    }
+    for (Iterator<Long> it = mIndexed.iterator(); it.hasNext();) {
+      long owner = it.next();
+      if (!mPresent.contains(owner)) {
+        mIndex.remove(owner);
+        it.remove();
+      }
+    }
+    boolean bulk = added.size() > mIndex.size() / 4;
+    for (long owner : added) {
+      Graphic graphic = mLayers.get((int) (owner >>> 32)).getGraphic((int) owner);
+      int count = graphic != null ? segments(graphic.getGeometry()) : 0;
+      if (count > 0) {
+        mIndex.add(owner, mCoords, count, bulk);
+      }
+      mIndexed.add(owner);
+    }
+    if (bulk && !added.isEmpty()) {
+      mIndex.bulkLoad();
+    }
+  }
+
+  /**
+   * @see SnapIndex#snap
+   */
+  public boolean snap(double x, double y, double tolerance, SnapIndex.Result out) {
+    return mIndex.snap(x, y, tolerance, out);
+  }
+
+  /**
+   * Deja en {@link #mCoords} los segmentos de una geometría; los puntos quedan como segmentos de largo cero.
+   *
+   * @return Número de segmentos.
+   */
+  private int segments(Geometry geometry) {
+    int count = 0;
+    if (geometry instanceof Point) {
+      Point p = (Point) geometry;
+      count = addSegment(count, p, p);
+    } else if (geometry instanceof MultiPath) {
+      MultiPath multipath = (MultiPath) geometry;
+      boolean closed = geometry instanceof Polygon;
+      for (int path = 0; path < multipath.getPathCount(); path++) {
+        int start = multipath.getPathStart(path);
+        int end = multipath.getPathEnd(path);
+        Point first = multipath.getPoint(start);
+        Point previous = first;
+        if (end - start == 1) {
+          count = addSegment(count, first, first);
+        }
+        for (int i = start + 1; i < end; i++) {
+          Point p = multipath.getPoint(i);
+          count = addSegment(count, previous, p);
+          previous = p;
+        }
+        if (closed && end - start > 2) {
+          count = addSegment(count, previous, first);
+        }
+      }
+    } else if (geometry instanceof MultiVertexGeometry) {
+      MultiVertexGeometry points = (MultiVertexGeometry) geometry;
+      for (int i = 0; i < points.getPointCount(); i++) {
+        Point p = points.getPoint(i);
+        count = addSegment(count, p, p);
+      }
+    }
+    return count;
+  }
+
+  private int addSegment(int count, Point a, Point b) {
+    if (mCoords.length < (count + 1) * 4) {
+      double[] coords = new double[mCoords.length * 2];
+      System.arraycopy(mCoords, 0, coords, 0, count * 4);
+      mCoords = coords;
+    }
+    mCoords[4 * count] = a.getX();
+    mCoords[4 * count + 1] = a.getY();
+    mCoords[4 * count + 2] = b.getX();
+    mCoords[4 * count + 3] = b.getY();
+    return count + 1;
+  }
+}
@@ -0,0 +1,80 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Método y tolerancia de generalización por plantilla, con un valor por omisión para las plantillas sin
+ * configuración propia.
+ */
+public class GeneralizationSettings {
+
+  /**
+   * Método y tolerancia de una plantilla.
+   */
+  public static class Rule {
+    private final Generalizer.Method method;
+
+    private final double tolerance;
+
+    public Rule(Generalizer.Method method, double tolerance) {
+      this.method = method;
+      this.tolerance = tolerance;
+    }
+
+    public Generalizer.Method getMethod() {
+      return method;
+    }
+
+    /**
+     * @return Tolerancia en unidades del mapa.
+     */
+    public double getTolerance() {
+      return tolerance;
+    }
+  }
+
+  private final Map<String, Rule> mRules = new HashMap<String, Rule>();
+
+  private Rule mDefault;
+
+  public GeneralizationSettings(Rule defaultRule) {
+    mDefault = defaultRule;
+  }
+
+  public void setDefault(Rule rule) {
+    mDefault = rule;
+  }
+
+  /**
+   * Configura una plantilla; null vuelve al valor por omisión.
+   */
+  public void put(String templateName, Rule rule) {
+    if (rule == null) {
+      mRules.remove(templateName);
+    } else {
+      mRules.put(templateName, rule);
+    }
+  }
+
+  public Rule get(String templateName) {
+    Rule rule = mRules.get(templateName);
+    return rule != null ? rule : mDefault;
+  }
+}
@@ -0,0 +1,284 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Generalización de líneas y anillos antes de guardarlos, para reducir los vértices de los bocetos densos.
+ * Ofrece Douglas-Peucker y Visvalingam-Whyatt; ambos conservan siempre el primer y el último vértice de una línea.
+ * <p>
+ * Las coordenadas van intercaladas (x0, y0, x1, y1, ...) como en {@link VertexBuffer#toInterleavedArray()}. Un
+ * anillo no repite el primer vértice al final.
+ */
+public final class Generalizer {
+
+  public enum Method {
+    NONE, DOUGLAS_PEUCKER, VISVALINGAM_WHYATT
+  }
+
+  private Generalizer() {
+  }
+
+  /**
+   * @param closed true para un anillo de polígono; el resultado conserva al menos tres vértices.
+   * @param tolerance En unidades del mapa. Para Douglas-Peucker es la distancia máxima entre la línea original y
+   *          la generalizada; para Visvalingam-Whyatt se eliminan los vértices cuyo triángulo efectivo tiene un
+   *          área menor que tolerance².
+   * @return Las coordenadas generalizadas, o el mismo arreglo si no se eliminó ningún vértice.
+   */
+  public static double[] simplify(double[] coords, boolean closed, Method method, double tolerance) {
+    int n = coords.length / 2;
+    int minimum = closed ? 3 : 2;
+    if (method == Method.NONE || tolerance <= 0 || n <= minimum) {
+      return coords;
+    }
+    // Un anillo se trata como una línea que vuelve al primer vértice
+    double[] line = coords;
+    if (closed) {
+      line = new double[coords.length + 2];
+      System.arraycopy(coords, 0, line, 0, coords.length);
+      line[coords.length] = coords[0];
+      line[coords.length + 1] = coords[1];
+    }
+    boolean[] keep = method == Method.DOUGLAS_PEUCKER ? douglasPeucker(line, tolerance) : visvalingamWhyatt(line,
+        tolerance * tolerance);
+
+    int kept = 0;
+    for (int i = 0; i < n; i++) {
+      if (keep[i]) {
+        kept++;
+      }
+    }
+    if (kept == n || kept < minimum) {
+      return coords;
+    }
+    double[] result = new double[kept * 2];
+    int j = 0;
+    for (int i = 0; i < n; i++) {
+      if (keep[i]) {
+        result[j++] = coords[2 * i];
+        result[j++] = coords[2 * i + 1];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Generaliza sin introducir cruces: si el resultado tiene segmentos que se cortan entre sí, vuelve a intentar con
+   * la mitad de la tolerancia. Sólo se miran los cruces y no la orientación de un anillo, así que un polígono
+   * dibujado en cualquier sentido se generaliza igual.
+   *
+   * @param attempts Intentos antes de devolver las coordenadas originales.
+   * @return Las coordenadas generalizadas, o el mismo arreglo si ningún intento quedó sin cruces.
+   */
+  public static double[] simplifyWithoutCrossings(double[] coords, boolean closed, Method method, double tolerance,
+      int attempts) {
+    for (int attempt = 0; attempt < attempts; attempt++) {
+      double[] result = simplify(coords, closed, method, tolerance);
+      if (result == coords || !hasCrossings(result, closed)) {
+        return result;
+      }
+      tolerance /= 2;
+    }
+    return coords;
+  }
+
+  private static boolean hasCrossings(double[] coords, boolean closed) {
+    VertexBuffer points = new VertexBuffer(coords.length / 2);
+    for (int i = 0; i < coords.length; i += 2) {
+      points.add(coords[i], coords[i + 1]);
+    }
+    SelfIntersectionIndex index = new SelfIntersectionIndex(points);
+    index.setClosed(closed);
+    index.rebuild();
+    return !index.isSimple();
+  }
+
+  /**
+   * Douglas-Peucker con una pila explícita en lugar de recursión, para no desbordar la pila con líneas largas.
+   * O(n log n) en el caso esperado.
+   */
+  static boolean[] douglasPeucker(double[] line, double tolerance) {
+    int n = line.length / 2;
+    boolean[] keep = new boolean[n];
+    keep[0] = true;
+    keep[n - 1] = true;
+    double tolerance2 = tolerance * tolerance;
+    int[] stack = new int[64];
+    int top = 0;
+    stack[top++] = 0;
+    stack[top++] = n - 1;
+    while (top > 0) {
+      int last = stack[--top];
+      int first = stack[--top];
+      double ax = line[2 * first];
+      double ay = line[2 * first + 1];
+      double dx = line[2 * last] - ax;
+      double dy = line[2 * last + 1] - ay;
+      double length2 = dx * dx + dy * dy;
+      double farthest = -1;
+      int index = -1;
+      for (int i = first + 1; i < last; i++) {
+        double d = segmentDistance2(line[2 * i] - ax, line[2 * i + 1] - ay, dx, dy, length2);
+        if (d > farthest) {
+          farthest = d;
+          index = i;
+        }
+      }
+      if (index != -1 && farthest > tolerance2) {
+        keep[index] = true;
+        if (top + 4 > stack.length) {
+          int[] grown = new int[stack.length * 2];
+          System.arraycopy(stack, 0, grown, 0, top);
+          stack = grown;
+        }
+        stack[top++] = first;
+        stack[top++] = index;
+        stack[top++] = index;
+        stack[top++] = last;
+      }
+    }
+    return keep;
+  }
+
+  /**
+   * Visvalingam-Whyatt con un montículo indexado: cada paso elimina el vértice de menor área efectiva y recalcula
+   * sólo a sus dos vecinos. O(n log n).
+   */
+  static boolean[] visvalingamWhyatt(double[] line, double minArea) {
+    int n = line.length / 2;
+    boolean[] keep = new boolean[n];
+    int[] prev = new int[n];
+    int[] next = new int[n];
+    double[] area = new double[n];
+    for (int i = 0; i < n; i++) {
+      keep[i] = true;
+      prev[i] = i - 1;
+      next[i] = i + 1;
+    }
+    if (n < 3) {
+      return keep;
+    }
+
+    // Montículo mínimo de los vértices interiores por área; position[i] es el lugar de i en el montículo
+    int[] heap = new int[n - 2];
+    int[] position = new int[n];
+    int size = 0;
+    for (int i = 1; i < n - 1; i++) {
+      area[i] = triangleArea(line, i - 1, i, i + 1);
+      heap[size] = i;
+      position[i] = size;
+      size++;
+    }
+    for (int i = size / 2 - 1; i >= 0; i--) {
+      siftDown(heap, position, area, size, i);
+    }
+
+    while (size > 0) {
+      int i = heap[0];
+      if (area[i] >= minArea) {
+        break;
+      }
+      // Quitar la raíz
+      size--;
+      heap[0] = heap[size];
+      position[heap[0]] = 0;
+      siftDown(heap, position, area, size, 0);
+      keep[i] = false;
+      position[i] = -1;
+
+      int p = prev[i];
+      int q = next[i];
+      next[p] = q;
+      prev[q] = p;
+      // El área de un vecino nunca baja de la del vértice eliminado, para que el orden de eliminación sea monótono
+      if (p > 0) {
+        update(heap, position, area, size, p, Math.max(area[i], triangleArea(line, prev[p], p, q)));
+      }
+      if (q < n - 1) {
+        update(heap, position, area, size, q, Math.max(area[i], triangleArea(line, p, q, next[q])));
+      }
+    }
+    return keep;
+  }
+
+  private static void update(int[] heap, int[] position, double[] area, int size, int i, double value) {
+    double old = area[i];
+    area[i] = value;
+    if (value < old) {
+      siftUp(heap, position, area, position[i]);
+    } else {
+      siftDown(heap, position, area, size, position[i]);
+    }
+  }
+
+  private static void siftUp(int[] heap, int[] position, double[] area, int at) {
+    int item = heap[at];
+    while (at > 0) {
+      int parent = (at - 1) / 2;
+      if (area[heap[parent]] <= area[item]) {
+        break;
+      }
+      heap[at] = heap[parent];
+      position[heap[at]] = at;
+      at = parent;
+    }
+    heap[at] = item;
+    position[item] = at;
+  }
+
+  private static void siftDown(int[] heap, int[] position, double[] area, int size, int at) {
+    if (size == 0) {
+      return;
+    }
+    int item = heap[at];
+    while (true) {
+      int child = 2 * at + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && area[heap[child + 1]] < area[heap[child]]) {
+        child++;
+      }
+      if (area[heap[child]] >= area[item]) {
+        break;
+      }
+      heap[at] = heap[child];
+      position[heap[at]] = at;
+      at = child;
+    }
+    heap[at] = item;
+    position[item] = at;
+  }
+
+  private static double triangleArea(double[] line, int a, int b, int c) {
+    double abx = line[2 * b] - line[2 * a];
+    double aby = line[2 * b + 1] - line[2 * a + 1];
+    double acx = line[2 * c] - line[2 * a];
+    double acy = line[2 * c + 1] - line[2 * a + 1];
+    return Math.abs(abx * acy - aby * acx) / 2;
+  }
+
+  /**
+   * Distancia al cuadrado de (px, py) al segmento desde el origen hasta (dx, dy).
+   */
+  private static double segmentDistance2(double px, double py, double dx, double dy, double length2) {
+    double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length2));
+    double ex = px - t * dx;
+    double ey = py - t * dy;
+    return ex * ex + ey * ey;
+  }
+}
@@ -16,13 +16,16 @@
 
 package com.esri.arcgis.android.samples.geometryeditor;
 
+import android.Manifest;
 import android.app.Activity;
 import android.app.DialogFragment;
 import android.app.Fragment;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Color;
+import android.content.pm.PackageManager;
+import android.location.LocationManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -39,34 +42,24 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.esri.android.map.GraphicsLayer;
-import com.esri.android.map.Layer;
 import com.esri.android.map.MapOnTouchListener;
 import com.esri.android.map.MapView;
 import com.esri.android.map.ags.ArcGISFeatureLayer;
+import com.esri.android.map.event.OnPanListener;
 import com.esri.android.map.event.OnStatusChangedListener;
-import com.esri.core.geometry.Geometry;
-import com.esri.core.geometry.GeometryEngine;
-import com.esri.core.geometry.MultiPath;
+import com.esri.android.map.event.OnZoomListener;
 import com.esri.core.geometry.Point;
-import com.esri.core.geometry.Polygon;
-import com.esri.core.geometry.Polyline;
-import com.esri.core.map.CallbackListener;
-import com.esri.core.map.FeatureEditResult;
 import com.esri.core.map.FeatureTemplate;
-import com.esri.core.map.FeatureType;
 import com.esri.core.map.Graphic;
-import com.esri.core.renderer.Renderer;
 import com.esri.core.symbol.FillSymbol;
 import com.esri.core.symbol.LineSymbol;
 import com.esri.core.symbol.MarkerSymbol;
-import com.esri.core.symbol.SimpleFillSymbol;
-import com.esri.core.symbol.SimpleLineSymbol;
-import com.esri.core.symbol.SimpleMarkerSymbol;
 import com.esri.core.symbol.Symbol;
-import com.esri.core.symbol.SymbolHelper;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /*
 El propósito de este ejemplo es demostrar cómo crear características (punto, polilínea, polígono) con los ArcGIS
@@ -108,8 +101,67 @@ public class GeometryEditorActivity extends Activity {
 
   //Enumeracion
   private enum EditMode {
-    NONE, POINT, POLYLINE, POLYGON, SAVING
+    NONE, POINT, POLYLINE, POLYGON
   }
+
+  // Memoria maxima para las imagenes de leyenda de las plantillas
+  private static final int LEGEND_CACHE_BYTES = 1024 * 1024;
+
+  // Lado de las imagenes de leyenda en dp
+  private static final int LEGEND_SIZE_DP = 30;
+
+  // Hilos que construyen el catalogo de plantillas
+  private static final int CATALOG_THREADS = 2;
+
+  // Cache de consultas de las capas de entidades, en la memoria y en el directorio de cache de la app
+  private static final String FEATURE_CACHE_DIR = "features";
+
+  private static final long FEATURE_CACHE_MEMORY_BYTES = 2 * 1024 * 1024;
+
+  private static final long FEATURE_CACHE_DISK_BYTES = 20 * 1024 * 1024;
+
+  // Las entidades de otros usuarios se vuelven a pedir pasado este tiempo
+  private static final long FEATURE_CACHE_MAX_AGE_MS = 10 * 60 * 1000;
+
+  private static final int FEATURE_CACHE_THREADS = 4;
+
+  // Diario de altas pendientes en el almacenamiento interno
+  private static final String JOURNAL_FILE = "edits.journal";
+
+  // Archivo donde se exportan las mediciones del editor, en el almacenamiento interno
+  private static final String METRICS_FILE = "editor-metrics.txt";
+
+  // Captura de recorridos: intervalo pedido al GPS, precision minima aceptada en metros, tolerancia de la
+  // simplificacion en unidades del mapa, posiciones sin confirmar y tiempo entre redibujados
+  private static final long CAPTURE_GPS_INTERVAL_MS = 50;
+
+  private static final float CAPTURE_MAX_ACCURACY_M = 20;
+
+  private static final double CAPTURE_TOLERANCE = 2;
+
+  private static final int CAPTURE_LOOKAHEAD = 32;
+
+  private static final long CAPTURE_FRAME_MS = 100;
+
+  private static final int REQUEST_LOCATION = 1;
+
+  // Generalizacion antes de guardar: tolerancia por omision en unidades del mapa
+  private static final double GENERALIZE_TOLERANCE = 1;
+
+  // Contorno a varias resoluciones: tolerancia del primer nivel en unidades del mapa y numero de niveles
+  private static final double OUTLINE_BASE_TOLERANCE = 0.25;
+
+  private static final int OUTLINE_LEVELS = 8;
+
+  // Distancia a la que un vertice nuevo se ajusta a una entidad existente o al propio boceto
+  private static final int SNAP_TOLERANCE_DP = 16;
+
+  // Espera despues de mover el mapa antes de indexar las entidades que la capa haya descargado
+  private static final long SNAP_SYNC_DELAY_MS = 1000;
+
+  // Antigüedad del indice a partir de la cual un toque pide sincronizarlo; el toque se ajusta con el que haya
+  private static final long SNAP_MAX_AGE_MS = 5000;
+
   //Menu opciones
   Menu mOptionsMenu;
   //Mapa
@@ -119,40 +171,99 @@ public class GeometryEditorActivity extends Activity {
   //Dialog
   DialogFragment mDialogFragment;
 
-  GraphicsLayer mGraphicsLayerEditing;
-  //Lista de puntos
-  ArrayList<Point> mPoints = new ArrayList<Point>();
-  //Lista de puntos medios
-  ArrayList<Point> mMidPoints = new ArrayList<Point>();
+  // Boceto: vertices, seleccion, historial e indices. La actividad lo maneja con ordenes y dibuja sus cambios
+  SketchEngine mEngine = new SketchEngine(OUTLINE_BASE_TOLERANCE, OUTLINE_LEVELS);
 
-  boolean mMidPointSelected = false;
+  // Dibujo del boceto en la capa de edicion
+  SketchDisplay mSketchDisplay;
 
-  boolean mVertexSelected = false;
+  // Boceto guardado con el estado de la actividad
+  SketchStateStore mSketchStore;
 
-  int mInsertingIndex;
+  // El contorno cambio desde la ultima pasada de dibujo; mover o acercar el mapa solo redibuja los puntos
+  boolean mSketchDirty = true;
 
   EditMode mEditMode;
 
   boolean mClosingTheApp = false;
 
-  ArrayList<EditingStates> mEditingStates = new ArrayList<EditingStates>();
+  LegendCache mLegendCache = new LegendCache(LEGEND_CACHE_BYTES);
+
+  GeneralizationSettings mGeneralization = new GeneralizationSettings(new GeneralizationSettings.Rule(
+      Generalizer.Method.DOUGLAS_PEUCKER, GENERALIZE_TOLERANCE));
+
+  TemplateCatalogLoader mCatalogLoader;
 
-  ArrayList<FeatureTypeData> mFeatureTypeList;
+  TemplateCatalog mCatalog;
 
-  ArrayList<FeatureTemplate> mTemplateList;
+  // Se pidio agregar una entidad antes de que el catalogo estuviera listo: el dialogo se abre al publicarse
+  boolean mAddPending;
 
-  ArrayList<ArcGISFeatureLayer> mFeatureLayerList;
+  FeatureCache mFeatureCache;
+
+  FeatureCacheProxy mFeatureCacheProxy;
+
+  // Bordes y vertices de las entidades descargadas, para ajustar los vertices nuevos
+  FeatureSnapper mSnapper = new FeatureSnapper();
+
+  // Hay una sincronizacion del indice de ajuste programada
+  boolean mSnapSyncPending;
 
   FeatureTemplate mTemplate;
 
   ArcGISFeatureLayer mTemplateLayer;
 
-  SimpleMarkerSymbol mRedMarkerSymbol = new SimpleMarkerSymbol(Color.RED, 20, SimpleMarkerSymbol.STYLE.CIRCLE);
+  // Boceto restaurado cuya plantilla espera a que su capa se inicialice
+  SketchSnapshot mPendingTemplate;
+
+  Handler mHandler = new Handler();
+
+  // Agrupa las actualizaciones del boceto en una pasada por cuadro
+  RefreshScheduler mRefreshScheduler = new RefreshScheduler(new Runnable() {
+    @Override
+    public void run() {
+      render();
+    }
+  }, new DisplayFrameClock(mHandler));
+
+  // Generalizacion, diario y cola de guardado de las entidades
+  FeatureSaver mSaver;
+
+  // Captura de recorridos desde el GPS
+  TrackCapture mCapture;
 
-  SimpleMarkerSymbol mBlackMarkerSymbol = new SimpleMarkerSymbol(Color.BLACK, 20, SimpleMarkerSymbol.STYLE.CIRCLE);
+  // Activacion y exportacion de las mediciones
+  MetricsControl mMetrics;
+
+  Runnable mReplayTask = new Runnable() {
+    @Override
+    public void run() {
+      replayPending();
+    }
+  };
 
-  SimpleMarkerSymbol mGreenMarkerSymbol = new SimpleMarkerSymbol(Color.GREEN, 15, SimpleMarkerSymbol.STYLE.CIRCLE);
+  Runnable mSnapSyncTask = new Runnable() {
+    @Override
+    public void run() {
+      mSnapSyncPending = false;
+      mSnapper.sync();
+    }
+  };
 
+  // Abre el dialogo de plantillas que se pidio mientras el catalogo se construia
+  Runnable mCatalogReadyTask = new Runnable() {
+    @Override
+    public void run() {
+      if (!mAddPending || mClosingTheApp) {
+        return;
+      }
+      mAddPending = false;
+      if (mEditMode == EditMode.NONE) {
+        mCatalog = mCatalogLoader.getCatalog();
+        showFeatureTypeDialogFragment();
+      }
+    }
+  };
 
   //Actividad
   @Override
@@ -165,6 +276,37 @@ public class GeometryEditorActivity extends Activity {
     setContentView(R.layout.main);
 
     mEditMode = EditMode.NONE;
+    mEngine.setListener(new SketchChanges());
+    mEngine.setSnapper(new LayerSnapper());
+    mSketchStore = new SketchStateStore(getFilesDir());
+
+    // Medicion de los caminos criticos: se activa desde el menu y queda activa entre sesiones; en las versiones de
+    // depuracion empieza activa
+    mMetrics = new MetricsControl(getPreferences(MODE_PRIVATE), new File(getFilesDir(), METRICS_FILE));
+    mMetrics.restore(BuildConfig.DEBUG);
+
+    // Catalogo de plantillas: se construye en segundo plano cuando cada capa se inicializa
+    final float scale = getResources().getDisplayMetrics().density;
+    mCatalogLoader = new TemplateCatalogLoader(mLegendCache, (int) (LEGEND_SIZE_DP * scale + 0.5f),
+        CATALOG_THREADS);
+    mCatalogLoader.setListener(new TemplateCatalogLoader.Listener() {
+
+      @Override
+      public void onCatalogPublished(TemplateCatalog catalog) {
+        mHandler.post(mCatalogReadyTask);
+      }
+
+    });
+
+    // Las capas piden sus entidades a traves de la cache local; si no arranca, van directo a la red
+    mFeatureCache = new FeatureCache(new File(getCacheDir(), FEATURE_CACHE_DIR), FEATURE_CACHE_MEMORY_BYTES,
+        FEATURE_CACHE_DISK_BYTES, FEATURE_CACHE_MAX_AGE_MS);
+    mFeatureCacheProxy = new FeatureCacheProxy(mFeatureCache, FEATURE_CACHE_THREADS);
+    try {
+      mFeatureCacheProxy.start();
+    } catch (IOException e) {
+      Log.e(TAG, "No se pudo iniciar la cache de entidades", e);
+    }
 
     if (savedInstanceState == null) {
       mMapState = null;
@@ -184,25 +326,51 @@ public class GeometryEditorActivity extends Activity {
 
       @Override
       public void onStatusChanged(Object source, STATUS status) {
+        if (STATUS.INITIALIZED == status) {
+          if (source instanceof ArcGISFeatureLayer) {
+            mCatalogLoader.layerInitialized((ArcGISFeatureLayer) source);
+            resolvePendingTemplate();
+            scheduleSnapSync();
+          }
+          // La capa respondió: enviar las altas pendientes que le correspondan
+          mHandler.post(mReplayTask);
+        }
       }
     };
 
     // Creacion de la capa layer
-    ArcGISFeatureLayer fl1 = new ArcGISFeatureLayer(
-        "http://sampleserver5.arcgisonline.com/ArcGIS/rest/services/LocalGovernment/Recreation/FeatureServer/2",
+    ArcGISFeatureLayer fl1 = new ArcGISFeatureLayer(mFeatureCacheProxy.wrap(
+        "http://sampleserver5.arcgisonline.com/ArcGIS/rest/services/LocalGovernment/Recreation/FeatureServer/2"),
         ArcGISFeatureLayer.MODE.ONDEMAND);
     fl1.setOnStatusChangedListener(statusChangedListener);
-    ArcGISFeatureLayer fl2 = new ArcGISFeatureLayer(
-        "http://sampleserver5.arcgisonline.com/ArcGIS/rest/services/LocalGovernment/Recreation/FeatureServer/0",
+    ArcGISFeatureLayer fl2 = new ArcGISFeatureLayer(mFeatureCacheProxy.wrap(
+        "http://sampleserver5.arcgisonline.com/ArcGIS/rest/services/LocalGovernment/Recreation/FeatureServer/0"),
         ArcGISFeatureLayer.MODE.ONDEMAND);
     fl2.setOnStatusChangedListener(statusChangedListener);
-    ArcGISFeatureLayer fl3 = new ArcGISFeatureLayer(
-        "http://sampleserver5.arcgisonline.com/ArcGIS/rest/services/LocalGovernment/Recreation/FeatureServer/1",
+    ArcGISFeatureLayer fl3 = new ArcGISFeatureLayer(mFeatureCacheProxy.wrap(
+        "http://sampleserver5.arcgisonline.com/ArcGIS/rest/services/LocalGovernment/Recreation/FeatureServer/1"),
         ArcGISFeatureLayer.MODE.ONDEMAND);
     fl3.setOnStatusChangedListener(statusChangedListener);
+    mCatalogLoader.addLayer(fl1);
+    mCatalogLoader.addLayer(fl2);
+    mCatalogLoader.addLayer(fl3);
+    mSnapper.addLayer(fl1);
+    mSnapper.addLayer(fl2);
+    mSnapper.addLayer(fl3);
 
     // Encuentre los layer
     mMapView = (MapView) findViewById(R.id.map);
+    mSketchDisplay = new SketchDisplay(mMapView, mEngine, scale);
+
+    // Posiciones del GPS para la captura de recorridos
+    mCapture = new TrackCapture(new GpsLocationSource((LocationManager) getSystemService(Context.LOCATION_SERVICE),
+        CAPTURE_GPS_INTERVAL_MS, CAPTURE_MAX_ACCURACY_M), mEngine, mSketchDisplay, mMapView, mHandler,
+        CAPTURE_TOLERANCE, CAPTURE_LOOKAHEAD, CAPTURE_FRAME_MS);
+
+    // Guardado: lo que no llego al servidor en una sesion anterior sigue en el diario y se vuelve a enviar
+    mSaver = new FeatureSaver(mMapView, mFeatureCacheProxy, mFeatureCache, mHandler);
+    mSaver.setListener(new SaveProgress());
+    mSaver.openJournal(new File(getFilesDir(), JOURNAL_FILE));
     mMapView.addLayer(fl1);
     mMapView.addLayer(fl2);
     mMapView.addLayer(fl3);
@@ -214,19 +382,61 @@ public class GeometryEditorActivity extends Activity {
       @Override
       public void onStatusChanged(final Object source, final STATUS status) {
         if (STATUS.INITIALIZED == status) {
+          // Un boceto restaurado puede haber creado ya la capa de edicion
           if (source instanceof MapView) {
-            mGraphicsLayerEditing = new GraphicsLayer();
-            mMapView.addLayer(mGraphicsLayerEditing);
+            mSketchDisplay.createLayer();
           }
         }
       }
     });
     mMapView.setOnTouchListener(new MyTouchListener(GeometryEditorActivity.this, mMapView));
 
+    // Al mover o acercar el mapa, recalcular los puntos de control visibles
+    mMapView.setOnPanListener(new OnPanListener() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void prePointerMove(float fromx, float fromy, float tox, float toy) {
+      }
+
+      @Override
+      public void postPointerMove(float fromx, float fromy, float tox, float toy) {
+        refreshHandles();
+      }
+
+      @Override
+      public void prePointerUp(float fromx, float fromy, float tox, float toy) {
+      }
+
+      @Override
+      public void postPointerUp(float fromx, float fromy, float tox, float toy) {
+        refreshHandles();
+        scheduleSnapSync();
+      }
+    });
+    mMapView.setOnZoomListener(new OnZoomListener() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void preAction(float pivotX, float pivotY, double factor) {
+      }
+
+      @Override
+      public void postAction(float pivotX, float pivotY, double factor) {
+        refreshHandles();
+        scheduleSnapSync();
+      }
+    });
+
     // Actualizar el map view
     if (!TextUtils.isEmpty(mMapState)) {
       mMapView.restoreState(mMapState);
     }
+
+    // Recuperar el boceto que se estaba editando cuando Android cerro el proceso
+    if (savedInstanceState != null) {
+      restoreSketch(savedInstanceState);
+    }
   }
 
   @Override
@@ -263,6 +473,18 @@ public class GeometryEditorActivity extends Activity {
       case R.id.action_undo:
         actionUndo();//borrar
         return true;
+      case R.id.action_redo:
+        actionRedo();//rehacer
+        return true;
+      case R.id.action_capture:
+        actionCapture();//recorrido
+        return true;
+      case R.id.action_measure:
+        actionMeasure();//activar mediciones
+        return true;
+      case R.id.action_metrics:
+        actionMetrics();//mediciones
+        return true;
       default:
         return super.onOptionsItemSelected(item);//ninguno
     }
@@ -271,7 +493,7 @@ public class GeometryEditorActivity extends Activity {
   @Override
   //Metodo para progress bar
   public void onBackPressed() {
-    if (mEditMode != EditMode.NONE && mEditMode != EditMode.SAVING && mEditingStates.size() > 0) {
+    if (mEditMode != EditMode.NONE && mEngine.canUndo()) {
       // Pregunta confirmacion
       mClosingTheApp = true;
       showConfirmDiscardDialogFragment();
@@ -284,6 +506,12 @@ public class GeometryEditorActivity extends Activity {
   @Override
   protected void onPause() {
     super.onPause();
+    // No dejar el GPS encendido con la actividad en segundo plano
+    if (mCapture.isCapturing()) {
+      stopCapture();
+    }
+    // No dejar entidades esperando en la cola mientras la actividad no esta visible
+    mSaver.flushAll();
     mMapView.pause();
   }
 
@@ -291,28 +519,188 @@ public class GeometryEditorActivity extends Activity {
   protected void onResume() {
     super.onResume();
     mMapView.unpause();
+    // Puede haber vuelto la conexion: no esperar a que venzan los reintentos
+    mSaver.retryNow();
+    replayPending();
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    mHandler.removeCallbacks(mCatalogReadyTask);
+    mHandler.removeCallbacks(mSnapSyncTask);
+    mCatalogLoader.shutdown();
+    mFeatureCacheProxy.stop();
+    // Lo que no se envio sigue en el diario para la proxima sesion
+    mSaver.shutdown();
   }
 
   @Override
   //Preparar el Gravar
   protected void onSaveInstanceState(Bundle outState) {
     super.onSaveInstanceState(outState);
+    // Ya no se pueden mostrar dialogos
+    mAddPending = false;
     outState.putString(KEY_MAP_STATE, mMapView.retainState());
+    if (mEditMode != EditMode.NONE) {
+      saveSketch(outState);
+    }
+  }
+
+  /**
+   * Guarda el boceto con la plantilla; los bocetos grandes van a un archivo.
+   */
+  private void saveSketch(Bundle outState) {
+    String layerUrl = null;
+    String templateName = null;
+    if (mTemplate != null) {
+      layerUrl = mSaver.layerUrl(mTemplateLayer);
+      templateName = mTemplate.getName();
+    } else if (mPendingTemplate != null) {
+      layerUrl = mPendingTemplate.getLayerUrl();
+      templateName = mPendingTemplate.getTemplateName();
+    }
+    mSketchStore.save(outState, mEngine, geometryType(), layerUrl, templateName, mMapView.getSpatialReference());
+  }
+
+  /**
+   * Vuelve al boceto guardado por {@link #saveSketch}, si hay uno. La plantilla se busca cuando su capa termina
+   * de inicializarse; mientras tanto se puede seguir editando pero no guardar.
+   */
+  private void restoreSketch(Bundle savedInstanceState) {
+    long start = EditorMetrics.start();
+    VertexBuffer points = new VertexBuffer();
+    EditHistory history = new EditHistory();
+    SketchSnapshot snapshot = mSketchStore.read(savedInstanceState, points, history);
+    if (snapshot == null) {
+      return;
+    }
+    switch (snapshot.getGeometryType()) {
+      case EditJournal.POINT:
+        mEditMode = EditMode.POINT;
+        break;
+      case EditJournal.POLYLINE:
+        mEditMode = EditMode.POLYLINE;
+        break;
+      case EditJournal.POLYGON:
+        mEditMode = EditMode.POLYGON;
+        break;
+      default:
+        return;
+    }
+    clear();
+    SketchStateStore.load(mEngine, snapshot, points, history);
+    mPendingTemplate = snapshot.getTemplateName() != null ? snapshot : null;
+    resolvePendingTemplate();
+    mMapView.setShowMagnifierOnLongPress(true);
+    refresh();
+    EditorMetrics.stop(EditorMetrics.SKETCH_RESTORE, start);
+  }
+
+  /**
+   * Busca la plantilla del boceto restaurado, si su capa ya esta inicializada.
+   */
+  void resolvePendingTemplate() {
+    if (mPendingTemplate == null) {
+      return;
+    }
+    ArcGISFeatureLayer layer = mSaver.findFeatureLayer(mPendingTemplate.getLayerUrl());
+    if (layer == null || !layer.isInitialized()) {
+      return;
+    }
+    mTemplate = FeatureSaver.findTemplate(layer, mPendingTemplate.getTemplateName());
+    mTemplateLayer = mTemplate != null ? layer : null;
+    mPendingTemplate = null;
+    if (mEditMode != EditMode.NONE) {
+      updateActionBar();
+    }
   }
 
   /**
    * Accion añadir metodos.
    */
   private void actionAdd() {
-    listTemplates();
+    // Si los tipos de alguna capa cambiaron se reconstruye en segundo plano para la proxima vez
+    mCatalogLoader.refresh();
+    mCatalog = mCatalogLoader.getCatalog();
+    if (mCatalog.isEmpty() && mCatalogLoader.isLoading()) {
+      // Todavia no termina la construccion en segundo plano: el dialogo se abre cuando se publique
+      mAddPending = true;
+      Toast.makeText(this, R.string.loading_templates, Toast.LENGTH_SHORT).show();
+      return;
+    }
     showFeatureTypeDialogFragment();
   }
 
+  /**
+   * Accion recorrido: empieza o termina la captura continua de vertices desde el GPS.
+   */
+  private void actionCapture() {
+    if (mCapture.isCapturing()) {
+      stopCapture();
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+        && checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+      requestPermissions(new String[] { Manifest.permission.ACCESS_FINE_LOCATION }, REQUEST_LOCATION);
+    } else {
+      startCapture();
+    }
+  }
+
+  @Override
+  public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+    super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+    if (requestCode == REQUEST_LOCATION && grantResults.length > 0
+        && grantResults[0] == PackageManager.PERMISSION_GRANTED && mEditMode != EditMode.NONE) {
+      startCapture();
+    }
+  }
+
+  /**
+   * Empieza a agregar vertices desde el GPS. Mientras dura la captura solo se dibuja el recorrido y los toques en el
+   * mapa se ignoran.
+   */
+  void startCapture() {
+    // El boceto va a cambiar sin avisos por vertice
+    mSaver.cancelPreparation();
+    // El recorrido reemplaza al boceto: no dibujar la actualizacion pendiente
+    mRefreshScheduler.cancel();
+    mCapture.start();
+    updateActionBar();
+  }
+
+  /**
+   * Termina la captura y vuelve al dibujo normal del boceto.
+   */
+  void stopCapture() {
+    mCapture.stop();
+    refresh();
+  }
+
+  /**
+   * Accion medir: activa o desactiva las mediciones.
+   */
+  private void actionMeasure() {
+    mMetrics.toggle();
+    updateActionBar();
+  }
+
+  /**
+   * Accion exportar mediciones: las escribe en el log y en un archivo de la app.
+   */
+  private void actionMetrics() {
+    try {
+      File file = mMetrics.export();
+      Toast.makeText(this, getString(R.string.metrics_exported, file.getPath()), Toast.LENGTH_LONG).show();
+    } catch (IOException e) {
+      Log.e(TAG, "No se pudieron exportar las mediciones", e);
+    }
+  }
+
   /**
    * Accion descartar.
    */
   private void actionDiscard() {
-    if (mEditingStates.size() > 0) {
+    if (mEngine.canUndo()) {
       // para confirmar
       mClosingTheApp = false;
       showConfirmDiscardDialogFragment();
@@ -326,114 +714,81 @@ public class GeometryEditorActivity extends Activity {
    * Handles the 'Delete' action.
    */
   private void actionDelete() {
-    if (!mVertexSelected) {
-      mPoints.remove(mPoints.size() - 1); // Borra el ultimo vertice
-    } else {
-      mPoints.remove(mInsertingIndex); // Borra el vertice seleccionada
-    }
-    mMidPointSelected = false;
-    mVertexSelected = false;
-    mEditingStates.add(new EditingStates(mPoints, mMidPointSelected, mVertexSelected, mInsertingIndex));
+    mEngine.deleteSelected(); // Vertice seleccionado o el ultimo
     refresh();
   }
 
   /**
-   * Accion para limpar
+   * Accion para limpar: aplica la inversa de la ultima operacion.
    */
   private void actionUndo() {
-    mEditingStates.remove(mEditingStates.size() - 1);
-    mPoints.clear();
-    if (mEditingStates.size() == 0) {
-      mMidPointSelected = false;
-      mVertexSelected = false;
-      mInsertingIndex = 0;
-    } else {
-      EditingStates state = mEditingStates.get(mEditingStates.size() - 1);
-      mPoints.addAll(state.points);
-      Log.d(TAG, "# of points = " + mPoints.size());
-      mMidPointSelected = state.midPointSelected;
-      mVertexSelected = state.vertexSelected;
-      mInsertingIndex = state.insertingIndex;
-    }
+    mEngine.undo();
     refresh();
   }
 
   /**
-   * Guardar Los cambios realizados se aplican y por lo tanto guardan en el servidor.
+   * Accion rehacer: vuelve a aplicar la ultima operacion deshecha.
    */
-  private void actionSave() {
-    Graphic g;
-
-    if (mEditMode == EditMode.POINT) {
-      // Para un punto, basta con crear un gráfico desde el punto
-      g = mTemplateLayer.createFeatureWithTemplate(mTemplate, mPoints.get(0));
-    } else {
-      // Polilíneas y polígonos, crear un MultiPath de los puntos
-      MultiPath multipath;
-      if (mEditMode == EditMode.POLYLINE) {
-        multipath = new Polyline();
-      } else if (mEditMode == EditMode.POLYGON) {
-        multipath = new Polygon();
-      } else {
-        return;
-      }
-      multipath.startPath(mPoints.get(0));
-      for (int i = 1; i < mPoints.size(); i++) {
-        multipath.lineTo(mPoints.get(i));
-      }
+  private void actionRedo() {
+    mEngine.redo();
+    refresh();
+  }
 
-      // Simple geometria de puntos
-      Geometry geom = GeometryEngine.simplify(multipath, mMapView.getSpatialReference());
-      g = mTemplateLayer.createFeatureWithTemplate(mTemplate, geom);
+  /**
+   * Guardar Los cambios realizados se aplican y por lo tanto guardan en el servidor. La generalizacion y la
+   * validacion del boceto corren en el hilo de trabajo sobre una copia; mientras tanto el boceto sigue a la vista y
+   * descartarlo o editarlo cancela el guardado.
+   */
+  private void actionSave() {
+    if (mEditMode == EditMode.NONE || mTemplate == null) {
+      return;
     }
-    
-    // Muestra el progress bar al momento de salvar
-    setProgressBarIndeterminateVisibility(true);
-    mEditMode = EditMode.SAVING;
-    updateActionBar();
-
-    // Ahora agregue el gráfico a la capa
-    mTemplateLayer.applyEdits(new Graphic[] { g }, null, null, new CallbackListener<FeatureEditResult[][]>() {
-
-      @Override
-      public void onError(Throwable e) {
-        Log.d(TAG, e.getMessage());
-        completeSaveAction(null);
-      }
-
-      @Override
-      public void onCallback(FeatureEditResult[][] results) {
-        completeSaveAction(results);
-      }
+    // Copia inmutable de lo necesario: el hilo de trabajo no toca el boceto ni el mapa
+    if (mSaver.save(mTemplateLayer, mTemplate, geometryType(), mEngine.toCoordinates(),
+        mGeneralization.get(mTemplate.getName()))) {
+      updateActionBar();
+    }
+  }
 
-    });
+  /**
+   * Tipo de geometría del modo de edición actual, una de las constantes de {@link EditJournal}, o
+   * {@link SketchEngine#NONE} si no se edita.
+   */
+  private byte geometryType() {
+    switch (mEditMode) {
+      case POINT:
+        return EditJournal.POINT;
+      case POLYLINE:
+        return EditJournal.POLYLINE;
+      case POLYGON:
+        return EditJournal.POLYGON;
+      case NONE:
+      default:
+        return SketchEngine.NONE;
+    }
+  }
 
+  /**
+   * Vuelve a enviar las altas del diario que no tienen respuesta del servidor.
+   */
+  void replayPending() {
+    mSaver.replayPending();
   }
 
   /**
-   * Informes resultado de la acción "Guardar" para el modo de edición de usuario y una salida.
-   * 
-   * @param results Los resultados de la operación.
+   * Muestra el avance del guardado en la barra de acción: el indicador de progreso mientras haya entidades por
+   * enviar, y cuántas esperan, están en camino o esperan un reintento, incluidas las del diario sin conexión.
    */
-  void completeSaveAction(final FeatureEditResult[][] results) {
-    runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        if (results != null) {
-          if (results[0][0].isSuccess()) {
-            String msg = GeometryEditorActivity.this.getString(R.string.saved);
-            Toast.makeText(GeometryEditorActivity.this, msg, Toast.LENGTH_SHORT).show();
-          } else {
-            EditFailedDialogFragment frag = new EditFailedDialogFragment();
-            mDialogFragment = frag;
-            frag.setMessage(results[0][0].getError().getDescription());
-            frag.show(getFragmentManager(), TAG_DIALOG_FRAGMENTS);
-          }
-        }
-        setProgressBarIndeterminateVisibility(false);
-        exitEditMode();
-      }
-    });
+  void showSaveStatus() {
+    SaveQueue.Status status = mSaver.getStatus();
+    int offline = mSaver.getOfflineCount();
+    setProgressBarIndeterminateVisibility(mSaver.isBusy());
+    if (status.isIdle() && offline == 0) {
+      getActionBar().setSubtitle(null);
+    } else {
+      getActionBar().setSubtitle(getString(R.string.save_status, status.getQueued(), status.getSending(),
+          status.getRetrying() + offline));
+    }
   }
 
   /**
@@ -446,10 +801,11 @@ public class GeometryEditorActivity extends Activity {
 
       @Override
       public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        mTemplate = mTemplateList.get(position);
-        mTemplateLayer = mFeatureLayerList.get(position);
+        TemplateCatalog.Item item = mCatalog.getItems().get(position);
+        mTemplate = item.getTemplate();
+        mTemplateLayer = item.getLayer();
 
-        FeatureTypeData featureType = mFeatureTypeList.get(position);
+        FeatureTypeData featureType = item.getData();
         Symbol symbol = featureType.getSymbol();
         if (symbol instanceof MarkerSymbol) {
           mEditMode = EditMode.POINT;
@@ -466,7 +822,7 @@ public class GeometryEditorActivity extends Activity {
       }
 
     });
-    frag.setListAdapter(new FeatureTypeListAdapter(this, mFeatureTypeList));
+    frag.setListAdapter(new FeatureTypeListAdapter(this, mCatalog.getFeatureTypeData()));
     frag.show(getFragmentManager(), TAG_DIALOG_FRAGMENTS);
   }
 
@@ -492,121 +848,157 @@ public class GeometryEditorActivity extends Activity {
     frag.show(getFragmentManager(), TAG_DIALOG_FRAGMENTS);
   }
 
+  /**
+   * Pregunta al usuario si vuelve a enviar las entidades que el servidor pudo haber guardado sin confirmarlo.
+   */
+  private void showConfirmUnverifiedDialogFragment(String message) {
+    ConfirmUnverifiedDialogFragment frag = new ConfirmUnverifiedDialogFragment();
+    mDialogFragment = frag;
+    frag.setMessage(message);
+    frag.setYesListener(new View.OnClickListener() {
+
+      @Override
+      public void onClick(View v) {
+        mDialogFragment.dismiss();
+        mSaver.resendUnverified();
+      }
+
+    });
+    frag.setNoListener(new View.OnClickListener() {
+
+      @Override
+      public void onClick(View v) {
+        mDialogFragment.dismiss();
+        mSaver.discardUnverified();
+      }
+
+    });
+    frag.show(getFragmentManager(), TAG_DIALOG_FRAGMENTS);
+  }
+
   /**
    * Sale del estado del modo de edición.
    */
   void exitEditMode() {
+    mSaver.cancelPreparation();
+    if (mCapture.isCapturing()) {
+      mCapture.cancel();
+    }
     mEditMode = EditMode.NONE;
     clear();
     mMapView.setShowMagnifierOnLongPress(false);
   }
 
   /**
-   * Método se enumeran todas las plantillas de entidades en la capa. Desde el MapView
-   * tenemos todas las capas en una  Matriz
+   * Pide actualizar los elementos en el proximo cuadro; varias peticiones en el mismo cuadro se dibujan una vez.
    */
-  private void listTemplates() {
-    mFeatureTypeList = new ArrayList<FeatureTypeData>();
-    mTemplateList = new ArrayList<FeatureTemplate>();
-    mFeatureLayerList = new ArrayList<ArcGISFeatureLayer>();
-
-    // Mostramos todas las capas
-    Layer[] layers = mMapView.getLayers();
-    for (Layer l : layers) {
-
-      // Comprobar si se trata de una ArcGISFeatureLayer
-      if (l instanceof ArcGISFeatureLayer) {
-        Log.d(TAG, l.getUrl());
-        ArcGISFeatureLayer featureLayer = (ArcGISFeatureLayer) l;
-
-        // Mostramos capas
-        FeatureType[] types = featureLayer.getTypes();
-        for (FeatureType featureType : types) {
-          // Save data for each template for this feature type
-          addTemplates(featureLayer, featureType.getTemplates());
-        }
-
-        // hay plantillas en esta capa
-        if (mFeatureTypeList.size() == 0) {
-          addTemplates(featureLayer, featureLayer.getTemplates());
-        }
-      }
-    }
+  void refresh() {
+    mSketchDirty = true;
+    mRefreshScheduler.requestRefresh();
   }
 
   /**
-   * Guarda los datos para un conjunto de plantillas de entidad.
-   * 
-   * @param featureLayer Feturelayer que presenta.
-   * @param templates Array de capas
+   * Indexa las entidades descargadas para el ajuste, un rato despues de mover el mapa para dar tiempo a que las
+   * capas reciban las de la nueva vista.
    */
-  private void addTemplates(ArcGISFeatureLayer featureLayer, FeatureTemplate[] templates) {
-    for (FeatureTemplate featureTemplate : templates) {
-      String name = featureTemplate.getName();
-      Graphic g = featureLayer.createFeatureWithTemplate(featureTemplate, null);
-      Renderer renderer = featureLayer.getRenderer();
-      Symbol symbol = renderer.getSymbol(g);
+  void scheduleSnapSync() {
+    mHandler.removeCallbacks(mSnapSyncTask);
+    mSnapSyncPending = true;
+    mHandler.postDelayed(mSnapSyncTask, SNAP_SYNC_DELAY_MS);
+  }
 
-      final int WIDTH_IN_DP_UNITS = 30;
-      final float scale = getResources().getDisplayMetrics().density;
-      final int widthInPixels = (int) (WIDTH_IN_DP_UNITS * scale + 0.5f);
-      Bitmap bitmap = SymbolHelper.getLegendImage(symbol, widthInPixels, widthInPixels);
+  /**
+   * Radio de ajuste de los vertices nuevos o movidos, en unidades del mapa.
+   */
+  double snapTolerance() {
+    return SNAP_TOLERANCE_DP * getResources().getDisplayMetrics().density * mMapView.getResolution();
+  }
 
-      mFeatureTypeList.add(new FeatureTypeData(bitmap, name, symbol));
-      mTemplateList.add(featureTemplate);
-      mFeatureLayerList.add(featureLayer);
+  /**
+   * Pide recalcular solo los puntos de control visibles, despues de mover o acercar el mapa.
+   */
+  void refreshHandles() {
+    if (mEditMode != EditMode.NONE && !mCapture.isCapturing()) {
+      mRefreshScheduler.requestRefresh();
     }
   }
 
   /**
-   * Actualiza los elementos
+   * Actualiza los elementos. Solo se tocan los graficos que cambiaron desde la ultima actualizacion.
    */
-  void refresh() {
-    if (mGraphicsLayerEditing != null) {
-      mGraphicsLayerEditing.removeAll();
+  void render() {
+    long start = EditorMetrics.start();
+    // El contorno se vuelve a dibujar si cambio o si la escala pide otro nivel de detalle
+    mSketchDisplay.drawOutline(mSketchDirty, geometryType());
+    if (mSketchDirty) {
+      mSketchDirty = false;
+      updateActionBar();
     }
-    drawPolylineOrPolygon();
-    drawMidPoints();
-    drawVertices();
-
-    updateActionBar();
+    if (!mCapture.isCapturing()) {
+      mSketchDisplay.drawHandles();
+    }
+    EditorMetrics.stop(EditorMetrics.REFRESH, start);
   }
 
   /**
    * Update el bar action
    */
   private void updateActionBar() {
-    if (mEditMode == EditMode.NONE || mEditMode == EditMode.SAVING) {
+    if (mOptionsMenu == null) {
+      // Todavia no se creo el menu; onCreateOptionsMenu lo actualiza
+      return;
+    }
+    long start = EditorMetrics.start();
+    if (mEditMode == EditMode.NONE) {
       // No se edita
-      if (mEditMode == EditMode.NONE) {
-        showAction(R.id.action_add, true);
-      } else {
-        showAction(R.id.action_add, false);
-      }
+      showAction(R.id.action_add, true);
       showAction(R.id.action_discard, false);
       showAction(R.id.action_save, false);
       showAction(R.id.action_delete, false);
       showAction(R.id.action_undo, false);
+      showAction(R.id.action_redo, false);
+      showAction(R.id.action_capture, false);
+    } else if (mCapture.isCapturing()) {
+      // Captura de recorrido: solo se puede detener o descartar
+      showAction(R.id.action_add, false);
+      showAction(R.id.action_discard, true);
+      showAction(R.id.action_save, false);
+      showAction(R.id.action_delete, false);
+      showAction(R.id.action_undo, false);
+      showAction(R.id.action_redo, false);
+      showAction(R.id.action_capture, true);
+      mOptionsMenu.findItem(R.id.action_capture).setTitle(R.string.action_capture_stop);
     } else {
       // se Edita
       showAction(R.id.action_add, false);
       showAction(R.id.action_discard, true);
-      if (isSaveValid()) {
+      if (mTemplate != null && !mSaver.isPreparing() && mEngine.isSaveValid()) {
         showAction(R.id.action_save, true);
       } else {
         showAction(R.id.action_save, false);
       }
-      if (mEditMode != EditMode.POINT && mPoints.size() > 0 && !mMidPointSelected) {
+      if (mEngine.canDelete()) {
         showAction(R.id.action_delete, true);
       } else {
         showAction(R.id.action_delete, false);
       }
-      if (mEditingStates.size() > 0) {
+      if (mEngine.canUndo()) {
         showAction(R.id.action_undo, true);
       } else {
         showAction(R.id.action_undo, false);
       }
+      if (mEngine.canRedo()) {
+        showAction(R.id.action_redo, true);
+      } else {
+        showAction(R.id.action_redo, false);
+      }
+      showAction(R.id.action_capture, mEditMode == EditMode.POLYLINE || mEditMode == EditMode.POLYGON);
+      mOptionsMenu.findItem(R.id.action_capture).setTitle(R.string.action_capture);
     }
+    // Sin medicion no hay nada que exportar
+    mOptionsMenu.findItem(R.id.action_measure).setChecked(EditorMetrics.isEnabled());
+    showAction(R.id.action_metrics, EditorMetrics.isEnabled());
+    EditorMetrics.stop(EditorMetrics.ACTION_BAR, start);
   }
 
   /**
@@ -622,197 +1014,187 @@ public class GeometryEditorActivity extends Activity {
   }
 
   /**
-   * Validacion al salvar
-   * 
-   * @return true si es valido.
+   * Borra las funciones de datos de edición y actualización de la barra de acción.
    */
-  private boolean isSaveValid() {
-    int minPoints;
+  void clear() {
+    // Clear feature editing data
+    mEngine.start(geometryType());
+
+    // Una actualizacion pendiente volveria a crear la capa de edicion
+    mRefreshScheduler.cancel();
+    mSketchDisplay.clear();
+
+    // Actualizar barra de acción para reflejar el nuevo estado
+    updateActionBar();
+    int resId;
     switch (mEditMode) {
       case POINT:
-        minPoints = 1;
+        resId = R.string.title_add_point;
         break;
       case POLYGON:
-        minPoints = 3;
+        resId = R.string.title_add_polygon;
         break;
       case POLYLINE:
-        minPoints = 2;
+        resId = R.string.title_add_polyline;
         break;
+      case NONE:
       default:
-        return false;
+        resId = R.string.app_name;
+        break;
     }
-    return mPoints.size() >= minPoints;
+    getActionBar().setTitle(resId);
   }
 
   /**
-   * Dibuja las polineas
+   * Lleva cada cambio del boceto a sus graficos. Un boceto que cambia ya no es el que se estaba guardando.
    */
-  private void drawPolylineOrPolygon() {
-    Graphic graphic;
-    MultiPath multipath;
+  private class SketchChanges implements SketchEngine.Listener {
 
-    // Crea la capa de grafico existente
-    if (mGraphicsLayerEditing == null) {
-      mGraphicsLayerEditing = new GraphicsLayer();
-      mMapView.addLayer(mGraphicsLayerEditing);
+    @Override
+    public void onVertexInserted(int index, double x, double y) {
+      mSaver.cancelPreparation();
+      // El grafico se agrega en la proxima pasada de dibujo, si queda a la vista
+      mSketchDisplay.invalidateVertices();
     }
 
-    if (mPoints.size() > 1) {
+    @Override
+    public void onVertexMoved(int index, double x, double y) {
+      mSaver.cancelPreparation();
+    }
 
-      // Construye el multi punto
-      if (mEditMode == EditMode.POLYLINE) {
-        multipath = new Polyline();
-      } else {
-        multipath = new Polygon();
-      }
-      multipath.startPath(mPoints.get(0));
-      for (int i = 1; i < mPoints.size(); i++) {
-        multipath.lineTo(mPoints.get(i));
-      }
+    @Override
+    public void onVertexRemoved(int index) {
+      mSaver.cancelPreparation();
+      mSketchDisplay.invalidateVertices();
+    }
 
-      // Dibuja y rellena los simbolos
-      if (mEditMode == EditMode.POLYLINE) {
-        graphic = new Graphic(multipath, new SimpleLineSymbol(Color.BLACK, 4));
-      } else {
-        SimpleFillSymbol simpleFillSymbol = new SimpleFillSymbol(Color.YELLOW);
-        simpleFillSymbol.setAlpha(100);
-        simpleFillSymbol.setOutline(new SimpleLineSymbol(Color.BLACK, 4));
-        graphic = new Graphic(multipath, (simpleFillSymbol));
-      }
-      mGraphicsLayerEditing.addGraphic(graphic);
+    @Override
+    public void onMidPointInserted(int index, double x, double y) {
+      mSketchDisplay.invalidateMidPoints();
     }
-  }
 
-  /**
-   * Llama la mitad del punto medio
-   */
-  private void drawMidPoints() {
-    int index;
-    Graphic graphic;
+    @Override
+    public void onMidPointMoved(int index, double x, double y) {
+      mSketchDisplay.moveMidPoint(index, x, y);
+    }
 
-    mMidPoints.clear();
-    if (mPoints.size() > 1) {
+    @Override
+    public void onMidPointRemoved(int index) {
+      mSketchDisplay.invalidateMidPoints();
+    }
 
-      // Construye la nueva lista de puntos
-      for (int i = 1; i < mPoints.size(); i++) {
-        Point p1 = mPoints.get(i - 1);
-        Point p2 = mPoints.get(i);
-        mMidPoints.add(new Point((p1.getX() + p2.getX()) / 2, (p1.getY() + p2.getY()) / 2));
-      }
-      if (mEditMode == EditMode.POLYGON && mPoints.size() > 2) {
-        // Completa el circulo
-        Point p1 = mPoints.get(0);
-        Point p2 = mPoints.get(mPoints.size() - 1);
-        mMidPoints.add(new Point((p1.getX() + p2.getX()) / 2, (p1.getY() + p2.getY()) / 2));
-      }
+    @Override
+    public void onSelectionChanged() {
+      refresh();
+    }
 
-      // Dibuja la mitad de los puntos
-      index = 0;
-      for (Point pt : mMidPoints) {
-        if (mMidPointSelected && mInsertingIndex == index) {
-          graphic = new Graphic(pt, mRedMarkerSymbol);
-        } else {
-          graphic = new Graphic(pt, mGreenMarkerSymbol);
-        }
-        mGraphicsLayerEditing.addGraphic(graphic);
-        index++;
-      }
+    @Override
+    public void onSketchReset() {
+      mSaver.cancelPreparation();
+      mSketchDisplay.invalidateVertices();
+      mSketchDisplay.invalidateMidPoints();
     }
   }
 
   /**
-   * Dibuja cada vertice de los puntos
+   * Ajuste a los vertices y bordes de las entidades de las capas. El toque nunca sincroniza el indice, que recorre
+   * todos los graficos: si quedo viejo se programa la sincronizacion para despues y se ajusta con el que hay.
    */
-  private void drawVertices() {
-    int index = 0;
-    SimpleMarkerSymbol symbol;
+  private class LayerSnapper implements SketchEngine.Snapper {
 
-    for (Point pt : mPoints) {
-      if (mVertexSelected && index == mInsertingIndex) {
-        // Este vértice está actualmente seleccionada de modo que sea de color rojo
-        symbol = mRedMarkerSymbol;
-      } else if (index == mPoints.size() - 1 && !mMidPointSelected && !mVertexSelected) {
-        // Último vértice y ninguno seleccionado en ese momento por lo que lo convierten en rojo
-        symbol = mRedMarkerSymbol;
-      } else {
-        // Este color negro
-        symbol = mBlackMarkerSymbol;
+    @Override
+    public boolean snap(double x, double y, double tolerance, SnapIndex.Result out) {
+      if (!mSnapSyncPending && mSnapper.getSyncAge() > SNAP_MAX_AGE_MS) {
+        scheduleSnapSync();
       }
-      Graphic graphic = new Graphic(pt, symbol);
-      mGraphicsLayerEditing.addGraphic(graphic);
-      index++;
+      return mSnapper.snap(x, y, tolerance, out);
     }
   }
 
   /**
-   * Borra las funciones de datos de edición y actualización de la barra de acción.
+   * Toque en el mapa
    */
-  void clear() {
-    // Clear feature editing data
-    mPoints.clear();
-    mMidPoints.clear();
-    mEditingStates.clear();
+  private class MyTouchListener extends MapOnTouchListener {
+    private static final int TOLERANCE = 40; // Tolerance in pixels
 
-    mMidPointSelected = false;
-    mVertexSelected = false;
-    mInsertingIndex = 0;
+    MapView mapView;
 
-    if (mGraphicsLayerEditing != null) {
-      mGraphicsLayerEditing.removeAll();
-    }
+    // Arrastre en curso, del dedo al mapa
+    private final ScreenDrag mDrag = new ScreenDrag();
 
-    // Actualizar barra de acción para reflejar el nuevo estado
-    updateActionBar();
-    int resId;
-    switch (mEditMode) {
-      case POINT:
-        resId = R.string.title_add_point;
-        break;
-      case POLYGON:
-        resId = R.string.title_add_polygon;
-        break;
-      case POLYLINE:
-        resId = R.string.title_add_polyline;
-        break;
-      case NONE:
-      default:
-        resId = R.string.app_name;
-        break;
+    public MyTouchListener(Context context, MapView view) {
+      super(context, view);
+      mapView = view;
     }
-    getActionBar().setTitle(resId);
-  }
 
-  /**
-   * Una instancia de esta clase se crea cuando se agrega / movido / eliminado un nuevo punto.
-   * Se registra el estado de la edición en que el tiempo y permite
-   * operaciones de edición que se deshagan.
-   */
-  private class EditingStates {
-    ArrayList<Point> points = new ArrayList<Point>();
+    @Override
+    public boolean onDragPointerMove(MotionEvent from, MotionEvent to) {
+      if (mEngine.getDragIndex() == -1 && !beginDrag(from)) {
+        // No se agarro ningun punto: mover el mapa
+        return super.onDragPointerMove(from, to);
+      }
+      dragTo(to);
+      return true;
+    }
 
-    boolean midPointSelected = false;
+    @Override
+    public boolean onDragPointerUp(MotionEvent from, MotionEvent to) {
+      if (mEngine.getDragIndex() == -1) {
+        return super.onDragPointerUp(from, to);
+      }
+      dragTo(to);
+      endDrag();
+      return true;
+    }
 
-    boolean vertexSelected = false;
+    /**
+     * Agarra el vertice o punto medio bajo el dedo. Un punto medio se convierte en vertice al empezar a arrastrarlo.
+     *
+     * @return false si no hay ningun punto bajo el dedo.
+     */
+    private boolean beginDrag(MotionEvent e) {
+      if (mEditMode == EditMode.NONE || mCapture.isCapturing()) {
+        return false;
+      }
+      Point point = mapView.toMapPoint(e.getX(), e.getY());
+      if (!mEngine.beginDrag(point.getX(), point.getY(), TOLERANCE * mapView.getResolution())) {
+        return false;
+      }
 
-    int insertingIndex;
+      int index = mEngine.getDragIndex();
+      Point right = mapView.toMapPoint(e.getX() + 1, e.getY());
+      Point down = mapView.toMapPoint(e.getX(), e.getY() + 1);
+      mDrag.begin(mEngine.getPoints().getX(index), mEngine.getPoints().getY(index), e.getX(), e.getY(),
+          right.getX() - point.getX(), right.getY() - point.getY(), down.getX() - point.getX(),
+          down.getY() - point.getY());
 
-    public EditingStates(ArrayList<Point> points, boolean midpointselected, boolean vertexselected, int insertingindex) {
-      this.points.addAll(points);
-      this.midPointSelected = midpointselected;
-      this.vertexSelected = vertexselected;
-      this.insertingIndex = insertingindex;
+      // Dibujar una vez el contorno sin el vertice y el vertice resaltado
+      refresh();
+      mRefreshScheduler.flush();
+      mSketchDisplay.beginDrag(mEditMode == EditMode.POLYGON);
+      return true;
     }
-  }
 
-  /**
-   * Toque en el mapa
-   */
-  private class MyTouchListener extends MapOnTouchListener {
-    MapView mapView;
+    /**
+     * Lleva el vertice arrastrado bajo el dedo. Solo toca el vertice, sus dos segmentos y sus puntos medios, y no
+     * crea objetos.
+     */
+    private void dragTo(MotionEvent e) {
+      long start = EditorMetrics.start();
+      double x = mDrag.mapX(e.getX(), e.getY());
+      double y = mDrag.mapY(e.getX(), e.getY());
+      mEngine.dragTo(x, y);
+      mSketchDisplay.dragTo(x, y);
+      EditorMetrics.stop(EditorMetrics.DRAG, start);
+    }
 
-    public MyTouchListener(Context context, MapView view) {
-      super(context, view);
-      mapView = view;
+    /**
+     * Suelta el vertice: registra una sola operacion en el historial y vuelve a dibujar el contorno completo.
+     */
+    private void endDrag() {
+      mEngine.endDrag();
+      mSketchDisplay.endDrag();
+      refresh();
     }
 
     @Override
@@ -834,111 +1216,82 @@ public class GeometryEditorActivity extends Activity {
      * @param e punto que se tocó.
      */
     private void handleTap(final MotionEvent e) {
+      long start = EditorMetrics.start();
+      try {
+        // Ignore the tap if we're not creating a feature just now, or the GPS is adding the vertices
+        if (mEditMode == EditMode.NONE || mCapture.isCapturing()) {
+          return;
+        }
 
-      // Ignore the tap if we're not creating a feature just now
-      if (mEditMode == EditMode.NONE || mEditMode == EditMode.SAVING) {
-        return;
-      }
-
-      Point point = mapView.toMapPoint(new Point(e.getX(), e.getY()));
+        Point point = mapView.toMapPoint(new Point(e.getX(), e.getY()));
 
-      // Si estamos creando un punto, despejar cualquier punto existente
-      if (mEditMode == EditMode.POINT) {
-        mPoints.clear();
-      }
+        // Un punto se mueve al lugar tocado; en lo demas se selecciona, se mueve lo seleccionado o se agrega un
+        // vertice. Tolerancia convertida a unidades del mapa una sola vez por toque
+        mEngine.tap(point.getX(), point.getY(), TOLERANCE * mapView.getResolution(), snapTolerance());
 
-      // Si se selecciona un punto Actualmente, mover ese punto de aprovechar el punto
-      if (mMidPointSelected || mVertexSelected) {
-        movePoint(point);
-      } else {
-        // Seleccione punto medio
-        int idx1 = getSelectedIndex(e.getX(), e.getY(), mMidPoints, mapView);
-        if (idx1 != -1) {
-          mMidPointSelected = true;
-          mInsertingIndex = idx1;
-        } else {
-          // Seleccione el vertice
-          int idx2 = getSelectedIndex(e.getX(), e.getY(), mPoints, mapView);
-          if (idx2 != -1) {
-            mVertexSelected = true;
-            mInsertingIndex = idx2;
-          } else {
-            //añade nuevo verice
-            mPoints.add(point);
-            mEditingStates.add(new EditingStates(mPoints, mMidPointSelected, mVertexSelected, mInsertingIndex));
-          }
-        }
+        // Reinicia el grafico
+        refresh();
+      } finally {
+        EditorMetrics.stop(EditorMetrics.TAP, start);
       }
-
-      // Reinicia el grafico
-      refresh();
     }
+  }
 
-    /**
-     * Comprueba si un lugar determinado coincide (dentro de una tolerancia) con un punto en una matriz dada.
-     * 
-     * @param x Locacion .
-     * @param y Locacion.
-     * @param points Array de puntos.
-     * @param map MapView que contiene los puntos.
-     * @return Index e retorno.
-     */
-    private int getSelectedIndex(double x, double y, ArrayList<Point> points, MapView map) {
-      final int TOLERANCE = 40; // Tolerance in pixels
+  /**
+   * Muestra el resultado del guardado: el avance en la barra de accion, y al terminar un lote cuantas entidades se
+   * guardaron y, para cada una que el servidor rechazo, el motivo.
+   */
+  private class SaveProgress implements FeatureSaver.Listener {
 
-      if (points == null || points.size() == 0) {
-        return -1;
+    @Override
+    public void onPreparationFinished(boolean committed) {
+      if (committed) {
+        // La entidad quedo en camino: el editor queda libre para la siguiente
+        exitEditMode();
+      } else {
+        updateActionBar();
       }
+    }
 
-      // Encuentra los puntos
-      int index = -1;
-      double distSQ_Small = Double.MAX_VALUE;
-      for (int i = 0; i < points.size(); i++) {
-        Point p = map.toScreenPoint(points.get(i));
-        double diffx = p.getX() - x;
-        double diffy = p.getY() - y;
-        double distSQ = diffx * diffx + diffy * diffy;
-        if (distSQ < distSQ_Small) {
-          index = i;
-          distSQ_Small = distSQ;
+    @Override
+    public void onBatchComplete(List<SaveQueue.Entry<Graphic>> saved, List<SaveQueue.Entry<Graphic>> rejected,
+        List<SaveQueue.Entry<Graphic>> unverified, int unreachable) {
+      StringBuilder msg = new StringBuilder();
+      for (SaveQueue.Entry<Graphic> entry : rejected) {
+        if (msg.length() > 0) {
+          msg.append('\n');
         }
+        msg.append(getString(R.string.save_failed_item, entry.getLabel(), entry.getError()));
       }
-
-      // Comprobacion si esta cerca
-      if (distSQ_Small < (TOLERANCE * TOLERANCE)) {
-        return index;
-      }
-      return -1;
-    }
-
-    /**
-     * Desplaza el punto seleccionado en ese momento a un lugar determinado
-     * 
-     * @param point   Ubicación para mover el punto a.
-     */
-    private void movePoint(Point point) {
-      if (mMidPointSelected) {
-        // Mover el punto medio a la nueva ubicación y que sea un vértice
-        mPoints.add(mInsertingIndex + 1, point);
-      } else {
-        // Debe ser un vértice: moverlo a la nueva ubicación
-        ArrayList<Point> temp = new ArrayList<Point>();
-        for (int i = 0; i < mPoints.size(); i++) {
-          if (i == mInsertingIndex) {
-            temp.add(point);
-          } else {
-            temp.add(mPoints.get(i));
-          }
+      if (!unverified.isEmpty()) {
+        // Los rechazos, si los hay, se muestran en el mismo dialogo
+        StringBuilder labels = new StringBuilder();
+        for (SaveQueue.Entry<Graphic> entry : unverified) {
+          labels.append(labels.length() > 0 ? ", " : "").append(entry.getLabel());
         }
-        mPoints.clear();
-        mPoints.addAll(temp);
+        if (msg.length() > 0) {
+          msg.append("\n\n");
+        }
+        msg.append(getString(R.string.msg_confirm_unverified, labels));
+        showConfirmUnverifiedDialogFragment(msg.toString());
+      } else if (msg.length() > 0) {
+        EditFailedDialogFragment frag = new EditFailedDialogFragment();
+        mDialogFragment = frag;
+        frag.setMessage(msg.toString());
+        frag.show(getFragmentManager(), TAG_DIALOG_FRAGMENTS);
+      } else if (unreachable > 0 && mSaver.hasJournal()) {
+        Toast.makeText(GeometryEditorActivity.this, getString(R.string.saved_offline, unreachable),
+            Toast.LENGTH_LONG).show();
+      } else if (!saved.isEmpty()) {
+        String text = saved.size() == 1 ? getString(R.string.saved) : getString(R.string.saved_count, saved.size());
+        Toast.makeText(GeometryEditorActivity.this, text, Toast.LENGTH_SHORT).show();
       }
-      // Volver al modo de dibujo normal y guardar el nuevo estado de edición
-      mMidPointSelected = false;
-      mVertexSelected = false;
-      mEditingStates.add(new EditingStates(mPoints, mMidPointSelected, mVertexSelected, mInsertingIndex));
     }
 
+    @Override
+    public void onStatusChanged() {
+      showSaveStatus();
+    }
   }
 
   /**
@@ -967,7 +1320,7 @@ public class GeometryEditorActivity extends Activity {
 
       FeatureTypeData featureType = getItem(position);
       holder.imageView.setImageBitmap(featureType.getBitmap());
-      holder.textView.setText(mFeatureTypeList.get(position).getName());
+      holder.textView.setText(featureType.getName());
       view.setTag(holder);
       return view;
     }
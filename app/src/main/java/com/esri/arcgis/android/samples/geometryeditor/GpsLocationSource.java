@@ -0,0 +1,80 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+
+/**
+ * Posiciones del GPS del dispositivo. Descarta las que tienen una precisión peor que la indicada, para que un
+ * salto del receptor no termine como vértice del recorrido.
+ */
+public class GpsLocationSource implements LocationSource, LocationListener {
+
+  private final LocationManager mLocationManager;
+
+  private final long mMinTimeMillis;
+
+  private final float mMaxAccuracyMeters;
+
+  private Listener mListener;
+
+  /**
+   * @param minTimeMillis Intervalo pedido al GPS entre posiciones.
+   * @param maxAccuracyMeters Precisión mínima aceptada, en metros.
+   */
+  public GpsLocationSource(LocationManager locationManager, long minTimeMillis, float maxAccuracyMeters) {
+    mLocationManager = locationManager;
+    mMinTimeMillis = minTimeMillis;
+    mMaxAccuracyMeters = maxAccuracyMeters;
+  }
+
+  @Override
+  public void start(Listener listener) {
+    mListener = listener;
+    mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, mMinTimeMillis, 0, this,
+        Looper.getMainLooper());
+  }
+
+  @Override
+  public void stop() {
+    mLocationManager.removeUpdates(this);
+    mListener = null;
+  }
+
+  @Override
+  public void onLocationChanged(Location location) {
+    if (mListener != null && location.getAccuracy() <= mMaxAccuracyMeters) {
+      mListener.onLocation(location.getLongitude(), location.getLatitude(), location.getTime());
+    }
+  }
+
+  @Override
+  public void onStatusChanged(String provider, int status, Bundle extras) {
+  }
+
+  @Override
+  public void onProviderEnabled(String provider) {
+  }
+
+  @Override
+  public void onProviderDisabled(String provider) {
+  }
+}
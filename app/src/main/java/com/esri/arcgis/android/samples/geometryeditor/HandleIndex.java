@@ -0,0 +1,650 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Índice espacial de una lista ordenada de puntos de control (vértices o puntos medios) en unidades del mapa.
+ * Usa una rejilla uniforme: cada celda guarda una lista enlazada de los puntos que contiene, de modo que insertar,
+ * mover o eliminar un punto es O(1) y buscar el punto más cercano sólo recorre las celdas que cubren el radio.
+ * <p>
+ * Los puntos se identifican por su posición en la lista; internamente cada uno ocupa una ranura estable para que
+ * las inserciones y eliminaciones no obliguen a reubicar los demás puntos en la rejilla. La lista de ranuras se
+ * reparte en trozos con un {@link ChunkLayout}, así que insertar o eliminar desplaza a lo sumo un trozo.
+ * <p>
+ * Cada celda lleva además la cantidad de puntos y la suma de sus coordenadas, al día con cada cambio, para que
+ * quien dibuja pueda recortar y agrupar por celdas sin recorrer los puntos.
+ * <p>
+ * La tabla de celdas sólo guarda celdas con puntos y se dimensiona al insertar, así que mover un punto (por ejemplo
+ * durante un arrastre largo) no la hace crecer ni crea objetos.
+ */
+public class HandleIndex {
+
+  /**
+   * Lista de coordenadas que el índice puede sincronizar.
+   */
+  public interface Coordinates {
+    int size();
+
+    double getX(int index);
+
+    double getY(int index);
+  }
+
+  /**
+   * Recibe las celdas ocupadas de un rectángulo.
+   */
+  public interface CellVisitor {
+    /**
+     * @param cx Columna de la celda; la celda cubre de cx * getCellSize() a (cx + 1) * getCellSize().
+     * @param cy Fila de la celda.
+     * @param count Puntos en la celda, al menos uno.
+     * @param sumX Suma de las coordenadas X de los puntos de la celda.
+     * @param sumY Suma de las coordenadas Y.
+     */
+    void visitCell(long cx, long cy, int count, double sumX, double sumY);
+  }
+
+  private static final int NONE = -1;
+
+  // Relación máxima entre el radio de búsqueda y el tamaño de celda antes de reconstruir la rejilla
+  private static final double MAX_CELL_RATIO = 4;
+
+  private double cellSize = 1;
+
+  // Datos de cada ranura
+  private double[] slotX = new double[16];
+
+  private double[] slotY = new double[16];
+
+  private int[] slotCell = new int[16];
+
+  private int[] slotNext = new int[16];
+
+  private int[] slotPrev = new int[16];
+
+  // Posición física de cada ranura en positionSlots
+  private int[] slotPhysical = new int[16];
+
+  private int slotCount;
+
+  private int freeSlot = NONE;
+
+  // Posición física -> ranura; el layout lleva de la posición en la lista a la física
+  private int[] positionSlots = new int[0];
+
+  private final ChunkLayout layout = new ChunkLayout(VertexBuffer.CHUNK_SIZE, 16, new ChunkLayout.Storage() {
+    @Override
+    public void ensureCapacity(int capacity) {
+      positionSlots = grow(positionSlots, capacity);
+    }
+
+    @Override
+    public void move(int from, int to, int length) {
+      System.arraycopy(positionSlots, from, positionSlots, to, length);
+      for (int physical = to; physical < to + length; physical++) {
+        slotPhysical[positionSlots[physical]] = physical;
+      }
+    }
+  });
+
+  // Tabla hash de celdas con direccionamiento abierto: coordenadas de la celda -> primera ranura
+  private long[] cellX = new long[64];
+
+  private long[] cellY = new long[64];
+
+  private int[] cellHead = new int[64];
+
+  private boolean[] cellUsed = new boolean[64];
+
+  // Puntos de cada celda y suma de sus coordenadas, relativas a la esquina de la celda para no perder precisión
+  private int[] cellPoints = new int[64];
+
+  private double[] cellSumX = new double[64];
+
+  private double[] cellSumY = new double[64];
+
+  // Cambia con cada inserción, movimiento o eliminación
+  private int version;
+
+  // Espacio de trabajo de pointsIn
+  private int[] scratchSlots = new int[16];
+
+  public int size() {
+    return layout.size();
+  }
+
+  public double getX(int index) {
+    return slotX[slotAt(index)];
+  }
+
+  public double getY(int index) {
+    return slotY[slotAt(index)];
+  }
+
+  public double getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * @return Número que cambia cada vez que cambian los puntos, para no repetir consultas sobre el mismo índice.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * @return Columna o fila de la celda que contiene una coordenada.
+   */
+  public long cellOf(double v) {
+    return (long) Math.floor(v / cellSize);
+  }
+
+  /**
+   * Ajusta el tamaño de celda al radio de búsqueda. Sólo reconstruye la rejilla si el radio cambió mucho, por
+   * ejemplo tras un zoom, así que puede llamarse antes de cada consulta.
+   *
+   * @param radius Radio de búsqueda en unidades del mapa.
+   */
+  public void fitCellSize(double radius) {
+    if (radius <= 0 || Double.isNaN(radius) || Double.isInfinite(radius)) {
+      return;
+    }
+    if (radius > cellSize * MAX_CELL_RATIO || radius < cellSize / MAX_CELL_RATIO) {
+      cellSize = radius;
+      rebuild();
+    }
+  }
+
+  /**
+   * Inserta un punto en una posición de la lista.
+   */
+  public void insert(int index, double x, double y) {
+    int size = layout.size();
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+    }
+    if ((size + 1) * 2 > cellUsed.length) {
+      // Cada celda tiene al menos un punto: con la mitad de la tabla por punto nunca hace falta crecer al mover
+      growCells();
+    }
+    int slot = allocateSlot();
+    slotX[slot] = x;
+    slotY[slot] = y;
+    link(slot);
+    int physical = layout.insert(index);
+    positionSlots[physical] = slot;
+    slotPhysical[slot] = physical;
+    version++;
+  }
+
+  /**
+   * Mueve el punto de una posición a nuevas coordenadas.
+   */
+  public void move(int index, double x, double y) {
+    int slot = slotAt(index);
+    int cell = findCell(cellOf(x), cellOf(y), false);
+    if (cell != slotCell[slot]) {
+      unlink(slot);
+      slotX[slot] = x;
+      slotY[slot] = y;
+      link(slot);
+    } else {
+      cellSumX[cell] += x - slotX[slot];
+      cellSumY[cell] += y - slotY[slot];
+      slotX[slot] = x;
+      slotY[slot] = y;
+    }
+    version++;
+  }
+
+  /**
+   * Elimina el punto de una posición.
+   */
+  public void remove(int index) {
+    int slot = slotAt(index);
+    unlink(slot);
+    layout.remove(index);
+    slotNext[slot] = freeSlot;
+    freeSlot = slot;
+    version++;
+  }
+
+  /**
+   * Vacía el índice.
+   */
+  public void clear() {
+    layout.clear();
+    slotCount = 0;
+    freeSlot = NONE;
+    version++;
+    clearCells();
+  }
+
+  /**
+   * Pone el índice al día con una lista de coordenadas. Los prefijos y sufijos que no cambiaron no se tocan, así
+   * que el trabajo sobre la rejilla es proporcional a la parte de la lista que cambió.
+   */
+  public void sync(Coordinates points) {
+    int size = layout.size();
+    int count = points.size();
+    int prefix = 0;
+    while (prefix < size && prefix < count && same(prefix, points, prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < size - prefix && suffix < count - prefix && same(size - 1 - suffix, points, count - 1 - suffix)) {
+      suffix++;
+    }
+    int oldMiddle = size - prefix - suffix;
+    int newMiddle = count - prefix - suffix;
+    int common = Math.min(oldMiddle, newMiddle);
+    for (int i = prefix; i < prefix + common; i++) {
+      move(i, points.getX(i), points.getY(i));
+    }
+    for (int i = common; i < newMiddle; i++) {
+      insert(prefix + i, points.getX(prefix + i), points.getY(prefix + i));
+    }
+    for (int i = common; i < oldMiddle; i++) {
+      remove(prefix + common);
+    }
+  }
+
+  /**
+   * Busca el punto más cercano a una ubicación dentro de un radio.
+   *
+   * @return Posición del punto, o -1 si no hay ninguno dentro del radio.
+   */
+  public int nearest(double x, double y, double radius) {
+    int size = layout.size();
+    if (size == 0) {
+      return NONE;
+    }
+    long cx0 = cellOf(x - radius);
+    long cx1 = cellOf(x + radius);
+    long cy0 = cellOf(y - radius);
+    long cy1 = cellOf(y + radius);
+
+    int best = NONE;
+    double bestDistSQ = radius * radius;
+    if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > size) {
+      // Hay más celdas que puntos: es más barato recorrer todos los puntos
+      for (int rank = 0; rank < layout.getChunkCount(); rank++) {
+        int base = layout.getChunkBase(rank);
+        for (int physical = base, end = base + layout.getChunkLength(rank); physical < end; physical++) {
+          int slot = positionSlots[physical];
+          double d = distSQ(slot, x, y);
+          if (d < bestDistSQ) {
+            bestDistSQ = d;
+            best = slot;
+          }
+        }
+      }
+    } else {
+      for (long cx = cx0; cx <= cx1; cx++) {
+        for (long cy = cy0; cy <= cy1; cy++) {
+          int cell = findCell(cx, cy, false);
+          if (cell == NONE) {
+            continue;
+          }
+          for (int slot = cellHead[cell]; slot != NONE; slot = slotNext[slot]) {
+            double d = distSQ(slot, x, y);
+            if (d < bestDistSQ) {
+              bestDistSQ = d;
+              best = slot;
+            }
+          }
+        }
+      }
+    }
+    return best == NONE ? NONE : positionOf(best);
+  }
+
+  /**
+   * @return Puntos en las celdas que tocan un rectángulo; los de las celdas del borde cuentan aunque queden un
+   *         poco afuera.
+   */
+  public int countIn(double xmin, double ymin, double xmax, double ymax) {
+    if (layout.size() == 0 || xmin > xmax || ymin > ymax) {
+      return 0;
+    }
+    long cx0 = cellOf(xmin);
+    long cx1 = cellOf(xmax);
+    long cy0 = cellOf(ymin);
+    long cy1 = cellOf(ymax);
+    int count = 0;
+    if (spansMoreCellsThanUsed(cx0, cx1, cy0, cy1)) {
+      for (int cell = 0; cell < cellUsed.length; cell++) {
+        if (cellUsed[cell] && inRange(cell, cx0, cx1, cy0, cy1)) {
+          count += cellPoints[cell];
+        }
+      }
+    } else {
+      for (long cx = cx0; cx <= cx1; cx++) {
+        for (long cy = cy0; cy <= cy1; cy++) {
+          int cell = findCell(cx, cy, false);
+          if (cell != NONE) {
+            count += cellPoints[cell];
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Entrega las celdas ocupadas que tocan un rectángulo, con su cantidad de puntos y la suma de sus coordenadas.
+   * El costo depende de las celdas del rectángulo y no de los puntos.
+   */
+  public void visitCells(double xmin, double ymin, double xmax, double ymax, CellVisitor visitor) {
+    if (layout.size() == 0 || xmin > xmax || ymin > ymax) {
+      return;
+    }
+    long cx0 = cellOf(xmin);
+    long cx1 = cellOf(xmax);
+    long cy0 = cellOf(ymin);
+    long cy1 = cellOf(ymax);
+    if (spansMoreCellsThanUsed(cx0, cx1, cy0, cy1)) {
+      for (int cell = 0; cell < cellUsed.length; cell++) {
+        if (cellUsed[cell] && inRange(cell, cx0, cx1, cy0, cy1)) {
+          visit(cell, visitor);
+        }
+      }
+    } else {
+      for (long cx = cx0; cx <= cx1; cx++) {
+        for (long cy = cy0; cy <= cy1; cy++) {
+          int cell = findCell(cx, cy, false);
+          if (cell != NONE) {
+            visit(cell, visitor);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copia las posiciones de los puntos de las celdas que tocan un rectángulo, ordenadas de menor a mayor.
+   *
+   * @param out Debe tener lugar para {@link #countIn} puntos.
+   * @return Número de posiciones copiadas.
+   */
+  public int pointsIn(double xmin, double ymin, double xmax, double ymax, int[] out) {
+    if (layout.size() == 0 || xmin > xmax || ymin > ymax) {
+      return 0;
+    }
+    long cx0 = cellOf(xmin);
+    long cx1 = cellOf(xmax);
+    long cy0 = cellOf(ymin);
+    long cy1 = cellOf(ymax);
+    int count = 0;
+    if (spansMoreCellsThanUsed(cx0, cx1, cy0, cy1)) {
+      for (int cell = 0; cell < cellUsed.length; cell++) {
+        if (cellUsed[cell] && inRange(cell, cx0, cx1, cy0, cy1)) {
+          count = copySlots(cell, count);
+        }
+      }
+    } else {
+      for (long cx = cx0; cx <= cx1; cx++) {
+        for (long cy = cy0; cy <= cy1; cy++) {
+          int cell = findCell(cx, cy, false);
+          if (cell != NONE) {
+            count = copySlots(cell, count);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      out[i] = positionOf(scratchSlots[i]);
+    }
+    java.util.Arrays.sort(out, 0, count);
+    return count;
+  }
+
+  private int copySlots(int cell, int count) {
+    for (int slot = cellHead[cell]; slot != NONE; slot = slotNext[slot]) {
+      if (count == scratchSlots.length) {
+        scratchSlots = grow(scratchSlots, count * 2);
+      }
+      scratchSlots[count++] = slot;
+    }
+    return count;
+  }
+
+  private void visit(int cell, CellVisitor visitor) {
+    int count = cellPoints[cell];
+    visitor.visitCell(cellX[cell], cellY[cell], count, cellX[cell] * cellSize * count + cellSumX[cell],
+        cellY[cell] * cellSize * count + cellSumY[cell]);
+  }
+
+  /**
+   * Un rectángulo enorme (por ejemplo infinito) se resuelve recorriendo la tabla de celdas.
+   */
+  private boolean spansMoreCellsThanUsed(long cx0, long cx1, long cy0, long cy1) {
+    return ((double) cx1 - cx0 + 1) * ((double) cy1 - cy0 + 1) > cellUsed.length;
+  }
+
+  private boolean inRange(int cell, long cx0, long cx1, long cy0, long cy1) {
+    return cellX[cell] >= cx0 && cellX[cell] <= cx1 && cellY[cell] >= cy0 && cellY[cell] <= cy1;
+  }
+
+  private double distSQ(int slot, double x, double y) {
+    double dx = slotX[slot] - x;
+    double dy = slotY[slot] - y;
+    return dx * dx + dy * dy;
+  }
+
+  private boolean same(int index, Coordinates points, int other) {
+    int slot = slotAt(index);
+    return slotX[slot] == points.getX(other) && slotY[slot] == points.getY(other);
+  }
+
+  private int positionOf(int slot) {
+    return layout.indexOf(slotPhysical[slot]);
+  }
+
+  private int slotAt(int index) {
+    return positionSlots[layout.physical(index)];
+  }
+
+  private int allocateSlot() {
+    if (freeSlot != NONE) {
+      int slot = freeSlot;
+      freeSlot = slotNext[slot];
+      return slot;
+    }
+    if (slotCount == slotX.length) {
+      int length = slotCount * 2;
+      slotX = grow(slotX, length);
+      slotY = grow(slotY, length);
+      slotCell = grow(slotCell, length);
+      slotNext = grow(slotNext, length);
+      slotPrev = grow(slotPrev, length);
+      slotPhysical = grow(slotPhysical, length);
+    }
+    return slotCount++;
+  }
+
+  private void link(int slot) {
+    int cell = findCell(cellOf(slotX[slot]), cellOf(slotY[slot]), true);
+    int head = cellHead[cell];
+    slotCell[slot] = cell;
+    slotPrev[slot] = NONE;
+    slotNext[slot] = head;
+    if (head != NONE) {
+      slotPrev[head] = slot;
+    }
+    cellHead[cell] = slot;
+    cellPoints[cell]++;
+    cellSumX[cell] += slotX[slot] - cellX[cell] * cellSize;
+    cellSumY[cell] += slotY[slot] - cellY[cell] * cellSize;
+  }
+
+  private void unlink(int slot) {
+    int prev = slotPrev[slot];
+    int next = slotNext[slot];
+    if (prev != NONE) {
+      slotNext[prev] = next;
+    } else {
+      cellHead[slotCell[slot]] = next;
+    }
+    if (next != NONE) {
+      slotPrev[next] = prev;
+    }
+    int cell = slotCell[slot];
+    if (--cellPoints[cell] == 0) {
+      deleteCell(cell);
+    } else {
+      cellSumX[cell] -= slotX[slot] - cellX[cell] * cellSize;
+      cellSumY[cell] -= slotY[slot] - cellY[cell] * cellSize;
+    }
+  }
+
+  /**
+   * Busca una celda en la tabla hash. Al crearla hay lugar de sobra: {@link #insert} mantiene la tabla con al menos
+   * el doble de entradas que puntos.
+   */
+  private int findCell(long cx, long cy, boolean create) {
+    int mask = cellUsed.length - 1;
+    int i = home(cx, cy, mask);
+    while (cellUsed[i]) {
+      if (cellX[i] == cx && cellY[i] == cy) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    if (!create) {
+      return NONE;
+    }
+    cellUsed[i] = true;
+    cellX[i] = cx;
+    cellY[i] = cy;
+    cellHead[i] = NONE;
+    cellPoints[i] = 0;
+    cellSumX[i] = 0;
+    cellSumY[i] = 0;
+    return i;
+  }
+
+  private static int home(long cx, long cy, int mask) {
+    long h = cx * 0x9E3779B97F4A7C15L + cy * 0xC2B2AE3D27D4EB4FL;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  /**
+   * Quita una celda que se quedó sin puntos. Las celdas que le siguen en la misma secuencia de sondeo se corren
+   * hacia atrás para que las búsquedas no se corten en el hueco, en lugar de dejar marcas de borrado.
+   */
+  private void deleteCell(int cell) {
+    int mask = cellUsed.length - 1;
+    int hole = cell;
+    for (int i = (cell + 1) & mask; cellUsed[i]; i = (i + 1) & mask) {
+      // La celda puede ocupar el hueco si su posición de origen no queda entre el hueco y ella
+      if (((i - home(cellX[i], cellY[i], mask)) & mask) >= ((i - hole) & mask)) {
+        moveCell(i, hole);
+        hole = i;
+      }
+    }
+    cellUsed[hole] = false;
+  }
+
+  private void moveCell(int from, int to) {
+    cellX[to] = cellX[from];
+    cellY[to] = cellY[from];
+    cellHead[to] = cellHead[from];
+    cellPoints[to] = cellPoints[from];
+    cellSumX[to] = cellSumX[from];
+    cellSumY[to] = cellSumY[from];
+    for (int slot = cellHead[to]; slot != NONE; slot = slotNext[slot]) {
+      slotCell[slot] = to;
+    }
+  }
+
+  /**
+   * Duplica la tabla de celdas conservando las listas de cada celda.
+   */
+  private void growCells() {
+    long[] oldX = cellX;
+    long[] oldY = cellY;
+    int[] oldHead = cellHead;
+    boolean[] oldUsed = cellUsed;
+    int[] oldPoints = cellPoints;
+    double[] oldSumX = cellSumX;
+    double[] oldSumY = cellSumY;
+    int length = oldUsed.length * 2;
+    allocateCells(length);
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i]) {
+        int cell = findCell(oldX[i], oldY[i], true);
+        cellHead[cell] = oldHead[i];
+        cellPoints[cell] = oldPoints[i];
+        cellSumX[cell] = oldSumX[i];
+        cellSumY[cell] = oldSumY[i];
+        for (int slot = oldHead[i]; slot != NONE; slot = slotNext[slot]) {
+          slotCell[slot] = cell;
+        }
+      }
+    }
+  }
+
+  private void clearCells() {
+    java.util.Arrays.fill(cellUsed, false);
+  }
+
+  private void rebuild() {
+    // La tabla se dimensiona para la cantidad actual de puntos
+    int length = 64;
+    while (length < layout.size() * 2) {
+      length *= 2;
+    }
+    if (length != cellUsed.length) {
+      allocateCells(length);
+    } else {
+      clearCells();
+    }
+    relinkAll();
+  }
+
+  private void allocateCells(int length) {
+    cellX = new long[length];
+    cellY = new long[length];
+    cellHead = new int[length];
+    cellUsed = new boolean[length];
+    cellPoints = new int[length];
+    cellSumX = new double[length];
+    cellSumY = new double[length];
+  }
+
+  private void relinkAll() {
+    for (int rank = 0; rank < layout.getChunkCount(); rank++) {
+      int base = layout.getChunkBase(rank);
+      for (int physical = base, end = base + layout.getChunkLength(rank); physical < end; physical++) {
+        link(positionSlots[physical]);
+      }
+    }
+  }
+
+  private static int[] grow(int[] a, int length) {
+    int[] b = new int[length];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+
+  private static double[] grow(double[] a, int length) {
+    double[] b = new double[length];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+}
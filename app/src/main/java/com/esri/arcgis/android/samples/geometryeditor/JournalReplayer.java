@@ -0,0 +1,285 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Vuelve a enviar las altas pendientes del {@link EditJournal} cuando el servidor está disponible de nuevo. Lleva
+ * la cuenta de las altas que ya están en camino para no enviarlas dos veces, y registra el acuse en el diario
+ * cuando el servidor responde.
+ * <p>
+ * Igual que {@link SaveQueue}, todos los métodos deben llamarse desde el hilo de la interfaz. Las escrituras del
+ * diario y la compactación se hacen en un ejecutor aparte: las altas registradas mientras hay una sincronización
+ * en curso se llevan al disco juntas, con un solo fsync, en la siguiente. Un alta nueva se envía recién cuando está
+ * en el disco.
+ */
+public class JournalReplayer {
+
+  /**
+   * Recibe las altas a enviar; en la actividad las pone en la cola de guardado.
+   */
+  public interface Sink {
+    /**
+     * @param unconfirmed true si el alta pudo haberse enviado antes sin respuesta, en esta sesión o en otra: hay que
+     *          buscarla en el servidor por su clave antes de volver a enviarla.
+     * @return false si el alta todavía no se puede enviar, por ejemplo porque su capa aún no se inicializó.
+     */
+    boolean submit(EditJournal.Entry entry, boolean unconfirmed);
+
+    /**
+     * Envía lo que se haya acumulado con {@link #submit}.
+     */
+    void flush();
+
+    /**
+     * No se pudo escribir el diario. Las altas afectadas se envían igual, pero no sobreviven a un cierre de la
+     * aplicación.
+     */
+    void onJournalError(IOException e);
+  }
+
+  private static final Executor DIRECT = new Executor() {
+
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+
+  };
+
+  private final EditJournal mJournal;
+
+  private final Sink mSink;
+
+  private final Executor mDisk;
+
+  private final Executor mMain;
+
+  private final Set<Long> mInFlight = new HashSet<Long>();
+
+  // Altas que pudieron haberse guardado sin que el servidor pueda confirmarlo; esperan que decida el usuario
+  private final Set<Long> mHeld = new HashSet<Long>();
+
+  // Altas registradas que todavía no están en el disco
+  private final List<EditJournal.Entry> mUnsynced = new ArrayList<EditJournal.Entry>();
+
+  private boolean mSyncScheduled;
+
+  private boolean mSyncAgain;
+
+  /**
+   * Escribe el diario en el hilo que llama.
+   */
+  public JournalReplayer(EditJournal journal, Sink sink) {
+    this(journal, sink, DIRECT, DIRECT);
+  }
+
+  /**
+   * @param disk Ejecutor de las escrituras del diario, de un solo hilo.
+   * @param main Ejecutor del hilo de la interfaz, donde se envían las altas ya escritas.
+   */
+  public JournalReplayer(EditJournal journal, Sink sink, Executor disk, Executor main) {
+    mJournal = journal;
+    mSink = sink;
+    mDisk = disk;
+    mMain = main;
+  }
+
+  public EditJournal getJournal() {
+    return mJournal;
+  }
+
+  /**
+   * Registra un alta nueva en el diario y la envía en cuanto esté en el disco.
+   */
+  public EditJournal.Entry record(String layerUrl, String templateName, byte geometryType, double[] coords)
+      throws IOException {
+    EditJournal.Entry entry = mJournal.append(layerUrl, templateName, geometryType, coords);
+    // Reservada para que replay no la envíe antes que la sincronización
+    mInFlight.add(entry.getSeq());
+    mUnsynced.add(entry);
+    scheduleSync();
+    return entry;
+  }
+
+  /**
+   * Envía todas las altas pendientes que no estén ya en camino.
+   *
+   * @return Número de altas enviadas.
+   */
+  public int replay() {
+    List<EditJournal.Entry> pending = mJournal.getPending();
+    int submitted = 0;
+    for (EditJournal.Entry entry : pending) {
+      if (!mInFlight.contains(entry.getSeq()) && !mHeld.contains(entry.getSeq()) && mSink.submit(entry, true)) {
+        mInFlight.add(entry.getSeq());
+        submitted++;
+      }
+    }
+    if (submitted > 0) {
+      mSink.flush();
+    }
+    return submitted;
+  }
+
+  /**
+   * El servidor guardó el alta, o la rechazó y reintentar no serviría: se quita del diario.
+   */
+  public void onCompleted(long seq) throws IOException {
+    mInFlight.remove(seq);
+    mHeld.remove(seq);
+    mJournal.acknowledge(seq);
+  }
+
+  /**
+   * El envío falló sin respuesta del servidor: el alta sigue en el diario para la próxima vez.
+   */
+  public void onUnreachable(long seq) {
+    mInFlight.remove(seq);
+  }
+
+  /**
+   * No se pudo comprobar si el servidor guardó el alta. Sigue en el diario, pero {@link #replay} no la vuelve a
+   * enviar en esta sesión: el usuario decide con {@link #onResent} o {@link #onCompleted}. En la próxima sesión se
+   * vuelve a buscar en el servidor.
+   */
+  public void onUnverified(long seq) {
+    mInFlight.remove(seq);
+    mHeld.add(seq);
+  }
+
+  /**
+   * El usuario pidió volver a enviar un alta retenida por {@link #onUnverified}; ya está en camino.
+   */
+  public void onResent(long seq) {
+    mHeld.remove(seq);
+    mInFlight.add(seq);
+  }
+
+  /**
+   * Lleva al disco los acuses acumulados con un solo fsync, en el ejecutor del diario.
+   */
+  public void sync() {
+    scheduleSync();
+  }
+
+  /**
+   * Cierra el diario en su ejecutor, después de las escrituras pendientes.
+   */
+  public void close() {
+    mDisk.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          mJournal.close();
+        } catch (final IOException e) {
+          mMain.execute(new Runnable() {
+
+            @Override
+            public void run() {
+              mSink.onJournalError(e);
+            }
+
+          });
+        }
+      }
+
+    });
+  }
+
+  /**
+   * @return Número de altas en el diario que todavía no tienen respuesta del servidor.
+   */
+  public int getPendingCount() {
+    return mJournal.getPendingCount();
+  }
+
+  /**
+   * @return Número de altas en el diario que no están en camino y esperan el próximo {@link #replay}.
+   */
+  public int getWaitingCount() {
+    return Math.max(0, mJournal.getPendingCount() - mInFlight.size() - mHeld.size());
+  }
+
+  /**
+   * @return Número de altas retenidas por {@link #onUnverified}.
+   */
+  public int getHeldCount() {
+    return mHeld.size();
+  }
+
+  private void scheduleSync() {
+    if (mSyncScheduled) {
+      mSyncAgain = true;
+      return;
+    }
+    mSyncScheduled = true;
+    mDisk.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        IOException error = null;
+        try {
+          mJournal.sync();
+        } catch (IOException e) {
+          error = e;
+        }
+        final IOException failure = error;
+        mMain.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            onSynced(failure);
+          }
+
+        });
+      }
+
+    });
+  }
+
+  private void onSynced(IOException failure) {
+    mSyncScheduled = false;
+    long synced = mJournal.getSyncedSeq();
+    if (failure != null) {
+      mSink.onJournalError(failure);
+      synced = Long.MAX_VALUE;
+    }
+    for (Iterator<EditJournal.Entry> it = mUnsynced.iterator(); it.hasNext();) {
+      EditJournal.Entry entry = it.next();
+      if (entry.getSeq() > synced) {
+        break;
+      }
+      it.remove();
+      if (!mSink.submit(entry, false)) {
+        mInFlight.remove(entry.getSeq());
+      }
+    }
+    if (mSyncAgain || !mUnsynced.isEmpty()) {
+      mSyncAgain = false;
+      scheduleSync();
+    }
+  }
+}
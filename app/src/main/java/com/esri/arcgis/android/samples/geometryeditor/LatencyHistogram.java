@@ -0,0 +1,145 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.Arrays;
+
+/**
+ * Histograma de latencias con cubetas log-lineales, al estilo de HdrHistogram: cada potencia de dos se divide en
+ * {@value #SUB_BUCKETS} cubetas iguales, así que el error relativo de cualquier percentil es menor al 3.2% sin
+ * importar la magnitud. Registrar un valor es una suma sobre un arreglo fijo y no asigna memoria.
+ * <p>
+ * No es seguro entre hilos; {@link EditorMetrics} sincroniza el acceso.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Magnitud máxima representable: 2^40 ns son unos 18 minutos; lo que pase de ahí cae en la última cubeta
+  private static final int MAX_MAGNITUDE = 40;
+
+  private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+  private final long[] mCounts = new long[SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+  private long mCount;
+
+  private long mTotal;
+
+  private long mMin = Long.MAX_VALUE;
+
+  private long mMax;
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    mCounts[bucketOf(Math.min(value, MAX_VALUE))]++;
+    mCount++;
+    mTotal += value;
+    if (value < mMin) {
+      mMin = value;
+    }
+    if (value > mMax) {
+      mMax = value;
+    }
+  }
+
+  public long getCount() {
+    return mCount;
+  }
+
+  public long getMin() {
+    return mCount == 0 ? 0 : mMin;
+  }
+
+  public long getMax() {
+    return mMax;
+  }
+
+  public double getMean() {
+    return mCount == 0 ? 0 : (double) mTotal / mCount;
+  }
+
+  /**
+   * @param percentile Entre 0 y 100.
+   * @return El mayor valor equivalente de la cubeta que contiene el percentil, acotado al máximo registrado.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (mCount == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+    rank = Math.max(1, rank);
+    long seen = 0;
+    for (int i = 0; i < mCounts.length; i++) {
+      seen += mCounts[i];
+      if (seen >= rank) {
+        return Math.max(mMin, Math.min(mMax, highestEquivalentValue(i)));
+      }
+    }
+    return mMax;
+  }
+
+  public void reset() {
+    Arrays.fill(mCounts, 0);
+    mCount = 0;
+    mTotal = 0;
+    mMin = Long.MAX_VALUE;
+    mMax = 0;
+  }
+
+  /**
+   * Copia el estado en otro histograma, para informar una instantánea sin retener el original.
+   */
+  public void copyInto(LatencyHistogram target) {
+    System.arraycopy(mCounts, 0, target.mCounts, 0, mCounts.length);
+    target.mCount = mCount;
+    target.mTotal = mTotal;
+    target.mMin = mMin;
+    target.mMax = mMax;
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    int sub = (int) (value >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+  }
+
+  static long lowestEquivalentValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return (long) (sub + SUB_BUCKETS) << shift;
+  }
+
+  static long highestEquivalentValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    return lowestEquivalentValue(bucket) + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,193 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Entradas de varias capas construidas en hilos de trabajo y publicadas como una sola lista. Cada capa se vuelve a
+ * construir sólo si cambia su firma, y la lista combinada se publica de una vez cuando no queda ninguna
+ * construcción pendiente: quien la lee nunca ve unas capas nuevas y otras viejas.
+ * <p>
+ * No depende de Android ni de ArcGIS; {@link TemplateCatalogLoader} lo usa con las capas de entidades.
+ */
+public class LayerCatalog<L, T> {
+
+  /**
+   * Sabe resumir y construir las entradas de una capa.
+   */
+  public interface Builder<L, T> {
+    /**
+     * @return Resumen de lo que define las entradas de la capa; si no cambia, no se vuelven a construir.
+     */
+    String signature(L layer);
+
+    /**
+     * Construye las entradas de la capa en un hilo de trabajo.
+     */
+    List<T> build(L layer);
+  }
+
+  /**
+   * Recibe cada lista publicada, en el hilo de trabajo que terminó la última construcción y con el candado del
+   * catálogo tomado, así que las publicaciones llegan en orden; debe ser breve.
+   */
+  public interface Listener<T> {
+    void onPublished(List<T> items);
+  }
+
+  /**
+   * Estado de una capa: la firma pedida, la última construida y sus entradas.
+   */
+  private static class LayerState<T> {
+    String requested;
+
+    String built;
+
+    List<T> items = Collections.emptyList();
+  }
+
+  private final Builder<L, T> mBuilder;
+
+  private final Executor mExecutor;
+
+  // Capas en el orden en que se registran; todo protegido por this
+  private final Map<L, LayerState<T>> mLayers = new LinkedHashMap<L, LayerState<T>>();
+
+  private int mPending;
+
+  // Alguna capa terminó de construirse desde la última publicación
+  private boolean mChanged;
+
+  private Listener<T> mListener;
+
+  private volatile List<T> mPublished = Collections.emptyList();
+
+  /**
+   * @param executor Hilos de trabajo en que se construyen las capas.
+   */
+  public LayerCatalog(Builder<L, T> builder, Executor executor) {
+    mBuilder = builder;
+    mExecutor = executor;
+  }
+
+  public synchronized void setListener(Listener<T> listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Registra una capa; sus entradas aparecen en la lista en el orden en que se registran las capas.
+   */
+  public synchronized void addLayer(L layer) {
+    if (!mLayers.containsKey(layer)) {
+      mLayers.put(layer, new LayerState<T>());
+    }
+  }
+
+  /**
+   * @return Las capas registradas.
+   */
+  public synchronized List<L> getLayers() {
+    return new ArrayList<L>(mLayers.keySet());
+  }
+
+  /**
+   * Programa la construcción de una capa, salvo que su firma no haya cambiado desde la última vez. Se puede
+   * llamar desde cualquier hilo.
+   */
+  public void layerChanged(final L layer) {
+    final String signature = mBuilder.signature(layer);
+    synchronized (this) {
+      LayerState<T> state = mLayers.get(layer);
+      if (state == null || signature.equals(state.requested)) {
+        return;
+      }
+      state.requested = signature;
+      mPending++;
+    }
+    try {
+      mExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          build(layer, signature);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Ya se cerraron los hilos de trabajo
+      finish(layer, signature, null);
+    }
+  }
+
+  /**
+   * @return La última lista publicada; nunca null.
+   */
+  public List<T> getItems() {
+    return mPublished;
+  }
+
+  /**
+   * @return true si hay construcciones en curso o esperando un hilo.
+   */
+  public synchronized boolean isBuilding() {
+    return mPending > 0;
+  }
+
+  private void build(L layer, String signature) {
+    List<T> items = null;
+    try {
+      items = mBuilder.build(layer);
+    } finally {
+      finish(layer, signature, items);
+    }
+  }
+
+  /**
+   * @param items null si la construcción falló; la capa se vuelve a intentar la próxima vez que se avise.
+   */
+  private synchronized void finish(L layer, String signature, List<T> items) {
+    mPending--;
+    LayerState<T> state = mLayers.get(layer);
+    // Si mientras se construía se pidió una versión más nueva de la capa, esta se descarta
+    if (signature.equals(state.requested)) {
+      if (items != null) {
+        state.built = signature;
+        state.items = items;
+        mChanged = true;
+      } else {
+        state.requested = state.built;
+      }
+    }
+    if (mPending > 0 || !mChanged) {
+      return;
+    }
+    mChanged = false;
+    List<T> all = new ArrayList<T>();
+    for (LayerState<T> s : mLayers.values()) {
+      all.addAll(s.items);
+    }
+    mPublished = Collections.unmodifiableList(all);
+    if (mListener != null) {
+      mListener.onPublished(mPublished);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.esri.core.symbol.Symbol;
+import com.esri.core.symbol.SymbolHelper;
+
+/**
+ * Caché LRU de las imágenes de leyenda de las plantillas. La clave es la URL de la capa, el tipo de entidad, el
+ * nombre de la plantilla y el tamaño en pixeles; el tamaño de la caché se cuenta en bytes de bitmap, así que la memoria queda acotada sin
+ * importar cuántas plantillas haya.
+ */
+public class LegendCache extends LruCache<String, Bitmap> {
+
+  /**
+   * @param maxBytes Memoria máxima que pueden ocupar las imágenes.
+   */
+  public LegendCache(int maxBytes) {
+    super(maxBytes);
+  }
+
+  /**
+   * Devuelve la leyenda de una plantilla, dibujándola sólo si no está en la caché.
+   *
+   * @param layerUrl URL de la capa de la plantilla.
+   * @param typeId Identificador del tipo de entidad de la plantilla, o null si la plantilla es de la capa. Dos
+   *          tipos de la misma capa pueden tener plantillas con el mismo nombre y distinto símbolo.
+   * @param templateName Nombre de la plantilla.
+   * @param sizeInPixels Ancho y alto de la imagen.
+   * @param symbol Símbolo con que se dibuja la plantilla.
+   */
+  public Bitmap getLegend(String layerUrl, String typeId, String templateName, int sizeInPixels, Symbol symbol) {
+    String key = layerUrl + '\n' + typeId + '\n' + templateName + '\n' + sizeInPixels;
+    Bitmap bitmap = get(key);
+    if (bitmap == null) {
+      bitmap = SymbolHelper.getLegendImage(symbol, sizeInPixels, sizeInPixels);
+      if (bitmap != null) {
+        put(key, bitmap);
+      }
+    }
+    return bitmap;
+  }
+
+  @Override
+  protected int sizeOf(String key, Bitmap bitmap) {
+    return bitmap.getByteCount();
+  }
+}
@@ -0,0 +1,40 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Fuente continua de posiciones para la captura de recorridos. La actividad usa el GPS del dispositivo; las
+ * pruebas y las demostraciones usan {@link ReplayLocationSource}.
+ */
+public interface LocationSource {
+
+  /**
+   * Recibe las posiciones en el hilo de la interfaz.
+   */
+  interface Listener {
+    /**
+     * @param longitude Longitud WGS84 en grados.
+     * @param latitude Latitud WGS84 en grados.
+     * @param timeMillis Momento de la posición en milisegundos.
+     */
+    void onLocation(double longitude, double latitude, long timeMillis);
+  }
+
+  void start(Listener listener);
+
+  void stop();
+}
@@ -0,0 +1,90 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Control de las {@link EditorMetrics} desde el menú: recuerda entre sesiones si la medición está activa y exporta
+ * el informe al log y a un archivo.
+ */
+public class MetricsControl {
+
+  // Preferencia que guarda si la medición está activa
+  private static final String PREF_METRICS = "metrics";
+
+  private final SharedPreferences mPreferences;
+
+  private final File mFile;
+
+  /**
+   * @param preferences Preferencias de la actividad.
+   * @param file Archivo donde se exporta el informe.
+   */
+  public MetricsControl(SharedPreferences preferences, File file) {
+    mPreferences = preferences;
+    mFile = file;
+  }
+
+  /**
+   * Activa la medición si estaba activa en la sesión anterior.
+   *
+   * @param byDefault Si se activa cuando nunca se eligió.
+   */
+  public void restore(boolean byDefault) {
+    EditorMetrics.setEnabled(mPreferences.getBoolean(PREF_METRICS, byDefault));
+  }
+
+  /**
+   * Activa o desactiva la medición. Al activarla se empieza de cero.
+   */
+  public void toggle() {
+    boolean enabled = !EditorMetrics.isEnabled();
+    if (enabled) {
+      EditorMetrics.reset();
+    }
+    EditorMetrics.setEnabled(enabled);
+    mPreferences.edit().putBoolean(PREF_METRICS, enabled).apply();
+  }
+
+  /**
+   * Escribe el informe en el log y en el archivo.
+   *
+   * @return El archivo escrito.
+   */
+  public File export() throws IOException {
+    StringBuilder report = new StringBuilder();
+    EditorMetrics.report(report);
+    for (String line : report.toString().split("\n")) {
+      Log.i(GeometryEditorActivity.TAG, line);
+    }
+    Writer out = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+    try {
+      out.write(report.toString());
+    } finally {
+      out.close();
+    }
+    return mFile;
+  }
+}
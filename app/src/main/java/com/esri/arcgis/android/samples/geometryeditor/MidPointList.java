@@ -0,0 +1,205 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Puntos medios de los segmentos de un boceto, mantenidos de forma incremental junto con la lista de vértices.
+ * El punto medio i está entre los vértices i e i + 1; en un polígono con tres o más vértices el último punto medio
+ * es el del segmento de cierre, entre el último vértice y el primero.
+ * <p>
+ * Después de cada inserción, movimiento o eliminación de un vértice sólo se recalculan los puntos medios de los
+ * segmentos que lo tocan (a lo sumo tres, contando el de cierre), y cada cambio se informa al {@link Listener}
+ * para que el índice de selección y los gráficos se actualicen igual de poco.
+ */
+public class MidPointList implements HandleIndex.Coordinates {
+
+  /**
+   * Recibe cada cambio de la lista de puntos medios, con los índices ya desplazados.
+   */
+  public interface Listener {
+    void onMidPointInserted(int index, double x, double y);
+
+    void onMidPointMoved(int index, double x, double y);
+
+    void onMidPointRemoved(int index);
+  }
+
+  private final VertexBuffer mPoints;
+
+  private final VertexBuffer mMidPoints = new VertexBuffer();
+
+  private boolean mClosed;
+
+  private Listener mListener;
+
+  /**
+   * @param points Vértices del boceto; la lista debe recibir cada cambio que se haga sobre ellos.
+   */
+  public MidPointList(VertexBuffer points) {
+    mPoints = points;
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Indica si el boceto es un polígono. Recalcula toda la lista sin avisar al listener.
+   */
+  public void setClosed(boolean closed) {
+    mClosed = closed;
+    rebuild();
+  }
+
+  public boolean isClosed() {
+    return mClosed;
+  }
+
+  @Override
+  public int size() {
+    return mMidPoints.size();
+  }
+
+  @Override
+  public double getX(int index) {
+    return mMidPoints.getX(index);
+  }
+
+  @Override
+  public double getY(int index) {
+    return mMidPoints.getY(index);
+  }
+
+  /**
+   * Recalcula toda la lista sin avisar al listener, después de cambios en bloque sobre los vértices.
+   */
+  public void rebuild() {
+    mMidPoints.clear();
+    int count = expectedSize();
+    for (int i = 0; i < count; i++) {
+      mMidPoints.add(midX(i), midY(i));
+    }
+  }
+
+  /**
+   * Se insertó un vértice en la posición dada.
+   */
+  public void vertexInserted(int index) {
+    int n = mPoints.size();
+    if (expectedSize() > mMidPoints.size() && n >= 2) {
+      // El segmento nuevo entre index - 1 e index; el que seguía pasa a ser el de index a index + 1
+      int at = Math.max(index - 1, 0);
+      mMidPoints.insert(at, midX(at), midY(at));
+      if (mListener != null) {
+        mListener.onMidPointInserted(at, mMidPoints.getX(at), mMidPoints.getY(at));
+      }
+    }
+    fixSize();
+    refreshAround(index);
+  }
+
+  /**
+   * Se movió el vértice de la posición dada.
+   */
+  public void vertexMoved(int index) {
+    refreshAround(index);
+  }
+
+  /**
+   * Se eliminó el vértice que estaba en la posición dada.
+   */
+  public void vertexRemoved(int index) {
+    int n = mPoints.size();
+    if (expectedSize() < mMidPoints.size() && mMidPoints.size() > 0) {
+      // Desaparece el segmento que salía del vértice eliminado, o el que llegaba si era el último
+      int at = index < n ? index : index - 1;
+      at = Math.min(at, mMidPoints.size() - 1);
+      mMidPoints.remove(at);
+      if (mListener != null) {
+        mListener.onMidPointRemoved(at);
+      }
+    }
+    fixSize();
+    refreshAround(index);
+  }
+
+  /**
+   * Número de puntos medios que corresponde al número actual de vértices.
+   */
+  private int expectedSize() {
+    int n = mPoints.size();
+    if (n < 2) {
+      return 0;
+    }
+    return mClosed && n > 2 ? n : n - 1;
+  }
+
+  /**
+   * Agrega o quita al final el punto medio de cierre cuando un polígono pasa de dos a tres vértices o al revés.
+   */
+  private void fixSize() {
+    int expected = expectedSize();
+    while (mMidPoints.size() < expected) {
+      int at = mMidPoints.size();
+      mMidPoints.add(midX(at), midY(at));
+      if (mListener != null) {
+        mListener.onMidPointInserted(at, mMidPoints.getX(at), mMidPoints.getY(at));
+      }
+    }
+    while (mMidPoints.size() > expected) {
+      int at = mMidPoints.size() - 1;
+      mMidPoints.remove(at);
+      if (mListener != null) {
+        mListener.onMidPointRemoved(at);
+      }
+    }
+  }
+
+  /**
+   * Recalcula los puntos medios de los segmentos que tocan la posición de un vértice, y el de cierre.
+   */
+  private void refreshAround(int index) {
+    int count = mMidPoints.size();
+    for (int i = Math.max(index - 1, 0); i <= index && i < count; i++) {
+      refresh(i);
+    }
+    if (count > 0 && count - 1 > index) {
+      refresh(count - 1);
+    }
+  }
+
+  private void refresh(int i) {
+    double x = midX(i);
+    double y = midY(i);
+    if (x != mMidPoints.getX(i) || y != mMidPoints.getY(i)) {
+      mMidPoints.set(i, x, y);
+      if (mListener != null) {
+        mListener.onMidPointMoved(i, x, y);
+      }
+    }
+  }
+
+  private double midX(int i) {
+    int j = (i + 1) % mPoints.size();
+    return (mPoints.getX(i) + mPoints.getX(j)) / 2;
+  }
+
+  private double midY(int i) {
+    int j = (i + 1) % mPoints.size();
+    return (mPoints.getY(i) + mPoints.getY(j)) / 2;
+  }
+}
@@ -0,0 +1,249 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Versiones generalizadas del contorno del boceto a varias tolerancias, para dibujar a escalas pequeñas sólo los
+ * vértices que se distinguen en pantalla. El nivel k usa la tolerancia {@code baseTolerance * 4^k}.
+ * <p>
+ * Los vértices se reparten en bloques consecutivos de unos {@value #BLOCK_SIZE} y cada bloque se generaliza por
+ * separado con Douglas-Peucker, conservando sus extremos, que comparte con el bloque siguiente. Así una edición sólo
+ * obliga a recalcular su bloque, y el cálculo se hace al pedir un nivel, no en cada edición. Como en
+ * {@link MidPointList}, cada cambio de la lista de vértices se avisa con {@link #vertexInserted},
+ * {@link #vertexMoved} o {@link #vertexRemoved}.
+ * <p>
+ * Cada bloque lleva su largo y los inicios salen de unas {@link PrefixSums}, así que una inserción o eliminación
+ * cuesta O(log bloques) en lugar de correr el inicio de todos los bloques siguientes.
+ */
+public class OutlinePyramid {
+
+  static final int BLOCK_SIZE = 256;
+
+  // Factor entre las tolerancias de dos niveles seguidos
+  static final int LEVEL_FACTOR = 4;
+
+  private final HandleIndex.Coordinates mPoints;
+
+  private final double mBaseTolerance;
+
+  private final int mLevels;
+
+  // Vértices de cada bloque, y sus sumas para ubicar el primer vértice de cada uno
+  private int[] mLengths = new int[16];
+
+  private final PrefixSums mStarts = new PrefixSums();
+
+  private boolean[] mDirty = new boolean[16];
+
+  // Coordenadas generalizadas de cada bloque y nivel, intercaladas, con los dos extremos del bloque
+  private double[][][] mBlocks = new double[16][][];
+
+  private int mBlockCount;
+
+  /**
+   * @param points Vértices del boceto.
+   * @param baseTolerance Tolerancia del primer nivel, en unidades del mapa.
+   * @param levels Número de niveles.
+   */
+  public OutlinePyramid(HandleIndex.Coordinates points, double baseTolerance, int levels) {
+    mPoints = points;
+    mBaseTolerance = baseTolerance;
+    mLevels = levels;
+    rebuild();
+  }
+
+  public int getLevelCount() {
+    return mLevels;
+  }
+
+  public double getTolerance(int level) {
+    return mBaseTolerance * Math.pow(LEVEL_FACTOR, level);
+  }
+
+  /**
+   * @param tolerance Error aceptable en unidades del mapa, normalmente una fracción de píxel por la resolución.
+   * @return El nivel más generalizado cuya tolerancia no pasa de la dada, o -1 si hace falta todo el detalle.
+   */
+  public int levelFor(double tolerance) {
+    int level = -1;
+    while (level + 1 < mLevels && getTolerance(level + 1) <= tolerance) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Vuelve a repartir los vértices en bloques, por ejemplo después de vaciar la lista o agregar vértices en bloque.
+   */
+  public void rebuild() {
+    mBlockCount = 0;
+    int size = mPoints.size();
+    for (int start = 0; start < size; start += BLOCK_SIZE) {
+      insertBlock(mBlockCount, Math.min(BLOCK_SIZE, size - start));
+    }
+    mStarts.build(mLengths, mBlockCount);
+  }
+
+  /**
+   * Se insertó un vértice en la lista.
+   */
+  public void vertexInserted(int index) {
+    if (mBlockCount == 0) {
+      insertBlock(0, 1);
+      mStarts.build(mLengths, mBlockCount);
+      return;
+    }
+    int block = blockOf(index);
+    mLengths[block]++;
+    mStarts.add(block, 1);
+    touch(block, index);
+    // Partir los bloques que crecieron demasiado
+    if (mLengths[block] > 2 * BLOCK_SIZE) {
+      insertBlock(block + 1, mLengths[block] - BLOCK_SIZE);
+      mLengths[block] = BLOCK_SIZE;
+      mDirty[block] = true;
+      mStarts.build(mLengths, mBlockCount);
+    }
+  }
+
+  /**
+   * Se movió un vértice de la lista.
+   */
+  public void vertexMoved(int index) {
+    touch(blockOf(index), index);
+  }
+
+  /**
+   * Se eliminó un vértice de la lista.
+   */
+  public void vertexRemoved(int index) {
+    int block = blockOf(index);
+    if (--mLengths[block] == 0) {
+      removeBlock(block);
+      mStarts.build(mLengths, mBlockCount);
+      if (block > 0) {
+        mDirty[block - 1] = true;
+      }
+    } else {
+      mStarts.add(block, -1);
+      touch(block, index);
+    }
+  }
+
+  /**
+   * Escribe los vértices de un nivel.
+   *
+   * @param level Nivel, o -1 para todos los vértices.
+   * @param out Destino; se vacía antes.
+   */
+  public void build(int level, VertexBuffer out) {
+    out.clear();
+    if (level < 0) {
+      for (int i = 0; i < mPoints.size(); i++) {
+        out.add(mPoints.getX(i), mPoints.getY(i));
+      }
+      return;
+    }
+    for (int b = 0; b < mBlockCount; b++) {
+      if (mDirty[b]) {
+        generalize(b);
+      }
+      double[] coords = mBlocks[b][level];
+      // El primer vértice de cada bloque es el último del anterior
+      for (int i = b == 0 ? 0 : 2; i < coords.length; i += 2) {
+        out.add(coords[i], coords[i + 1]);
+      }
+    }
+  }
+
+  private void generalize(int block) {
+    int from = mStarts.prefix(block);
+    // Incluir el primer vértice del bloque siguiente para que los tramos se unan
+    int to = Math.min(from + mLengths[block] + 1, mPoints.size());
+    int count = to - from;
+    double[] coords = new double[2 * count];
+    for (int i = 0; i < count; i++) {
+      coords[2 * i] = mPoints.getX(from + i);
+      coords[2 * i + 1] = mPoints.getY(from + i);
+    }
+    double[][] levels = mBlocks[block];
+    if (levels == null || levels.length != mLevels) {
+      levels = new double[mLevels][];
+      mBlocks[block] = levels;
+    }
+    // Cada nivel parte del anterior: la distancia al original queda acotada por la suma de las tolerancias
+    double[] previous = coords;
+    for (int level = 0; level < mLevels; level++) {
+      previous = Generalizer.simplify(previous, false, Generalizer.Method.DOUGLAS_PEUCKER, getTolerance(level) / 2);
+      levels[level] = previous;
+    }
+    mDirty[block] = false;
+  }
+
+  /**
+   * Marca el bloque de un vértice, y el anterior si el vértice es el extremo que comparten.
+   */
+  private void touch(int block, int index) {
+    mDirty[block] = true;
+    if (block > 0 && index == mStarts.prefix(block)) {
+      mDirty[block - 1] = true;
+    }
+  }
+
+  /**
+   * @return El bloque que contiene la posición; una posición al final de la lista cae en el último bloque.
+   */
+  private int blockOf(int index) {
+    return Math.min(mStarts.find(index), mBlockCount - 1);
+  }
+
+  /**
+   * Agrega un bloque; hay que rearmar {@link #mStarts} después.
+   */
+  private void insertBlock(int at, int length) {
+    if (mBlockCount == mLengths.length) {
+      int size = mBlockCount * 2;
+      int[] lengths = new int[size];
+      boolean[] dirty = new boolean[size];
+      double[][][] blocks = new double[size][][];
+      System.arraycopy(mLengths, 0, lengths, 0, mBlockCount);
+      System.arraycopy(mDirty, 0, dirty, 0, mBlockCount);
+      System.arraycopy(mBlocks, 0, blocks, 0, mBlockCount);
+      mLengths = lengths;
+      mDirty = dirty;
+      mBlocks = blocks;
+    }
+    System.arraycopy(mLengths, at, mLengths, at + 1, mBlockCount - at);
+    System.arraycopy(mDirty, at, mDirty, at + 1, mBlockCount - at);
+    System.arraycopy(mBlocks, at, mBlocks, at + 1, mBlockCount - at);
+    mLengths[at] = length;
+    mDirty[at] = true;
+    mBlocks[at] = null;
+    mBlockCount++;
+  }
+
+  /**
+   * Quita un bloque; hay que rearmar {@link #mStarts} después.
+   */
+  private void removeBlock(int at) {
+    System.arraycopy(mLengths, at + 1, mLengths, at, mBlockCount - at - 1);
+    System.arraycopy(mDirty, at + 1, mDirty, at, mBlockCount - at - 1);
+    System.arraycopy(mBlocks, at + 1, mBlocks, at, mBlockCount - at - 1);
+    mBlockCount--;
+    mBlocks[mBlockCount] = null;
+  }
+}
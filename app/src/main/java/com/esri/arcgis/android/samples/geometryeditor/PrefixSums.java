@@ -0,0 +1,99 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Sumas acumuladas de una lista de enteros no negativos, en un árbol de Fenwick: cambiar un valor, sumar un prefijo
+ * y buscar en qué elemento cae una posición cuestan O(log n). Las listas por trozos lo usan para llevar el inicio de
+ * cada trozo sin desplazar los inicios de los siguientes en cada inserción.
+ * <p>
+ * Agregar o quitar elementos en medio de la lista obliga a rearmarla con {@link #build}, en O(n).
+ */
+public class PrefixSums {
+
+  // Árbol con base 1: mTree[i] suma los elementos (i - (i & -i), i]
+  private int[] mTree = new int[17];
+
+  private int mCount;
+
+  // Mayor potencia de dos que no pasa de mCount, para la búsqueda
+  private int mTop;
+
+  public int size() {
+    return mCount;
+  }
+
+  public void clear() {
+    mCount = 0;
+    mTop = 0;
+  }
+
+  /**
+   * Reemplaza la lista por los primeros {@code count} valores.
+   */
+  public void build(int[] values, int count) {
+    if (count + 1 > mTree.length) {
+      mTree = new int[Math.max(count + 1, mTree.length * 2)];
+    }
+    mCount = count;
+    System.arraycopy(values, 0, mTree, 1, count);
+    for (int i = 1; i <= count; i++) {
+      int parent = i + (i & -i);
+      if (parent <= count) {
+        mTree[parent] += mTree[i];
+      }
+    }
+    mTop = count == 0 ? 0 : Integer.highestOneBit(count);
+  }
+
+  /**
+   * Suma {@code delta} al elemento {@code index}.
+   */
+  public void add(int index, int delta) {
+    for (int i = index + 1; i <= mCount; i += i & -i) {
+      mTree[i] += delta;
+    }
+  }
+
+  /**
+   * @return Suma de los elementos anteriores a {@code index}; con {@code index == size()}, el total.
+   */
+  public int prefix(int index) {
+    int sum = 0;
+    for (int i = index; i > 0; i -= i & -i) {
+      sum += mTree[i];
+    }
+    return sum;
+  }
+
+  /**
+   * @return El elemento en el que cae una posición: el mayor i con {@code prefix(i) <= position}, saltando los
+   *         elementos en cero. Una posición desde el total da {@code size()}.
+   */
+  public int find(int position) {
+    int index = 0;
+    int remaining = position;
+    for (int step = mTop; step > 0; step >>= 1) {
+      int next = index + step;
+      if (next <= mCount && mTree[next] <= remaining) {
+        index = next;
+        remaining -= mTree[next];
+      }
+    }
+    return index;
+  }
+}
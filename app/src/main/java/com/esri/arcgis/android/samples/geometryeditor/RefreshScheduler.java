@@ -0,0 +1,125 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Agrupa las peticiones de actualización del boceto en una sola pasada de dibujo por cuadro de pantalla. Cada
+ * edición sólo marca el boceto como pendiente; la pasada corre en la siguiente llamada del reloj de cuadros, así
+ * que una ráfaga de toques, deshacer o movimientos dibuja a lo sumo una vez por sincronía vertical.
+ * <p>
+ * Lleva la cuenta de peticiones y de cuadros dibujados; su cociente dice cuánto trabajo se ahorró.
+ */
+public class RefreshScheduler {
+
+  /**
+   * Reloj de cuadros; en Android se implementa sobre el {@code Choreographer}.
+   */
+  public interface FrameClock {
+    /**
+     * Programa una tarea para el próximo cuadro.
+     */
+    void postFrameCallback(Runnable task);
+
+    void removeFrameCallback(Runnable task);
+  }
+
+  private final Runnable mRender;
+
+  private final FrameClock mClock;
+
+  private boolean mPending;
+
+  private long mRequests;
+
+  private long mFrames;
+
+  private final Runnable mFrameTask = new Runnable() {
+    @Override
+    public void run() {
+      if (mPending) {
+        mPending = false;
+        render();
+      }
+    }
+  };
+
+  /**
+   * @param render Pasada de dibujo; se llama en el hilo del reloj.
+   * @param clock Reloj de cuadros.
+   */
+  public RefreshScheduler(Runnable render, FrameClock clock) {
+    mRender = render;
+    mClock = clock;
+  }
+
+  /**
+   * Marca el boceto como pendiente de dibujo. Las peticiones hasta el próximo cuadro se combinan en una.
+   */
+  public void requestRefresh() {
+    mRequests++;
+    EditorMetrics.increment(EditorMetrics.REFRESH_REQUESTS);
+    if (!mPending) {
+      mPending = true;
+      mClock.postFrameCallback(mFrameTask);
+    }
+  }
+
+  /**
+   * Dibuja ya si hay una pasada pendiente, por ejemplo antes de leer el estado dibujado.
+   */
+  public void flush() {
+    if (mPending) {
+      mClock.removeFrameCallback(mFrameTask);
+      mPending = false;
+      render();
+    }
+  }
+
+  /**
+   * Descarta la pasada pendiente, por ejemplo al salir del modo de edición.
+   */
+  public void cancel() {
+    if (mPending) {
+      mClock.removeFrameCallback(mFrameTask);
+      mPending = false;
+    }
+  }
+
+  public boolean isPending() {
+    return mPending;
+  }
+
+  /**
+   * @return Peticiones recibidas desde la creación.
+   */
+  public long getRequestCount() {
+    return mRequests;
+  }
+
+  /**
+   * @return Pasadas de dibujo hechas desde la creación.
+   */
+  public long getFrameCount() {
+    return mFrames;
+  }
+
+  private void render() {
+    mFrames++;
+    EditorMetrics.increment(EditorMetrics.FRAMES_RENDERED);
+    mRender.run();
+  }
+}
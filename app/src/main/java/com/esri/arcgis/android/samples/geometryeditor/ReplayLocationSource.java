@@ -0,0 +1,89 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Repite una lista fija de posiciones a un ritmo constante, como si vinieran del GPS. Sirve para probar la
+ * captura de recorridos sin salir a caminar.
+ */
+public class ReplayLocationSource implements LocationSource, Runnable {
+
+  private final double[] mCoords;
+
+  private final long mPeriodMillis;
+
+  private final SaveQueue.Timer mTimer;
+
+  private Listener mListener;
+
+  private int mNext;
+
+  private long mTime;
+
+  /**
+   * @param coords Longitudes y latitudes intercaladas: lon0, lat0, lon1, lat1, ...
+   * @param periodMillis Tiempo entre posiciones; 50 a 100 ms equivale a un GPS de 10 a 20 Hz.
+   * @param timer Programa la siguiente posición; en la actividad lo implementa un Handler.
+   */
+  public ReplayLocationSource(double[] coords, long periodMillis, SaveQueue.Timer timer) {
+    mCoords = coords;
+    mPeriodMillis = periodMillis;
+    mTimer = timer;
+  }
+
+  @Override
+  public void start(Listener listener) {
+    stop();
+    mListener = listener;
+    mNext = 0;
+    mTime = 0;
+    if (mCoords.length >= 2) {
+      mTimer.postDelayed(this, mPeriodMillis);
+    }
+  }
+
+  @Override
+  public void stop() {
+    mTimer.removeCallbacks(this);
+    mListener = null;
+  }
+
+  /**
+   * @return true si todavía quedan posiciones por repetir.
+   */
+  public boolean isRunning() {
+    return mListener != null;
+  }
+
+  @Override
+  public void run() {
+    Listener listener = mListener;
+    if (listener == null) {
+      return;
+    }
+    double longitude = mCoords[2 * mNext];
+    double latitude = mCoords[2 * mNext + 1];
+    mNext++;
+    if (2 * mNext + 1 < mCoords.length) {
+      mTimer.postDelayed(this, mPeriodMillis);
+    } else {
+      mListener = null;
+    }
+    mTime += mPeriodMillis;
+    listener.onLocation(longitude, latitude, mTime);
+  }
+}
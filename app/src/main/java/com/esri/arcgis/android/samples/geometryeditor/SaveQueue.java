@@ -0,0 +1,816 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Cola de guardado por lotes. Acumula las entidades terminadas por capa destino y las envía juntas en una sola
+ * llamada cuando el lote alcanza un tamaño máximo o cuando pasa un tiempo máximo desde la primera entidad del lote.
+ * El resultado de cada entidad se informa por separado, de modo que un fallo parcial no oculta las que sí se
+ * guardaron.
+ * <p>
+ * Cada capa tiene un máximo de lotes en camino; los lotes que lo superan esperan su turno. Cuando un lote completo
+ * falla sin respuesta del servidor se reintenta tras una espera que crece exponencialmente, con una parte al azar
+ * para que varios clientes no reintenten a la vez, hasta un número máximo de envíos; sólo entonces se informa el
+ * fallo. Una entidad cuyo identificador ya está en la cola no se vuelve a agregar, así que nunca hay dos envíos de
+ * la misma entidad en camino. Las entidades que el servidor rechaza no se reintentan. Un lote guardado en una capa
+ * adelanta los reintentos pendientes de esa capa.
+ * <p>
+ * Un envío sin respuesta pudo haberse guardado igual (la respuesta se perdió en el camino), y reenviarlo crearía
+ * otra entidad en el servidor. Por eso cada entidad lleva una clave propia que el {@link Uploader} guarda con ella,
+ * y antes de reenviar una entidad cuyo último envío no tuvo respuesta se le pregunta al servidor, por esa clave,
+ * si ya la tiene: las que están se informan como guardadas y sólo se reenvían las demás. Si el servidor no puede
+ * decirlo (por ejemplo porque la capa no guarda la clave) la entidad no se reenvía: se informa como fallida y sin
+ * verificar, para que decida el usuario.
+ * <p>
+ * Todos los métodos, incluidas las respuestas del {@link Uploader}, deben llamarse desde el mismo hilo (el hilo de
+ * la interfaz en la actividad).
+ *
+ * @param <L> Tipo de la capa destino.
+ * @param <F> Tipo de la entidad a guardar.
+ */
+public class SaveQueue<L, F> {
+
+  /**
+   * Envía un lote de entidades a una capa.
+   */
+  public interface Uploader<L, F> {
+    /**
+     * Envía las entidades; cada una lleva su clave de cliente.
+     */
+    void upload(L layer, List<F> features, Callback callback);
+
+    /**
+     * Busca en la capa, por su clave de cliente o de otra forma, cuáles de las entidades ya están guardadas.
+     */
+    void findStored(L layer, List<F> features, LookupCallback callback);
+  }
+
+  // Resultados de la búsqueda de una entidad en el servidor
+  public static final byte LOOKUP_MISSING = 0;
+
+  public static final byte LOOKUP_STORED = 1;
+
+  // No hay forma de saber si el servidor la tiene
+  public static final byte LOOKUP_UNKNOWN = 2;
+
+  /**
+   * Respuesta del envío de un lote.
+   */
+  public interface Callback {
+    /**
+     * @param errors Un elemento por entidad del lote en el mismo orden: null si se guardó, o la descripción del
+     *          error.
+     */
+    void onResults(String[] errors);
+
+    /**
+     * El lote completo falló, por ejemplo por falta de conexión.
+     */
+    void onFailure(String message);
+  }
+
+  /**
+   * Respuesta de la búsqueda de entidades ya guardadas.
+   */
+  public interface LookupCallback {
+    /**
+     * @param results Un elemento por entidad buscada en el mismo orden: {@link #LOOKUP_STORED} si el servidor ya la
+     *          tiene, {@link #LOOKUP_MISSING} si no, o {@link #LOOKUP_UNKNOWN}. Las que falten se toman como
+     *          desconocidas.
+     */
+    void onFound(byte[] results);
+
+    /**
+     * La búsqueda falló sin respuesta; cuenta como un envío fallido.
+     */
+    void onFailure(String message);
+  }
+
+  /**
+   * Programa el envío de un lote por tiempo; en la actividad lo implementa un Handler.
+   */
+  public interface Timer {
+    void postDelayed(Runnable task, long delayMillis);
+
+    void removeCallbacks(Runnable task);
+  }
+
+  /**
+   * Recibe el resultado de cada lote enviado. Las entidades que se van a reintentar no se informan hasta su
+   * último envío.
+   */
+  public interface Listener<L, F> {
+    void onBatchComplete(L layer, List<Entry<F>> saved, List<Entry<F>> failed);
+  }
+
+  /**
+   * Recibe el estado de la cola cada vez que cambia, por ejemplo para mostrar el progreso.
+   */
+  public interface StatusListener {
+    void onStatusChanged(Status status);
+  }
+
+  /**
+   * Espera entre envíos fallidos de un lote: crece al doble en cada intento hasta un máximo, y la mitad de la
+   * espera es al azar.
+   */
+  public static class Backoff {
+    private final long baseMillis;
+
+    private final long maxMillis;
+
+    private final int maxAttempts;
+
+    private final Random random;
+
+    /**
+     * @param baseMillis Espera tras el primer fallo, antes de la parte al azar.
+     * @param maxMillis Espera máxima.
+     * @param maxAttempts Envíos de una entidad antes de darla por fallida, contando el primero.
+     * @param random Fuente de la parte al azar.
+     */
+    public Backoff(long baseMillis, long maxMillis, int maxAttempts, Random random) {
+      this.baseMillis = Math.max(1, baseMillis);
+      this.maxMillis = Math.max(this.baseMillis, maxMillis);
+      this.maxAttempts = Math.max(1, maxAttempts);
+      this.random = random;
+    }
+
+    public int getMaxAttempts() {
+      return maxAttempts;
+    }
+
+    /**
+     * @param attempt Envíos que fallaron hasta ahora, desde 1.
+     * @return Espera antes del siguiente envío, entre la mitad y el total de la espera exponencial.
+     */
+    public long delay(int attempt) {
+      long ceiling = Math.min(maxMillis, baseMillis << Math.min(Math.max(attempt - 1, 0), 30));
+      long half = ceiling / 2;
+      return ceiling - half + (long) (random.nextDouble() * (half + 1));
+    }
+  }
+
+  /**
+   * Estado de la cola en un momento dado.
+   */
+  public static class Status {
+    private final int queued;
+
+    private final int sending;
+
+    private final int retrying;
+
+    private final int saved;
+
+    private final int failed;
+
+    Status(int queued, int sending, int retrying, int saved, int failed) {
+      this.queued = queued;
+      this.sending = sending;
+      this.retrying = retrying;
+      this.saved = saved;
+      this.failed = failed;
+    }
+
+    /**
+     * @return Entidades que esperan ser enviadas, por tiempo o por turno de su capa.
+     */
+    public int getQueued() {
+      return queued;
+    }
+
+    /**
+     * @return Entidades en lotes que esperan respuesta del servidor.
+     */
+    public int getSending() {
+      return sending;
+    }
+
+    /**
+     * @return Entidades que fallaron y esperan su próximo envío.
+     */
+    public int getRetrying() {
+      return retrying;
+    }
+
+    /**
+     * @return Entidades guardadas desde que se creó la cola.
+     */
+    public int getSaved() {
+      return saved;
+    }
+
+    /**
+     * @return Entidades informadas como fallidas desde que se creó la cola.
+     */
+    public int getFailed() {
+      return failed;
+    }
+
+    /**
+     * @return true si no queda nada por enviar ni respuestas por esperar.
+     */
+    public boolean isIdle() {
+      return queued == 0 && sending == 0 && retrying == 0;
+    }
+  }
+
+  /**
+   * Una entidad en la cola junto con su resultado.
+   */
+  public static class Entry<F> {
+    private final long id;
+
+    private final F feature;
+
+    private final String label;
+
+    private final long enqueuedNanos = System.nanoTime();
+
+    private String error;
+
+    private boolean retryable;
+
+    private boolean unverified;
+
+    private int attempts;
+
+    // Un envío anterior no tuvo respuesta: el servidor pudo haberla guardado
+    private boolean unconfirmed;
+
+    Entry(long id, F feature, String label, boolean unconfirmed) {
+      this.id = id;
+      this.feature = feature;
+      this.label = label;
+      this.unconfirmed = unconfirmed;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public F getFeature() {
+      return feature;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    /**
+     * @return Momento en que la entidad entró a la cola, según System.nanoTime().
+     */
+    public long getEnqueuedNanos() {
+      return enqueuedNanos;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    /**
+     * @return true si el lote completo falló sin respuesta del servidor y vale la pena reintentar.
+     */
+    public boolean isRetryable() {
+      return retryable;
+    }
+
+    /**
+     * @return true si un envío anterior quedó sin respuesta y no se pudo comprobar si el servidor la guardó; no se
+     *         reenvió para no repetirla.
+     */
+    public boolean isUnverified() {
+      return unverified;
+    }
+
+    /**
+     * @return Turnos de envío de la entidad; el turno de una entidad sin confirmar empieza buscándola en el
+     *         servidor.
+     */
+    public int getAttempts() {
+      return attempts;
+    }
+  }
+
+  private final Uploader<L, F> mUploader;
+
+  private final Timer mTimer;
+
+  private final int mMaxBatchSize;
+
+  private final long mMaxDelayMillis;
+
+  private final int mMaxInFlight;
+
+  private final Backoff mBackoff;
+
+  private final Map<L, Lane> mLanes = new LinkedHashMap<L, Lane>();
+
+  // Identificadores de las entidades en la cola, en camino o esperando un reintento
+  private final Set<Long> mIds = new HashSet<Long>();
+
+  private final List<Retry> mRetries = new ArrayList<Retry>();
+
+  private Listener<L, F> mListener;
+
+  private StatusListener mStatusListener;
+
+  private int mInFlight;
+
+  private int mSending;
+
+  private int mSaved;
+
+  private int mFailed;
+
+  /**
+   * Crea una cola sin límite de lotes en camino y sin reintentos.
+   *
+   * @param uploader Envía los lotes.
+   * @param timer Programa los envíos por tiempo.
+   * @param maxBatchSize Número de entidades que dispara el envío de un lote.
+   * @param maxDelayMillis Tiempo máximo que una entidad espera en la cola.
+   */
+  public SaveQueue(Uploader<L, F> uploader, Timer timer, int maxBatchSize, long maxDelayMillis) {
+    this(uploader, timer, maxBatchSize, maxDelayMillis, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * @param uploader Envía los lotes.
+   * @param timer Programa los envíos por tiempo y los reintentos.
+   * @param maxBatchSize Número de entidades que dispara el envío de un lote.
+   * @param maxDelayMillis Tiempo máximo que una entidad espera en la cola.
+   * @param maxInFlight Lotes en camino por capa.
+   * @param backoff Espera entre reintentos, o null para no reintentar.
+   */
+  public SaveQueue(Uploader<L, F> uploader, Timer timer, int maxBatchSize, long maxDelayMillis, int maxInFlight,
+      Backoff backoff) {
+    mUploader = uploader;
+    mTimer = timer;
+    mMaxBatchSize = Math.max(1, maxBatchSize);
+    mMaxDelayMillis = maxDelayMillis;
+    mMaxInFlight = Math.max(1, maxInFlight);
+    mBackoff = backoff;
+  }
+
+  public void setListener(Listener<L, F> listener) {
+    mListener = listener;
+  }
+
+  public void setStatusListener(StatusListener listener) {
+    mStatusListener = listener;
+  }
+
+  /**
+   * Agrega una entidad a la cola de su capa.
+   *
+   * @param id Identificador de la entidad, por ejemplo su número en el diario de ediciones; 0 si no tiene.
+   * @param label Texto que identifica la entidad en los mensajes de error.
+   * @return false si ya hay una entidad con el mismo identificador en la cola.
+   */
+  public boolean add(L layer, long id, F feature, String label) {
+    return add(layer, id, feature, label, false);
+  }
+
+  /**
+   * Agrega una entidad que pudo haberse enviado antes sin respuesta, por ejemplo al reenviar el diario de
+   * ediciones: antes de enviarla se busca en el servidor por su clave.
+   *
+   * @param unconfirmed false si la entidad es nueva y nunca se envió.
+   * @return false si ya hay una entidad con el mismo identificador en la cola.
+   */
+  public boolean add(L layer, long id, F feature, String label, boolean unconfirmed) {
+    if (id != 0 && !mIds.add(id)) {
+      return false;
+    }
+    Lane lane = lane(layer);
+    Batch batch = lane.pending;
+    if (batch == null) {
+      batch = new Batch(layer);
+      lane.pending = batch;
+      mTimer.postDelayed(batch, mMaxDelayMillis);
+    }
+    Entry<F> entry = new Entry<F>(id, feature, label, unconfirmed);
+    batch.entries.add(entry);
+    if (batch.entries.size() >= mMaxBatchSize) {
+      flush(layer);
+    } else {
+      notifyStatus();
+    }
+    return true;
+  }
+
+  /**
+   * Envía de inmediato el lote pendiente de una capa, o lo deja esperando turno si la capa ya tiene el máximo de
+   * lotes en camino.
+   */
+  public void flush(L layer) {
+    Lane lane = mLanes.get(layer);
+    if (lane != null && lane.pending != null) {
+      Batch batch = lane.pending;
+      lane.pending = null;
+      mTimer.removeCallbacks(batch);
+      dispatch(lane, batch.entries);
+    }
+    notifyStatus();
+  }
+
+  /**
+   * Envía de inmediato todos los lotes pendientes.
+   */
+  public void flushAll() {
+    for (Lane lane : new ArrayList<Lane>(mLanes.values())) {
+      if (lane.pending != null) {
+        Batch batch = lane.pending;
+        lane.pending = null;
+        mTimer.removeCallbacks(batch);
+        dispatch(lane, batch.entries);
+      }
+    }
+    notifyStatus();
+  }
+
+  /**
+   * Envía ya los reintentos que esperan, por ejemplo cuando vuelve la conexión.
+   */
+  public void retryNow() {
+    for (Retry retry : new ArrayList<Retry>(mRetries)) {
+      mTimer.removeCallbacks(retry);
+      retry.run();
+    }
+  }
+
+  /**
+   * Cancela los envíos por tiempo y los reintentos programados, sin informar nada; las entidades quedan en la cola.
+   */
+  public void cancelTimers() {
+    for (Lane lane : mLanes.values()) {
+      if (lane.pending != null) {
+        mTimer.removeCallbacks(lane.pending);
+      }
+    }
+    for (Retry retry : mRetries) {
+      mTimer.removeCallbacks(retry);
+    }
+  }
+
+  /**
+   * @return Número de entidades que esperan en la cola, sin contar las que están en camino.
+   */
+  public int getPendingCount() {
+    int count = 0;
+    for (Lane lane : mLanes.values()) {
+      count += lane.size();
+    }
+    for (Retry retry : mRetries) {
+      count += retry.entries.size();
+    }
+    return count;
+  }
+
+  /**
+   * @return true si hay entidades en la cola o lotes esperando respuesta.
+   */
+  public boolean hasWork() {
+    if (mInFlight > 0 || !mRetries.isEmpty()) {
+      return true;
+    }
+    for (Lane lane : mLanes.values()) {
+      if (lane.size() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Status getStatus() {
+    int queued = 0;
+    for (Lane lane : mLanes.values()) {
+      queued += lane.size();
+    }
+    int retrying = 0;
+    for (Retry retry : mRetries) {
+      retrying += retry.entries.size();
+    }
+    return new Status(queued, mSending, retrying, mSaved, mFailed);
+  }
+
+  private Lane lane(L layer) {
+    Lane lane = mLanes.get(layer);
+    if (lane == null) {
+      lane = new Lane(layer);
+      mLanes.put(layer, lane);
+    }
+    return lane;
+  }
+
+  /**
+   * Envía un lote si la capa tiene lugar, o lo pone a esperar turno.
+   */
+  private void dispatch(Lane lane, List<Entry<F>> entries) {
+    if (lane.inFlight < mMaxInFlight) {
+      send(lane, entries);
+    } else {
+      lane.waiting.add(entries);
+    }
+  }
+
+  /**
+   * Un turno de envío de un lote. Si alguna entidad pudo quedar guardada en un envío sin respuesta, primero se
+   * busca en el servidor y sólo se envían las que no están.
+   */
+  private void send(final Lane lane, final List<Entry<F>> entries) {
+    final List<Entry<F>> unconfirmed = new ArrayList<Entry<F>>();
+    for (Entry<F> entry : entries) {
+      entry.attempts++;
+      if (entry.unconfirmed) {
+        unconfirmed.add(entry);
+      }
+    }
+    if (unconfirmed.isEmpty()) {
+      upload(lane, entries);
+      return;
+    }
+    List<F> features = new ArrayList<F>(unconfirmed.size());
+    for (Entry<F> entry : unconfirmed) {
+      features.add(entry.getFeature());
+    }
+    begin(lane, entries);
+    mUploader.findStored(lane.layer, features, new LookupCallback() {
+
+      private boolean mDone;
+
+      @Override
+      public void onFound(byte[] results) {
+        if (mDone) {
+          return;
+        }
+        mDone = true;
+        end(lane, entries);
+        List<Entry<F>> saved = new ArrayList<Entry<F>>();
+        List<Entry<F>> unverified = new ArrayList<Entry<F>>();
+        List<Entry<F>> rest = new ArrayList<Entry<F>>();
+        for (Entry<F> entry : entries) {
+          int i = unconfirmed.indexOf(entry);
+          byte result = i < 0 ? LOOKUP_MISSING
+              : results != null && i < results.length ? results[i] : LOOKUP_UNKNOWN;
+          if (result == LOOKUP_STORED) {
+            saved.add(entry);
+          } else if (result == LOOKUP_MISSING) {
+            entry.unconfirmed = false;
+            rest.add(entry);
+          } else {
+            entry.error = "No se pudo comprobar si el servidor la guardó";
+            entry.unverified = true;
+            entry.retryable = false;
+            unverified.add(entry);
+          }
+        }
+        // Las que faltan se envían en el mismo turno, antes de que otro lote tome el lugar
+        if (!rest.isEmpty()) {
+          upload(lane, rest);
+        }
+        complete(lane, saved, unverified);
+        if (!saved.isEmpty()) {
+          retryNow(lane.layer);
+        }
+      }
+
+      @Override
+      public void onFailure(String message) {
+        if (mDone) {
+          return;
+        }
+        mDone = true;
+        end(lane, entries);
+        retryLater(lane, entries, message);
+      }
+
+    });
+  }
+
+  private void upload(final Lane lane, final List<Entry<F>> entries) {
+    List<F> features = new ArrayList<F>(entries.size());
+    for (Entry<F> entry : entries) {
+      features.add(entry.getFeature());
+    }
+    begin(lane, entries);
+    mUploader.upload(lane.layer, features, new Callback() {
+
+      private boolean mDone;
+
+      @Override
+      public void onResults(String[] errors) {
+        if (!finish()) {
+          return;
+        }
+        List<Entry<F>> saved = new ArrayList<Entry<F>>();
+        List<Entry<F>> failed = new ArrayList<Entry<F>>();
+        for (int i = 0; i < entries.size(); i++) {
+          Entry<F> entry = entries.get(i);
+          if (errors != null && i < errors.length && errors[i] == null) {
+            saved.add(entry);
+          } else {
+            entry.error = errors != null && i < errors.length ? errors[i] : "Sin resultado";
+            failed.add(entry);
+          }
+        }
+        complete(lane, saved, failed);
+        if (!saved.isEmpty()) {
+          // El servidor responde: no tiene sentido seguir esperando para reintentar en esta capa
+          retryNow(lane.layer);
+        }
+      }
+
+      @Override
+      public void onFailure(String message) {
+        if (!finish()) {
+          return;
+        }
+        // Sin respuesta no se sabe si el servidor las guardó
+        for (Entry<F> entry : entries) {
+          entry.unconfirmed = true;
+        }
+        retryLater(lane, entries, message);
+      }
+
+      /**
+       * Una respuesta repetida del mismo envío se ignora.
+       */
+      private boolean finish() {
+        if (mDone) {
+          return false;
+        }
+        mDone = true;
+        end(lane, entries);
+        return true;
+      }
+
+    });
+  }
+
+  private void begin(Lane lane, List<Entry<F>> entries) {
+    lane.inFlight++;
+    mInFlight++;
+    mSending += entries.size();
+  }
+
+  private void end(Lane lane, List<Entry<F>> entries) {
+    lane.inFlight--;
+    mInFlight--;
+    mSending -= entries.size();
+  }
+
+  /**
+   * Un turno falló sin respuesta del servidor: las entidades con envíos restantes esperan un reintento y las demás
+   * se informan como fallidas.
+   */
+  private void retryLater(Lane lane, List<Entry<F>> entries, String message) {
+    List<Entry<F>> retry = new ArrayList<Entry<F>>();
+    List<Entry<F>> failed = new ArrayList<Entry<F>>();
+    for (Entry<F> entry : entries) {
+      entry.error = message;
+      entry.retryable = true;
+      if (mBackoff != null && entry.attempts < mBackoff.getMaxAttempts()) {
+        retry.add(entry);
+      } else {
+        failed.add(entry);
+      }
+    }
+    if (!retry.isEmpty()) {
+      Retry task = new Retry(lane, retry);
+      mRetries.add(task);
+      mTimer.postDelayed(task, mBackoff.delay(retry.get(0).attempts));
+    }
+    complete(lane, new ArrayList<Entry<F>>(), failed);
+  }
+
+  private void complete(Lane lane, List<Entry<F>> saved, List<Entry<F>> failed) {
+    for (Entry<F> entry : saved) {
+      mIds.remove(entry.getId());
+    }
+    for (Entry<F> entry : failed) {
+      mIds.remove(entry.getId());
+    }
+    mSaved += saved.size();
+    mFailed += failed.size();
+    // El lugar que dejó el lote pasa al siguiente que espera turno
+    while (lane.inFlight < mMaxInFlight && !lane.waiting.isEmpty()) {
+      send(lane, lane.waiting.poll());
+    }
+    if (mListener != null && (!saved.isEmpty() || !failed.isEmpty())) {
+      mListener.onBatchComplete(lane.layer, saved, failed);
+    }
+    notifyStatus();
+  }
+
+  private void retryNow(L layer) {
+    for (Retry retry : new ArrayList<Retry>(mRetries)) {
+      if (retry.lane.layer.equals(layer)) {
+        mTimer.removeCallbacks(retry);
+        retry.run();
+      }
+    }
+  }
+
+  private void notifyStatus() {
+    if (mStatusListener != null) {
+      mStatusListener.onStatusChanged(getStatus());
+    }
+  }
+
+  /**
+   * Lotes de una capa: el que se está llenando, los que esperan turno y cuántos están en camino.
+   */
+  private class Lane {
+    final L layer;
+
+    Batch pending;
+
+    final ArrayDeque<List<Entry<F>>> waiting = new ArrayDeque<List<Entry<F>>>();
+
+    int inFlight;
+
+    Lane(L layer) {
+      this.layer = layer;
+    }
+
+    /**
+     * @return Entidades que todavía no se enviaron.
+     */
+    int size() {
+      int count = pending != null ? pending.entries.size() : 0;
+      for (List<Entry<F>> entries : waiting) {
+        count += entries.size();
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Entidades pendientes de una capa; al ejecutarse envía el lote por tiempo.
+   */
+  private class Batch implements Runnable {
+    final L layer;
+
+    final List<Entry<F>> entries = new ArrayList<Entry<F>>();
+
+    Batch(L layer) {
+      this.layer = layer;
+    }
+
+    @Override
+    public void run() {
+      Lane lane = mLanes.get(layer);
+      if (lane != null && lane.pending == this) {
+        flush(layer);
+      }
+    }
+  }
+
+  /**
+   * Entidades de un lote fallido; al ejecutarse les da otro turno de envío.
+   */
+  private class Retry implements Runnable {
+    final Lane lane;
+
+    final List<Entry<F>> entries;
+
+    Retry(Lane lane, List<Entry<F>> entries) {
+      this.lane = lane;
+      this.entries = entries;
+    }
+
+    @Override
+    public void run() {
+      if (mRetries.remove(this)) {
+        dispatch(lane, entries);
+        notifyStatus();
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Lleva el dedo de un arrastre a coordenadas del mapa sin convertir cada evento con el MapView: guarda dónde
+ * empezó el punto y el dedo, y cuánto se desplaza el mapa por cada píxel de pantalla en x y en y, lo que incluye la
+ * rotación del mapa. No crea objetos.
+ */
+public class ScreenDrag {
+
+  private double mStartX;
+
+  private double mStartY;
+
+  private float mScreenX;
+
+  private float mScreenY;
+
+  private double mXx;
+
+  private double mXy;
+
+  private double mYx;
+
+  private double mYy;
+
+  /**
+   * @param startX Posición inicial del punto en el mapa.
+   * @param screenX Posición inicial del dedo en la pantalla.
+   * @param xx Desplazamiento en x del mapa al mover el dedo un píxel a la derecha; xy, el desplazamiento en y.
+   * @param yx Desplazamiento en x del mapa al mover el dedo un píxel hacia abajo; yy, el desplazamiento en y.
+   */
+  public void begin(double startX, double startY, float screenX, float screenY, double xx, double xy, double yx,
+      double yy) {
+    mStartX = startX;
+    mStartY = startY;
+    mScreenX = screenX;
+    mScreenY = screenY;
+    mXx = xx;
+    mXy = xy;
+    mYx = yx;
+    mYy = yy;
+  }
+
+  public double mapX(float screenX, float screenY) {
+    return mStartX + (screenX - mScreenX) * mXx + (screenY - mScreenY) * mYx;
+  }
+
+  public double mapY(float screenX, float screenY) {
+    return mStartY + (screenX - mScreenX) * mXy + (screenY - mScreenY) * mYy;
+  }
+}
@@ -0,0 +1,698 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.Arrays;
+
+/**
+ * Detecta en vivo los segmentos del boceto que se cruzan entre sí. Los segmentos se guardan en una rejilla uniforme
+ * (cada uno en las celdas que atraviesa, no en las de su recuadro), así que insertar, mover o eliminar un vértice
+ * sólo compara sus dos segmentos con los que comparten celdas: el costo depende de los segmentos cercanos y no del
+ * tamaño del boceto.
+ * <p>
+ * Sigue a la lista de vértices con los mismos avisos que {@link MidPointList}. Los vértices ocupan ranuras estables;
+ * un segmento se identifica por la ranura de su primer vértice, y la lista de ranuras se reparte en trozos con un
+ * {@link ChunkLayout} para que insertar o eliminar no desplace las de todo el boceto. Los segmentos vecinos (que comparten un vértice) no
+ * cuentan como cruce, ni los de largo cero.
+ * <p>
+ * El tamaño de celda sigue al largo medio de los segmentos, sin que el más largo atraviese más de {@value #MAX_SPAN}
+ * celdas; si eso cambia mucho la rejilla se vuelve a armar. Un segmento largo cuesta tantas celdas como atraviesa.
+ */
+public class SelfIntersectionIndex {
+
+  // Celdas máximas que puede atravesar un segmento a lo largo antes de agrandar las celdas
+  private static final int MAX_SPAN = 256;
+
+  // Cambio del largo medio de los segmentos respecto de la celda que obliga a rearmar la rejilla
+  private static final double MAX_CELL_RATIO = 8;
+
+  // Segmentos a partir de los cuales se vigila el largo medio
+  private static final int MIN_RESIZE_SEGMENTS = 64;
+
+  // Margen, en celdas, para no perder cruces justo en un borde de celda
+  private static final double EDGE_MARGIN = 1e-9;
+
+  private static final int LENGTH_BUCKETS = 2200;
+
+  private static final int LENGTH_BUCKET_OFFSET = 1100;
+
+  private final HandleIndex.Coordinates mPoints;
+
+  private boolean mClosed;
+
+  // Posición física -> ranura; el layout lleva de la posición en la lista a la física
+  private int[] mSlotAt = new int[0];
+
+  private final ChunkLayout mLayout = new ChunkLayout(VertexBuffer.CHUNK_SIZE, 16, new ChunkLayout.Storage() {
+    @Override
+    public void ensureCapacity(int capacity) {
+      mSlotAt = Arrays.copyOf(mSlotAt, capacity);
+    }
+
+    @Override
+    public void move(int from, int to, int length) {
+      System.arraycopy(mSlotAt, from, mSlotAt, to, length);
+    }
+  });
+
+  // Datos de cada ranura: coordenadas del vértice, último vértice de su segmento (-1 sin segmento) y cruces
+  private double[] mX = new double[16];
+
+  private double[] mY = new double[16];
+
+  private int[] mEnd = new int[16];
+
+  private int[][] mPartners = new int[16][];
+
+  private int[] mPartnerCount = new int[16];
+
+  private int[] mStamp = new int[16];
+
+  private int mSlotCount;
+
+  private int[] mFree = new int[16];
+
+  private int mFreeCount;
+
+  // Segmentos con algún cruce y la posición de cada uno en la lista (-1 si no está)
+  private int[] mOffending = new int[16];
+
+  private int[] mOffendingAt = new int[16];
+
+  private int mOffendingCount;
+
+  private int mCrossings;
+
+  private int mVersion;
+
+  // Rejilla: tabla hash con direccionamiento abierto, celda -> segmentos que la atraviesan. Las celdas que se vacían
+  // se conservan para no crear objetos al mover un vértice, hasta que la tabla tiene que crecer
+  private long[] mCellKey = new long[64];
+
+  private Cell[] mCellAt = new Cell[64];
+
+  private int mCellCount;
+
+  private double mCellSize = 1;
+
+  private double mInvCellSize = 1;
+
+  private double mLengthSum;
+
+  private int mSegmentCount;
+
+  // Segmentos por exponente binario del largo, para conocer el más largo sin recorrerlos
+  private final int[] mLengthBuckets = new int[LENGTH_BUCKETS];
+
+  private int mTopBucket = -1;
+
+  private int mCurrentStamp;
+
+  private long[] mCellKeys = new long[64];
+
+  // Segmentos comparados en la última edición, para las pruebas
+  int mComparisons;
+
+  private static class Cell {
+    int[] items = new int[4];
+
+    int size;
+
+    void add(int item) {
+      if (size == items.length) {
+        items = Arrays.copyOf(items, size * 2);
+      }
+      items[size++] = item;
+    }
+
+    void remove(int item) {
+      for (int i = 0; i < size; i++) {
+        if (items[i] == item) {
+          items[i] = items[--size];
+          return;
+        }
+      }
+    }
+  }
+
+  public SelfIntersectionIndex(HandleIndex.Coordinates points) {
+    mPoints = points;
+  }
+
+  /**
+   * Indica si el último vértice se une con el primero, como en un polígono; el segmento de cierre aparece con el
+   * tercer vértice.
+   */
+  public void setClosed(boolean closed) {
+    mClosed = closed;
+    update(mLayout.size() - 1);
+  }
+
+  /**
+   * @return Pares de segmentos que se cruzan.
+   */
+  public int getCrossingCount() {
+    return mCrossings;
+  }
+
+  public boolean isSimple() {
+    return mCrossings == 0;
+  }
+
+  /**
+   * @return Número que cambia cada vez que cambian los segmentos con cruces, para redibujarlos sólo entonces.
+   */
+  public int getVersion() {
+    return mVersion;
+  }
+
+  /**
+   * @return Segmentos que cruzan a algún otro.
+   */
+  public int getOffendingCount() {
+    return mOffendingCount;
+  }
+
+  /**
+   * Copia los segmentos que cruzan a algún otro, como pares de puntos inicio y fin.
+   */
+  public void getOffending(VertexBuffer out) {
+    out.clear();
+    for (int i = 0; i < mOffendingCount; i++) {
+      int s = mOffending[i];
+      out.add(mX[s], mY[s]);
+      out.add(mX[mEnd[s]], mY[mEnd[s]]);
+    }
+  }
+
+  /**
+   * Vuelve a armar todo desde la lista de vértices, por ejemplo después de agregar vértices en bloque.
+   */
+  public void rebuild() {
+    int n = mPoints.size();
+    double lengthSum = 0;
+    double maxLength = 0;
+    for (int i = 1; i < n; i++) {
+      double length = Math.hypot(mPoints.getX(i) - mPoints.getX(i - 1), mPoints.getY(i) - mPoints.getY(i - 1));
+      lengthSum += length;
+      maxLength = Math.max(maxLength, length);
+    }
+    if (mClosed && n > 2) {
+      double length = Math.hypot(mPoints.getX(0) - mPoints.getX(n - 1), mPoints.getY(0) - mPoints.getY(n - 1));
+      lengthSum += length;
+      maxLength = Math.max(maxLength, length);
+    }
+    int segments = mClosed && n > 2 ? n : n - 1;
+    setCellSize(targetCellSize(segments > 0 ? lengthSum / segments : 0, maxLength));
+
+    clearCells();
+    mSlotCount = 0;
+    mFreeCount = 0;
+    mOffendingCount = 0;
+    mCrossings = 0;
+    mLengthSum = 0;
+    mSegmentCount = 0;
+    Arrays.fill(mLengthBuckets, 0);
+    mTopBucket = -1;
+    mLayout.clear();
+    ensureSlots(n);
+    for (int i = 0; i < n; i++) {
+      int slot = newSlot();
+      mX[slot] = mPoints.getX(i);
+      mY[slot] = mPoints.getY(i);
+      int physical = mLayout.insert(i);
+      mSlotAt[physical] = slot;
+    }
+    for (int i = 0; i < n; i++) {
+      update(i);
+    }
+    mVersion++;
+  }
+
+  /**
+   * Avisa que se insertó un vértice en una posición.
+   */
+  public void vertexInserted(int index) {
+    int slot = newSlot();
+    mX[slot] = mPoints.getX(index);
+    mY[slot] = mPoints.getY(index);
+    int physical = mLayout.insert(index);
+    mSlotAt[physical] = slot;
+    mComparisons = 0;
+    // El segmento que entraba al hueco, el nuevo y el de cierre
+    update(index - 1);
+    update(index);
+    update(mLayout.size() - 1);
+    checkCellSize();
+  }
+
+  /**
+   * Avisa que se movió el vértice de una posición.
+   */
+  public void vertexMoved(int index) {
+    int slot = slotAt(index);
+    int before = previous(index);
+    mComparisons = 0;
+    removeSegment(slot);
+    if (before != -1 && mEnd[slotAt(before)] == slot) {
+      removeSegment(slotAt(before));
+    }
+    mX[slot] = mPoints.getX(index);
+    mY[slot] = mPoints.getY(index);
+    update(index);
+    update(before);
+    checkCellSize();
+  }
+
+  /**
+   * Avisa que se eliminó el vértice de una posición.
+   */
+  public void vertexRemoved(int index) {
+    int slot = slotAt(index);
+    mLayout.remove(index);
+    mComparisons = 0;
+    removeSegment(slot);
+    // El segmento que terminaba en el vértice ahora termina en el siguiente, y el de cierre puede cambiar
+    update(index - 1);
+    update(mLayout.size() - 1);
+    mFree[mFreeCount++] = slot;
+    checkCellSize();
+  }
+
+  /**
+   * Posición del vértice anterior, contando el segmento de cierre; -1 si no hay.
+   */
+  private int previous(int index) {
+    if (index > 0) {
+      return index - 1;
+    }
+    int size = mLayout.size();
+    return mClosed && size > 2 ? size - 1 : -1;
+  }
+
+  private int slotAt(int index) {
+    return mSlotAt[mLayout.physical(index)];
+  }
+
+  /**
+   * Pone al día el segmento que empieza en una posición, si su último vértice cambió.
+   */
+  private void update(int index) {
+    int size = mLayout.size();
+    if (index < 0 || index >= size) {
+      return;
+    }
+    int slot = slotAt(index);
+    int end;
+    if (index + 1 < size) {
+      end = slotAt(index + 1);
+    } else {
+      end = mClosed && size > 2 ? slotAt(0) : -1;
+    }
+    if (mEnd[slot] == end) {
+      return;
+    }
+    removeSegment(slot);
+    if (end != -1) {
+      addSegment(slot, end);
+    }
+  }
+
+  private void addSegment(int s, int e) {
+    // Las celdas se calculan antes de marcar el segmento, por si hay que agrandarlas y volver a registrar los demás
+    int cells = cells(s, e);
+    mEnd[s] = e;
+    countLength(length(s, e), 1);
+    mCurrentStamp++;
+    mStamp[s] = mCurrentStamp;
+    for (int c = 0; c < cells; c++) {
+      Cell cell = findCell(mCellKeys[c], true);
+      for (int i = 0; i < cell.size; i++) {
+        int t = cell.items[i];
+        if (mStamp[t] == mCurrentStamp) {
+          continue;
+        }
+        mStamp[t] = mCurrentStamp;
+        mComparisons++;
+        if (crosses(s, t)) {
+          link(s, t);
+        }
+      }
+      cell.add(s);
+    }
+  }
+
+  private void removeSegment(int s) {
+    int e = mEnd[s];
+    if (e == -1) {
+      return;
+    }
+    int cells = cells(s, e);
+    for (int c = 0; c < cells; c++) {
+      Cell cell = findCell(mCellKeys[c], false);
+      if (cell != null) {
+        cell.remove(s);
+      }
+    }
+    while (mPartnerCount[s] > 0) {
+      unlink(s, mPartners[s][mPartnerCount[s] - 1]);
+    }
+    countLength(length(s, e), -1);
+    mEnd[s] = -1;
+  }
+
+  private double length(int s, int e) {
+    double dx = mX[e] - mX[s];
+    double dy = mY[e] - mY[s];
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  private void countLength(double length, int delta) {
+    mSegmentCount += delta;
+    mLengthSum += delta * length;
+    int bucket = Math.getExponent(length) + LENGTH_BUCKET_OFFSET;
+    mLengthBuckets[bucket] += delta;
+    if (delta > 0) {
+      mTopBucket = Math.max(mTopBucket, bucket);
+    } else {
+      while (mTopBucket >= 0 && mLengthBuckets[mTopBucket] == 0) {
+        mTopBucket--;
+      }
+    }
+  }
+
+  private static double targetCellSize(double meanLength, double maxLength) {
+    return Math.max(Math.max(meanLength, maxLength / MAX_SPAN), Double.MIN_NORMAL);
+  }
+
+  /**
+   * Si el tamaño de celda se alejó mucho del que corresponde a los segmentos actuales, rearma la rejilla.
+   */
+  private void checkCellSize() {
+    if (mSegmentCount < MIN_RESIZE_SEGMENTS) {
+      return;
+    }
+    // Cota superior del largo máximo: el siguiente exponente binario
+    double maxLength = Math.scalb(1.0, mTopBucket - LENGTH_BUCKET_OFFSET + 1);
+    double target = targetCellSize(mLengthSum / mSegmentCount, maxLength);
+    if (target * MAX_CELL_RATIO < mCellSize || target > mCellSize * MAX_CELL_RATIO) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Deja en {@link #mCellKeys} las celdas que atraviesa un segmento: por cada columna, las filas entre las alturas
+   * del segmento en sus bordes, con un margen mínimo para no perder cruces justo en un borde de celda.
+   *
+   * @return Número de celdas.
+   */
+  private int cells(int s, int e) {
+    double x1 = mX[s];
+    double y1 = mY[s];
+    double x2 = mX[e];
+    double y2 = mY[e];
+    if (x1 > x2) {
+      double t = x1;
+      x1 = x2;
+      x2 = t;
+      t = y1;
+      y1 = y2;
+      y2 = t;
+    }
+    double extent = Math.max(x2 - x1, Math.abs(y2 - y1));
+    if (extent > mCellSize * MAX_SPAN * MAX_CELL_RATIO) {
+      // Un segmento mucho más largo que la celda: agrandar la rejilla antes de registrarlo. Los demás ya
+      // registrados son más cortos, así que con la celda nueva no vuelven a pasar por aquí.
+      setCellSize(extent / MAX_SPAN);
+      rebuildCells();
+      return cells(s, e);
+    }
+    // En unidades de celda, con el margen
+    double inv = mInvCellSize;
+    long cx1 = floor(x1 * inv - EDGE_MARGIN);
+    long cx2 = floor(x2 * inv + EDGE_MARGIN);
+    if (cx1 == cx2 || x1 == x2) {
+      // Una sola columna, el caso común con celdas del largo medio de los segmentos
+      return column(cx1, cx2, y1 * inv, y2 * inv, 0);
+    }
+    double slope = (y2 - y1) / (x2 - x1);
+    double size = mCellSize;
+    int count = 0;
+    for (long cx = cx1; cx <= cx2; cx++) {
+      double xa = cx * size > x1 ? cx * size : x1;
+      double xb = (cx + 1) * size < x2 ? (cx + 1) * size : x2;
+      count = column(cx, cx, (y1 + (xa - x1) * slope) * inv, (y1 + (xb - x1) * slope) * inv, count);
+    }
+    return count;
+  }
+
+  /**
+   * Agrega a {@link #mCellKeys} las celdas de las columnas dadas entre dos alturas en unidades de celda.
+   *
+   * @return Número de celdas hasta ahora.
+   */
+  private int column(long cx1, long cx2, double ya, double yb, int count) {
+    long cy1 = floor((ya < yb ? ya : yb) - EDGE_MARGIN);
+    long cy2 = floor((ya < yb ? yb : ya) + EDGE_MARGIN);
+    int needed = count + (int) ((cx2 - cx1 + 1) * (cy2 - cy1 + 1));
+    if (needed > mCellKeys.length) {
+      mCellKeys = Arrays.copyOf(mCellKeys, Math.max(needed, mCellKeys.length * 2));
+    }
+    for (long cx = cx1; cx <= cx2; cx++) {
+      for (long cy = cy1; cy <= cy2; cy++) {
+        mCellKeys[count++] = (cx << 32) ^ (cy & 0xffffffffL);
+      }
+    }
+    return count;
+  }
+
+  private static long floor(double v) {
+    long f = (long) v;
+    return v < f ? f - 1 : f;
+  }
+
+  private void setCellSize(double size) {
+    mCellSize = size;
+    mInvCellSize = 1 / size;
+  }
+
+  /**
+   * Vuelve a registrar todos los segmentos con el tamaño de celda actual; los cruces no cambian.
+   */
+  private void rebuildCells() {
+    clearCells();
+    for (int i = 0; i < mLayout.size(); i++) {
+      int s = slotAt(i);
+      if (mEnd[s] == -1) {
+        continue;
+      }
+      int cells = cells(s, mEnd[s]);
+      for (int c = 0; c < cells; c++) {
+        findCell(mCellKeys[c], true).add(s);
+      }
+    }
+  }
+
+  /**
+   * Busca una celda en la tabla hash.
+   *
+   * @param create Si es true y la celda no está, la agrega vacía.
+   * @return La celda, o null si no está y no se pidió crearla.
+   */
+  private Cell findCell(long key, boolean create) {
+    int mask = mCellAt.length - 1;
+    int i = slotOf(key, mask);
+    while (mCellAt[i] != null) {
+      if (mCellKey[i] == key) {
+        return mCellAt[i];
+      }
+      i = (i + 1) & mask;
+    }
+    if (!create) {
+      return null;
+    }
+    if ((mCellCount + 1) * 2 > mCellAt.length) {
+      growCells();
+      return findCell(key, true);
+    }
+    Cell cell = new Cell();
+    mCellKey[i] = key;
+    mCellAt[i] = cell;
+    mCellCount++;
+    return cell;
+  }
+
+  private static int slotOf(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  /**
+   * Rehace la tabla de celdas sin las vacías; sólo la agranda si las que quedan la llenan más de un cuarto.
+   */
+  private void growCells() {
+    long[] oldKeys = mCellKey;
+    Cell[] oldCells = mCellAt;
+    int live = 0;
+    for (Cell cell : oldCells) {
+      if (cell != null && cell.size > 0) {
+        live++;
+      }
+    }
+    int length = oldCells.length;
+    while ((live + 1) * 4 > length) {
+      length *= 2;
+    }
+    mCellKey = new long[length];
+    mCellAt = new Cell[length];
+    mCellCount = live;
+    int mask = length - 1;
+    for (int j = 0; j < oldCells.length; j++) {
+      if (oldCells[j] == null || oldCells[j].size == 0) {
+        continue;
+      }
+      int i = slotOf(oldKeys[j], mask);
+      while (mCellAt[i] != null) {
+        i = (i + 1) & mask;
+      }
+      mCellKey[i] = oldKeys[j];
+      mCellAt[i] = oldCells[j];
+    }
+  }
+
+  private void clearCells() {
+    Arrays.fill(mCellAt, null);
+    mCellCount = 0;
+  }
+
+  /**
+   * Si dos segmentos no vecinos se tocan o se cruzan.
+   */
+  private boolean crosses(int s, int t) {
+    int se = mEnd[s];
+    int te = mEnd[t];
+    if (s == t || s == te || se == t || se == te) {
+      return false;
+    }
+    double ax = mX[s];
+    double ay = mY[s];
+    double bx = mX[se];
+    double by = mY[se];
+    double cx = mX[t];
+    double cy = mY[t];
+    double dx = mX[te];
+    double dy = mY[te];
+    if ((ax == bx && ay == by) || (cx == dx && cy == dy)) {
+      return false;
+    }
+    double o1 = orientation(ax, ay, bx, by, cx, cy);
+    double o2 = orientation(ax, ay, bx, by, dx, dy);
+    double o3 = orientation(cx, cy, dx, dy, ax, ay);
+    double o4 = orientation(cx, cy, dx, dy, bx, by);
+    if (((o1 > 0 && o2 < 0) || (o1 < 0 && o2 > 0)) && ((o3 > 0 && o4 < 0) || (o3 < 0 && o4 > 0))) {
+      return true;
+    }
+    return (o1 == 0 && within(ax, ay, bx, by, cx, cy)) || (o2 == 0 && within(ax, ay, bx, by, dx, dy))
+        || (o3 == 0 && within(cx, cy, dx, dy, ax, ay)) || (o4 == 0 && within(cx, cy, dx, dy, bx, by));
+  }
+
+  private static double orientation(double ax, double ay, double bx, double by, double px, double py) {
+    return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+  }
+
+  /**
+   * Si un punto colineal con un segmento cae dentro de su recuadro.
+   */
+  private static boolean within(double ax, double ay, double bx, double by, double px, double py) {
+    return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+  }
+
+  private void link(int s, int t) {
+    addPartner(s, t);
+    addPartner(t, s);
+    mCrossings++;
+    mVersion++;
+  }
+
+  private void unlink(int s, int t) {
+    removePartner(s, t);
+    removePartner(t, s);
+    mCrossings--;
+    mVersion++;
+  }
+
+  private void addPartner(int s, int t) {
+    if (mPartners[s] == null) {
+      mPartners[s] = new int[4];
+    } else if (mPartnerCount[s] == mPartners[s].length) {
+      mPartners[s] = Arrays.copyOf(mPartners[s], mPartnerCount[s] * 2);
+    }
+    mPartners[s][mPartnerCount[s]++] = t;
+    if (mPartnerCount[s] == 1) {
+      if (mOffendingCount == mOffending.length) {
+        mOffending = Arrays.copyOf(mOffending, mOffendingCount * 2);
+      }
+      mOffendingAt[s] = mOffendingCount;
+      mOffending[mOffendingCount++] = s;
+    }
+  }
+
+  private void removePartner(int s, int t) {
+    int[] partners = mPartners[s];
+    for (int i = 0; i < mPartnerCount[s]; i++) {
+      if (partners[i] == t) {
+        partners[i] = partners[--mPartnerCount[s]];
+        break;
+      }
+    }
+    if (mPartnerCount[s] == 0) {
+      int at = mOffendingAt[s];
+      int last = mOffending[--mOffendingCount];
+      mOffending[at] = last;
+      mOffendingAt[last] = at;
+    }
+  }
+
+  private int newSlot() {
+    int slot;
+    if (mFreeCount > 0) {
+      slot = mFree[--mFreeCount];
+    } else {
+      ensureSlots(mSlotCount + 1);
+      slot = mSlotCount++;
+    }
+    mEnd[slot] = -1;
+    mPartnerCount[slot] = 0;
+    mStamp[slot] = 0;
+    return slot;
+  }
+
+  private void ensureSlots(int capacity) {
+    if (capacity <= mX.length) {
+      return;
+    }
+    int size = Math.max(capacity, mX.length * 2);
+    mX = Arrays.copyOf(mX, size);
+    mY = Arrays.copyOf(mY, size);
+    mEnd = Arrays.copyOf(mEnd, size);
+    mPartners = Arrays.copyOf(mPartners, size);
+    mPartnerCount = Arrays.copyOf(mPartnerCount, size);
+    mStamp = Arrays.copyOf(mStamp, size);
+    mFree = Arrays.copyOf(mFree, size);
+    mOffendingAt = Arrays.copyOf(mOffendingAt, size);
+  }
+}
@@ -0,0 +1,335 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.graphics.Color;
+
+import com.esri.android.map.GraphicsLayer;
+import com.esri.android.map.MapView;
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.Polyline;
+import com.esri.core.symbol.SimpleFillSymbol;
+import com.esri.core.symbol.SimpleLineSymbol;
+import com.esri.core.symbol.SimpleMarkerSymbol;
+
+/**
+ * Lleva el boceto de un {@link SketchEngine} a la capa de edición del mapa. Elige el nivel del contorno según la
+ * resolución, toma la vista con su margen para recortar y agrupar los puntos de control con {@link VisibleHandles},
+ * y pasa el resultado a un {@link SketchRenderer}. La capa de edición se crea en la primera pasada de dibujo.
+ * <p>
+ * Debe usarse desde el hilo de la interfaz.
+ */
+public class SketchDisplay {
+
+  // Puntos de control: margen alrededor de la vista en dp, y lado de las celdas de agrupación en dp; se agrupan
+  // cuando hay más puntos visibles que celdas en la pantalla
+  private static final int HANDLE_MARGIN_DP = 48;
+
+  private static final int CLUSTER_SIZE_DP = 32;
+
+  // Error aceptable en píxeles al elegir el nivel del contorno para la resolución del mapa
+  private static final double OUTLINE_PIXEL_TOLERANCE = 0.5;
+
+  private final MapView mMapView;
+
+  private final SketchEngine mEngine;
+
+  private final float mDensity;
+
+  private final SketchSymbols mSymbols;
+
+  private GraphicsLayer mLayer;
+
+  private SketchRenderer mRenderer;
+
+  // Nivel del contorno dibujado (-1 con todo el detalle) y sus vértices
+  private int mOutlineLevel = -1;
+
+  private final VertexBuffer mOutlinePoints = new VertexBuffer();
+
+  // Versión dibujada de los segmentos que se cruzan y sus puntos inicio y fin
+  private int mConflictsVersion = -1;
+
+  private final VertexBuffer mConflictPoints = new VertexBuffer();
+
+  // Puntos de control que se dibujan: los de la vista, agrupados si están demasiado juntos
+  private final VisibleHandles mVisibleVertices;
+
+  private final VisibleHandles mVisibleMidPoints;
+
+  // Vista con su margen, lado de las celdas de agrupación y puntos a partir de los cuales se agrupan; el recorte
+  // sólo se aplica si mViewportKnown
+  private final Envelope mViewport = new Envelope();
+
+  private boolean mViewportKnown;
+
+  private double mClusterSize;
+
+  private int mMaxHandles;
+
+  /**
+   * @param density Densidad de la pantalla, para pasar los dp a píxeles.
+   */
+  public SketchDisplay(MapView mapView, SketchEngine engine, float density) {
+    mMapView = mapView;
+    mEngine = engine;
+    mDensity = density;
+    mVisibleVertices = new VisibleHandles(engine.getVertexIndex());
+    mVisibleMidPoints = new VisibleHandles(engine.getMidPointIndex());
+    SimpleLineSymbol line = new SimpleLineSymbol(Color.BLACK, 4);
+    mSymbols = new SketchSymbols(new SimpleMarkerSymbol(Color.RED, 20, SimpleMarkerSymbol.STYLE.CIRCLE),
+        new SimpleMarkerSymbol(Color.BLACK, 20, SimpleMarkerSymbol.STYLE.CIRCLE),
+        new SimpleMarkerSymbol(Color.GREEN, 15, SimpleMarkerSymbol.STYLE.CIRCLE),
+        new SimpleMarkerSymbol(Color.argb(160, 0, 0, 0), 26, SimpleMarkerSymbol.STYLE.CIRCLE), line,
+        createFillSymbol(line), new SimpleLineSymbol(Color.RED, 6));
+  }
+
+  /**
+   * Crea la capa de gráficos de edición y el renderizador del boceto, si todavía no existen.
+   */
+  public void createLayer() {
+    if (mLayer != null) {
+      return;
+    }
+    mLayer = new GraphicsLayer();
+    mMapView.addLayer(mLayer);
+    mRenderer = new SketchRenderer(mLayer, mSymbols);
+    mConflictsVersion = -1;
+  }
+
+  /**
+   * Dibuja el contorno si cambió o si la escala pide otro nivel de detalle.
+   *
+   * @param changed true si el boceto cambió desde la última llamada.
+   * @param geometryType Una de las constantes de {@link EditJournal}.
+   */
+  public void drawOutline(boolean changed, byte geometryType) {
+    int level = outlineLevel();
+    if (!changed && level == mOutlineLevel) {
+      return;
+    }
+    mOutlineLevel = level;
+    createLayer();
+
+    VertexBuffer points = mEngine.getPoints();
+    if (points.size() <= 1) {
+      mRenderer.setOutline(null, null);
+      return;
+    }
+    MultiPath multipath = geometryType == EditJournal.POLYLINE ? new Polyline() : new Polygon();
+    // A escalas pequeñas basta un nivel generalizado
+    HandleIndex.Coordinates outline = points;
+    if (mOutlineLevel >= 0) {
+      mEngine.getOutline().build(mOutlineLevel, mOutlinePoints);
+      outline = mOutlinePoints;
+    }
+    // El vértice arrastrado y sus segmentos se dibujan aparte; al arrastrar se usa todo el detalle
+    int dragIndex = mEngine.getDragIndex();
+    boolean started = false;
+    for (int i = 0; i < outline.size(); i++) {
+      if (outline == points && i == dragIndex) {
+        continue;
+      }
+      if (started) {
+        multipath.lineTo(outline.getX(i), outline.getY(i));
+      } else {
+        multipath.startPath(outline.getX(i), outline.getY(i));
+        started = true;
+      }
+    }
+    // Dibuja y rellena con los símbolos registrados en la capa
+    mRenderer.setOutline(multipath, geometryType == EditJournal.POLYLINE ? SketchSymbols.LINE : SketchSymbols.FILL);
+  }
+
+  /**
+   * Dibuja los cruces y los puntos de control de la vista actual. No hace nada antes de la primera pasada del
+   * contorno.
+   */
+  public void drawHandles() {
+    if (mRenderer == null) {
+      return;
+    }
+    updateViewport();
+    drawConflicts();
+    drawVertices();
+    drawMidPoints();
+  }
+
+  /**
+   * Resalta los segmentos que se cruzan con otros; sólo se vuelven a dibujar si cambiaron.
+   */
+  public void drawConflicts() {
+    SelfIntersectionIndex intersections = mEngine.getIntersections();
+    if (mRenderer == null || intersections.getVersion() == mConflictsVersion) {
+      return;
+    }
+    mConflictsVersion = intersections.getVersion();
+    intersections.getOffending(mConflictPoints);
+    mRenderer.setConflicts(mConflictPoints);
+  }
+
+  /**
+   * Dibuja una vez el contorno sin el vértice arrastrado y el vértice resaltado. Se llama después de dibujar el
+   * contorno con {@link SketchEngine#getDragIndex()} ya fijado.
+   */
+  public void beginDrag(boolean closed) {
+    mRenderer.beginDrag(mEngine.getPoints(), mEngine.getDragIndex(), closed);
+  }
+
+  /**
+   * Lleva el vértice arrastrado, ya movido en el boceto, a su nueva posición. Sólo toca el vértice, sus dos
+   * segmentos, sus puntos medios y los cruces, y no crea objetos.
+   */
+  public void dragTo(double x, double y) {
+    mRenderer.dragTo(mVisibleVertices.move(mEngine.getDragIndex(), x, y), x, y);
+    drawConflicts();
+  }
+
+  public void endDrag() {
+    mRenderer.endDrag();
+  }
+
+  /**
+   * Oculta el boceto normal para dibujar el recorrido en captura por tramos.
+   */
+  public void beginTrack() {
+    createLayer();
+    mRenderer.setOutline(null, null);
+    mRenderer.hideHandles();
+    mRenderer.syncTrack(mEngine.getPoints(), null);
+  }
+
+  /**
+   * Dibuja los vértices nuevos del recorrido y la última posición sin confirmar, o null si no hay.
+   */
+  public void drawTrack(Point tail) {
+    mRenderer.syncTrack(mEngine.getPoints(), tail);
+  }
+
+  public void endTrack() {
+    mRenderer.clearTrack();
+  }
+
+  /**
+   * Un vértice se agregó o quitó: los puntos de control se recalculan en la próxima pasada.
+   */
+  public void invalidateVertices() {
+    mVisibleVertices.invalidate();
+  }
+
+  public void invalidateMidPoints() {
+    mVisibleMidPoints.invalidate();
+  }
+
+  /**
+   * Mueve el gráfico de un punto medio, si está a la vista, sin esperar a la próxima pasada.
+   */
+  public void moveMidPoint(int index, double x, double y) {
+    int shown = mVisibleMidPoints.move(index, x, y);
+    if (shown != -1 && mRenderer != null) {
+      mRenderer.moveMidPoint(shown, x, y);
+    }
+  }
+
+  /**
+   * Borra los gráficos del boceto.
+   */
+  public void clear() {
+    if (mRenderer != null) {
+      mRenderer.clear();
+      mConflictsVersion = -1;
+    }
+  }
+
+  /**
+   * @return El nivel del contorno que se ve igual que el detalle completo a la resolución actual, o -1 para el
+   *         detalle completo; también -1 mientras se arrastra un vértice.
+   */
+  private int outlineLevel() {
+    double resolution = mMapView.getResolution();
+    if (mEngine.getDragIndex() != -1 || resolution <= 0) {
+      return -1;
+    }
+    return mEngine.getOutline().levelFor(OUTLINE_PIXEL_TOLERANCE * resolution);
+  }
+
+  /**
+   * Toma la vista actual del mapa, con su margen, para recortar y agrupar los puntos de control.
+   */
+  private void updateViewport() {
+    Polygon extent = mMapView.getExtent();
+    double resolution = mMapView.getResolution();
+    mViewportKnown = extent != null && !extent.isEmpty() && resolution > 0;
+    if (!mViewportKnown) {
+      return;
+    }
+    extent.queryEnvelope(mViewport);
+    double margin = HANDLE_MARGIN_DP * mDensity * resolution;
+    mViewport.inflate(margin, margin);
+    float cellPixels = CLUSTER_SIZE_DP * mDensity;
+    mClusterSize = cellPixels * resolution;
+    mMaxHandles = Math.max(1, (int) (mMapView.getWidth() / cellPixels) * (int) (mMapView.getHeight() / cellPixels));
+  }
+
+  private void drawVertices() {
+    int selectedIndex;
+    if (mEngine.isVertexSelected()) {
+      // El vértice seleccionado va en rojo
+      selectedIndex = mEngine.getSelectedIndex();
+    } else if (!mEngine.isMidPointSelected()) {
+      // Sin selección, el último vértice va en rojo
+      selectedIndex = mEngine.getPoints().size() - 1;
+    } else {
+      // Todos de color negro
+      selectedIndex = -1;
+    }
+    if (mViewportKnown) {
+      mVisibleVertices.update(mViewport.getXMin(), mViewport.getYMin(), mViewport.getXMax(), mViewport.getYMax(),
+          mClusterSize, mMaxHandles, selectedIndex);
+    } else {
+      mVisibleVertices.showAll(selectedIndex);
+    }
+    mRenderer.syncVertices(mVisibleVertices, mVisibleVertices.indexOf(selectedIndex));
+  }
+
+  private void drawMidPoints() {
+    int selectedIndex = mEngine.isMidPointSelected() ? mEngine.getSelectedIndex() : -1;
+    if (!mViewportKnown) {
+      mVisibleMidPoints.showAll(selectedIndex);
+    } else if (mVisibleVertices.isClustered()) {
+      // Con los vértices agrupados los puntos medios sólo estorban
+      mVisibleMidPoints.showOnly(selectedIndex);
+    } else {
+      mVisibleMidPoints.update(mViewport.getXMin(), mViewport.getYMin(), mViewport.getXMax(), mViewport.getYMax(),
+          mClusterSize, mMaxHandles, selectedIndex);
+    }
+    mRenderer.syncMidPoints(mVisibleMidPoints, mVisibleMidPoints.indexOf(selectedIndex));
+  }
+
+  /**
+   * Relleno semitransparente de los polígonos en edición.
+   */
+  private static SimpleFillSymbol createFillSymbol(SimpleLineSymbol outline) {
+    SimpleFillSymbol simpleFillSymbol = new SimpleFillSymbol(Color.YELLOW);
+    simpleFillSymbol.setAlpha(100);
+    simpleFillSymbol.setOutline(outline);
+    return simpleFillSymbol;
+  }
+}
@@ -0,0 +1,662 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Motor del boceto sin vista: los vértices, la selección, el arrastre, el historial y los índices que los siguen
+ * (puntos medios, búsqueda de puntos de control, contorno por niveles y cruces), manejados con órdenes en
+ * coordenadas del mapa. No depende de Android ni del SDK de mapas, así que se prueba y se mide en la JVM.
+ * <p>
+ * Cada cambio se informa al {@link Listener}, con los índices ya desplazados, para que la vista actualice sólo lo
+ * que cambió. Las órdenes no crean objetos.
+ * <p>
+ * Uso típico desde la vista:
+ *
+ * <pre>
+ * engine.start(EditJournal.POLYGON);
+ * engine.tap(x, y, tolerance, snapTolerance);
+ * if (engine.isSaveValid()) {
+ *   double[] coords = engine.toCoordinates();
+ * }
+ * </pre>
+ */
+public class SketchEngine {
+
+  /**
+   * Tipo de geometría sin edición en curso; los demás son las constantes de {@link EditJournal}.
+   */
+  public static final byte NONE = -1;
+
+  /**
+   * Recibe cada cambio del boceto. Los avisos de los puntos medios llegan antes que el del vértice que los causó.
+   * Mientras se captura un recorrido no hay avisos por vértice; al terminar llega {@link #onSketchReset()}.
+   */
+  public interface Listener extends MidPointList.Listener {
+    void onVertexInserted(int index, double x, double y);
+
+    void onVertexMoved(int index, double x, double y);
+
+    void onVertexRemoved(int index);
+
+    void onSelectionChanged();
+
+    /**
+     * El boceto cambió en bloque: hay que volver a leerlo entero.
+     */
+    void onSketchReset();
+  }
+
+  /**
+   * Ajuste de los vértices nuevos o movidos a las entidades de las capas.
+   */
+  public interface Snapper {
+    /**
+     * @return true si encontró un vértice o un borde dentro de la tolerancia; la ubicación queda en {@code out}.
+     */
+    boolean snap(double x, double y, double tolerance, SnapIndex.Result out);
+  }
+
+  private final VertexBuffer mPoints = new VertexBuffer();
+
+  private final MidPointList mMidPoints = new MidPointList(mPoints);
+
+  private final HandleIndex mVertexIndex = new HandleIndex();
+
+  private final HandleIndex mMidPointIndex = new HandleIndex();
+
+  private final OutlinePyramid mOutline;
+
+  private final SelfIntersectionIndex mIntersections = new SelfIntersectionIndex(mPoints);
+
+  private final EditHistory.Target mHistoryTarget = new HistoryTarget();
+
+  private EditHistory mHistory = new EditHistory();
+
+  private byte mGeometryType = NONE;
+
+  private Listener mListener;
+
+  private Snapper mSnapper;
+
+  private final SnapIndex.Result mSnapResult = new SnapIndex.Result();
+
+  // Resultado del último ajuste
+  private double mSnapX;
+
+  private double mSnapY;
+
+  // Selección: un vértice o un punto medio, y su índice
+  private boolean mVertexSelected;
+
+  private boolean mMidPointSelected;
+
+  private int mSelectedIndex;
+
+  // Arrastre en curso: el vértice, si salió de un punto medio y su posición inicial
+  private int mDragIndex = -1;
+
+  private boolean mDragInserted;
+
+  private double mDragStartX;
+
+  private double mDragStartY;
+
+  // Captura de recorrido en curso
+  private TrackDecimator mDecimator;
+
+  /**
+   * @param outlineBaseTolerance Tolerancia del primer nivel del contorno, en unidades del mapa.
+   * @param outlineLevels Niveles del contorno.
+   */
+  public SketchEngine(double outlineBaseTolerance, int outlineLevels) {
+    mOutline = new OutlinePyramid(mPoints, outlineBaseTolerance, outlineLevels);
+    mMidPoints.setListener(new MidPointForwarder());
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * @param snapper Ajuste a las entidades de las capas; null para ajustar sólo a los vértices del boceto.
+   */
+  public void setSnapper(Snapper snapper) {
+    mSnapper = snapper;
+  }
+
+  public byte getGeometryType() {
+    return mGeometryType;
+  }
+
+  /**
+   * Vértices del boceto. Sólo para leer: los cambios se hacen con las órdenes del motor.
+   */
+  public VertexBuffer getPoints() {
+    return mPoints;
+  }
+
+  public MidPointList getMidPoints() {
+    return mMidPoints;
+  }
+
+  /**
+   * Índice espacial de los vértices, al día con cada cambio. Sólo para consultar: quien lo lee puede ajustar sus
+   * celdas, pero no cambiar los puntos.
+   */
+  public HandleIndex getVertexIndex() {
+    return mVertexIndex;
+  }
+
+  /**
+   * Índice espacial de los puntos medios, con las mismas reglas que {@link #getVertexIndex()}.
+   */
+  public HandleIndex getMidPointIndex() {
+    return mMidPointIndex;
+  }
+
+  public OutlinePyramid getOutline() {
+    return mOutline;
+  }
+
+  public SelfIntersectionIndex getIntersections() {
+    return mIntersections;
+  }
+
+  public EditHistory getHistory() {
+    return mHistory;
+  }
+
+  public boolean isVertexSelected() {
+    return mVertexSelected;
+  }
+
+  public boolean isMidPointSelected() {
+    return mMidPointSelected;
+  }
+
+  /**
+   * @return El vértice o punto medio seleccionado; sin sentido si no hay selección.
+   */
+  public int getSelectedIndex() {
+    return mSelectedIndex;
+  }
+
+  /**
+   * @return El vértice que se arrastra, o -1.
+   */
+  public int getDragIndex() {
+    return mDragIndex;
+  }
+
+  public boolean isTracking() {
+    return mDecimator != null;
+  }
+
+  /**
+   * Empieza un boceto vacío del tipo dado, o ninguno con {@link #NONE}.
+   */
+  public void start(byte geometryType) {
+    mGeometryType = geometryType;
+    clear();
+  }
+
+  /**
+   * Vacía el boceto y su historial, sin cambiar el tipo de geometría.
+   */
+  public void clear() {
+    mPoints.clear();
+    mHistory.clear();
+    reset();
+  }
+
+  /**
+   * Reemplaza el boceto por uno guardado, sin selección.
+   *
+   * @param points Vértices; se copian.
+   * @param history Historial del boceto guardado; el motor lo usa en adelante.
+   */
+  public void load(byte geometryType, HandleIndex.Coordinates points, EditHistory history) {
+    mGeometryType = geometryType;
+    mPoints.clear();
+    for (int i = 0; i < points.size(); i++) {
+      mPoints.add(points.getX(i), points.getY(i));
+    }
+    mHistory = history;
+    reset();
+  }
+
+  /**
+   * Un toque en el mapa. En un punto mueve el único vértice; si no, con algo seleccionado lo lleva al lugar tocado,
+   * si no selecciona el punto medio o el vértice tocado, y si no hay ninguno agrega un vértice al final.
+   *
+   * @param tolerance Radio para tocar un vértice o punto medio, en unidades del mapa.
+   * @param snapTolerance Radio de ajuste de la ubicación, en unidades del mapa; 0 para no ajustar.
+   */
+  public void tap(double x, double y, double tolerance, double snapTolerance) {
+    if (mGeometryType == NONE || isTracking()) {
+      return;
+    }
+    if (mGeometryType == EditJournal.POINT) {
+      snap(x, y, snapTolerance, 0);
+      if (mPoints.size() > 0) {
+        mHistory.recordMove(0, mPoints.getX(0), mPoints.getY(0), mSnapX, mSnapY);
+        moveVertex(0, mSnapX, mSnapY);
+      } else {
+        insertVertex(0, mSnapX, mSnapY);
+        mHistory.recordInsert(0, mSnapX, mSnapY);
+      }
+      return;
+    }
+    if (mVertexSelected || mMidPointSelected) {
+      snap(x, y, snapTolerance, mVertexSelected ? mSelectedIndex : -1);
+      moveSelectedTo(mSnapX, mSnapY);
+      return;
+    }
+    int midPoint = find(mMidPointIndex, x, y, tolerance);
+    if (midPoint != -1) {
+      select(false, true, midPoint);
+      return;
+    }
+    int vertex = find(mVertexIndex, x, y, tolerance);
+    if (vertex != -1) {
+      select(true, false, vertex);
+      return;
+    }
+    snap(x, y, snapTolerance, -1);
+    insertVertex(mPoints.size(), mSnapX, mSnapY);
+    mHistory.recordInsert(mPoints.size() - 1, mSnapX, mSnapY);
+  }
+
+  public void selectVertex(int index) {
+    select(true, false, index);
+  }
+
+  public void selectMidPoint(int index) {
+    select(false, true, index);
+  }
+
+  public void clearSelection() {
+    select(false, false, mSelectedIndex);
+  }
+
+  /**
+   * Lleva lo seleccionado a una ubicación, sin ajustarla: un punto medio se convierte en vértice. Queda registrado
+   * en el historial y se quita la selección.
+   */
+  public void moveSelectedTo(double x, double y) {
+    int index = mSelectedIndex;
+    if (mMidPointSelected) {
+      insertVertex(index + 1, x, y);
+      mHistory.recordInsert(index + 1, x, y);
+    } else if (mVertexSelected) {
+      mHistory.recordMove(index, mPoints.getX(index), mPoints.getY(index), x, y);
+      moveVertex(index, x, y);
+    } else {
+      return;
+    }
+    clearSelection();
+  }
+
+  /**
+   * @return true si hay un vértice que borrar: el seleccionado o el último.
+   */
+  public boolean canDelete() {
+    return mGeometryType != EditJournal.POINT && mPoints.size() > 0 && !mMidPointSelected && !isTracking();
+  }
+
+  /**
+   * Borra el vértice seleccionado, o el último si no hay ninguno seleccionado.
+   *
+   * @return false si no había nada que borrar.
+   */
+  public boolean deleteSelected() {
+    if (!canDelete()) {
+      return false;
+    }
+    int index = mVertexSelected ? mSelectedIndex : mPoints.size() - 1;
+    mHistory.recordDelete(index, mPoints.getX(index), mPoints.getY(index));
+    removeVertex(index);
+    clearSelection();
+    return true;
+  }
+
+  public boolean canUndo() {
+    return mHistory.canUndo();
+  }
+
+  public boolean canRedo() {
+    return mHistory.canRedo();
+  }
+
+  /**
+   * Deshace la última operación del historial.
+   *
+   * @return false si no había nada que deshacer.
+   */
+  public boolean undo() {
+    if (isTracking() || !mHistory.undo(mHistoryTarget)) {
+      return false;
+    }
+    clearSelection();
+    return true;
+  }
+
+  /**
+   * Vuelve a aplicar la última operación deshecha.
+   *
+   * @return false si no había nada que rehacer.
+   */
+  public boolean redo() {
+    if (isTracking() || !mHistory.redo(mHistoryTarget)) {
+      return false;
+    }
+    clearSelection();
+    return true;
+  }
+
+  /**
+   * Agarra el punto medio o vértice más cercano. Un punto medio se convierte en vértice al agarrarlo; el vértice
+   * agarrado queda seleccionado.
+   *
+   * @param tolerance Radio para agarrar un punto, en unidades del mapa.
+   * @return false si no hay ningún punto dentro del radio.
+   */
+  public boolean beginDrag(double x, double y, double tolerance) {
+    if (mGeometryType == NONE || isTracking() || mDragIndex != -1) {
+      return false;
+    }
+    int index;
+    int midPoint = find(mMidPointIndex, x, y, tolerance);
+    if (midPoint != -1) {
+      index = midPoint + 1;
+      insertVertex(index, mMidPoints.getX(midPoint), mMidPoints.getY(midPoint));
+      mDragInserted = true;
+    } else {
+      index = find(mVertexIndex, x, y, tolerance);
+      if (index == -1) {
+        return false;
+      }
+      mDragInserted = false;
+    }
+    mDragStartX = mPoints.getX(index);
+    mDragStartY = mPoints.getY(index);
+    mDragIndex = index;
+    select(true, false, index);
+    return true;
+  }
+
+  /**
+   * Lleva el vértice arrastrado a una ubicación, sin registrarlo todavía en el historial.
+   */
+  public void dragTo(double x, double y) {
+    if (mDragIndex != -1) {
+      moveVertex(mDragIndex, x, y);
+    }
+  }
+
+  /**
+   * Suelta el vértice arrastrado: todo el arrastre queda como una sola operación del historial.
+   */
+  public void endDrag() {
+    int index = mDragIndex;
+    if (index == -1) {
+      return;
+    }
+    double x = mPoints.getX(index);
+    double y = mPoints.getY(index);
+    if (mDragInserted) {
+      mHistory.recordInsert(index, x, y);
+    } else if (x != mDragStartX || y != mDragStartY) {
+      mHistory.recordMove(index, mDragStartX, mDragStartY, x, y);
+    }
+    mDragIndex = -1;
+    clearSelection();
+  }
+
+  /**
+   * Empieza a agregar al final del boceto los vértices que confirma la simplificación de un recorrido. Hasta
+   * {@link #finishTrack()} no hay avisos por vértice ni se aceptan otras órdenes de edición.
+   */
+  public void beginTrack(TrackDecimator decimator) {
+    clearSelection();
+    mDecimator = decimator;
+    if (mPoints.size() > 0) {
+      // Continuar el boceto desde su último vértice
+      decimator.seed(mPoints.getX(mPoints.size() - 1), mPoints.getY(mPoints.size() - 1));
+    } else {
+      decimator.reset();
+    }
+  }
+
+  /**
+   * Agrega una posición al recorrido.
+   *
+   * @return Cantidad de vértices que entraron al boceto.
+   */
+  public int addTrackPosition(double x, double y) {
+    int from = mPoints.size();
+    mDecimator.add(x, y, mPoints);
+    recordTrack(from);
+    return mPoints.size() - from;
+  }
+
+  /**
+   * Confirma la última posición del recorrido y vuelve a armar los índices.
+   */
+  public void finishTrack() {
+    if (mDecimator == null) {
+      return;
+    }
+    int from = mPoints.size();
+    mDecimator.finish(mPoints);
+    recordTrack(from);
+    mDecimator = null;
+    rebuild();
+  }
+
+  /**
+   * @return true si el boceto tiene vértices suficientes para su tipo de geometría.
+   */
+  public boolean isSaveValid() {
+    switch (mGeometryType) {
+      case EditJournal.POINT:
+        return mPoints.size() >= 1;
+      case EditJournal.POLYLINE:
+        return mPoints.size() >= 2;
+      case EditJournal.POLYGON:
+        return mPoints.size() >= 3;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return Copia de las coordenadas intercaladas x0, y0, x1, y1, ... para construir la geometría.
+   */
+  public double[] toCoordinates() {
+    return mPoints.toInterleavedArray();
+  }
+
+  private void recordTrack(int from) {
+    for (int i = from; i < mPoints.size(); i++) {
+      mHistory.recordInsert(i, mPoints.getX(i), mPoints.getY(i));
+    }
+  }
+
+  /**
+   * Deja los índices al día con los vértices, sin selección ni arrastre.
+   */
+  private void reset() {
+    mVertexSelected = false;
+    mMidPointSelected = false;
+    mSelectedIndex = 0;
+    mDragIndex = -1;
+    mDecimator = null;
+    rebuild();
+  }
+
+  /**
+   * Vuelve a armar todos los índices después de un cambio en bloque y lo avisa.
+   */
+  private void rebuild() {
+    boolean closed = mGeometryType == EditJournal.POLYGON;
+    mMidPoints.setClosed(closed);
+    mMidPoints.rebuild();
+    mMidPointIndex.sync(mMidPoints);
+    mVertexIndex.sync(mPoints);
+    mOutline.rebuild();
+    mIntersections.setClosed(closed);
+    mIntersections.rebuild();
+    if (mListener != null) {
+      mListener.onSketchReset();
+    }
+  }
+
+  private void select(boolean vertex, boolean midPoint, int index) {
+    boolean selected = vertex || midPoint;
+    if (vertex == mVertexSelected && midPoint == mMidPointSelected && (!selected || index == mSelectedIndex)) {
+      return;
+    }
+    mVertexSelected = vertex;
+    mMidPointSelected = midPoint;
+    mSelectedIndex = index;
+    if (mListener != null) {
+      mListener.onSelectionChanged();
+    }
+  }
+
+  /**
+   * Punto de un índice más cercano a una ubicación, dentro de un radio; -1 si ninguno.
+   */
+  private static int find(HandleIndex index, double x, double y, double tolerance) {
+    // La rejilla se ajusta a la tolerancia; sólo se reconstruye tras un cambio de escala grande
+    index.fitCellSize(tolerance);
+    return index.nearest(x, y, tolerance);
+  }
+
+  /**
+   * Ajusta una ubicación, primero a un vértice del propio boceto y luego a las entidades de las capas, y deja el
+   * resultado en {@link #mSnapX} y {@link #mSnapY}.
+   *
+   * @param movingIndex Vértice que se mueve, que no cuenta como destino; -1 si ninguno.
+   */
+  private void snap(double x, double y, double tolerance, int movingIndex) {
+    mSnapX = x;
+    mSnapY = y;
+    if (tolerance <= 0) {
+      return;
+    }
+    long start = EditorMetrics.start();
+    int vertex = mVertexIndex.nearest(x, y, tolerance);
+    if (vertex != -1 && vertex != movingIndex) {
+      mSnapX = mPoints.getX(vertex);
+      mSnapY = mPoints.getY(vertex);
+    } else if (mSnapper != null && mSnapper.snap(x, y, tolerance, mSnapResult)) {
+      mSnapX = mSnapResult.getX();
+      mSnapY = mSnapResult.getY();
+    }
+    EditorMetrics.stop(EditorMetrics.SNAP, start);
+  }
+
+  /**
+   * Inserta un vértice y actualiza sólo los puntos medios de sus segmentos, su bloque del contorno, su lugar en el
+   * índice y sus cruces.
+   */
+  private void insertVertex(int index, double x, double y) {
+    mPoints.insert(index, x, y);
+    mVertexIndex.insert(index, x, y);
+    mMidPoints.vertexInserted(index);
+    mOutline.vertexInserted(index);
+    mIntersections.vertexInserted(index);
+    if (mListener != null) {
+      mListener.onVertexInserted(index, x, y);
+    }
+  }
+
+  private void moveVertex(int index, double x, double y) {
+    mPoints.set(index, x, y);
+    mVertexIndex.move(index, x, y);
+    mMidPoints.vertexMoved(index);
+    mOutline.vertexMoved(index);
+    mIntersections.vertexMoved(index);
+    if (mListener != null) {
+      mListener.onVertexMoved(index, x, y);
+    }
+  }
+
+  private void removeVertex(int index) {
+    mPoints.remove(index);
+    mVertexIndex.remove(index);
+    mMidPoints.vertexRemoved(index);
+    mOutline.vertexRemoved(index);
+    mIntersections.vertexRemoved(index);
+    if (mListener != null) {
+      mListener.onVertexRemoved(index);
+    }
+  }
+
+  /**
+   * Aplica sobre el boceto las operaciones que deshace o rehace el historial.
+   */
+  private class HistoryTarget implements EditHistory.Target {
+
+    @Override
+    public void insertVertex(int index, double x, double y) {
+      SketchEngine.this.insertVertex(index, x, y);
+    }
+
+    @Override
+    public void moveVertex(int index, double x, double y) {
+      SketchEngine.this.moveVertex(index, x, y);
+    }
+
+    @Override
+    public void removeVertex(int index) {
+      SketchEngine.this.removeVertex(index);
+    }
+  }
+
+  /**
+   * Lleva cada cambio de los puntos medios a su índice y al listener.
+   */
+  private class MidPointForwarder implements MidPointList.Listener {
+
+    @Override
+    public void onMidPointInserted(int index, double x, double y) {
+      mMidPointIndex.insert(index, x, y);
+      if (mListener != null) {
+        mListener.onMidPointInserted(index, x, y);
+      }
+    }
+
+    @Override
+    public void onMidPointMoved(int index, double x, double y) {
+      mMidPointIndex.move(index, x, y);
+      if (mListener != null) {
+        mListener.onMidPointMoved(index, x, y);
+      }
+    }
+
+    @Override
+    public void onMidPointRemoved(int index) {
+      mMidPointIndex.remove(index);
+      if (mListener != null) {
+        mListener.onMidPointRemoved(index);
+      }
+    }
+  }
+}
@@ -0,0 +1,505 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.esri.android.map.GraphicsLayer;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polyline;
+import com.esri.core.map.Graphic;
+
+import java.util.Map;
+
+/**
+ * Dibuja el boceto en edición sobre una capa de gráficos de forma incremental. Guarda el identificador del
+ * gráfico de cada vértice y punto medio, y en cada actualización sólo agrega, mueve o elimina los gráficos que
+ * cambiaron. Sólo se dibujan los puntos de control que entrega {@link VisibleHandles}, así que su número depende
+ * de la vista y no del tamaño del boceto. Los gráficos no llevan símbolo propio sino el papel registrado en {@link SketchSymbols}, y un cambio de
+ * selección sólo cambia el papel de los gráficos afectados.
+ * <p>
+ * Durante la captura de un recorrido el boceto se dibuja como una serie de tramos de {@value #TRACK_CHUNK}
+ * vértices: los tramos completos no se vuelven a tocar y cada actualización sólo reconstruye el último, así que el
+ * costo de dibujo no crece con la longitud del recorrido.
+ * <p>
+ * Al arrastrar un vértice, el contorno se dibuja sin él y los dos segmentos que lo tocan van en un gráfico aparte;
+ * cada movimiento sólo actualiza ese gráfico, el del vértice y los de sus puntos medios, sin crear objetos.
+ * <p>
+ * Los segmentos que se cruzan con otros van en un único gráfico sobre el contorno.
+ */
+public class SketchRenderer {
+
+  // Orden de dibujo: contorno debajo, luego cruces, puntos medios y vértices encima
+  private static final int OUTLINE_ORDER = 0;
+
+  private static final int CONFLICT_ORDER = 1;
+
+  private static final int MIDPOINT_ORDER = 2;
+
+  private static final int VERTEX_ORDER = 3;
+
+  // Vértices por tramo del recorrido en captura
+  static final int TRACK_CHUNK = 128;
+
+  private final GraphicsLayer mLayer;
+
+  private final SketchSymbols mSymbols;
+
+  private final HandleSet mVertices;
+
+  private final HandleSet mMidPoints;
+
+  private int mOutlineId = -1;
+
+  private int mConflictsId = -1;
+
+  // Tramos completos del recorrido en captura
+  private int[] mTrackIds = new int[16];
+
+  private int mTrackCount;
+
+  // Tramo abierto: gráfico y primer vértice
+  private int mTrackOpenId = -1;
+
+  private int mTrackStart;
+
+  // Segmentos del vértice arrastrado y posición del vértice dentro de ellos
+  private final Polyline mDragLine = new Polyline();
+
+  private int mDragLineId = -1;
+
+  private int mDragPosition;
+
+  // Punto reutilizado para actualizar gráficos; la capa copia la geometría
+  private final Point mScratch = new Point();
+
+  // Segmentos con cruces, reutilizados en cada actualización
+  private final Polyline mConflicts = new Polyline();
+
+  /**
+   * @param layer Capa de gráficos donde se dibuja el boceto.
+   * @param symbols Símbolos del boceto; se registran en la capa.
+   */
+  public SketchRenderer(GraphicsLayer layer, SketchSymbols symbols) {
+    mLayer = layer;
+    mSymbols = symbols;
+    symbols.register(layer);
+    mVertices = new HandleSet(symbols.attributes(SketchSymbols.VERTEX), VERTEX_ORDER);
+    mMidPoints = new HandleSet(symbols.attributes(SketchSymbols.MIDPOINT), MIDPOINT_ORDER);
+  }
+
+  public GraphicsLayer getLayer() {
+    return mLayer;
+  }
+
+  /**
+   * Actualiza el contorno del boceto.
+   *
+   * @param outline Geometría del contorno, null para ocultarlo.
+   * @param role Papel del contorno, {@link SketchSymbols#LINE} o {@link SketchSymbols#FILL}.
+   */
+  public void setOutline(Geometry outline, String role) {
+    if (outline == null) {
+      if (mOutlineId != -1) {
+        mLayer.removeGraphic(mOutlineId);
+        mOutlineId = -1;
+      }
+    } else if (mOutlineId == -1) {
+      mOutlineId = mLayer.addGraphic(new Graphic(outline, null, mSymbols.attributes(role), OUTLINE_ORDER));
+    } else {
+      mLayer.updateGraphic(mOutlineId, outline);
+    }
+  }
+
+  /**
+   * Actualiza los segmentos resaltados por cruzarse con otros. La polilínea se reutiliza, así que un arrastre que
+   * cambia los cruces no asigna memoria.
+   *
+   * @param segments Segmentos a resaltar como pares de puntos inicio y fin; vacío para ninguno.
+   */
+  public void setConflicts(VertexBuffer segments) {
+    if (segments.isEmpty()) {
+      if (mConflictsId != -1) {
+        mLayer.removeGraphic(mConflictsId);
+        mConflictsId = -1;
+      }
+      return;
+    }
+    mConflicts.setEmpty();
+    for (int i = 0; i < segments.size(); i += 2) {
+      mConflicts.startPath(segments.getX(i), segments.getY(i));
+      mConflicts.lineTo(segments.getX(i + 1), segments.getY(i + 1));
+    }
+    if (mConflictsId == -1) {
+      mConflictsId = mLayer.addGraphic(new Graphic(mConflicts, null, mSymbols.attributes(SketchSymbols.CONFLICT),
+          CONFLICT_ORDER));
+    } else {
+      mLayer.updateGraphic(mConflictsId, mConflicts);
+    }
+  }
+
+  /**
+   * Sincroniza los gráficos de los vértices.
+   *
+   * @param handles Vértices visibles y grupos.
+   * @param selectedIndex Entrada a resaltar, -1 si ninguna.
+   */
+  public void syncVertices(VisibleHandles handles, int selectedIndex) {
+    mVertices.sync(handles, selectedIndex);
+  }
+
+  /**
+   * Sincroniza los gráficos de los puntos medios.
+   *
+   * @param handles Puntos medios visibles y grupos.
+   * @param selectedIndex Entrada a resaltar, -1 si ninguna.
+   */
+  public void syncMidPoints(VisibleHandles handles, int selectedIndex) {
+    mMidPoints.sync(handles, selectedIndex);
+  }
+
+  /**
+   * Mueve el gráfico de un punto medio.
+   *
+   * @param index Entrada en los puntos medios visibles.
+   */
+  public void moveMidPoint(int index, double x, double y) {
+    mMidPoints.moveOne(index, x, y);
+  }
+
+  /**
+   * Empieza a arrastrar un vértice: dibuja aparte los segmentos que lo unen con sus vecinos.
+   *
+   * @param points Vértices del boceto.
+   * @param index Vértice arrastrado.
+   * @param closed Si el boceto es un anillo.
+   */
+  public void beginDrag(HandleIndex.Coordinates points, int index, boolean closed) {
+    endDrag();
+    int count = points.size();
+    int prev = index > 0 ? index - 1 : closed && count > 2 ? count - 1 : -1;
+    int next = index < count - 1 ? index + 1 : closed && count > 2 ? 0 : -1;
+    if (prev == -1 && next == -1) {
+      return;
+    }
+    mDragLine.setEmpty();
+    if (prev != -1) {
+      mDragLine.startPath(points.getX(prev), points.getY(prev));
+      mDragLine.lineTo(points.getX(index), points.getY(index));
+      mDragPosition = 1;
+    } else {
+      mDragLine.startPath(points.getX(index), points.getY(index));
+      mDragPosition = 0;
+    }
+    if (next != -1) {
+      mDragLine.lineTo(points.getX(next), points.getY(next));
+    }
+    mDragLineId = mLayer.addGraphic(new Graphic(mDragLine, null, mSymbols.attributes(SketchSymbols.LINE),
+        OUTLINE_ORDER));
+  }
+
+  /**
+   * Mueve el vértice arrastrado y sus segmentos.
+   *
+   * @param index Entrada del vértice en los vértices visibles, -1 si no se muestra.
+   */
+  public void dragTo(int index, double x, double y) {
+    if (index != -1) {
+      mVertices.moveOne(index, x, y);
+    }
+    if (mDragLineId != -1) {
+      mScratch.setXY(x, y);
+      mDragLine.setPoint(mDragPosition, mScratch);
+      mLayer.updateGraphic(mDragLineId, mDragLine);
+    }
+  }
+
+  /**
+   * Elimina los segmentos del arrastre; el contorno completo se vuelve a dibujar con {@link #setOutline}.
+   */
+  public void endDrag() {
+    if (mDragLineId != -1) {
+      mLayer.removeGraphic(mDragLineId);
+      mDragLineId = -1;
+    }
+  }
+
+  /**
+   * Elimina los gráficos de vértices y puntos medios, por ejemplo mientras se captura un recorrido.
+   */
+  public void hideHandles() {
+    mVertices.removeAll();
+    mMidPoints.removeAll();
+  }
+
+  /**
+   * Dibuja el recorrido en captura. Sólo se dibujan los vértices nuevos desde la última llamada, más la posición
+   * todavía sin confirmar.
+   *
+   * @param points Vértices confirmados; sólo se agregan al final.
+   * @param tail Última posición recibida, o null.
+   */
+  public void syncTrack(HandleIndex.Coordinates points, Point tail) {
+    int count = points.size();
+    // Congelar los tramos que ya están completos
+    while (count - mTrackStart > TRACK_CHUNK) {
+      int end = mTrackStart + TRACK_CHUNK;
+      drawTrackChunk(points, mTrackStart, end + 1, null);
+      if (mTrackCount == mTrackIds.length) {
+        int[] ids = new int[mTrackIds.length * 2];
+        System.arraycopy(mTrackIds, 0, ids, 0, mTrackCount);
+        mTrackIds = ids;
+      }
+      mTrackIds[mTrackCount++] = mTrackOpenId;
+      mTrackOpenId = -1;
+      mTrackStart = end;
+    }
+    drawTrackChunk(points, mTrackStart, count, tail);
+  }
+
+  /**
+   * Elimina los gráficos del recorrido en captura.
+   */
+  public void clearTrack() {
+    if (mTrackOpenId != -1) {
+      mLayer.removeGraphic(mTrackOpenId);
+      mTrackOpenId = -1;
+    }
+    if (mTrackCount > 0) {
+      int[] ids = new int[mTrackCount];
+      System.arraycopy(mTrackIds, 0, ids, 0, mTrackCount);
+      mLayer.removeGraphics(ids);
+      mTrackCount = 0;
+    }
+    mTrackStart = 0;
+  }
+
+  /**
+   * Dibuja o actualiza el tramo abierto con los vértices [from, to) y la posición sin confirmar.
+   */
+  private void drawTrackChunk(HandleIndex.Coordinates points, int from, int to, Point tail) {
+    int count = to - from + (tail != null ? 1 : 0);
+    if (count < 2) {
+      return;
+    }
+    Polyline line = new Polyline();
+    line.startPath(points.getX(from), points.getY(from));
+    for (int i = from + 1; i < to; i++) {
+      line.lineTo(points.getX(i), points.getY(i));
+    }
+    if (tail != null) {
+      line.lineTo(tail.getX(), tail.getY());
+    }
+    if (mTrackOpenId == -1) {
+      Map<String, Object> attributes = mSymbols.attributes(SketchSymbols.LINE);
+      mTrackOpenId = mLayer.addGraphic(new Graphic(line, null, attributes, OUTLINE_ORDER));
+    } else {
+      mLayer.updateGraphic(mTrackOpenId, line);
+    }
+  }
+
+  /**
+   * Elimina todos los gráficos del boceto.
+   */
+  public void clear() {
+    mLayer.removeAll();
+    mOutlineId = -1;
+    mConflictsId = -1;
+    mVertices.reset();
+    mMidPoints.reset();
+    mTrackCount = 0;
+    mTrackOpenId = -1;
+    mTrackStart = 0;
+    mDragLineId = -1;
+  }
+
+  /**
+   * Gráficos de un tipo de punto de control (vértices o puntos medios) junto con las coordenadas con que se
+   * dibujaron, para poder detectar qué cambió.
+   */
+  private class HandleSet {
+    final Map<String, Object> role;
+
+    final Map<String, Object> selectedRole;
+
+    final Map<String, Object> clusterRole;
+
+    final int drawOrder;
+
+    int[] ids = new int[16];
+
+    double[] xs = new double[16];
+
+    double[] ys = new double[16];
+
+    // Si cada gráfico es un marcador de grupo
+    boolean[] grouped = new boolean[16];
+
+    int size;
+
+    // Gráfico que tiene el papel de selección, -1 si ninguno
+    int selectedId = -1;
+
+    HandleSet(Map<String, Object> role, int drawOrder) {
+      this.role = role;
+      this.selectedRole = mSymbols.attributes(SketchSymbols.SELECTED);
+      this.clusterRole = mSymbols.attributes(SketchSymbols.CLUSTER);
+      this.drawOrder = drawOrder;
+    }
+
+    /**
+     * Compara la lista con lo que está dibujado: los prefijos y sufijos iguales no se tocan, la parte central se
+     * actualiza y luego se agregan o eliminan los gráficos que sobran o faltan.
+     */
+    void sync(VisibleHandles points, int selectedIndex) {
+      int count = points.size();
+      int prefix = 0;
+      while (prefix < size && prefix < count && same(prefix, points, prefix)) {
+        prefix++;
+      }
+      int suffix = 0;
+      while (suffix < size - prefix && suffix < count - prefix && same(size - 1 - suffix, points, count - 1 - suffix)) {
+        suffix++;
+      }
+      int oldMiddle = size - prefix - suffix;
+      int newMiddle = count - prefix - suffix;
+      int common = Math.min(oldMiddle, newMiddle);
+
+      for (int i = prefix; i < prefix + common; i++) {
+        xs[i] = points.getX(i);
+        ys[i] = points.getY(i);
+        mScratch.setXY(xs[i], ys[i]);
+        mLayer.updateGraphic(ids[i], mScratch);
+        // Un gráfico reutilizado puede pasar de punto a grupo; el resaltado se vuelve a aplicar al final
+        boolean group = points.getCount(i) > 1;
+        if (group != grouped[i] || ids[i] == selectedId) {
+          grouped[i] = group;
+          mLayer.updateGraphic(ids[i], group ? clusterRole : role);
+          if (ids[i] == selectedId) {
+            selectedId = -1;
+          }
+        }
+      }
+      if (newMiddle > oldMiddle) {
+        insert(points, prefix + common, newMiddle - oldMiddle, selectedIndex);
+      } else if (oldMiddle > newMiddle) {
+        remove(prefix + common, oldMiddle - newMiddle);
+      }
+      select(selectedIndex);
+    }
+
+    void moveOne(int at, double x, double y) {
+      xs[at] = x;
+      ys[at] = y;
+      mScratch.setXY(x, y);
+      mLayer.updateGraphic(ids[at], mScratch);
+    }
+
+    private boolean same(int i, VisibleHandles points, int other) {
+      return xs[i] == points.getX(other) && ys[i] == points.getY(other) && grouped[i] == points.getCount(other) > 1;
+    }
+
+    private void insert(VisibleHandles points, int at, int count, int selectedIndex) {
+      ensureCapacity(size + count);
+      System.arraycopy(ids, at, ids, at + count, size - at);
+      System.arraycopy(xs, at, xs, at + count, size - at);
+      System.arraycopy(ys, at, ys, at + count, size - at);
+      System.arraycopy(grouped, at, grouped, at + count, size - at);
+      Graphic[] graphics = new Graphic[count];
+      for (int i = 0; i < count; i++) {
+        xs[at + i] = points.getX(at + i);
+        ys[at + i] = points.getY(at + i);
+        grouped[at + i] = points.getCount(at + i) > 1;
+        Point p = new Point(xs[at + i], ys[at + i]);
+        Map<String, Object> attributes = grouped[at + i] ? clusterRole : role;
+        graphics[i] = new Graphic(p, null, at + i == selectedIndex ? selectedRole : attributes, drawOrder);
+      }
+      int[] added = mLayer.addGraphics(graphics);
+      System.arraycopy(added, 0, ids, at, count);
+      size += count;
+      if (selectedIndex >= at && selectedIndex < at + count) {
+        // El nuevo gráfico ya se creó resaltado: sólo hay que restaurar el anterior
+        if (selectedId != -1) {
+          mLayer.updateGraphic(selectedId, role);
+        }
+        selectedId = ids[selectedIndex];
+      }
+    }
+
+    void remove(int at, int count) {
+      int[] removed = new int[count];
+      System.arraycopy(ids, at, removed, 0, count);
+      for (int id : removed) {
+        if (id == selectedId) {
+          selectedId = -1;
+        }
+      }
+      mLayer.removeGraphics(removed);
+      System.arraycopy(ids, at + count, ids, at, size - at - count);
+      System.arraycopy(xs, at + count, xs, at, size - at - count);
+      System.arraycopy(ys, at + count, ys, at, size - at - count);
+      System.arraycopy(grouped, at + count, grouped, at, size - at - count);
+      size -= count;
+    }
+
+    /**
+     * Cambia el papel sólo del gráfico que deja de estar seleccionado y del que pasa a estarlo.
+     */
+    void select(int selectedIndex) {
+      int newId = selectedIndex >= 0 && selectedIndex < size ? ids[selectedIndex] : -1;
+      if (newId == selectedId) {
+        return;
+      }
+      if (selectedId != -1) {
+        mLayer.updateGraphic(selectedId, role);
+      }
+      if (newId != -1) {
+        mLayer.updateGraphic(newId, selectedRole);
+      }
+      selectedId = newId;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > ids.length) {
+        int newLength = Math.max(capacity, ids.length * 2);
+        int[] newIds = new int[newLength];
+        double[] newXs = new double[newLength];
+        double[] newYs = new double[newLength];
+        boolean[] newGrouped = new boolean[newLength];
+        System.arraycopy(ids, 0, newIds, 0, size);
+        System.arraycopy(xs, 0, newXs, 0, size);
+        System.arraycopy(ys, 0, newYs, 0, size);
+        System.arraycopy(grouped, 0, newGrouped, 0, size);
+        ids = newIds;
+        xs = newXs;
+        ys = newYs;
+        grouped = newGrouped;
+      }
+    }
+
+    void removeAll() {
+      if (size > 0) {
+        remove(0, size);
+      }
+      selectedId = -1;
+    }
+
+    void reset() {
+      size = 0;
+      selectedId = -1;
+    }
+  }
+}
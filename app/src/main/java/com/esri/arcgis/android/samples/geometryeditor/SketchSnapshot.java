@@ -0,0 +1,311 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Copia binaria compacta del boceto en edición, para sobrevivir a que Android cierre el proceso: tipo de geometría,
+ * plantilla, selección, vértices y registro de deshacer. Las coordenadas se redondean a un número de decimales de
+ * la unidad del mapa y se guardan como diferencias con la anterior en varints en zigzag, así que vértices cercanos
+ * ocupan unos pocos bytes en lugar de dieciséis.
+ * <p>
+ * El formato empieza con {@link #MAGIC} y una versión; {@link #decode} rechaza con una {@link IOException} los
+ * datos de otra versión o truncados.
+ */
+public class SketchSnapshot {
+
+  private static final int MAGIC = 0x534B; // "SK"
+
+  private static final int VERSION = 1;
+
+  // Decimales máximos: más allá se pierde precisión en un long
+  private static final int MAX_DIGITS = 12;
+
+  private final byte geometryType;
+
+  private final String layerUrl;
+
+  private final String templateName;
+
+  private final boolean vertexSelected;
+
+  private final boolean midPointSelected;
+
+  private final int selectedIndex;
+
+  /**
+   * @param geometryType Una de las constantes de {@link EditJournal}.
+   * @param layerUrl URL de la capa de la plantilla.
+   * @param templateName Nombre de la plantilla.
+   * @param selectedIndex Vértice o punto medio seleccionado; sólo cuenta si hay selección.
+   */
+  public SketchSnapshot(byte geometryType, String layerUrl, String templateName, boolean vertexSelected,
+      boolean midPointSelected, int selectedIndex) {
+    this.geometryType = geometryType;
+    this.layerUrl = layerUrl;
+    this.templateName = templateName;
+    this.vertexSelected = vertexSelected;
+    this.midPointSelected = midPointSelected;
+    this.selectedIndex = selectedIndex;
+  }
+
+  public byte getGeometryType() {
+    return geometryType;
+  }
+
+  public String getLayerUrl() {
+    return layerUrl;
+  }
+
+  public String getTemplateName() {
+    return templateName;
+  }
+
+  public boolean isVertexSelected() {
+    return vertexSelected;
+  }
+
+  public boolean isMidPointSelected() {
+    return midPointSelected;
+  }
+
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  /**
+   * Codifica el boceto.
+   *
+   * @param digits Decimales de la unidad del mapa que se conservan, por ejemplo 3 para milímetros en metros.
+   */
+  public static byte[] encode(SketchSnapshot snapshot, HandleIndex.Coordinates points, EditHistory history,
+      int digits) {
+    if (digits < 0 || digits > MAX_DIGITS) {
+      throw new IllegalArgumentException("digits: " + digits);
+    }
+    Writer out = new Writer(16 + points.size() * 6, digits);
+    out.writeVarint(MAGIC);
+    out.writeVarint(VERSION);
+    out.writeVarint(digits);
+    out.writeByte(snapshot.geometryType);
+    out.writeString(snapshot.layerUrl);
+    out.writeString(snapshot.templateName);
+    out.writeByte((snapshot.vertexSelected ? 1 : 0) | (snapshot.midPointSelected ? 2 : 0));
+    out.writeVarint(snapshot.selectedIndex);
+    int count = points.size();
+    out.writeVarint(count);
+    for (int i = 0; i < count; i++) {
+      out.writePoint(points.getX(i), points.getY(i));
+    }
+    history.writeTo(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodifica un boceto.
+   *
+   * @param points Recibe los vértices; se vacía antes.
+   * @param history Recibe el registro de deshacer; se vacía antes.
+   * @throws IOException Si los datos no son de este formato o están incompletos.
+   */
+  public static SketchSnapshot decode(byte[] data, VertexBuffer points, EditHistory history) throws IOException {
+    Reader in = new Reader(data);
+    if (in.readVarint() != MAGIC || in.readVarint() != VERSION) {
+      throw new IOException("Formato de boceto desconocido");
+    }
+    long digits = in.readVarint();
+    if (digits > MAX_DIGITS) {
+      throw new IOException("Formato de boceto desconocido");
+    }
+    in.setDigits((int) digits);
+    byte geometryType = in.readByte();
+    String layerUrl = in.readString();
+    String templateName = in.readString();
+    int flags = in.readByte();
+    int selectedIndex = (int) in.readVarint();
+    int count = (int) in.readVarint();
+    points.clear();
+    for (int i = 0; i < count; i++) {
+      in.readPoint();
+      points.add(in.getX(), in.getY());
+    }
+    history.readFrom(in);
+    return new SketchSnapshot(geometryType, layerUrl, templateName, (flags & 1) != 0, (flags & 2) != 0,
+        selectedIndex);
+  }
+
+  /**
+   * Escritura de varints, cadenas y coordenadas; cada punto se escribe como diferencia con el anterior.
+   */
+  static class Writer {
+    private byte[] buffer;
+
+    private int size;
+
+    private long lastX;
+
+    private long lastY;
+
+    private final double scale;
+
+    Writer(int capacity, int digits) {
+      buffer = new byte[Math.max(16, capacity)];
+      scale = Math.pow(10, digits);
+    }
+
+    void writeByte(int b) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) b;
+    }
+
+    void writeVarint(long v) {
+      ensureCapacity(10);
+      while ((v & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buffer[size++] = (byte) v;
+    }
+
+    void writeZigzag(long v) {
+      writeVarint((v << 1) ^ (v >> 63));
+    }
+
+    void writeString(String s) {
+      if (s == null) {
+        writeVarint(0);
+        return;
+      }
+      byte[] bytes = utf8(s);
+      writeVarint(bytes.length + 1);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    void writePoint(double x, double y) {
+      long qx = Math.round(x * scale);
+      long qy = Math.round(y * scale);
+      writeZigzag(qx - lastX);
+      writeZigzag(qy - lastY);
+      lastX = qx;
+      lastY = qy;
+    }
+
+    byte[] toByteArray() {
+      byte[] data = new byte[size];
+      System.arraycopy(buffer, 0, data, 0, size);
+      return data;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buffer.length) {
+        byte[] grown = new byte[Math.max(size + extra, buffer.length * 2)];
+        System.arraycopy(buffer, 0, grown, 0, size);
+        buffer = grown;
+      }
+    }
+  }
+
+  /**
+   * Lectura de lo escrito por {@link Writer}.
+   */
+  static class Reader {
+    private final byte[] data;
+
+    private int pos;
+
+    private long lastX;
+
+    private long lastY;
+
+    private double scale = 1;
+
+    Reader(byte[] data) {
+      this.data = data;
+    }
+
+    void setDigits(int digits) {
+      scale = Math.pow(10, digits);
+    }
+
+    byte readByte() throws EOFException {
+      if (pos >= data.length) {
+        throw new EOFException("Boceto incompleto");
+      }
+      return data[pos++];
+    }
+
+    long readVarint() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return v;
+        }
+      }
+      throw new IOException("Varint demasiado largo");
+    }
+
+    long readZigzag() throws IOException {
+      long v = readVarint();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    String readString() throws IOException {
+      long length = readVarint();
+      if (length == 0) {
+        return null;
+      }
+      int n = (int) length - 1;
+      if (n < 0 || n > data.length - pos) {
+        throw new EOFException("Boceto incompleto");
+      }
+      String s = new String(data, pos, n, "UTF-8");
+      pos += n;
+      return s;
+    }
+
+    /**
+     * Lee un punto; sus coordenadas quedan en {@link #getX()} y {@link #getY()}.
+     */
+    void readPoint() throws IOException {
+      lastX += readZigzag();
+      lastY += readZigzag();
+    }
+
+    double getX() {
+      return lastX / scale;
+    }
+
+    double getY() {
+      return lastY / scale;
+    }
+  }
+
+  private static byte[] utf8(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
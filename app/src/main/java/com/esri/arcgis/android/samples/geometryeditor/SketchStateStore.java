@@ -0,0 +1,156 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import com.esri.core.geometry.AngularUnit;
+import com.esri.core.geometry.SpatialReference;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Guarda el boceto en edición con el estado de la actividad y lo recupera cuando Android vuelve a crearla, como una
+ * {@link SketchSnapshot}. Los bocetos chicos van en el Bundle; los grandes, en un archivo del almacenamiento interno
+ * para no acercarse al límite de tamaño del Bundle.
+ */
+public class SketchStateStore {
+
+  private static final String KEY_SKETCH = "com.esri.Sketch";
+
+  private static final String KEY_SKETCH_IN_FILE = "com.esri.SketchInFile";
+
+  private static final String SKETCH_FILE = "sketch.bin";
+
+  private static final int SKETCH_BUNDLE_MAX_BYTES = 64 * 1024;
+
+  // Decimales que se conservan de las coordenadas: milímetros en metros, o unos milímetros en grados
+  private static final int SKETCH_DIGITS_LINEAR = 3;
+
+  private static final int SKETCH_DIGITS_ANGULAR = 8;
+
+  private final File mFile;
+
+  /**
+   * @param dir Directorio de los bocetos que no caben en el Bundle.
+   */
+  public SketchStateStore(File dir) {
+    mFile = new File(dir, SKETCH_FILE);
+  }
+
+  /**
+   * Guarda el boceto, su registro de deshacer, la plantilla y la selección.
+   *
+   * @param geometryType Una de las constantes de {@link EditJournal}.
+   * @param layerUrl URL de la capa de la plantilla, o null si todavía no se conoce.
+   * @param sr Referencia espacial del mapa, que decide cuántos decimales se guardan.
+   */
+  public void save(Bundle outState, SketchEngine engine, byte geometryType, String layerUrl, String templateName,
+      SpatialReference sr) {
+    long start = EditorMetrics.start();
+    SketchSnapshot snapshot = new SketchSnapshot(geometryType, layerUrl, templateName, engine.isVertexSelected(),
+        engine.isMidPointSelected(), engine.getSelectedIndex());
+    byte[] data = SketchSnapshot.encode(snapshot, engine.getPoints(), engine.getHistory(), digits(sr));
+    if (data.length <= SKETCH_BUNDLE_MAX_BYTES) {
+      outState.putByteArray(KEY_SKETCH, data);
+    } else {
+      try {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+          out.write(data);
+        } finally {
+          out.close();
+        }
+        outState.putBoolean(KEY_SKETCH_IN_FILE, true);
+      } catch (IOException e) {
+        Log.e(GeometryEditorActivity.TAG, "No se pudo guardar el boceto en " + mFile, e);
+      }
+    }
+    EditorMetrics.stop(EditorMetrics.SKETCH_SAVE, start);
+  }
+
+  /**
+   * Lee el boceto guardado por {@link #save}, si hay uno. El archivo de un boceto grande se borra al leerlo.
+   *
+   * @param points Recibe los vértices.
+   * @param history Recibe el registro de deshacer.
+   * @return El boceto leído, o null si no hay ninguno o está ilegible.
+   */
+  public SketchSnapshot read(Bundle savedInstanceState, VertexBuffer points, EditHistory history) {
+    byte[] data = savedInstanceState.getByteArray(KEY_SKETCH);
+    if (data == null && savedInstanceState.getBoolean(KEY_SKETCH_IN_FILE)) {
+      try {
+        data = readFile(mFile);
+      } catch (IOException e) {
+        Log.e(GeometryEditorActivity.TAG, "No se pudo leer el boceto de " + mFile, e);
+      }
+      mFile.delete();
+    }
+    if (data == null) {
+      return null;
+    }
+    try {
+      return SketchSnapshot.decode(data, points, history);
+    } catch (IOException e) {
+      Log.e(GeometryEditorActivity.TAG, "Boceto guardado ilegible", e);
+      return null;
+    }
+  }
+
+  /**
+   * Carga en el motor un boceto leído con {@link #read} y vuelve a la selección que tenía, si sigue siendo válida.
+   */
+  public static void load(SketchEngine engine, SketchSnapshot snapshot, VertexBuffer points, EditHistory history) {
+    engine.load(snapshot.getGeometryType(), points, history);
+    int index = snapshot.getSelectedIndex();
+    if (snapshot.isVertexSelected() && index >= 0 && index < points.size()) {
+      engine.selectVertex(index);
+    } else if (snapshot.isMidPointSelected() && index >= 0 && index < engine.getMidPoints().size()) {
+      engine.selectMidPoint(index);
+    }
+  }
+
+  /**
+   * Decimales de las coordenadas del boceto que se guardan, según las unidades del mapa.
+   */
+  private static int digits(SpatialReference sr) {
+    return sr != null && sr.getUnit() instanceof AngularUnit ? SKETCH_DIGITS_ANGULAR : SKETCH_DIGITS_LINEAR;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      byte[] data = new byte[(int) file.length()];
+      int read = 0;
+      while (read < data.length) {
+        int n = in.read(data, read, data.length - read);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        read += n;
+      }
+      return data;
+    } finally {
+      in.close();
+    }
+  }
+}
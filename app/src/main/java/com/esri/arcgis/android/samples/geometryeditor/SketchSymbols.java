@@ -0,0 +1,103 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.esri.android.map.GraphicsLayer;
+import com.esri.core.renderer.UniqueValue;
+import com.esri.core.renderer.UniqueValueRenderer;
+import com.esri.core.symbol.Symbol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Símbolos del boceto en edición, creados una sola vez y registrados en la capa de edición con un renderizador
+ * de valores únicos. Los gráficos del boceto no llevan símbolo propio: sólo el atributo {@link #ROLE_FIELD} con su
+ * papel, y cambiar la selección es cambiar ese atributo. Los mapas de atributos de cada papel también se comparten,
+ * así que dibujar no crea símbolos ni atributos nuevos.
+ */
+public class SketchSymbols {
+
+  public static final String ROLE_FIELD = "role";
+
+  public static final String VERTEX = "vertex";
+
+  public static final String SELECTED = "selected";
+
+  public static final String MIDPOINT = "midpoint";
+
+  public static final String CLUSTER = "cluster";
+
+  public static final String LINE = "line";
+
+  public static final String FILL = "fill";
+
+  public static final String CONFLICT = "conflict";
+
+  private final UniqueValueRenderer mRenderer = new UniqueValueRenderer();
+
+  private final Map<String, Map<String, Object>> mAttributes = new HashMap<String, Map<String, Object>>();
+
+  /**
+   * @param selected Punto seleccionado.
+   * @param vertex Vértices.
+   * @param midPoint Puntos medios.
+   * @param cluster Grupos de puntos demasiado juntos para dibujarlos por separado.
+   * @param line Contorno de una polilínea y recorrido en captura.
+   * @param fill Polígono.
+   * @param conflict Segmentos que se cruzan con otros del mismo boceto.
+   */
+  public SketchSymbols(Symbol selected, Symbol vertex, Symbol midPoint, Symbol cluster, Symbol line, Symbol fill,
+      Symbol conflict) {
+    mRenderer.setField1(ROLE_FIELD);
+    add(SELECTED, selected);
+    add(VERTEX, vertex);
+    add(MIDPOINT, midPoint);
+    add(CLUSTER, cluster);
+    add(LINE, line);
+    add(FILL, fill);
+    add(CONFLICT, conflict);
+  }
+
+  /**
+   * Registra los símbolos en la capa de edición.
+   */
+  public void register(GraphicsLayer layer) {
+    layer.setRenderer(mRenderer);
+  }
+
+  /**
+   * @return Atributos compartidos que asignan un papel a un gráfico; no se deben modificar.
+   */
+  public Map<String, Object> attributes(String role) {
+    Map<String, Object> attributes = mAttributes.get(role);
+    if (attributes == null) {
+      throw new IllegalArgumentException("Papel desconocido: " + role);
+    }
+    return attributes;
+  }
+
+  private void add(String role, Symbol symbol) {
+    UniqueValue value = new UniqueValue();
+    value.setValue(new Object[] { role });
+    value.setSymbol(symbol);
+    value.setLabel(role);
+    mRenderer.addUniqueValue(value);
+    mAttributes.put(role, Collections.<String, Object> singletonMap(ROLE_FIELD, role));
+  }
+}
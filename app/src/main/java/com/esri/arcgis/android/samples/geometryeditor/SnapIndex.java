@@ -0,0 +1,559 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Índice de segmentos para el ajuste (snapping) de vértices a entidades existentes: un árbol R cuyas hojas son los
+ * segmentos de los bordes, en unidades del mapa. Un punto suelto se guarda como un segmento de largo cero.
+ * <p>
+ * El árbol se arma de una vez con Sort-Tile-Recursive ({@link #bulkLoad}) y luego admite inserciones sueltas con
+ * división de nodos. Cada segmento pertenece a un dueño (por ejemplo una entidad de una capa); eliminar un dueño
+ * sólo marca sus segmentos, y el árbol se vuelve a armar cuando los marcados superan a los vivos.
+ * <p>
+ * La consulta prefiere un vértice dentro de la tolerancia a cualquier punto de un borde, aunque el borde esté más
+ * cerca, y no crea objetos.
+ */
+public class SnapIndex {
+
+  /**
+   * Resultado de {@link #snap}.
+   */
+  public static class Result {
+    public static final int NONE = 0;
+
+    public static final int VERTEX = 1;
+
+    public static final int EDGE = 2;
+
+    private int mType;
+
+    private double mX;
+
+    private double mY;
+
+    private long mOwner;
+
+    public int getType() {
+      return mType;
+    }
+
+    public double getX() {
+      return mX;
+    }
+
+    public double getY() {
+      return mY;
+    }
+
+    public long getOwner() {
+      return mOwner;
+    }
+  }
+
+  private static final int MAX_ENTRIES = 16;
+
+  // Segmentos: x1, y1, x2, y2 seguidos
+  private double[] mSegments = new double[4 * 64];
+
+  private long[] mOwners = new long[64];
+
+  private boolean[] mDead = new boolean[64];
+
+  private int mSegmentCount;
+
+  private int mDeadCount;
+
+  private final Map<Long, int[]> mByOwner = new HashMap<Long, int[]>();
+
+  // Nodos: recuadro, hijos (segmentos en las hojas, nodos en los demás) y si es hoja
+  private double[] mBounds = new double[4 * 16];
+
+  private int[][] mChildren = new int[16][];
+
+  private int[] mChildCount = new int[16];
+
+  private boolean[] mLeaf = new boolean[16];
+
+  private int mNodeCount;
+
+  private int mRoot = -1;
+
+  private int mHeight;
+
+  // Espacio de trabajo de las consultas y las inserciones
+  private int[] mStack = new int[64];
+
+  private int[] mPath = new int[16];
+
+  /**
+   * @return Segmentos vivos en el índice.
+   */
+  public int size() {
+    return mSegmentCount - mDeadCount;
+  }
+
+  /**
+   * @return Si un dueño tiene segmentos en el índice.
+   */
+  public boolean contains(long owner) {
+    return mByOwner.containsKey(owner);
+  }
+
+  /**
+   * Vacía el índice.
+   */
+  public void clear() {
+    mSegmentCount = 0;
+    mDeadCount = 0;
+    mByOwner.clear();
+    mNodeCount = 0;
+    mRoot = -1;
+    mHeight = 0;
+  }
+
+  /**
+   * Agrega los segmentos de un dueño. Si el dueño ya estaba, sus segmentos anteriores se eliminan.
+   *
+   * @param coords Segmentos como x1, y1, x2, y2 seguidos.
+   * @param count Número de segmentos.
+   * @param bulk Si es true sólo se guardan, y el árbol se arma en el próximo {@link #bulkLoad}.
+   */
+  public void add(long owner, double[] coords, int count, boolean bulk) {
+    remove(owner);
+    int[] ids = new int[count];
+    for (int i = 0; i < count; i++) {
+      int id = addSegment(coords[4 * i], coords[4 * i + 1], coords[4 * i + 2], coords[4 * i + 3], owner);
+      ids[i] = id;
+      if (!bulk) {
+        insert(id);
+      }
+    }
+    mByOwner.put(owner, ids);
+  }
+
+  /**
+   * Elimina los segmentos de un dueño.
+   */
+  public void remove(long owner) {
+    int[] ids = mByOwner.remove(owner);
+    if (ids == null) {
+      return;
+    }
+    for (int id : ids) {
+      mDead[id] = true;
+    }
+    mDeadCount += ids.length;
+    if (mDeadCount > 64 && mDeadCount > size()) {
+      bulkLoad();
+    }
+  }
+
+  /**
+   * Arma el árbol de cero con todos los segmentos vivos, empaquetando los nodos con Sort-Tile-Recursive.
+   */
+  public void bulkLoad() {
+    compact();
+    mNodeCount = 0;
+    mRoot = -1;
+    mHeight = 0;
+    if (mSegmentCount == 0) {
+      return;
+    }
+    int[] level = new int[mSegmentCount];
+    for (int i = 0; i < level.length; i++) {
+      level[i] = i;
+    }
+    boolean leaf = true;
+    while (true) {
+      level = pack(level, leaf);
+      mHeight++;
+      leaf = false;
+      if (level.length == 1) {
+        break;
+      }
+    }
+    mRoot = level[0];
+  }
+
+  /**
+   * Busca dónde ajustar un punto: el vértice más cercano dentro de la tolerancia o, si no hay ninguno, el punto
+   * más cercano de un borde.
+   *
+   * @return Si se encontró dónde ajustar; el resultado queda en {@code out}.
+   */
+  public boolean snap(double x, double y, double tolerance, Result out) {
+    out.mType = Result.NONE;
+    if (mRoot == -1) {
+      return false;
+    }
+    double tolerance2 = tolerance * tolerance;
+    double bestVertex = tolerance2;
+    double bestEdge = tolerance2;
+    int top = 0;
+    mStack[top++] = mRoot;
+    while (top > 0) {
+      int node = mStack[--top];
+      // Con un vértice ya encontrado sólo interesa uno más cercano
+      double limit = out.mType == Result.VERTEX ? bestVertex : tolerance2;
+      if (boxDistance2(node, x, y) > limit) {
+        continue;
+      }
+      int[] children = mChildren[node];
+      int count = mChildCount[node];
+      if (!mLeaf[node]) {
+        if (top + count > mStack.length) {
+          mStack = Arrays.copyOf(mStack, (top + count) * 2);
+        }
+        for (int i = 0; i < count; i++) {
+          mStack[top++] = children[i];
+        }
+        continue;
+      }
+      for (int i = 0; i < count; i++) {
+        int id = children[i];
+        if (mDead[id]) {
+          continue;
+        }
+        double ax = mSegments[4 * id];
+        double ay = mSegments[4 * id + 1];
+        double bx = mSegments[4 * id + 2];
+        double by = mSegments[4 * id + 3];
+        double da = (x - ax) * (x - ax) + (y - ay) * (y - ay);
+        double db = (x - bx) * (x - bx) + (y - by) * (y - by);
+        if (da <= bestVertex || db <= bestVertex) {
+          boolean first = da <= db;
+          bestVertex = first ? da : db;
+          out.mType = Result.VERTEX;
+          out.mX = first ? ax : bx;
+          out.mY = first ? ay : by;
+          out.mOwner = mOwners[id];
+          continue;
+        }
+        if (out.mType == Result.VERTEX) {
+          continue;
+        }
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        if (length2 == 0) {
+          continue;
+        }
+        double t = ((x - ax) * dx + (y - ay) * dy) / length2;
+        t = t < 0 ? 0 : (t > 1 ? 1 : t);
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        double d = (x - px) * (x - px) + (y - py) * (y - py);
+        if (d <= bestEdge) {
+          bestEdge = d;
+          out.mType = Result.EDGE;
+          out.mX = px;
+          out.mY = py;
+          out.mOwner = mOwners[id];
+        }
+      }
+    }
+    return out.mType != Result.NONE;
+  }
+
+  private int addSegment(double x1, double y1, double x2, double y2, long owner) {
+    if (mSegmentCount == mOwners.length) {
+      int capacity = mOwners.length * 2;
+      mSegments = Arrays.copyOf(mSegments, capacity * 4);
+      mOwners = Arrays.copyOf(mOwners, capacity);
+      mDead = Arrays.copyOf(mDead, capacity);
+    }
+    int id = mSegmentCount++;
+    mSegments[4 * id] = x1;
+    mSegments[4 * id + 1] = y1;
+    mSegments[4 * id + 2] = x2;
+    mSegments[4 * id + 3] = y2;
+    mOwners[id] = owner;
+    mDead[id] = false;
+    return id;
+  }
+
+  /**
+   * Quita los segmentos marcados y renumera los vivos; el árbol queda inválido.
+   */
+  private void compact() {
+    if (mDeadCount == 0) {
+      return;
+    }
+    int[] newId = new int[mSegmentCount];
+    int live = 0;
+    for (int i = 0; i < mSegmentCount; i++) {
+      if (mDead[i]) {
+        continue;
+      }
+      System.arraycopy(mSegments, 4 * i, mSegments, 4 * live, 4);
+      mOwners[live] = mOwners[i];
+      mDead[live] = false;
+      newId[i] = live++;
+    }
+    mSegmentCount = live;
+    mDeadCount = 0;
+    for (int[] ids : mByOwner.values()) {
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = newId[ids[i]];
+      }
+    }
+  }
+
+  /**
+   * Empaqueta un nivel del árbol: ordena por el centro en x, corta en franjas verticales, ordena cada franja por el
+   * centro en y y agrupa de a {@link #MAX_ENTRIES}.
+   *
+   * @return Los nodos del nivel siguiente.
+   */
+  private int[] pack(int[] entries, boolean leaf) {
+    int n = entries.length;
+    int nodes = (n + MAX_ENTRIES - 1) / MAX_ENTRIES;
+    int slices = (int) Math.ceil(Math.sqrt(nodes));
+    int sliceSize = slices * MAX_ENTRIES;
+    double[] keys = new double[n];
+    for (int i = 0; i < n; i++) {
+      keys[i] = center(entries[i], leaf, 0);
+    }
+    sort(entries, keys, 0, n);
+    int[] parents = new int[nodes];
+    int parentCount = 0;
+    for (int start = 0; start < n; start += sliceSize) {
+      int end = Math.min(n, start + sliceSize);
+      for (int i = start; i < end; i++) {
+        keys[i] = center(entries[i], leaf, 1);
+      }
+      sort(entries, keys, start, end);
+      for (int first = start; first < end; first += MAX_ENTRIES) {
+        int node = newNode(leaf);
+        int last = Math.min(end, first + MAX_ENTRIES);
+        for (int i = first; i < last; i++) {
+          mChildren[node][mChildCount[node]++] = entries[i];
+        }
+        updateBounds(node);
+        parents[parentCount++] = node;
+      }
+    }
+    return Arrays.copyOf(parents, parentCount);
+  }
+
+  /**
+   * Inserta un segmento ya guardado: baja por el hijo que menos crece y divide los nodos que se llenan.
+   */
+  private void insert(int id) {
+    if (mRoot == -1) {
+      mRoot = newNode(true);
+      mHeight = 1;
+      setEmpty(mRoot);
+    }
+    double minX = Math.min(mSegments[4 * id], mSegments[4 * id + 2]);
+    double minY = Math.min(mSegments[4 * id + 1], mSegments[4 * id + 3]);
+    double maxX = Math.max(mSegments[4 * id], mSegments[4 * id + 2]);
+    double maxY = Math.max(mSegments[4 * id + 1], mSegments[4 * id + 3]);
+    if (mPath.length < mHeight + 1) {
+      mPath = new int[mHeight * 2];
+    }
+    int node = mRoot;
+    int depth = 0;
+    while (true) {
+      mPath[depth++] = node;
+      extend(node, minX, minY, maxX, maxY);
+      if (mLeaf[node]) {
+        break;
+      }
+      node = chooseChild(node, minX, minY, maxX, maxY);
+    }
+    int entry = id;
+    for (int d = depth - 1; d >= 0; d--) {
+      node = mPath[d];
+      mChildren[node][mChildCount[node]++] = entry;
+      if (mChildCount[node] <= MAX_ENTRIES) {
+        return;
+      }
+      entry = split(node);
+      if (d > 0) {
+        // El padre ya cubre ambas mitades; sólo falta agregarle la nueva
+        continue;
+      }
+      // Se dividió la raíz: el árbol crece un nivel
+      int root = newNode(false);
+      mChildren[root][mChildCount[root]++] = node;
+      mChildren[root][mChildCount[root]++] = entry;
+      updateBounds(root);
+      mRoot = root;
+      mHeight++;
+      return;
+    }
+  }
+
+  private int chooseChild(int node, double minX, double minY, double maxX, double maxY) {
+    int best = -1;
+    double bestGrowth = Double.MAX_VALUE;
+    double bestArea = Double.MAX_VALUE;
+    for (int i = 0; i < mChildCount[node]; i++) {
+      int child = mChildren[node][i];
+      double cMinX = mBounds[4 * child];
+      double cMinY = mBounds[4 * child + 1];
+      double cMaxX = mBounds[4 * child + 2];
+      double cMaxY = mBounds[4 * child + 3];
+      double area = (cMaxX - cMinX) * (cMaxY - cMinY);
+      double grown = (Math.max(cMaxX, maxX) - Math.min(cMinX, minX)) * (Math.max(cMaxY, maxY) - Math.min(cMinY, minY));
+      double growth = grown - area;
+      if (growth < bestGrowth || (growth == bestGrowth && area < bestArea)) {
+        best = child;
+        bestGrowth = growth;
+        bestArea = area;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Divide un nodo lleno por la mitad a lo largo de su lado más largo.
+   *
+   * @return El nodo nuevo con la segunda mitad.
+   */
+  private int split(int node) {
+    boolean leaf = mLeaf[node];
+    int count = mChildCount[node];
+    int axis = mBounds[4 * node + 2] - mBounds[4 * node] >= mBounds[4 * node + 3] - mBounds[4 * node + 1] ? 0 : 1;
+    int[] entries = Arrays.copyOf(mChildren[node], count);
+    double[] keys = new double[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = center(entries[i], leaf, axis);
+    }
+    sort(entries, keys, 0, count);
+    int half = count / 2;
+    int sibling = newNode(leaf);
+    mChildCount[node] = 0;
+    for (int i = 0; i < count; i++) {
+      int target = i < half ? node : sibling;
+      mChildren[target][mChildCount[target]++] = entries[i];
+    }
+    updateBounds(node);
+    updateBounds(sibling);
+    return sibling;
+  }
+
+  private int newNode(boolean leaf) {
+    if (mNodeCount == mLeaf.length) {
+      int capacity = mLeaf.length * 2;
+      mBounds = Arrays.copyOf(mBounds, capacity * 4);
+      mChildren = Arrays.copyOf(mChildren, capacity);
+      mChildCount = Arrays.copyOf(mChildCount, capacity);
+      mLeaf = Arrays.copyOf(mLeaf, capacity);
+    }
+    int node = mNodeCount++;
+    if (mChildren[node] == null) {
+      // Uno más para el hijo que provoca la división
+      mChildren[node] = new int[MAX_ENTRIES + 1];
+    }
+    mChildCount[node] = 0;
+    mLeaf[node] = leaf;
+    return node;
+  }
+
+  private void setEmpty(int node) {
+    mBounds[4 * node] = Double.POSITIVE_INFINITY;
+    mBounds[4 * node + 1] = Double.POSITIVE_INFINITY;
+    mBounds[4 * node + 2] = Double.NEGATIVE_INFINITY;
+    mBounds[4 * node + 3] = Double.NEGATIVE_INFINITY;
+  }
+
+  private void extend(int node, double minX, double minY, double maxX, double maxY) {
+    mBounds[4 * node] = Math.min(mBounds[4 * node], minX);
+    mBounds[4 * node + 1] = Math.min(mBounds[4 * node + 1], minY);
+    mBounds[4 * node + 2] = Math.max(mBounds[4 * node + 2], maxX);
+    mBounds[4 * node + 3] = Math.max(mBounds[4 * node + 3], maxY);
+  }
+
+  private void updateBounds(int node) {
+    setEmpty(node);
+    for (int i = 0; i < mChildCount[node]; i++) {
+      int child = mChildren[node][i];
+      if (mLeaf[node]) {
+        double x1 = mSegments[4 * child];
+        double y1 = mSegments[4 * child + 1];
+        double x2 = mSegments[4 * child + 2];
+        double y2 = mSegments[4 * child + 3];
+        extend(node, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+      } else {
+        extend(node, mBounds[4 * child], mBounds[4 * child + 1], mBounds[4 * child + 2], mBounds[4 * child + 3]);
+      }
+    }
+  }
+
+  private double center(int entry, boolean leaf, int axis) {
+    if (leaf) {
+      return (mSegments[4 * entry + axis] + mSegments[4 * entry + 2 + axis]) / 2;
+    }
+    return (mBounds[4 * entry + axis] + mBounds[4 * entry + 2 + axis]) / 2;
+  }
+
+  private double boxDistance2(int node, double x, double y) {
+    double dx = Math.max(0, Math.max(mBounds[4 * node] - x, x - mBounds[4 * node + 2]));
+    double dy = Math.max(0, Math.max(mBounds[4 * node + 1] - y, y - mBounds[4 * node + 3]));
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * Ordena una parte de {@code entries} según {@code keys}, moviendo ambos arreglos juntos.
+   */
+  private static void sort(int[] entries, double[] keys, int from, int to) {
+    while (to - from > 16) {
+      double pivot = keys[(from + to) >>> 1];
+      int i = from;
+      int j = to - 1;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(entries, keys, i++, j--);
+        }
+      }
+      // Recursión sobre la parte más chica para acotar la pila
+      if (j - from < to - i) {
+        sort(entries, keys, from, j + 1);
+        from = i;
+      } else {
+        sort(entries, keys, i, to);
+        to = j + 1;
+      }
+    }
+    for (int i = from + 1; i < to; i++) {
+      for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+        swap(entries, keys, j, j - 1);
+      }
+    }
+  }
+
+  private static void swap(int[] entries, double[] keys, int i, int j) {
+    int e = entries[i];
+    entries[i] = entries[j];
+    entries[j] = e;
+    double k = keys[i];
+    keys[i] = keys[j];
+    keys[j] = k;
+  }
+}
@@ -0,0 +1,91 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.esri.android.map.ags.ArcGISFeatureLayer;
+import com.esri.core.map.FeatureTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Catálogo inmutable de las plantillas de todas las capas de entidades, listo para mostrarse en el diálogo de
+ * selección. Se construye en segundo plano y se publica completo, así que quien lo lee nunca ve uno a medias.
+ */
+public class TemplateCatalog {
+
+  public static final TemplateCatalog EMPTY = new TemplateCatalog(new ArrayList<Item>());
+
+  /**
+   * Una plantilla del catálogo con su capa y los datos que muestra la lista.
+   */
+  public static class Item {
+    private final FeatureTypeData data;
+
+    private final FeatureTemplate template;
+
+    private final ArcGISFeatureLayer layer;
+
+    public Item(FeatureTypeData data, FeatureTemplate template, ArcGISFeatureLayer layer) {
+      this.data = data;
+      this.template = template;
+      this.layer = layer;
+    }
+
+    public FeatureTypeData getData() {
+      return data;
+    }
+
+    public FeatureTemplate getTemplate() {
+      return template;
+    }
+
+    public ArcGISFeatureLayer getLayer() {
+      return layer;
+    }
+  }
+
+  private final List<Item> mItems;
+
+  public TemplateCatalog(List<Item> items) {
+    mItems = Collections.unmodifiableList(new ArrayList<Item>(items));
+  }
+
+  public List<Item> getItems() {
+    return mItems;
+  }
+
+  public int size() {
+    return mItems.size();
+  }
+
+  public boolean isEmpty() {
+    return mItems.isEmpty();
+  }
+
+  /**
+   * @return Datos de cada plantilla para el adaptador de la lista.
+   */
+  public ArrayList<FeatureTypeData> getFeatureTypeData() {
+    ArrayList<FeatureTypeData> list = new ArrayList<FeatureTypeData>(mItems.size());
+    for (Item item : mItems) {
+      list.add(item.getData());
+    }
+    return list;
+  }
+}
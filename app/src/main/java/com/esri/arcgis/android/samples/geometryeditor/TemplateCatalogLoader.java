@@ -0,0 +1,200 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.graphics.Bitmap;
+
+import com.esri.android.map.ags.ArcGISFeatureLayer;
+import com.esri.core.map.FeatureTemplate;
+import com.esri.core.map.FeatureType;
+import com.esri.core.map.Graphic;
+import com.esri.core.renderer.Renderer;
+import com.esri.core.symbol.Symbol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Construye el {@link TemplateCatalog} en hilos de trabajo a medida que las capas de entidades se inicializan, de
+ * modo que el diálogo de plantillas se abre sin esperar a dibujar leyendas. Cada capa se vuelve a procesar sólo si
+ * cambian sus tipos o plantillas; el catálogo combinado se publica de una vez con todas las capas listas.
+ */
+public class TemplateCatalogLoader {
+
+  /**
+   * Avisa que hay un catálogo nuevo. Se llama en un hilo de trabajo y debe ser breve.
+   */
+  public interface Listener {
+    void onCatalogPublished(TemplateCatalog catalog);
+  }
+
+  private final LegendCache mLegendCache;
+
+  private final int mLegendSize;
+
+  private final ExecutorService mExecutor;
+
+  private final LayerCatalog<ArcGISFeatureLayer, TemplateCatalog.Item> mLayers;
+
+  private volatile TemplateCatalog mCatalog = TemplateCatalog.EMPTY;
+
+  private volatile Listener mListener;
+
+  /**
+   * @param legendCache Caché de las imágenes de leyenda; es segura entre hilos.
+   * @param legendSizeInPixels Ancho y alto de las imágenes de leyenda.
+   * @param threads Número de hilos de trabajo.
+   */
+  public TemplateCatalogLoader(LegendCache legendCache, int legendSizeInPixels, int threads) {
+    mLegendCache = legendCache;
+    mLegendSize = legendSizeInPixels;
+    mExecutor = Executors.newFixedThreadPool(threads);
+    mLayers = new LayerCatalog<ArcGISFeatureLayer, TemplateCatalog.Item>(new LayerTemplates(), mExecutor);
+    mLayers.setListener(new LayerCatalog.Listener<TemplateCatalog.Item>() {
+
+      @Override
+      public void onPublished(List<TemplateCatalog.Item> items) {
+        mCatalog = new TemplateCatalog(items);
+        Listener listener = mListener;
+        if (listener != null) {
+          listener.onCatalogPublished(mCatalog);
+        }
+      }
+
+    });
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Registra una capa; las capas aparecen en el catálogo en el orden en que se registran.
+   */
+  public void addLayer(ArcGISFeatureLayer layer) {
+    mLayers.addLayer(layer);
+  }
+
+  /**
+   * Programa la construcción de las plantillas de una capa inicializada, salvo que sus tipos no hayan cambiado
+   * desde la última vez. Se puede llamar desde cualquier hilo.
+   */
+  public void layerInitialized(ArcGISFeatureLayer layer) {
+    mLayers.layerChanged(layer);
+  }
+
+  /**
+   * Vuelve a revisar las capas inicializadas y programa las que hayan cambiado.
+   */
+  public void refresh() {
+    for (ArcGISFeatureLayer layer : mLayers.getLayers()) {
+      if (layer.isInitialized()) {
+        mLayers.layerChanged(layer);
+      }
+    }
+  }
+
+  /**
+   * @return El último catálogo publicado; nunca null.
+   */
+  public TemplateCatalog getCatalog() {
+    return mCatalog;
+  }
+
+  /**
+   * @return true si todavía hay capas construyéndose; al terminar se avisa al {@link Listener}.
+   */
+  public boolean isLoading() {
+    return mLayers.isBuilding();
+  }
+
+  public void shutdown() {
+    mExecutor.shutdownNow();
+  }
+
+  /**
+   * Plantillas de una capa de entidades, con sus leyendas.
+   */
+  private class LayerTemplates implements LayerCatalog.Builder<ArcGISFeatureLayer, TemplateCatalog.Item> {
+
+    @Override
+    public String signature(ArcGISFeatureLayer layer) {
+      return TemplateCatalogLoader.signature(layer);
+    }
+
+    @Override
+    public List<TemplateCatalog.Item> build(ArcGISFeatureLayer layer) {
+      long start = EditorMetrics.start();
+      List<TemplateCatalog.Item> items = new ArrayList<TemplateCatalog.Item>();
+      FeatureType[] types = layer.getTypes();
+      if (types != null) {
+        for (FeatureType featureType : types) {
+          addTemplates(layer, featureType.getId(), featureType.getTemplates(), items);
+        }
+      }
+      // La capa no tiene tipos: se usan sus propias plantillas
+      if (items.isEmpty()) {
+        addTemplates(layer, null, layer.getTemplates(), items);
+      }
+      EditorMetrics.stop(EditorMetrics.TEMPLATE_CATALOG, start);
+      EditorMetrics.increment(EditorMetrics.CATALOG_BUILDS);
+      return items;
+    }
+  }
+
+  private void addTemplates(ArcGISFeatureLayer layer, String typeId, FeatureTemplate[] templates,
+      List<TemplateCatalog.Item> items) {
+    if (templates == null) {
+      return;
+    }
+    Renderer renderer = layer.getRenderer();
+    for (FeatureTemplate featureTemplate : templates) {
+      String name = featureTemplate.getName();
+      Graphic g = layer.createFeatureWithTemplate(featureTemplate, null);
+      Symbol symbol = renderer.getSymbol(g);
+      Bitmap bitmap = mLegendCache.getLegend(layer.getUrl(), typeId, name, mLegendSize, symbol);
+      items.add(new TemplateCatalog.Item(new FeatureTypeData(bitmap, name, symbol), featureTemplate, layer));
+    }
+  }
+
+  /**
+   * Resume los tipos y plantillas de una capa; si no cambia, el catálogo de la capa sigue siendo válido.
+   */
+  private static String signature(ArcGISFeatureLayer layer) {
+    StringBuilder sb = new StringBuilder();
+    FeatureType[] types = layer.getTypes();
+    if (types != null) {
+      for (FeatureType featureType : types) {
+        sb.append(featureType.getId()).append('\u0001').append(featureType.getName()).append('\u0002');
+        appendTemplates(sb, featureType.getTemplates());
+      }
+    }
+    sb.append('\u0003');
+    appendTemplates(sb, layer.getTemplates());
+    return sb.toString();
+  }
+
+  private static void appendTemplates(StringBuilder sb, FeatureTemplate[] templates) {
+    if (templates != null) {
+      for (FeatureTemplate template : templates) {
+        sb.append(template.getName()).append('\u0002');
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import android.os.Handler;
+
+import com.esri.android.map.MapView;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+
+/**
+ * Captura continua de vértices desde una {@link LocationSource}. Proyecta cada posición al mapa y la pasa al
+ * {@link SketchEngine}, que la simplifica con un {@link TrackDecimator}; los vértices confirmados entran al boceto y
+ * al historial de inmediato, pero el dibujo se agrupa en cuadros y sólo muestra el recorrido, por tramos, en el
+ * {@link SketchDisplay}.
+ * <p>
+ * Debe usarse desde el hilo de la interfaz.
+ */
+public class TrackCapture {
+
+  private final LocationSource mSource;
+
+  private final SketchEngine mEngine;
+
+  private final SketchDisplay mDisplay;
+
+  private final MapView mMapView;
+
+  private final Handler mHandler;
+
+  private final TrackDecimator mDecimator;
+
+  // Tiempo entre redibujados del recorrido
+  private final long mFrameMillis;
+
+  private boolean mCapturing;
+
+  private boolean mFramePending;
+
+  private final LocationSource.Listener mLocationListener = new LocationSource.Listener() {
+    @Override
+    public void onLocation(double longitude, double latitude, long timeMillis) {
+      addPosition(longitude, latitude);
+    }
+  };
+
+  private final Runnable mFrameTask = new Runnable() {
+    @Override
+    public void run() {
+      mFramePending = false;
+      draw();
+    }
+  };
+
+  /**
+   * @param tolerance Tolerancia de la simplificación en unidades del mapa.
+   * @param lookahead Posiciones sin confirmar que guarda la simplificación.
+   * @param frameMillis Tiempo entre redibujados del recorrido.
+   */
+  public TrackCapture(LocationSource source, SketchEngine engine, SketchDisplay display, MapView mapView,
+      Handler handler, double tolerance, int lookahead, long frameMillis) {
+    mSource = source;
+    mEngine = engine;
+    mDisplay = display;
+    mMapView = mapView;
+    mHandler = handler;
+    mDecimator = new TrackDecimator(tolerance, lookahead);
+    mFrameMillis = frameMillis;
+  }
+
+  public boolean isCapturing() {
+    return mCapturing;
+  }
+
+  /**
+   * Empieza a agregar vértices desde la fuente de posiciones. El recorrido reemplaza al dibujo del boceto hasta
+   * {@link #stop}.
+   */
+  public void start() {
+    mCapturing = true;
+    mEngine.beginTrack(mDecimator);
+    mDisplay.beginTrack();
+    mSource.start(mLocationListener);
+  }
+
+  /**
+   * Termina la captura: confirma la última posición y vuelve al dibujo normal del boceto.
+   */
+  public void stop() {
+    cancel();
+    mEngine.finishTrack();
+    mDisplay.endTrack();
+  }
+
+  /**
+   * Apaga la fuente de posiciones sin tocar el boceto, que se va a descartar.
+   */
+  public void cancel() {
+    mSource.stop();
+    mHandler.removeCallbacks(mFrameTask);
+    mFramePending = false;
+    mCapturing = false;
+  }
+
+  private void addPosition(double longitude, double latitude) {
+    if (!mCapturing) {
+      return;
+    }
+    Point point = GeometryEngine.project(longitude, latitude, mMapView.getSpatialReference());
+    mEngine.addTrackPosition(point.getX(), point.getY());
+    if (!mFramePending) {
+      mFramePending = true;
+      mHandler.postDelayed(mFrameTask, mFrameMillis);
+    }
+  }
+
+  /**
+   * Dibuja los vértices nuevos del recorrido y la última posición sin confirmar.
+   */
+  private void draw() {
+    Point tail = mDecimator.hasTail() ? new Point(mDecimator.getTailX(), mDecimator.getTailY()) : null;
+    mDisplay.drawTrack(tail);
+  }
+}
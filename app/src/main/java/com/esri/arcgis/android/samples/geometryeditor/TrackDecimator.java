@@ -0,0 +1,160 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Reduce en línea los vértices de un recorrido capturado de forma continua, con el método de la ventana
+ * deslizante: el último vértice confirmado es el ancla, y un punto nuevo sólo se confirma cuando el segmento desde
+ * el ancla ya no pasa a menos de la tolerancia de todos los puntos intermedios. La ventana tiene un tamaño
+ * máximo, así que cada posición cuesta O(ventana) y la memoria no crece con la duración del recorrido.
+ * <p>
+ * Las posiciones a menos de media tolerancia de la anterior se descartan, de modo que quedarse quieto no agrega
+ * vértices; la ventana usa la otra media, así que ninguna posición, descartada o no, queda a más de la tolerancia
+ * del recorrido simplificado.
+ */
+public class TrackDecimator {
+
+  // Radio del filtro de posiciones repetidas y tolerancia de la ventana, al cuadrado; cada uno es media tolerancia
+  private final double mHalfTolerance2;
+
+  private final double[] mXs;
+
+  private final double[] mYs;
+
+  private int mCount;
+
+  private double mAnchorX;
+
+  private double mAnchorY;
+
+  private boolean mHasAnchor;
+
+  /**
+   * @param tolerance Distancia máxima, en unidades del mapa, entre el recorrido original y el simplificado.
+   * @param maxLookahead Número máximo de posiciones sin confirmar.
+   */
+  public TrackDecimator(double tolerance, int maxLookahead) {
+    mHalfTolerance2 = tolerance * tolerance / 4;
+    mXs = new double[Math.max(1, maxLookahead)];
+    mYs = new double[mXs.length];
+  }
+
+  /**
+   * Olvida el recorrido actual.
+   */
+  public void reset() {
+    mCount = 0;
+    mHasAnchor = false;
+  }
+
+  /**
+   * Continúa un boceto existente: el punto dado es el ancla y no se vuelve a entregar.
+   */
+  public void seed(double x, double y) {
+    reset();
+    mAnchorX = x;
+    mAnchorY = y;
+    mHasAnchor = true;
+  }
+
+  /**
+   * Procesa una posición.
+   *
+   * @param out Recibe los vértices que quedan confirmados.
+   * @return Número de vértices agregados a out.
+   */
+  public int add(double x, double y, VertexBuffer out) {
+    if (!mHasAnchor) {
+      seed(x, y);
+      out.add(x, y);
+      return 1;
+    }
+    double lastX = mCount > 0 ? mXs[mCount - 1] : mAnchorX;
+    double lastY = mCount > 0 ? mYs[mCount - 1] : mAnchorY;
+    if (distance2(x, y, lastX, lastY) <= mHalfTolerance2) {
+      return 0;
+    }
+
+    int added = 0;
+    if (mCount == mXs.length || !fits(x, y, mHalfTolerance2)) {
+      // El segmento hasta la posición nueva se aleja demasiado: el último punto de la ventana es un vértice
+      added = commitLast(out);
+    }
+    mXs[mCount] = x;
+    mYs[mCount] = y;
+    mCount++;
+    return added;
+  }
+
+  /**
+   * Confirma la última posición recibida, al terminar la captura.
+   *
+   * @return Número de vértices agregados a out.
+   */
+  public int finish(VertexBuffer out) {
+    return mCount > 0 ? commitLast(out) : 0;
+  }
+
+  /**
+   * @return true si hay una posición recibida que todavía no es vértice.
+   */
+  public boolean hasTail() {
+    return mCount > 0;
+  }
+
+  public double getTailX() {
+    return mXs[mCount - 1];
+  }
+
+  public double getTailY() {
+    return mYs[mCount - 1];
+  }
+
+  private int commitLast(VertexBuffer out) {
+    mAnchorX = mXs[mCount - 1];
+    mAnchorY = mYs[mCount - 1];
+    mCount = 0;
+    out.add(mAnchorX, mAnchorY);
+    return 1;
+  }
+
+  /**
+   * @return true si todas las posiciones de la ventana quedan cerca del segmento desde el ancla hasta (x, y).
+   */
+  private boolean fits(double x, double y, double tolerance2) {
+    double dx = x - mAnchorX;
+    double dy = y - mAnchorY;
+    double length2 = dx * dx + dy * dy;
+    for (int i = 0; i < mCount; i++) {
+      double px = mXs[i] - mAnchorX;
+      double py = mYs[i] - mAnchorY;
+      double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length2));
+      double ex = px - t * dx;
+      double ey = py - t * dy;
+      if (ex * ex + ey * ey > tolerance2) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static double distance2(double x0, double y0, double x1, double y1) {
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    return dx * dx + dy * dy;
+  }
+}
@@ -0,0 +1,134 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Lista de vértices guardada en arreglos paralelos de coordenadas x / y. Evita un objeto Point por vértice; los
+ * arreglos se reparten en trozos con un {@link ChunkLayout}, así que insertar o eliminar un vértice desplaza a lo sumo
+ * un trozo aunque el boceto tenga cientos de miles de vértices.
+ */
+public class VertexBuffer implements HandleIndex.Coordinates {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // Vértices por trozo: con menos, partir y unir trozos rearma el orden más seguido; con más, cada inserción
+  // desplaza más coordenadas
+  static final int CHUNK_SIZE = 256;
+
+  private double[] xs = new double[0];
+
+  private double[] ys = new double[0];
+
+  private final ChunkLayout layout;
+
+  public VertexBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public VertexBuffer(int capacity) {
+    layout = new ChunkLayout(CHUNK_SIZE, Math.max(1, capacity), new ChunkLayout.Storage() {
+      @Override
+      public void ensureCapacity(int capacity) {
+        double[] newXs = new double[capacity];
+        double[] newYs = new double[capacity];
+        System.arraycopy(xs, 0, newXs, 0, Math.min(xs.length, capacity));
+        System.arraycopy(ys, 0, newYs, 0, Math.min(ys.length, capacity));
+        xs = newXs;
+        ys = newYs;
+      }
+
+      @Override
+      public void move(int from, int to, int length) {
+        System.arraycopy(xs, from, xs, to, length);
+        System.arraycopy(ys, from, ys, to, length);
+      }
+    });
+  }
+
+  @Override
+  public int size() {
+    return layout.size();
+  }
+
+  public boolean isEmpty() {
+    return layout.size() == 0;
+  }
+
+  @Override
+  public double getX(int index) {
+    return xs[layout.physical(index)];
+  }
+
+  @Override
+  public double getY(int index) {
+    return ys[layout.physical(index)];
+  }
+
+  /**
+   * Agrega un vértice al final.
+   */
+  public void add(double x, double y) {
+    int slot = layout.insert(layout.size());
+    xs[slot] = x;
+    ys[slot] = y;
+  }
+
+  /**
+   * Inserta un vértice en una posición, desplazando los siguientes de su trozo.
+   */
+  public void insert(int index, double x, double y) {
+    int slot = layout.insert(index);
+    xs[slot] = x;
+    ys[slot] = y;
+  }
+
+  /**
+   * Mueve un vértice a nuevas coordenadas.
+   */
+  public void set(int index, double x, double y) {
+    int slot = layout.physical(index);
+    xs[slot] = x;
+    ys[slot] = y;
+  }
+
+  /**
+   * Elimina un vértice, desplazando los siguientes de su trozo.
+   */
+  public void remove(int index) {
+    layout.remove(index);
+  }
+
+  public void clear() {
+    layout.clear();
+  }
+
+  /**
+   * Copia las coordenadas intercaladas (x0, y0, x1, y1, ...) en un arreglo nuevo.
+   */
+  public double[] toInterleavedArray() {
+    double[] coords = new double[layout.size() * 2];
+    int i = 0;
+    for (int rank = 0; rank < layout.getChunkCount(); rank++) {
+      int base = layout.getChunkBase(rank);
+      for (int slot = base, end = base + layout.getChunkLength(rank); slot < end; slot++) {
+        coords[i++] = xs[slot];
+        coords[i++] = ys[slot];
+      }
+    }
+    return coords;
+  }
+}
@@ -0,0 +1,355 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor;
+
+/**
+ * Puntos de control que vale la pena dibujar: sólo los que caen dentro de la vista (más un margen) y, si son más de
+ * los que caben en pantalla, agrupados en marcadores de grupo.
+ * Así el número de gráficos depende del tamaño de la pantalla y no del número de vértices del boceto.
+ * <p>
+ * Los puntos se consultan por las celdas del {@link HandleIndex} que los guarda: cada celda sabe cuántos puntos
+ * tiene y dónde está su centro, así que recortar y agrupar cuesta lo que las celdas a la vista y no lo que el
+ * boceto. Un grupo junta varias celdas del índice; el recorte también es por celdas, de modo que las del borde se
+ * muestran enteras. Si ni los puntos ni la vista cambiaron desde el último cálculo, no se recalcula.
+ * <p>
+ * Sin agrupar, las entradas quedan en el orden de los puntos de origen. Un punto elegido (el seleccionado o el que
+ * se arrastra) siempre se muestra solo aunque caiga fuera de la vista.
+ */
+public class VisibleHandles implements HandleIndex.Coordinates {
+
+  // Número máximo de celdas de la rejilla de agrupación
+  private static final int MAX_CELLS = 1 << 20;
+
+  private final HandleIndex mSource;
+
+  private double[] mXs = new double[16];
+
+  private double[] mYs = new double[16];
+
+  // Punto de origen de cada entrada; -1 en los marcadores de grupo
+  private int[] mFirst = new int[16];
+
+  private int[] mCounts = new int[16];
+
+  private int mSize;
+
+  private boolean mClustered;
+
+  // Entrada del punto elegido, -1 si no se muestra
+  private int mPinnedEntry = -1;
+
+  // Los puntos de origen cambiaron de posición desde el último cálculo
+  private boolean mStale = true;
+
+  // Parámetros del último cálculo, para no repetirlo
+  private int mVersion;
+
+  private double mCellSize;
+
+  private double mXmin, mYmin, mXmax, mYmax, mClusterSize;
+
+  private int mMaxHandles;
+
+  private int mPinned = -1;
+
+  // Entrada de cada celda de la rejilla más uno, 0 si vacía
+  private int[] mCells = new int[0];
+
+  private double[] mSumX = new double[16];
+
+  private double[] mSumY = new double[16];
+
+  // Celdas del índice por lado de un grupo y primera columna y fila de grupos de la rejilla
+  private long mGroup, mColumn0, mRow0;
+
+  private int mRows;
+
+  // Celda del índice donde cae el punto elegido; no se suma a su grupo
+  private long mPinnedCx, mPinnedCy;
+
+  private final HandleIndex.CellVisitor mClusterer = new HandleIndex.CellVisitor() {
+    @Override
+    public void visitCell(long cx, long cy, int count, double sumX, double sumY) {
+      if (mPinned != -1 && cx == mPinnedCx && cy == mPinnedCy) {
+        count--;
+        sumX -= mSource.getX(mPinned);
+        sumY -= mSource.getY(mPinned);
+        if (count == 0) {
+          return;
+        }
+      }
+      int cell = (int) (Math.floor((double) cx / mGroup) - mColumn0) * mRows
+          + (int) (Math.floor((double) cy / mGroup) - mRow0);
+      int entry = mCells[cell] - 1;
+      if (entry == -1) {
+        entry = add(-1, 0, 0);
+        mCells[cell] = entry + 1;
+        mCounts[entry] = 0;
+      }
+      mCounts[entry] += count;
+      mSumX[entry] += sumX;
+      mSumY[entry] += sumY;
+    }
+  };
+
+  /**
+   * @param source Índice de los puntos de origen, al día con el boceto.
+   */
+  public VisibleHandles(HandleIndex source) {
+    mSource = source;
+  }
+
+  /**
+   * Recalcula las entradas. Ajusta las celdas del índice al tamaño de los grupos, que se mide en pantalla igual
+   * que la tolerancia de los toques, así que el índice no se reconstruye a cada cuadro.
+   *
+   * @param xmin Límites de la vista, ya con el margen.
+   * @param clusterSize Lado de las celdas de agrupación, en unidades del mapa.
+   * @param maxHandles Número de puntos visibles a partir del cual se agrupan.
+   * @param pinned Punto que siempre se muestra solo, -1 si ninguno.
+   */
+  public void update(double xmin, double ymin, double xmax, double ymax, double clusterSize, int maxHandles,
+      int pinned) {
+    if (pinned >= mSource.size()) {
+      pinned = -1;
+    }
+    if (clusterSize > 0) {
+      mSource.fitCellSize(clusterSize);
+    }
+    if (!mStale && mVersion == mSource.getVersion() && mCellSize == mSource.getCellSize() && mXmin == xmin
+        && mYmin == ymin && mXmax == xmax && mYmax == ymax && mClusterSize == clusterSize
+        && mMaxHandles == maxHandles && mPinned == pinned) {
+      return;
+    }
+    mVersion = mSource.getVersion();
+    mCellSize = mSource.getCellSize();
+    mXmin = xmin;
+    mYmin = ymin;
+    mXmax = xmax;
+    mYmax = ymax;
+    mClusterSize = clusterSize;
+    mMaxHandles = maxHandles;
+    mPinned = pinned;
+    mSize = 0;
+    mStale = false;
+    mPinnedEntry = -1;
+
+    boolean pinnedInside = false;
+    if (pinned != -1) {
+      mPinnedCx = mSource.cellOf(mSource.getX(pinned));
+      mPinnedCy = mSource.cellOf(mSource.getY(pinned));
+      pinnedInside = xmin <= xmax && ymin <= ymax && mPinnedCx >= mSource.cellOf(xmin)
+          && mPinnedCx <= mSource.cellOf(xmax) && mPinnedCy >= mSource.cellOf(ymin)
+          && mPinnedCy <= mSource.cellOf(ymax);
+    }
+    int visible = mSource.countIn(xmin, ymin, xmax, ymax) - (pinnedInside ? 1 : 0);
+    mClustered = visible > maxHandles && clusterSize > 0;
+    if (!mClustered) {
+      if (mFirst.length < visible + 1) {
+        resize(visible + 1);
+      }
+      int count = mSource.pointsIn(xmin, ymin, xmax, ymax, mFirst);
+      for (int i = 0; i < count; i++) {
+        int source = mFirst[i];
+        if (source == pinned) {
+          mPinnedEntry = mSize;
+        }
+        add(source, mSource.getX(source), mSource.getY(source));
+      }
+      if (pinned != -1 && !pinnedInside) {
+        // Fuera de la vista, en su lugar según el orden de los puntos
+        int at = mSize;
+        while (at > 0 && mFirst[at - 1] > pinned) {
+          at--;
+        }
+        add(-1, 0, 0);
+        System.arraycopy(mFirst, at, mFirst, at + 1, mSize - 1 - at);
+        System.arraycopy(mXs, at, mXs, at + 1, mSize - 1 - at);
+        System.arraycopy(mYs, at, mYs, at + 1, mSize - 1 - at);
+        mFirst[at] = pinned;
+        mXs[at] = mSource.getX(pinned);
+        mYs[at] = mSource.getY(pinned);
+        mPinnedEntry = at;
+      }
+      return;
+    }
+
+    // Un grupo junta varias celdas del índice; se agranda hasta que la rejilla no pase de MAX_CELLS
+    mGroup = Math.max(1, Math.round(clusterSize / mSource.getCellSize()));
+    long columns;
+    long rows;
+    while (true) {
+      mColumn0 = (long) Math.floor((double) mSource.cellOf(xmin) / mGroup);
+      mRow0 = (long) Math.floor((double) mSource.cellOf(ymin) / mGroup);
+      columns = (long) Math.floor((double) mSource.cellOf(xmax) / mGroup) - mColumn0 + 1;
+      rows = (long) Math.floor((double) mSource.cellOf(ymax) / mGroup) - mRow0 + 1;
+      if (columns * rows <= MAX_CELLS) {
+        break;
+      }
+      mGroup *= 2;
+    }
+    mRows = (int) rows;
+    if (mCells.length < columns * rows) {
+      mCells = new int[(int) (columns * rows)];
+    }
+    mSource.visitCells(xmin, ymin, xmax, ymax, mClusterer);
+    for (int e = 0; e < mSize; e++) {
+      mXs[e] = mSumX[e] / mCounts[e];
+      mYs[e] = mSumY[e] / mCounts[e];
+    }
+    // Dejar la rejilla vacía para el próximo cálculo
+    if (mSize > 0) {
+      java.util.Arrays.fill(mCells, 0, (int) (columns * rows), 0);
+    }
+    if (pinned != -1) {
+      mPinnedEntry = add(pinned, mSource.getX(pinned), mSource.getY(pinned));
+    }
+  }
+
+  /**
+   * Muestra todos los puntos, sin recortar ni agrupar.
+   */
+  public void showAll(int pinned) {
+    update(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        0, Integer.MAX_VALUE, pinned);
+  }
+
+  /**
+   * Muestra sólo el punto elegido, si hay uno.
+   */
+  public void showOnly(int pinned) {
+    update(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+        0, Integer.MAX_VALUE, pinned);
+  }
+
+  /**
+   * Los puntos de origen se insertaron o eliminaron: las posiciones guardadas ya no valen hasta el próximo
+   * {@link #update}.
+   */
+  public void invalidate() {
+    mStale = true;
+  }
+
+  /**
+   * Mueve la entrada de un punto de origen que se muestra solo.
+   *
+   * @return Posición de la entrada, o -1 si el punto no se muestra solo.
+   */
+  public int move(int source, double x, double y) {
+    int entry = indexOf(source);
+    if (entry != -1) {
+      mXs[entry] = x;
+      mYs[entry] = y;
+    }
+    return entry;
+  }
+
+  /**
+   * @return Posición de la entrada de un punto de origen que se muestra solo, o -1.
+   */
+  public int indexOf(int source) {
+    if (mStale || source < 0) {
+      return -1;
+    }
+    if (source == mPinned) {
+      return mPinnedEntry;
+    }
+    if (mClustered) {
+      return -1;
+    }
+    int low = 0;
+    int high = mSize - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (mFirst[mid] < source) {
+        low = mid + 1;
+      } else if (mFirst[mid] > source) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  @Override
+  public double getX(int index) {
+    return mXs[index];
+  }
+
+  @Override
+  public double getY(int index) {
+    return mYs[index];
+  }
+
+  /**
+   * @return Número de puntos que representa la entrada; más de uno es un marcador de grupo.
+   */
+  public int getCount(int index) {
+    return mCounts[index];
+  }
+
+  /**
+   * @return Punto de origen de la entrada, o -1 si es un marcador de grupo.
+   */
+  public int getSourceIndex(int index) {
+    return mFirst[index];
+  }
+
+  public boolean isClustered() {
+    return mClustered;
+  }
+
+  private int add(int source, double x, double y) {
+    if (mSize == mXs.length) {
+      resize(mSize * 2);
+    }
+    mXs[mSize] = x;
+    mYs[mSize] = y;
+    mSumX[mSize] = x;
+    mSumY[mSize] = y;
+    mFirst[mSize] = source;
+    mCounts[mSize] = 1;
+    return mSize++;
+  }
+
+  private void resize(int length) {
+    mXs = grow(mXs, length);
+    mYs = grow(mYs, length);
+    mSumX = grow(mSumX, length);
+    mSumY = grow(mSumY, length);
+    mFirst = grow(mFirst, length);
+    mCounts = grow(mCounts, length);
+  }
+
+  private static double[] grow(double[] a, int length) {
+    double[] b = new double[length];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+
+  private static int[] grow(int[] a, int length) {
+    int[] b = new int[length];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+}
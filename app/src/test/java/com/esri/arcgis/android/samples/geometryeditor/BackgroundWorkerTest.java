@@ -0,0 +1,218 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BackgroundWorkerTest {
+
+  /**
+   * Hilo de la interfaz simulado: las entregas se acumulan y se ejecutan cuando la prueba lo indica.
+   */
+  static class ManualMain implements Executor {
+    final List<Runnable> posted = new ArrayList<Runnable>();
+
+    @Override
+    public synchronized void execute(Runnable command) {
+      posted.add(command);
+      notifyAll();
+    }
+
+    /**
+     * Espera a que haya al menos {@code count} entregas y las ejecuta todas.
+     */
+    synchronized void runAll(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (posted.size() < count && System.currentTimeMillis() < deadline) {
+        wait(100);
+      }
+      List<Runnable> commands = new ArrayList<Runnable>(posted);
+      posted.clear();
+      for (Runnable command : commands) {
+        command.run();
+      }
+    }
+  }
+
+  /**
+   * Anota los resultados y errores recibidos.
+   */
+  static class Recorder<T> implements BackgroundWorker.Callback<T> {
+    final List<Object> received = new ArrayList<Object>();
+
+    @Override
+    public void onResult(T result) {
+      received.add(result);
+    }
+
+    @Override
+    public void onError(Exception e) {
+      received.add("error:" + e.getMessage());
+    }
+  }
+
+  ExecutorService executor;
+
+  ManualMain main;
+
+  BackgroundWorker worker;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor();
+    main = new ManualMain();
+    worker = new BackgroundWorker(executor, main);
+  }
+
+  @After
+  public void tearDown() {
+    worker.shutdown();
+  }
+
+  @Test
+  public void resultsArriveOnMainInSubmissionOrder() throws Exception {
+    final Thread test = Thread.currentThread();
+    final List<Thread> threads = new ArrayList<Thread>();
+    Recorder<Integer> recorder = new Recorder<Integer>();
+    for (int i = 0; i < 5; i++) {
+      final int value = i;
+      worker.submit(new BackgroundWorker.Job<Integer>() {
+        @Override
+        public Integer run(BackgroundWorker.Task task) {
+          synchronized (threads) {
+            threads.add(Thread.currentThread());
+          }
+          return value * value;
+        }
+      }, recorder);
+    }
+    main.runAll(5);
+    assertEquals("[0, 1, 4, 9, 16]", recorder.received.toString());
+    for (Thread thread : threads) {
+      assertNotSame(test, thread);
+    }
+  }
+
+  @Test
+  public void errorsAreDelivered() throws Exception {
+    Recorder<String> recorder = new Recorder<String>();
+    BackgroundWorker.Task task = worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) throws Exception {
+        throw new IllegalStateException("no simple");
+      }
+    }, recorder);
+    main.runAll(1);
+    assertEquals("[error:no simple]", recorder.received.toString());
+    assertTrue(task.isDone());
+  }
+
+  @Test
+  public void cancelledBeforeStartNeverRuns() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final boolean[] ran = new boolean[1];
+    Recorder<String> recorder = new Recorder<String>();
+    // El primer trabajo ocupa el hilo hasta que la prueba lo suelte
+    worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) throws Exception {
+        release.await(5, TimeUnit.SECONDS);
+        return "first";
+      }
+    }, recorder);
+    BackgroundWorker.Task second = worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) {
+        ran[0] = true;
+        return "second";
+      }
+    }, recorder);
+    second.cancel();
+    release.countDown();
+    main.runAll(1);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    main.runAll(0);
+    assertFalse(ran[0]);
+    assertEquals("[first]", recorder.received.toString());
+    assertTrue(second.isCancelled());
+    assertFalse(second.isDone());
+  }
+
+  @Test
+  public void cancelledAfterFinishingIsNotDelivered() throws Exception {
+    Recorder<String> recorder = new Recorder<String>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    BackgroundWorker.Task task = worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) {
+        finished.countDown();
+        return "late";
+      }
+    }, recorder);
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    // El resultado ya espera en el hilo de la interfaz, pero el usuario descartó antes de que llegara
+    task.cancel();
+    main.runAll(1);
+    assertTrue(recorder.received.isEmpty());
+  }
+
+  @Test
+  public void runningJobSeesCancellation() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch stopped = new CountDownLatch(1);
+    Recorder<String> recorder = new Recorder<String>();
+    BackgroundWorker.Task task = worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) {
+        started.countDown();
+        while (!task.isCancelled()) {
+          Thread.yield();
+        }
+        stopped.countDown();
+        return "stopped";
+      }
+    }, recorder);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    task.cancel();
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+    main.runAll(1);
+    assertTrue(recorder.received.isEmpty());
+  }
+
+  @Test
+  public void nothingIsDeliveredAfterShutdown() throws Exception {
+    Recorder<String> recorder = new Recorder<String>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) {
+        finished.countDown();
+        return "done";
+      }
+    }, recorder);
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    worker.shutdown();
+    main.runAll(1);
+    assertTrue(recorder.received.isEmpty());
+    BackgroundWorker.Task rejected = worker.submit(new BackgroundWorker.Job<String>() {
+      @Override
+      public String run(BackgroundWorker.Task task) {
+        return "never";
+      }
+    }, recorder);
+    assertTrue(rejected.isCancelled());
+  }
+}
@@ -0,0 +1,122 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class EditHistoryTest {
+
+  /**
+   * Destino de prueba: una lista de coordenadas "x,y".
+   */
+  static class ListTarget implements EditHistory.Target {
+    ArrayList<String> points = new ArrayList<String>();
+
+    @Override
+    public void insertVertex(int index, double x, double y) {
+      points.add(index, x + "," + y);
+    }
+
+    @Override
+    public void moveVertex(int index, double x, double y) {
+      points.set(index, x + "," + y);
+    }
+
+    @Override
+    public void removeVertex(int index) {
+      points.remove(index);
+    }
+  }
+
+  @Test
+  public void undoAndRedoApplyInverseOperations() {
+    EditHistory history = new EditHistory();
+    ListTarget target = new ListTarget();
+
+    target.insertVertex(0, 1, 1);
+    history.recordInsert(0, 1, 1);
+    target.insertVertex(1, 2, 2);
+    history.recordInsert(1, 2, 2);
+    target.moveVertex(0, 5, 5);
+    history.recordMove(0, 1, 1, 5, 5);
+    target.removeVertex(1);
+    history.recordDelete(1, 2, 2);
+    assertEquals("[5.0,5.0]", target.points.toString());
+
+    assertTrue(history.undo(target));
+    assertEquals("[5.0,5.0, 2.0,2.0]", target.points.toString());
+    assertTrue(history.undo(target));
+    assertEquals("[1.0,1.0, 2.0,2.0]", target.points.toString());
+    assertTrue(history.undo(target));
+    assertTrue(history.undo(target));
+    assertTrue(target.points.isEmpty());
+    assertFalse(history.undo(target));
+
+    assertTrue(history.redo(target));
+    assertTrue(history.redo(target));
+    assertTrue(history.redo(target));
+    assertTrue(history.redo(target));
+    assertEquals("[5.0,5.0]", target.points.toString());
+    assertFalse(history.redo(target));
+  }
+
+  @Test
+  public void newEditDropsRedo() {
+    EditHistory history = new EditHistory();
+    ListTarget target = new ListTarget();
+    target.insertVertex(0, 1, 1);
+    history.recordInsert(0, 1, 1);
+    history.undo(target);
+    assertTrue(history.canRedo());
+
+    target.insertVertex(0, 3, 3);
+    history.recordInsert(0, 3, 3);
+    assertFalse(history.canRedo());
+  }
+
+  @Test
+  public void oldestEntriesAreDroppedWhenBudgetIsExceeded() {
+    EditHistory history = new EditHistory(EditHistory.BYTES_PER_ENTRY * 3);
+    assertEquals(3, history.getCapacity());
+    ListTarget target = new ListTarget();
+    for (int i = 0; i < 5; i++) {
+      target.insertVertex(i, i, i);
+      history.recordInsert(i, i, i);
+    }
+    int undone = 0;
+    while (history.undo(target)) {
+      undone++;
+    }
+    assertEquals(3, undone);
+    assertEquals("[0.0,0.0, 1.0,1.0]", target.points.toString());
+  }
+
+  @Test
+  public void recordingAllocatesNothing() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+    EditHistory history = new EditHistory();
+    long id = Thread.currentThread().getId();
+    recordMany(history, 10000);
+
+    long before = threads.getThreadAllocatedBytes(id);
+    recordMany(history, 100000);
+    long after = threads.getThreadAllocatedBytes(id);
+
+    // 100k ediciones sobre un buffer ya asignado: sólo el ruido de la medición
+    assertTrue("allocated " + (after - before), after - before < 16 * 1024);
+  }
+
+  private static void recordMany(EditHistory history, int count) {
+    for (int i = 0; i < count; i++) {
+      history.recordMove(i, i, i, i + 1, i + 1);
+    }
+  }
+}
@@ -0,0 +1,569 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EditJournalTest {
+
+  /**
+   * Servidor de entidades de prueba: responde 503 mientras está fuera de línea. En línea, cada alta crea una
+   * entidad aunque su clave ya esté guardada, y las claves se pueden buscar con {@code /query} salvo que la capa
+   * no tenga el campo de la clave ({@link #keyless}).
+   */
+  static class StandInFeatureServer implements HttpHandler {
+    volatile boolean online;
+
+    // La capa no guarda la clave: las búsquedas no pueden decir si la tiene
+    volatile boolean keyless;
+
+    // Guarda las altas pero la respuesta se pierde en el camino
+    volatile boolean dropResponses;
+
+    final Map<String, Integer> stored = new HashMap<String, Integer>();
+
+    int editRequests;
+
+    int lookups;
+
+    HttpServer server;
+
+    String url;
+
+    void start() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", this);
+      server.start();
+      url = "http://127.0.0.1:" + server.getAddress().getPort() + "/FeatureServer/";
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String[] keys = new String(SaveQueueTest.readAll(exchange.getRequestBody()), "UTF-8").split(",");
+      boolean query = exchange.getRequestURI().getPath().endsWith("/query");
+      StringBuilder results = new StringBuilder();
+      synchronized (this) {
+        if (online && query) {
+          lookups++;
+          for (String key : keys) {
+            results.append(keyless ? "?\n" : stored.containsKey(key) ? "1\n" : "0\n");
+          }
+        } else if (online) {
+          editRequests++;
+          for (String key : keys) {
+            stored.put(key, stored.containsKey(key) ? stored.get(key) + 1 : 1);
+            results.append("ok\n");
+          }
+        }
+      }
+      byte[] body = results.toString().getBytes("UTF-8");
+      int code = online && (query || !dropResponses) ? 200 : 503;
+      exchange.sendResponseHeaders(code, code == 200 ? body.length : -1);
+      OutputStream out = exchange.getResponseBody();
+      if (code == 200) {
+        out.write(body);
+      }
+      out.close();
+    }
+  }
+
+  /**
+   * Una sesión de la aplicación: el diario, la cola de guardado sobre HTTP y el hilo de la interfaz, conectados como
+   * en la actividad. Las entidades de la cola son las claves de las altas.
+   */
+  static class Session implements JournalReplayer.Sink, SaveQueue.Listener<String, String> {
+    final ScheduledExecutorService ui = Executors.newSingleThreadScheduledExecutor();
+
+    final ExecutorService disk = Executors.newSingleThreadExecutor();
+
+    final EditJournal journal;
+
+    final SaveQueueTest.HttpUploader http;
+
+    final SaveQueue<String, String> queue;
+
+    final JournalReplayer replayer;
+
+    final List<String> saved = new ArrayList<String>();
+
+    final List<String> unreachable = new ArrayList<String>();
+
+    final List<String> unverified = new ArrayList<String>();
+
+    CountDownLatch done;
+
+    Session(File file, String url) throws IOException {
+      journal = new EditJournal(file);
+      http = new SaveQueueTest.HttpUploader(url, ui);
+      queue = new SaveQueue<String, String>(http, new SaveQueueTest.ExecutorTimer(ui), 10, 20, 1,
+          new SaveQueue.Backoff(5, 10, 2, new Random(5)));
+      queue.setListener(this);
+      replayer = new JournalReplayer(journal, this, disk, ui);
+    }
+
+    /**
+     * Ejecuta la tarea en el hilo de la interfaz y espera a que la cola informe el resultado de {@code count} altas.
+     */
+    void runAndAwait(int count, final Runnable task) throws Exception {
+      done = new CountDownLatch(count);
+      ui.submit(new Runnable() {
+        @Override
+        public void run() {
+          task.run();
+        }
+      }).get();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Cierra el diario después de sus escrituras pendientes, como al destruir la actividad.
+     */
+    void close() throws Exception {
+      ui.submit(new Runnable() {
+        @Override
+        public void run() {
+          queue.cancelTimers();
+          replayer.close();
+        }
+      }).get();
+      disk.shutdown();
+      assertTrue(disk.awaitTermination(10, TimeUnit.SECONDS));
+      http.network.shutdownNow();
+      ui.shutdownNow();
+    }
+
+    @Override
+    public boolean submit(EditJournal.Entry entry, boolean unconfirmed) {
+      queue.add(entry.getLayerUrl(), entry.getSeq(), entry.getClientKey(), entry.getTemplateName(), unconfirmed);
+      return true;
+    }
+
+    @Override
+    public void flush() {
+      queue.flushAll();
+    }
+
+    @Override
+    public void onJournalError(IOException e) {
+      throw new AssertionError(e);
+    }
+
+    @Override
+    public void onBatchComplete(String layer, List<SaveQueue.Entry<String>> ok, List<SaveQueue.Entry<String>> failed) {
+      // Como completeSaveAction en la actividad
+      try {
+        for (SaveQueue.Entry<String> entry : ok) {
+          saved.add(entry.getFeature());
+          replayer.onCompleted(entry.getId());
+          done.countDown();
+        }
+        for (SaveQueue.Entry<String> entry : failed) {
+          if (entry.isRetryable()) {
+            unreachable.add(entry.getFeature());
+            replayer.onUnreachable(entry.getId());
+          } else if (entry.isUnverified()) {
+            unverified.add(entry.getFeature());
+            replayer.onUnverified(entry.getId());
+          } else {
+            replayer.onCompleted(entry.getId());
+          }
+          done.countDown();
+        }
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      replayer.sync();
+    }
+  }
+
+  /**
+   * Ejecutor que guarda las tareas hasta que la prueba las corre.
+   */
+  static class ManualExecutor implements Executor {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runNext() {
+      tasks.remove(0).run();
+    }
+  }
+
+  File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("edits", ".journal");
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static double[] square() {
+    return new double[] { 0, 0, 10, 0, 10, 10, 0, 10 };
+  }
+
+  @Test
+  public void pendingEditsSurviveRestartAndReplayWhenServerIsBack() throws Exception {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.start();
+    try {
+      final Session offline = new Session(file, server.url);
+      offline.runAndAwait(3, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 3; i++) {
+              offline.replayer.record("2", "Parque " + i, EditJournal.POLYGON, square());
+            }
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        }
+      });
+      assertEquals(3, offline.unreachable.size());
+      offline.close();
+
+      // Reinicio del proceso: el diario se vuelve a abrir
+      final Session restarted = new Session(file, server.url);
+      assertEquals(3, restarted.journal.getPendingCount());
+      EditJournal.Entry first = restarted.journal.getPending().get(0);
+      assertEquals("Parque 0", first.getTemplateName());
+      assertEquals(EditJournal.POLYGON, first.getGeometryType());
+      assertArrayEquals(square(), first.getCoords(), 0);
+      assertEquals(offline.unreachable.get(0), first.getClientKey());
+
+      server.online = true;
+      restarted.runAndAwait(3, new Runnable() {
+        @Override
+        public void run() {
+          assertEquals(3, restarted.replayer.replay());
+        }
+      });
+      restarted.close();
+      assertEquals(3, restarted.saved.size());
+      // Las altas pudieron haberse guardado antes del corte: se buscan antes de reenviarlas, todas juntas
+      assertEquals(1, server.lookups);
+      assertEquals("una sola solicitud para todo el lote", 1, server.editRequests);
+      assertEquals(3, server.stored.size());
+      for (int count : server.stored.values()) {
+        assertEquals(1, count);
+      }
+
+      assertEquals(0, new EditJournal(file).getPendingCount());
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void lostResponseOnALayerWithoutClientKeysIsHeldInsteadOfResent() throws Exception {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.keyless = true;
+    server.dropResponses = true;
+    server.online = true;
+    server.start();
+    try {
+      final Session first = new Session(file, server.url);
+      first.runAndAwait(2, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 2; i++) {
+              first.replayer.record("2", "Parque " + i, EditJournal.POLYGON, square());
+            }
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        }
+      });
+      // El servidor las guardó; el reintento las buscó, no pudo saberlo y no las reenvió
+      assertEquals(2, first.unverified.size());
+      assertEquals(1, server.editRequests);
+      assertEquals(1, server.lookups);
+      first.ui.submit(new Runnable() {
+        @Override
+        public void run() {
+          assertEquals(0, first.replayer.replay());
+          assertEquals(2, first.replayer.getHeldCount());
+          assertEquals(0, first.replayer.getWaitingCount());
+        }
+      }).get();
+      first.close();
+
+      // Tras reiniciar siguen en el diario: se vuelven a buscar, pero tampoco se reenvían
+      server.dropResponses = false;
+      final Session restarted = new Session(file, server.url);
+      assertEquals(2, restarted.journal.getPendingCount());
+      restarted.runAndAwait(2, new Runnable() {
+        @Override
+        public void run() {
+          assertEquals(2, restarted.replayer.replay());
+        }
+      });
+      assertEquals(2, restarted.unverified.size());
+      assertEquals(1, server.editRequests);
+      assertEquals(2, server.stored.size());
+      for (int count : server.stored.values()) {
+        assertEquals(1, count);
+      }
+
+      // El usuario confirma que ya están en el servidor
+      restarted.ui.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (EditJournal.Entry entry : restarted.journal.getPending()) {
+              restarted.replayer.onCompleted(entry.getSeq());
+            }
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          assertEquals(0, restarted.replayer.getHeldCount());
+          restarted.replayer.sync();
+        }
+      }).get();
+      restarted.close();
+      assertEquals(0, new EditJournal(file).getPendingCount());
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void recordsWaitingForTheDiskShareOneSync() throws IOException {
+    final List<Long> submitted = new ArrayList<Long>();
+    ManualExecutor disk = new ManualExecutor();
+    ManualExecutor main = new ManualExecutor();
+    EditJournal journal = new EditJournal(file);
+    JournalReplayer replayer = new JournalReplayer(journal, new JournalReplayer.Sink() {
+      @Override
+      public boolean submit(EditJournal.Entry entry, boolean unconfirmed) {
+        submitted.add(entry.getSeq());
+        return true;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void onJournalError(IOException e) {
+        throw new AssertionError(e);
+      }
+    }, disk, main);
+    long empty = file.length();
+    for (int i = 0; i < 10; i++) {
+      replayer.record("url", "t" + i, EditJournal.POINT, new double[] { i, i });
+    }
+    assertEquals(1, disk.tasks.size());
+    // Nada se envía ni se escribe en el hilo que registra
+    assertEquals(empty, file.length());
+    assertTrue(submitted.isEmpty());
+
+    disk.runNext();
+    long written = file.length();
+    assertTrue(written > empty);
+    // Las altas que llegan durante la escritura esperan a la siguiente
+    for (int i = 0; i < 5; i++) {
+      replayer.record("url", "late" + i, EditJournal.POINT, new double[] { i, i });
+    }
+    assertTrue(disk.tasks.isEmpty());
+    main.runNext();
+    assertEquals(10, submitted.size());
+    assertEquals(0, replayer.replay());
+
+    assertEquals(1, disk.tasks.size());
+    disk.runNext();
+    main.runNext();
+    assertEquals(15, submitted.size());
+    assertTrue(file.length() > written);
+    assertTrue(disk.tasks.isEmpty());
+    journal.close();
+  }
+
+  @Test
+  public void editsInFlightAreNotReplayedTwice() throws IOException {
+    final List<Long> submitted = new ArrayList<Long>();
+    final List<Boolean> unconfirmedFlags = new ArrayList<Boolean>();
+    EditJournal journal = new EditJournal(file);
+    JournalReplayer replayer = new JournalReplayer(journal, new JournalReplayer.Sink() {
+      @Override
+      public boolean submit(EditJournal.Entry entry, boolean unconfirmed) {
+        submitted.add(entry.getSeq());
+        unconfirmedFlags.add(unconfirmed);
+        return true;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void onJournalError(IOException e) {
+        throw new AssertionError(e);
+      }
+    });
+    EditJournal.Entry entry = replayer.record("url", "t", EditJournal.POINT, new double[] { 1, 2 });
+    assertEquals(0, replayer.replay());
+    replayer.onUnreachable(entry.getSeq());
+    assertEquals(1, replayer.replay());
+    assertEquals(2, submitted.size());
+    // Un alta nueva nunca se envió; la reenviada pudo haberse guardado
+    assertEquals("[false, true]", unconfirmedFlags.toString());
+    journal.close();
+  }
+
+  @Test
+  public void clientKeySurvivesRestartAndIsNeverReused() throws IOException {
+    EditJournal journal = new EditJournal(file);
+    EditJournal.Entry entry = journal.append("url", "a", EditJournal.POINT, new double[] { 1, 2 });
+    assertNotNull(entry.getClientKey());
+    journal.close();
+
+    journal = new EditJournal(file);
+    assertEquals(entry.getClientKey(), journal.getPending().get(0).getClientKey());
+    journal.acknowledge(entry.getSeq());
+    journal.compact();
+    journal.close();
+
+    // El diario vacío vuelve a numerar las altas desde el principio, pero la clave es otra
+    journal = new EditJournal(file);
+    EditJournal.Entry next = journal.append("url", "b", EditJournal.POINT, new double[] { 3, 4 });
+    assertEquals(entry.getSeq(), next.getSeq());
+    assertNotEquals(entry.getClientKey(), next.getClientKey());
+    journal.close();
+  }
+
+  @Test
+  public void tornRecordAtTheEndIsDiscarded() throws IOException {
+    EditJournal journal = new EditJournal(file);
+    journal.append("url", "a", EditJournal.POINT, new double[] { 1, 2 });
+    journal.append("url", "b", EditJournal.POINT, new double[] { 3, 4 });
+    journal.close();
+    long length = file.length();
+
+    // Simula un corte a mitad de escritura del tercer registro
+    journal = new EditJournal(file);
+    journal.append("url", "c", EditJournal.POLYLINE, new double[] { 1, 2, 3, 4 });
+    journal.close();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(file.length() - 5);
+    raf.close();
+
+    journal = new EditJournal(file);
+    assertEquals(2, journal.getPendingCount());
+    assertEquals(length, file.length());
+    journal.append("url", "d", EditJournal.POINT, new double[] { 5, 6 });
+    journal.close();
+    assertEquals(3, new EditJournal(file).getPendingCount());
+  }
+
+  @Test
+  public void corruptRecordStopsRecovery() throws IOException {
+    EditJournal journal = new EditJournal(file);
+    journal.append("url", "a", EditJournal.POINT, new double[] { 1, 2 });
+    journal.close();
+    FileOutputStream out = new FileOutputStream(file, true);
+    out.write(new byte[] { 0, 0, 0, 4, 1, 2, 3, 4, 9, 9, 9, 9 });
+    out.close();
+    assertEquals(1, new EditJournal(file).getPendingCount());
+  }
+
+  @Test
+  public void acknowledgedEntriesAreCompactedAway() throws IOException {
+    EditJournal journal = new EditJournal(file);
+    List<EditJournal.Entry> entries = new ArrayList<EditJournal.Entry>();
+    for (int i = 0; i < 200; i++) {
+      entries.add(journal.append("url", "t" + i, EditJournal.POLYLINE, new double[] { i, i, i + 1, i + 1 }));
+    }
+    journal.sync();
+    long full = file.length();
+    for (int i = 0; i < 190; i++) {
+      journal.acknowledge(entries.get(i).getSeq());
+    }
+    journal.sync();
+    assertTrue(file.length() < full / 5);
+    journal.close();
+
+    journal = new EditJournal(file);
+    assertEquals(10, journal.getPendingCount());
+    assertEquals("t190", journal.getPending().get(0).getTemplateName());
+    EditJournal.Entry next = journal.append("url", "new", EditJournal.POINT, new double[] { 0, 0 });
+    assertTrue(next.getSeq() > entries.get(199).getSeq());
+    journal.close();
+  }
+
+  @Test
+  public void failedCompactionKeepsTheJournalWritableAndIsRetried() throws IOException {
+    EditJournal journal = new EditJournal(file);
+    List<EditJournal.Entry> entries = new ArrayList<EditJournal.Entry>();
+    for (int i = 0; i < 200; i++) {
+      entries.add(journal.append("url", "t" + i, EditJournal.POINT, new double[] { i, i }));
+    }
+    journal.sync();
+
+    // Un directorio con contenido en lugar del diario hace fallar el renombrado
+    assertTrue(file.delete());
+    assertTrue(file.mkdir());
+    File blocker = new File(file, "x");
+    assertTrue(blocker.createNewFile());
+    for (int i = 0; i < 190; i++) {
+      journal.acknowledge(entries.get(i).getSeq());
+    }
+    try {
+      journal.sync();
+      fail();
+    } catch (IOException expected) {
+    }
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+    assertTrue(blocker.delete());
+    assertTrue(file.delete());
+
+    // El diario sigue abierto y la compactación se vuelve a intentar sin esperar más acuses
+    journal.append("url", "late", EditJournal.POINT, new double[] { 0, 0 });
+    journal.sync();
+    assertTrue(file.exists());
+    journal.close();
+
+    journal = new EditJournal(file);
+    assertEquals(11, journal.getPendingCount());
+    assertEquals("t190", journal.getPending().get(0).getTemplateName());
+    assertEquals("late", journal.getPending().get(10).getTemplateName());
+    journal.close();
+  }
+}
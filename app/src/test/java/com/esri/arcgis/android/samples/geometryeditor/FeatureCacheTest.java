@@ -0,0 +1,444 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FeatureCacheTest {
+
+  private static final String LAYER = "http://server/FeatureServer/2";
+
+  /**
+   * Caché cuyo reloj se mueve a mano.
+   */
+  static class ManualClockCache extends FeatureCache {
+    long time = 1000;
+
+    ManualClockCache(File dir, long maxMemoryBytes, long maxDiskBytes, long maxAgeMillis) {
+      super(dir, maxMemoryBytes, maxDiskBytes, maxAgeMillis);
+    }
+
+    @Override
+    protected long now() {
+      return time;
+    }
+  }
+
+  /**
+   * Servidor de entidades de prueba: responde las consultas con la URL pedida y cuenta los pedidos.
+   */
+  static class StandInFeatureServer implements HttpHandler {
+    final AtomicInteger queries = new AtomicInteger();
+
+    final AtomicInteger edits = new AtomicInteger();
+
+    HttpServer server;
+
+    String url;
+
+    void start() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", this);
+      server.start();
+      url = "http://127.0.0.1:" + server.getAddress().getPort() + "/rest/services/Recreation/FeatureServer/2";
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String path = exchange.getRequestURI().getPath();
+      byte[] body;
+      if (path.endsWith("/applyEdits")) {
+        edits.incrementAndGet();
+        readAll(exchange.getRequestBody());
+        body = "{\"addResults\":[{\"success\":true}]}".getBytes("UTF-8");
+      } else if (exchange.getRequestURI().getQuery().contains("where=bad")) {
+        body = "{\"error\":{\"code\":400}}".getBytes("UTF-8");
+      } else if (exchange.getRequestURI().getQuery().contains("where=moved")) {
+        exchange.getResponseHeaders().set("Location", url + "?f=json");
+        exchange.sendResponseHeaders(301, -1);
+        exchange.close();
+        return;
+      } else if (exchange.getRequestURI().getQuery().contains("where=away")) {
+        exchange.getResponseHeaders().set("Location", "https://example.com/elsewhere");
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+        return;
+      } else {
+        queries.incrementAndGet();
+        body = ("{\"features\":[],\"q\":\"" + exchange.getRequestURI().getRawQuery() + "\"}").getBytes("UTF-8");
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    }
+  }
+
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("features", "");
+    assertTrue(dir.delete());
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private static FeatureCache.Key tile(int col, int row) {
+    return new FeatureCache.Key(LAYER, "geometry=" + col + "," + row, col * 100, row * 100, col * 100 + 100,
+        row * 100 + 100);
+  }
+
+  @Test
+  public void tiersEvictLeastRecentlyUsedByBytes() throws IOException {
+    ManualClockCache cache = new ManualClockCache(dir, 3000, 6000, 60000);
+    byte[] body = new byte[900];
+    for (int i = 0; i < 6; i++) {
+      cache.put(tile(i, 0), "application/json", body);
+      cache.time++;
+      // Usar la primera porción la mantiene en ambos niveles
+      assertNotNull(cache.get(tile(0, 0)));
+      cache.time++;
+    }
+    assertTrue(cache.getMemoryBytes() <= 3000);
+    assertTrue(cache.getDiskBytes() <= 6000);
+    assertNotNull(cache.get(tile(0, 0)));
+    assertNotNull(cache.get(tile(5, 0)));
+    assertNull(cache.get(tile(1, 0)));
+  }
+
+  @Test
+  public void diskTierSurvivesRestart() throws IOException {
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    cache.put(tile(1, 2), "application/json", "{\"features\":[1]}".getBytes("UTF-8"));
+
+    FeatureCache reopened = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    assertEquals(0, reopened.getMemoryBytes());
+    FeatureCache.Response response = reopened.get(tile(1, 2));
+    assertNotNull(response);
+    assertEquals("application/json", response.getContentType());
+    assertEquals("{\"features\":[1]}", new String(response.getBody(), "UTF-8"));
+    assertNull(reopened.get(tile(2, 1)));
+  }
+
+  @Test
+  public void invalidationOnlyDropsTouchedTilesOfTheLayer() throws IOException {
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    FeatureCache.Key other = new FeatureCache.Key("http://server/FeatureServer/0", "geometry=0,0", 0, 0, 100, 100);
+    FeatureCache.Key whole = new FeatureCache.Key(LAYER, "where=1%3D1", Double.NaN, Double.NaN, Double.NaN,
+        Double.NaN);
+    for (FeatureCache.Key key : new FeatureCache.Key[] { tile(0, 0), tile(3, 3), other, whole }) {
+      cache.put(key, "application/json", new byte[10]);
+    }
+    // Una entidad guardada dentro de la primera porción
+    cache.invalidate(LAYER, 10, 10, 20, 20);
+    assertNull(cache.get(tile(0, 0)));
+    assertNull(cache.get(whole));
+    assertNotNull(cache.get(tile(3, 3)));
+    assertNotNull(cache.get(other));
+
+    assertNull(new FeatureCache(dir, 1 << 20, 1 << 20, 60000).get(tile(0, 0)));
+  }
+
+  @Test
+  public void oldResponsesAreFetchedAgain() throws IOException {
+    ManualClockCache cache = new ManualClockCache(dir, 1 << 20, 1 << 20, 60000);
+    cache.put(tile(0, 0), "application/json", new byte[10]);
+    cache.time += 59999;
+    assertNotNull(cache.get(tile(0, 0)));
+    cache.time += 1;
+    assertNull(cache.get(tile(0, 0)));
+    assertEquals(0, cache.getDiskBytes());
+  }
+
+  @Test
+  public void queryKeyReadsTheTileEnvelope() {
+    FeatureCache.Key key = FeatureCacheProxy.queryKey(LAYER + "/query?f=json&geometry=%7B%22xmin%22%3A-10.5%2C"
+        + "%22ymin%22%3A2%2C%22xmax%22%3A30%2C%22ymax%22%3A4e1%7D&geometryType=esriGeometryEnvelope");
+    assertEquals(LAYER, key.getLayer());
+    // Alineado a porciones de 64: de -64 a 64 en X y de 0 a 64 en Y
+    assertTrue(key.intersects(-11, 39, -10, 50));
+    assertTrue(key.intersects(31, 0, 40, 10));
+    assertFalse(key.intersects(65, 0, 70, 10));
+    assertTrue(FeatureCacheProxy.queryKey(LAYER + "/query?geometry=0,0,10,10").intersects(11, 5, 12, 6));
+    assertFalse(FeatureCacheProxy.queryKey(LAYER + "/query?geometry=0,0,10,10").intersects(17, 5, 18, 6));
+    assertNull(FeatureCacheProxy.queryKey(LAYER + "?f=json"));
+    assertNull(FeatureCacheProxy.queryKey(LAYER + "/applyEdits"));
+  }
+
+  @Test
+  public void queriesAreAlignedToTheTileGridOfTheirZoom() throws IOException {
+    String json = "{\"xmin\":-10.5,\"ymin\":2,\"xmax\":30,\"ymax\":40,\"spatialReference\":{\"wkid\":102100}}";
+    FeatureCache.Key key = FeatureCacheProxy.queryKey(LAYER + "/query?f=json&geometry="
+        + URLEncoder.encode(json, "UTF-8") + "&geometryType=esriGeometryEnvelope");
+    assertEquals("f=json&geometry=" + URLEncoder.encode("{\"xmin\":-64,\"ymin\":0,\"xmax\":64,\"ymax\":64,"
+        + "\"spatialReference\":{\"wkid\":102100}}", "UTF-8") + "&geometryType=esriGeometryEnvelope",
+        key.getQuery());
+
+    // Dos vistas que se solapan dentro de las mismas porciones piden lo mismo
+    FeatureCache.Key first = FeatureCacheProxy.queryKey(LAYER + "/query?geometry=1000.5,2010,1090,2090&f=json");
+    FeatureCache.Key second = FeatureCacheProxy.queryKey(LAYER + "/query?geometry=1020,2030,1100.25,2100&f=json");
+    assertEquals("geometry=" + URLEncoder.encode("896,1920,1152,2176", "UTF-8") + "&f=json", first.getQuery());
+    assertEquals(first.getQuery(), second.getQuery());
+    // Al alejarse cambia el tamaño de las porciones
+    assertNotEquals(first.getQuery(),
+        FeatureCacheProxy.queryKey(LAYER + "/query?geometry=1000,2000,1300,2300&f=json").getQuery());
+    // Sin superficie no hay nada que alinear
+    assertEquals("geometry=5,5,5,5", FeatureCacheProxy.queryKey(LAYER + "/query?geometry=5,5,5,5").getQuery());
+  }
+
+  @Test
+  public void overlappingPansInTheSameTileHitTheCache() throws IOException {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.start();
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    FeatureCacheProxy proxy = new FeatureCacheProxy(cache, 2);
+    proxy.start();
+    try {
+      String layer = proxy.wrap(server.url);
+      String first = get(layer + "/query?f=json&geometry=" + URLEncoder.encode("{\"xmin\":10,\"ymin\":10,"
+          + "\"xmax\":90,\"ymax\":90}", "UTF-8"));
+      String second = get(layer + "/query?f=json&geometry=" + URLEncoder.encode("{\"xmin\":25.5,\"ymin\":15,"
+          + "\"xmax\":105,\"ymax\":95}", "UTF-8"));
+      assertEquals(1, server.queries.get());
+      assertEquals(first, second);
+      // El servidor recibió el recuadro de la porción, no el de la vista
+      assertTrue(first, first.contains(URLEncoder.encode("{\"xmin\":0,\"ymin\":0,\"xmax\":128,\"ymax\":128}",
+          "UTF-8")));
+    } finally {
+      proxy.stop();
+      server.server.stop(0);
+    }
+  }
+
+  @Test
+  public void proxyPassesHeadersAndRedirectsThrough() throws IOException {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.start();
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    FeatureCacheProxy proxy = new FeatureCacheProxy(cache, 2);
+    proxy.start();
+    try {
+      String layer = proxy.wrap(server.url);
+      HttpURLConnection connection = (HttpURLConnection) new URL(layer + "/query?where=x").openConnection();
+      assertEquals(200, connection.getResponseCode());
+      assertEquals("OK", connection.getResponseMessage());
+      assertEquals("max-age=60", connection.getHeaderField("Cache-Control"));
+      connection.disconnect();
+
+      // Una redirección dentro de la capa sigue pasando por el servidor local; las demás quedan como vienen
+      connection = (HttpURLConnection) new URL(layer + "/query?where=moved").openConnection();
+      connection.setInstanceFollowRedirects(false);
+      assertEquals(301, connection.getResponseCode());
+      assertEquals("Moved Permanently", connection.getResponseMessage());
+      assertEquals(layer + "?f=json", connection.getHeaderField("Location"));
+      connection.disconnect();
+      connection = (HttpURLConnection) new URL(layer + "/query?where=away").openConnection();
+      connection.setInstanceFollowRedirects(false);
+      assertEquals(302, connection.getResponseCode());
+      assertEquals("https://example.com/elsewhere", connection.getHeaderField("Location"));
+      connection.disconnect();
+    } finally {
+      proxy.stop();
+      server.server.stop(0);
+    }
+  }
+
+  @Test
+  public void proxyWrapsHttpsLayers() throws IOException {
+    FeatureCacheProxy proxy = new FeatureCacheProxy(new FeatureCache(dir, 1 << 20, 1 << 20, 60000), 1);
+    proxy.start();
+    try {
+      String url = "https://server/rest/services/Recreation/FeatureServer/2";
+      String layer = proxy.wrap(url);
+      assertTrue(layer.startsWith("http://127.0.0.1:"));
+      assertEquals(url, proxy.unwrap(layer));
+      assertEquals(url + "/query?f=json", proxy.unwrap(layer + "/query?f=json"));
+      assertEquals("ftp://server/layer", proxy.wrap("ftp://server/layer"));
+    } finally {
+      proxy.stop();
+    }
+  }
+
+  @Test
+  public void oversizedRequestBodyIsRejected() throws IOException {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.start();
+    FeatureCacheProxy proxy = new FeatureCacheProxy(new FeatureCache(dir, 1 << 20, 1 << 20, 60000), 1);
+    proxy.start();
+    try {
+      URL layer = new URL(proxy.wrap(server.url) + "/applyEdits");
+      Socket socket = new Socket(layer.getHost(), layer.getPort());
+      try {
+        // Sólo la cabecera: el servidor local no debe reservar ni esperar el cuerpo anunciado
+        socket.getOutputStream().write(("POST " + layer.getFile() + " HTTP/1.1\r\nHost: x\r\n"
+            + "Content-Length: 2000000000\r\n\r\n").getBytes("ISO-8859-1"));
+        String status = new String(readAll(socket.getInputStream()), "ISO-8859-1");
+        assertTrue(status, status.startsWith("HTTP/1.1 413 "));
+      } finally {
+        socket.close();
+      }
+      assertEquals(0, server.edits.get());
+    } finally {
+      proxy.stop();
+      server.server.stop(0);
+    }
+  }
+
+  @Test
+  public void proxyAnswersRepeatedQueriesFromTheCache() throws IOException {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.start();
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    FeatureCacheProxy proxy = new FeatureCacheProxy(cache, 2);
+    proxy.start();
+    try {
+      String layer = proxy.wrap(server.url);
+      assertNotEquals(server.url, layer);
+      assertEquals(server.url, proxy.unwrap(layer));
+
+      String tile = layer + "/query?f=json&geometry=0%2C0%2C100%2C100";
+      String first = get(tile);
+      assertEquals(first, get(tile));
+      assertEquals(1, server.queries.get());
+      get(layer + "/query?f=json&geometry=100%2C0%2C200%2C100");
+      assertEquals(2, server.queries.get());
+
+      // Las ediciones pasan siempre y no se guardan
+      post(layer + "/applyEdits", "f=json&adds=%5B%5D");
+      post(layer + "/applyEdits", "f=json&adds=%5B%5D");
+      assertEquals(2, server.edits.get());
+
+      // Los errores del servicio no se guardan
+      get(layer + "/query?where=bad");
+      get(layer + "/query?where=bad");
+      assertNull(cache.get(FeatureCacheProxy.queryKey(server.url + "/query?where=bad")));
+
+      cache.invalidate(server.url, 50, 50, 60, 60);
+      assertEquals(first, get(tile));
+      assertEquals(3, server.queries.get());
+    } finally {
+      proxy.stop();
+      server.server.stop(0);
+    }
+  }
+
+  @Test
+  public void responseFetchedBeforeAnInvalidationIsDropped() throws IOException {
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    long generation = cache.generation(LAYER);
+    // La consulta sale a la red, se guarda una entidad y la respuesta vuelve después
+    cache.invalidate(LAYER, 10, 10, 20, 20);
+    assertFalse(cache.put(tile(0, 0), "application/json", new byte[10], generation));
+    assertNull(cache.get(tile(0, 0)));
+    assertEquals(0, cache.getDiskBytes());
+
+    assertTrue(cache.put(tile(0, 0), "application/json", new byte[10], cache.generation(LAYER)));
+    assertNotNull(cache.get(tile(0, 0)));
+  }
+
+  @Test
+  public void proxyOnlyRelaysWrappedLayers() throws IOException {
+    StandInFeatureServer server = new StandInFeatureServer();
+    server.start();
+    FeatureCache cache = new FeatureCache(dir, 1 << 20, 1 << 20, 60000);
+    FeatureCacheProxy proxy = new FeatureCacheProxy(cache, 2);
+    proxy.start();
+    try {
+      String layer = proxy.wrap(server.url);
+      String prefix = layer.substring(0, layer.length() - server.url.length() + "http://".length());
+      String local = prefix.substring(0, prefix.indexOf('/', "http://".length()) + 1);
+
+      // Sin la clave de la sesión
+      assertEquals(403, status(local + server.url.substring("http://".length()) + "/query?geometry=0,0,1,1"));
+      // Con la clave pero hacia otra capa u otro servidor
+      assertEquals(403, status(prefix + server.url.substring("http://".length(), server.url.length() - 1)
+          + "3/query?geometry=0,0,1,1"));
+      assertEquals(403, status(prefix + "example.com/query?geometry=0,0,1,1"));
+      assertEquals(403, status(layer + "/../3/query?geometry=0,0,1,1"));
+      assertEquals(0, server.queries.get());
+
+      assertEquals(200, status(layer + "/query?geometry=0,0,1,1"));
+      assertEquals(200, status(layer + "?f=json"));
+      assertEquals(2, server.queries.get());
+    } finally {
+      proxy.stop();
+      server.server.stop(0);
+    }
+  }
+
+  private static int status(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      return connection.getResponseCode();
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static String get(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      assertEquals(200, connection.getResponseCode());
+      assertEquals("application/json", connection.getContentType());
+      return new String(readAll(connection.getInputStream()), "UTF-8");
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static void post(String url, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      OutputStream out = connection.getOutputStream();
+      out.write(body.getBytes("UTF-8"));
+      out.close();
+      assertEquals(200, connection.getResponseCode());
+      readAll(connection.getInputStream());
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+}
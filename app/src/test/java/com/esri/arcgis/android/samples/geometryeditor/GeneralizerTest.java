@@ -0,0 +1,161 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GeneralizerTest {
+
+  private static double[] noisyLine(int n, long seed) {
+    Random random = new Random(seed);
+    double[] coords = new double[n * 2];
+    double x = 0;
+    double y = 0;
+    double heading = 0;
+    for (int i = 0; i < n; i++) {
+      coords[2 * i] = x;
+      coords[2 * i + 1] = y;
+      heading += (random.nextDouble() - 0.5) * 0.4;
+      x += Math.cos(heading);
+      y += Math.sin(heading);
+    }
+    return coords;
+  }
+
+  @Test
+  public void douglasPeuckerStaysWithinTolerance() {
+    double[] line = noisyLine(2000, 1);
+    double[] result = Generalizer.simplify(line, false, Generalizer.Method.DOUGLAS_PEUCKER, 1.5);
+    assertTrue(result.length < line.length / 4);
+    assertEquals(line[0], result[0], 0);
+    assertEquals(line[line.length - 1], result[result.length - 1], 0);
+    for (int i = 0; i < line.length / 2; i++) {
+      assertTrue(distanceToLine(line[2 * i], line[2 * i + 1], result) <= 1.5 + 1e-9);
+    }
+  }
+
+  @Test
+  public void visvalingamRemovesSmallTriangles() {
+    // Una recta con un vértice casi colineal y un pico grande
+    double[] line = { 0, 0, 10, 0.01, 20, 0, 30, 50, 40, 0 };
+    double[] result = Generalizer.simplify(line, false, Generalizer.Method.VISVALINGAM_WHYATT, 1);
+    assertArrayEquals(new double[] { 0, 0, 20, 0, 30, 50, 40, 0 }, result, 0);
+  }
+
+  @Test
+  public void visvalingamKeepsResultOrderedAndShrinks() {
+    double[] line = noisyLine(5000, 2);
+    double[] result = Generalizer.simplify(line, false, Generalizer.Method.VISVALINGAM_WHYATT, 1);
+    assertTrue(result.length < line.length / 3);
+    int j = 0;
+    // Los vértices que quedan son un subconjunto ordenado del original
+    for (int i = 0; i < line.length && j < result.length; i += 2) {
+      if (line[i] == result[j] && line[i + 1] == result[j + 1]) {
+        j += 2;
+      }
+    }
+    assertEquals(result.length, j);
+  }
+
+  @Test
+  public void ringKeepsAtLeastThreeVertices() {
+    double[] ring = { 0, 0, 1, 0.001, 2, 0, 1, -0.001 };
+    for (Generalizer.Method method : Generalizer.Method.values()) {
+      double[] result = Generalizer.simplify(ring, true, method, 10);
+      assertTrue(result.length >= 6);
+    }
+  }
+
+  @Test
+  public void noChangeReturnsSameArray() {
+    double[] line = { 0, 0, 10, 10, 20, 0 };
+    assertSame(line, Generalizer.simplify(line, false, Generalizer.Method.DOUGLAS_PEUCKER, 1));
+    assertSame(line, Generalizer.simplify(line, false, Generalizer.Method.NONE, 100));
+  }
+
+  @Test
+  public void largeInputKeepsEndpointsAndShrinks() {
+    double[] line = noisyLine(200000, 3);
+    for (Generalizer.Method method : new Generalizer.Method[] { Generalizer.Method.DOUGLAS_PEUCKER,
+        Generalizer.Method.VISVALINGAM_WHYATT }) {
+      double[] result = Generalizer.simplify(line, false, method, 1);
+      assertTrue(result.length < line.length / 3);
+      assertEquals(line[0], result[0], 0);
+      assertEquals(line[1], result[1], 0);
+      assertEquals(line[line.length - 2], result[result.length - 2], 0);
+      assertEquals(line[line.length - 1], result[result.length - 1], 0);
+    }
+  }
+
+  /**
+   * Cuadrado de 100 x 100 con {@code perSide} vértices por lado, apenas movidos de la recta, recorrido en sentido
+   * antihorario.
+   */
+  private static double[] noisySquare(int perSide) {
+    double[] corners = { 0, 0, 100, 0, 100, 100, 0, 100 };
+    double[] ring = new double[4 * perSide * 2];
+    int j = 0;
+    for (int side = 0; side < 4; side++) {
+      double ax = corners[2 * side];
+      double ay = corners[2 * side + 1];
+      double bx = corners[(2 * side + 2) % 8];
+      double by = corners[(2 * side + 3) % 8];
+      for (int i = 0; i < perSide; i++) {
+        double t = (double) i / perSide;
+        double noise = i == 0 ? 0 : (i % 2 == 0 ? 0.1 : -0.1);
+        ring[j++] = ax + (bx - ax) * t + noise;
+        ring[j++] = ay + (by - ay) * t + noise;
+      }
+    }
+    return ring;
+  }
+
+  private static double[] reverse(double[] coords) {
+    double[] reversed = new double[coords.length];
+    for (int i = 0; i < coords.length; i += 2) {
+      reversed[coords.length - 2 - i] = coords[i];
+      reversed[coords.length - 1 - i] = coords[i + 1];
+    }
+    return reversed;
+  }
+
+  @Test
+  public void ringIsGeneralizedInEitherOrientation() {
+    double[] counterClockwise = noisySquare(40);
+    double[] clockwise = reverse(counterClockwise);
+    for (double[] ring : new double[][] { counterClockwise, clockwise }) {
+      double[] result = Generalizer.simplifyWithoutCrossings(ring, true, Generalizer.Method.DOUGLAS_PEUCKER, 1, 3);
+      // Se acepta el primer intento, sin reducir la tolerancia
+      assertArrayEquals(Generalizer.simplify(ring, true, Generalizer.Method.DOUGLAS_PEUCKER, 1), result, 0);
+      assertTrue(result.length <= 12);
+    }
+  }
+
+  @Test
+  public void crossingResultIsRetriedWithHalfTolerance() {
+    double[] line = { 9, 12, 10, 3, 18, 13, 19, 18, 5, 13, 0, 6 };
+    // Con tolerancia 4 se pierde el vértice (18, 13) y el primer segmento corta al último
+    double[] crossing = Generalizer.simplify(line, false, Generalizer.Method.DOUGLAS_PEUCKER, 4);
+    assertArrayEquals(new double[] { 9, 12, 10, 3, 19, 18, 0, 6 }, crossing, 0);
+
+    double[] result = Generalizer.simplifyWithoutCrossings(line, false, Generalizer.Method.DOUGLAS_PEUCKER, 4, 3);
+    assertArrayEquals(new double[] { 9, 12, 10, 3, 19, 18, 5, 13, 0, 6 }, result, 0);
+    assertSame(line, Generalizer.simplifyWithoutCrossings(line, false, Generalizer.Method.DOUGLAS_PEUCKER, 4, 1));
+  }
+
+  private static double distanceToLine(double x, double y, double[] line) {
+    double best = Double.MAX_VALUE;
+    for (int i = 2; i < line.length; i += 2) {
+      double ax = line[i - 2];
+      double ay = line[i - 1];
+      double dx = line[i] - ax;
+      double dy = line[i + 1] - ay;
+      double length2 = dx * dx + dy * dy;
+      double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length2));
+      best = Math.min(best, Math.hypot(x - ax - t * dx, y - ay - t * dy));
+    }
+    return best;
+  }
+}
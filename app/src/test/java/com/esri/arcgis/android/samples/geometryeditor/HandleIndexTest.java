@@ -0,0 +1,185 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HandleIndexTest {
+
+  /**
+   * Lista de coordenadas de prueba.
+   */
+  static class PointList implements HandleIndex.Coordinates {
+    ArrayList<double[]> points = new ArrayList<double[]>();
+
+    @Override
+    public int size() {
+      return points.size();
+    }
+
+    @Override
+    public double getX(int index) {
+      return points.get(index)[0];
+    }
+
+    @Override
+    public double getY(int index) {
+      return points.get(index)[1];
+    }
+  }
+
+  private static int bruteForce(PointList list, double x, double y, double radius) {
+    int best = -1;
+    double bestDistSQ = radius * radius;
+    for (int i = 0; i < list.size(); i++) {
+      double dx = list.getX(i) - x;
+      double dy = list.getY(i) - y;
+      double d = dx * dx + dy * dy;
+      if (d < bestDistSQ) {
+        bestDistSQ = d;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  @Test
+  public void nearestMatchesLinearScanAfterEdits() {
+    Random random = new Random(42);
+    PointList list = new PointList();
+    HandleIndex index = new HandleIndex();
+    index.fitCellSize(10);
+
+    for (int step = 0; step < 5000; step++) {
+      int op = random.nextInt(3);
+      if (op == 0 || list.size() < 2) {
+        int at = random.nextInt(list.size() + 1);
+        double[] p = { random.nextDouble() * 1000, random.nextDouble() * 1000 };
+        list.points.add(at, p);
+        index.insert(at, p[0], p[1]);
+      } else if (op == 1) {
+        int at = random.nextInt(list.size());
+        double[] p = { random.nextDouble() * 1000, random.nextDouble() * 1000 };
+        list.points.set(at, p);
+        index.move(at, p[0], p[1]);
+      } else {
+        int at = random.nextInt(list.size());
+        list.points.remove(at);
+        index.remove(at);
+      }
+      if (step % 50 == 0) {
+        index.fitCellSize(1 + random.nextDouble() * 100);
+      }
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      assertEquals(bruteForce(list, x, y, 40), index.nearest(x, y, 40));
+    }
+  }
+
+  @Test
+  public void syncOnlyAppliesTheDifference() {
+    PointList list = new PointList();
+    HandleIndex index = new HandleIndex();
+    for (int i = 0; i < 10; i++) {
+      list.points.add(new double[] { i * 10, 0 });
+    }
+    index.sync(list);
+    assertEquals(10, index.size());
+
+    list.points.add(5, new double[] { 45, 5 });
+    list.points.remove(8);
+    list.points.set(0, new double[] { -10, 0 });
+    index.sync(list);
+    assertEquals(list.size(), index.size());
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(i, index.nearest(list.getX(i), list.getY(i), 1));
+    }
+  }
+
+  @Test
+  public void largeSketchMatchesLinearScan() {
+    Random random = new Random(7);
+    PointList list = new PointList();
+    HandleIndex index = new HandleIndex();
+    index.fitCellSize(40);
+    for (int i = 0; i < 50000; i++) {
+      double[] p = { random.nextDouble() * 100000, random.nextDouble() * 100000 };
+      list.points.add(p);
+      index.insert(i, p[0], p[1]);
+    }
+    for (int i = 0; i < 200; i++) {
+      // La mitad de los toques cae junto a un vértice
+      double x = random.nextDouble() * 100000;
+      double y = random.nextDouble() * 100000;
+      if (i % 2 == 0) {
+        int near = random.nextInt(list.size());
+        x = list.getX(near) + random.nextDouble() * 40 - 20;
+        y = list.getY(near) + random.nextDouble() * 40 - 20;
+      }
+      assertEquals(bruteForce(list, x, y, 40), index.nearest(x, y, 40));
+    }
+  }
+
+  @Test
+  public void positionsStayRightAcrossChunks() {
+    Random random = new Random(13);
+    PointList list = new PointList();
+    HandleIndex index = new HandleIndex();
+    index.fitCellSize(1);
+    // Ediciones agrupadas en pocos lugares, para partir, unir y vaciar trozos de la lista de ranuras
+    for (int step = 0; step < 8000; step++) {
+      int hot = (step / 1000) * 97 % (list.size() + 1);
+      int at = Math.min(list.size(), hot + random.nextInt(5));
+      if (step % 1000 >= 700 && list.size() > 0) {
+        at = Math.min(at, list.size() - 1);
+        list.points.remove(at);
+        index.remove(at);
+      } else {
+        double[] p = { random.nextDouble() * 10000, random.nextDouble() * 10000 };
+        list.points.add(at, p);
+        index.insert(at, p[0], p[1]);
+      }
+    }
+    assertEquals(list.size(), index.size());
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(list.getX(i), index.getX(i), 0);
+      assertEquals(i, index.nearest(list.getX(i), list.getY(i), 0.001));
+    }
+  }
+
+  @Test
+  public void longDragAllocatesNothing() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+    HandleIndex index = new HandleIndex();
+    index.fitCellSize(10);
+    for (int i = 0; i < 100; i++) {
+      index.insert(i, i * 10, 0);
+    }
+    long id = Thread.currentThread().getId();
+    drag(index, 50, 1000);
+
+    long before = threads.getThreadAllocatedBytes(id);
+    // Cada movimiento cae en una celda nueva
+    drag(index, 50, 100000);
+    long after = threads.getThreadAllocatedBytes(id);
+
+    assertTrue("allocated " + (after - before), after - before < 16 * 1024);
+    assertEquals(50, index.nearest(index.getX(50), index.getY(50), 1));
+    assertEquals(49, index.nearest(490, 0, 1));
+  }
+
+  private static void drag(HandleIndex index, int point, int steps) {
+    for (int i = 0; i < steps; i++) {
+      index.move(point, 500 + (i % 1000) * 15, 20 + (i / 1000) * 15);
+    }
+  }
+}
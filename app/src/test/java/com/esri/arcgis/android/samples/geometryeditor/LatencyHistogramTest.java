@@ -0,0 +1,66 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketsCoverEveryValueOnce() {
+    long previousHigh = -1;
+    for (int bucket = 0; bucket < LatencyHistogram.bucketOf(1L << 40); bucket++) {
+      long low = LatencyHistogram.lowestEquivalentValue(bucket);
+      long high = LatencyHistogram.highestEquivalentValue(bucket);
+      assertEquals(previousHigh + 1, low);
+      assertEquals(bucket, LatencyHistogram.bucketOf(low));
+      assertEquals(bucket, LatencyHistogram.bucketOf(high));
+      previousHigh = high;
+    }
+  }
+
+  @Test
+  public void percentilesWithinBucketPrecision() {
+    Random random = new Random(3);
+    long[] values = new long[100000];
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < values.length; i++) {
+      // Distribucion de cola larga, como las latencias reales
+      values[i] = (long) (1000 * Math.exp(random.nextGaussian() * 2));
+      histogram.record(values[i]);
+    }
+    Arrays.sort(values);
+
+    for (double p : new double[] { 50, 90, 99, 99.9 }) {
+      long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+      long reported = histogram.getValueAtPercentile(p);
+      assertTrue(p + ": " + reported + " < " + exact, reported >= exact);
+      assertTrue(p + ": " + reported + " >> " + exact, reported <= exact + exact / LatencyHistogram.SUB_BUCKETS + 1);
+    }
+    assertEquals(values.length, histogram.getCount());
+    assertEquals(values[0], histogram.getMin());
+    assertEquals(values[values.length - 1], histogram.getMax());
+    assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void copyAndReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    histogram.record(20);
+    histogram.record(-5);
+    LatencyHistogram copy = new LatencyHistogram();
+    histogram.copyInto(copy);
+    histogram.reset();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    assertEquals(3, copy.getCount());
+    assertEquals(0, copy.getMin());
+    assertEquals(20, copy.getMax());
+    assertEquals(10, copy.getMean(), 0);
+  }
+}
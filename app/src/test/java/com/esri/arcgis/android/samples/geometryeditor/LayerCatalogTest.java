@@ -0,0 +1,195 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class LayerCatalogTest {
+
+  /**
+   * Capa de prueba: sus plantillas se describen con una cadena que hace de firma.
+   */
+  static class Layer {
+    final String name;
+
+    String templates;
+
+    boolean fail;
+
+    Layer(String name, String templates) {
+      this.name = name;
+      this.templates = templates;
+    }
+  }
+
+  /**
+   * Hilos de trabajo simulados: las construcciones esperan hasta que la prueba las ejecuta, en el orden que elija.
+   */
+  static class ManualExecutor implements Executor {
+    final List<Runnable> queued = new ArrayList<Runnable>();
+
+    @Override
+    public void execute(Runnable command) {
+      queued.add(command);
+    }
+
+    void run(int index) {
+      queued.remove(index).run();
+    }
+
+    void runAll() {
+      while (!queued.isEmpty()) {
+        run(0);
+      }
+    }
+  }
+
+  ManualExecutor executor;
+
+  LayerCatalog<Layer, String> catalog;
+
+  List<List<String>> published;
+
+  int builds;
+
+  @Before
+  public void setUp() {
+    executor = new ManualExecutor();
+    catalog = new LayerCatalog<Layer, String>(new LayerCatalog.Builder<Layer, String>() {
+
+      @Override
+      public String signature(Layer layer) {
+        return layer.templates;
+      }
+
+      @Override
+      public List<String> build(Layer layer) {
+        builds++;
+        if (layer.fail) {
+          throw new IllegalStateException();
+        }
+        List<String> items = new ArrayList<String>();
+        for (String template : layer.templates.split(",")) {
+          items.add(layer.name + "/" + template);
+        }
+        return items;
+      }
+
+    }, executor);
+    published = new ArrayList<List<String>>();
+    catalog.setListener(new LayerCatalog.Listener<String>() {
+
+      @Override
+      public void onPublished(List<String> items) {
+        published.add(items);
+      }
+
+    });
+  }
+
+  @Test
+  public void publishesOnceAllPendingLayersAreBuilt() {
+    Layer a = new Layer("a", "1,2");
+    Layer b = new Layer("b", "3");
+    Layer c = new Layer("c", "4");
+    catalog.addLayer(a);
+    catalog.addLayer(b);
+    catalog.addLayer(c);
+    catalog.layerChanged(a);
+    catalog.layerChanged(b);
+    catalog.layerChanged(c);
+    assertTrue(catalog.isBuilding());
+
+    // Las capas terminan en otro orden; mientras falte una no se publica nada
+    executor.run(2);
+    executor.run(0);
+    assertTrue(published.isEmpty());
+    assertTrue(catalog.getItems().isEmpty());
+    executor.run(0);
+    assertFalse(catalog.isBuilding());
+    assertEquals(1, published.size());
+    // En el orden en que se registraron las capas
+    assertEquals(Arrays.asList("a/1", "a/2", "b/3", "c/4"), catalog.getItems());
+  }
+
+  @Test
+  public void rebuildsOnlyWhenTheSignatureChanges() {
+    Layer a = new Layer("a", "1");
+    Layer b = new Layer("b", "2");
+    catalog.addLayer(a);
+    catalog.addLayer(b);
+    catalog.layerChanged(a);
+    catalog.layerChanged(b);
+    executor.runAll();
+    assertEquals(2, builds);
+
+    catalog.layerChanged(a);
+    catalog.layerChanged(b);
+    assertTrue(executor.queued.isEmpty());
+    assertFalse(catalog.isBuilding());
+
+    b.templates = "2,5";
+    catalog.layerChanged(a);
+    catalog.layerChanged(b);
+    assertEquals(1, executor.queued.size());
+    executor.runAll();
+    assertEquals(3, builds);
+    assertEquals(2, published.size());
+    assertEquals(Arrays.asList("a/1", "b/2", "b/5"), catalog.getItems());
+  }
+
+  @Test
+  public void staleBuildIsDiscarded() {
+    Layer a = new Layer("a", "1");
+    catalog.addLayer(a);
+    catalog.layerChanged(a);
+    a.templates = "7";
+    catalog.layerChanged(a);
+    assertEquals(2, executor.queued.size());
+
+    // La primera construcción ya ve la capa nueva, pero su firma es vieja: no se publica
+    executor.run(0);
+    assertTrue(published.isEmpty());
+    executor.run(0);
+    assertEquals(Collections.singletonList(Arrays.asList("a/7")), published);
+  }
+
+  @Test
+  public void failedBuildIsRetried() {
+    Layer a = new Layer("a", "1");
+    Layer b = new Layer("b", "2");
+    catalog.addLayer(a);
+    catalog.addLayer(b);
+    a.fail = true;
+    catalog.layerChanged(a);
+    catalog.layerChanged(b);
+    try {
+      executor.run(0);
+      fail();
+    } catch (IllegalStateException expected) {
+      // El error sale en el hilo de trabajo
+    }
+    executor.run(0);
+    assertFalse(catalog.isBuilding());
+    assertEquals(Arrays.asList("b/2"), catalog.getItems());
+
+    a.fail = false;
+    catalog.layerChanged(a);
+    executor.runAll();
+    assertEquals(Arrays.asList("a/1", "b/2"), catalog.getItems());
+  }
+
+  @Test
+  public void unknownLayerIsIgnored() {
+    catalog.layerChanged(new Layer("x", "1"));
+    assertTrue(executor.queued.isEmpty());
+    assertFalse(catalog.isBuilding());
+  }
+}
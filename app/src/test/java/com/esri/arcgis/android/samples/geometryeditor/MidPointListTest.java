@@ -0,0 +1,109 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MidPointListTest {
+
+  /**
+   * Copia de la lista construida sólo con los eventos, como la que mantienen el índice y los gráficos.
+   */
+  static class Mirror implements MidPointList.Listener {
+    VertexBuffer points = new VertexBuffer();
+
+    int events;
+
+    @Override
+    public void onMidPointInserted(int index, double x, double y) {
+      points.insert(index, x, y);
+      events++;
+    }
+
+    @Override
+    public void onMidPointMoved(int index, double x, double y) {
+      points.set(index, x, y);
+      events++;
+    }
+
+    @Override
+    public void onMidPointRemoved(int index) {
+      points.remove(index);
+      events++;
+    }
+  }
+
+  @Test
+  public void matchesFullRecomputation() {
+    for (boolean closed : new boolean[] { false, true }) {
+      Random random = new Random(closed ? 1 : 2);
+      VertexBuffer points = new VertexBuffer();
+      MidPointList midPoints = new MidPointList(points);
+      midPoints.setClosed(closed);
+      Mirror mirror = new Mirror();
+      midPoints.setListener(mirror);
+
+      for (int step = 0; step < 5000; step++) {
+        int op = random.nextInt(3);
+        int before = mirror.events;
+        if (op == 0 || points.size() < 2) {
+          int at = random.nextInt(points.size() + 1);
+          points.insert(at, random.nextInt(1000), random.nextInt(1000));
+          midPoints.vertexInserted(at);
+        } else if (op == 1) {
+          int at = random.nextInt(points.size());
+          points.set(at, random.nextInt(1000), random.nextInt(1000));
+          midPoints.vertexMoved(at);
+        } else {
+          int at = random.nextInt(points.size());
+          points.remove(at);
+          midPoints.vertexRemoved(at);
+        }
+        // Cada edición toca a lo sumo tres puntos medios, más el de cierre al pasar de dos a tres vértices
+        assertTrue(mirror.events - before <= 4);
+        assertSame(closed, points, midPoints, mirror.points);
+      }
+    }
+  }
+
+  @Test
+  public void closingSegmentAppearsWithThirdVertex() {
+    VertexBuffer points = new VertexBuffer();
+    MidPointList midPoints = new MidPointList(points);
+    midPoints.setClosed(true);
+    points.add(0, 0);
+    midPoints.vertexInserted(0);
+    points.add(10, 0);
+    midPoints.vertexInserted(1);
+    assertEquals(1, midPoints.size());
+    points.add(10, 10);
+    midPoints.vertexInserted(2);
+    assertEquals(3, midPoints.size());
+    assertEquals(5, midPoints.getX(2), 0);
+    assertEquals(5, midPoints.getY(2), 0);
+  }
+
+  private static void assertSame(boolean closed, VertexBuffer points, MidPointList midPoints, VertexBuffer mirror) {
+    VertexBuffer expected = new VertexBuffer();
+    int n = points.size();
+    for (int i = 1; i < n; i++) {
+      expected.add((points.getX(i - 1) + points.getX(i)) / 2, (points.getY(i - 1) + points.getY(i)) / 2);
+    }
+    if (closed && n > 2) {
+      expected.add((points.getX(0) + points.getX(n - 1)) / 2, (points.getY(0) + points.getY(n - 1)) / 2);
+    }
+    assertArrayEquals(expected.toInterleavedArray(), toArray(midPoints), 0);
+    assertArrayEquals(expected.toInterleavedArray(), mirror.toInterleavedArray(), 0);
+  }
+
+  private static double[] toArray(MidPointList midPoints) {
+    double[] coords = new double[midPoints.size() * 2];
+    for (int i = 0; i < midPoints.size(); i++) {
+      coords[2 * i] = midPoints.getX(i);
+      coords[2 * i + 1] = midPoints.getY(i);
+    }
+    return coords;
+  }
+}
@@ -0,0 +1,169 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OutlinePyramidTest {
+
+  private static void walk(VertexBuffer points, int n, long seed) {
+    Random random = new Random(seed);
+    double x = 0;
+    double y = 0;
+    double heading = 0;
+    for (int i = 0; i < n; i++) {
+      points.add(x, y);
+      heading += (random.nextDouble() - 0.5) * 0.4;
+      x += Math.cos(heading);
+      y += Math.sin(heading);
+    }
+  }
+
+  @Test
+  public void levelsStayWithinTheirTolerance() {
+    VertexBuffer points = new VertexBuffer();
+    walk(points, 20000, 1);
+    OutlinePyramid pyramid = new OutlinePyramid(points, 0.5, 6);
+    VertexBuffer out = new VertexBuffer();
+    int previous = points.size() + 1;
+    for (int level = 0; level < pyramid.getLevelCount(); level++) {
+      pyramid.build(level, out);
+      assertTrue(out.size() < previous);
+      previous = out.size();
+      assertWithin(points, out, pyramid.getTolerance(level));
+    }
+    // El nivel más alto tiene un orden de magnitud menos vértices
+    assertTrue(previous < points.size() / 10);
+  }
+
+  @Test
+  public void incrementalEditsMatchTheSource() {
+    Random random = new Random(2);
+    VertexBuffer points = new VertexBuffer();
+    walk(points, 3000, 3);
+    OutlinePyramid pyramid = new OutlinePyramid(points, 0.5, 4);
+    VertexBuffer out = new VertexBuffer();
+    for (int step = 0; step < 3000; step++) {
+      int op = random.nextInt(3);
+      if (op == 0 || points.size() < 2) {
+        int at = random.nextInt(points.size() + 1);
+        points.insert(at, random.nextDouble() * 100, random.nextDouble() * 100);
+        pyramid.vertexInserted(at);
+      } else if (op == 1) {
+        int at = random.nextInt(points.size());
+        points.set(at, random.nextDouble() * 100, random.nextDouble() * 100);
+        pyramid.vertexMoved(at);
+      } else {
+        int at = random.nextInt(points.size());
+        points.remove(at);
+        pyramid.vertexRemoved(at);
+      }
+      if (step % 100 == 0) {
+        int level = random.nextInt(pyramid.getLevelCount());
+        pyramid.build(level, out);
+        assertWithin(points, out, pyramid.getTolerance(level));
+        pyramid.build(-1, out);
+        assertArrayEquals(points.toInterleavedArray(), out.toInterleavedArray(), 0);
+      }
+    }
+  }
+
+  @Test
+  public void blocksSplitAndEmptyUnderLocalEdits() {
+    VertexBuffer points = new VertexBuffer();
+    walk(points, 2 * OutlinePyramid.BLOCK_SIZE, 4);
+    OutlinePyramid pyramid = new OutlinePyramid(points, 0.5, 3);
+    VertexBuffer out = new VertexBuffer();
+    // Un bloque crece hasta partirse varias veces y después se vacía
+    for (int i = 0; i < 5 * OutlinePyramid.BLOCK_SIZE; i++) {
+      int at = OutlinePyramid.BLOCK_SIZE + 1 + i;
+      points.insert(at, i * 0.01, 200 + (i % 7));
+      pyramid.vertexInserted(at);
+    }
+    pyramid.build(1, out);
+    assertWithin(points, out, pyramid.getTolerance(1));
+    while (points.size() > OutlinePyramid.BLOCK_SIZE) {
+      int at = OutlinePyramid.BLOCK_SIZE / 2;
+      points.remove(at);
+      pyramid.vertexRemoved(at);
+    }
+    for (int level = -1; level < pyramid.getLevelCount(); level++) {
+      pyramid.build(level, out);
+      if (level < 0) {
+        assertArrayEquals(points.toInterleavedArray(), out.toInterleavedArray(), 0);
+      } else {
+        assertWithin(points, out, pyramid.getTolerance(level));
+      }
+    }
+  }
+
+  @Test
+  public void emptiedAndRefilled() {
+    VertexBuffer points = new VertexBuffer();
+    OutlinePyramid pyramid = new OutlinePyramid(points, 1, 3);
+    points.add(0, 0);
+    pyramid.vertexInserted(0);
+    points.add(10, 0);
+    pyramid.vertexInserted(1);
+    points.remove(0);
+    pyramid.vertexRemoved(0);
+    points.remove(0);
+    pyramid.vertexRemoved(0);
+    VertexBuffer out = new VertexBuffer();
+    pyramid.build(2, out);
+    assertEquals(0, out.size());
+    points.add(5, 5);
+    pyramid.vertexInserted(0);
+    pyramid.build(2, out);
+    assertEquals(1, out.size());
+  }
+
+  @Test
+  public void levelForPicksTheCoarsestFittingLevel() {
+    OutlinePyramid pyramid = new OutlinePyramid(new VertexBuffer(), 1, 4);
+    assertEquals(-1, pyramid.levelFor(0.5));
+    assertEquals(0, pyramid.levelFor(1));
+    assertEquals(1, pyramid.levelFor(10));
+    assertEquals(3, pyramid.levelFor(1000));
+  }
+
+  /**
+   * El nivel empieza y termina en los extremos del original, y cada vértice original queda a menos de la
+   * tolerancia del nivel.
+   */
+  private static void assertWithin(VertexBuffer points, VertexBuffer level, double tolerance) {
+    if (points.size() == 0) {
+      assertEquals(0, level.size());
+      return;
+    }
+    assertEquals(points.getX(0), level.getX(0), 0);
+    assertEquals(points.getX(points.size() - 1), level.getX(level.size() - 1), 0);
+    // Los vértices del nivel son un subconjunto ordenado: cada vértice original se mide contra el tramo que lo cubre
+    int kept = 0;
+    for (int i = 1; i < points.size(); i++) {
+      double x = points.getX(i);
+      double y = points.getY(i);
+      if (kept + 1 < level.size() && x == level.getX(kept + 1) && y == level.getY(kept + 1)) {
+        kept++;
+      } else {
+        assertTrue("vertice " + i, distance(x, y, level, kept) <= tolerance + 1e-9);
+      }
+    }
+    assertEquals(level.size() - 1, kept);
+  }
+
+  private static double distance(double x, double y, VertexBuffer line, int segment) {
+    if (line.size() == 1) {
+      return Math.hypot(x - line.getX(0), y - line.getY(0));
+    }
+    double ax = line.getX(segment);
+    double ay = line.getY(segment);
+    double dx = line.getX(segment + 1) - ax;
+    double dy = line.getY(segment + 1) - ay;
+    double length2 = dx * dx + dy * dy;
+    double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length2));
+    return Math.hypot(x - ax - t * dx, y - ay - t * dy);
+  }
+}
@@ -0,0 +1,68 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PrefixSumsTest {
+
+  @Test
+  public void prefixAndFindMatchALinearScan() {
+    Random random = new Random(5);
+    for (int count = 0; count < 40; count++) {
+      int[] values = new int[count];
+      for (int i = 0; i < count; i++) {
+        // Algunos en cero, que find tiene que saltar
+        values[i] = random.nextInt(4) == 0 ? 0 : random.nextInt(10);
+      }
+      PrefixSums sums = new PrefixSums();
+      sums.build(values, count);
+      for (int step = 0; step < 50; step++) {
+        if (count > 0) {
+          int i = random.nextInt(count);
+          int delta = random.nextInt(6) - values[i] / 2;
+          values[i] += delta;
+          sums.add(i, delta);
+        }
+        int total = 0;
+        for (int i = 0; i <= count; i++) {
+          assertEquals(total, sums.prefix(i));
+          if (i < count) {
+            total += values[i];
+          }
+        }
+        for (int position = 0; position <= total; position++) {
+          assertEquals(linearFind(values, position), sums.find(position));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rebuildWithFewerValues() {
+    PrefixSums sums = new PrefixSums();
+    sums.build(new int[] { 3, 3, 3, 3, 3 }, 5);
+    sums.build(new int[] { 2, 4 }, 2);
+    assertEquals(2, sums.size());
+    assertEquals(6, sums.prefix(2));
+    assertEquals(1, sums.find(5));
+    assertEquals(2, sums.find(6));
+    sums.clear();
+    assertEquals(0, sums.size());
+    assertEquals(0, sums.find(0));
+  }
+
+  private static int linearFind(int[] values, int position) {
+    int sum = 0;
+    int found = 0;
+    for (int i = 0; i < values.length; i++) {
+      sum += values[i];
+      if (sum <= position) {
+        found = i + 1;
+      }
+    }
+    return found;
+  }
+}
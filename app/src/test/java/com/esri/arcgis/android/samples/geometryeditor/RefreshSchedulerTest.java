@@ -0,0 +1,111 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RefreshSchedulerTest {
+
+  static class ManualClock implements RefreshScheduler.FrameClock {
+    List<Runnable> callbacks = new ArrayList<Runnable>();
+
+    @Override
+    public void postFrameCallback(Runnable task) {
+      callbacks.add(task);
+    }
+
+    @Override
+    public void removeFrameCallback(Runnable task) {
+      callbacks.remove(task);
+    }
+
+    void vsync() {
+      List<Runnable> due = new ArrayList<Runnable>(callbacks);
+      callbacks.clear();
+      for (Runnable task : due) {
+        task.run();
+      }
+    }
+  }
+
+  static class Counter implements Runnable {
+    int runs;
+
+    @Override
+    public void run() {
+      runs++;
+    }
+  }
+
+  @Test
+  public void burstRendersOncePerFrame() {
+    ManualClock clock = new ManualClock();
+    Counter render = new Counter();
+    RefreshScheduler scheduler = new RefreshScheduler(render, clock);
+    for (int frame = 0; frame < 10; frame++) {
+      for (int i = 0; i < 25; i++) {
+        scheduler.requestRefresh();
+      }
+      assertEquals(1, clock.callbacks.size());
+      clock.vsync();
+      assertEquals(frame + 1, render.runs);
+    }
+    assertEquals(250, scheduler.getRequestCount());
+    assertEquals(10, scheduler.getFrameCount());
+  }
+
+  @Test
+  public void idleFramesDoNothing() {
+    ManualClock clock = new ManualClock();
+    Counter render = new Counter();
+    RefreshScheduler scheduler = new RefreshScheduler(render, clock);
+    scheduler.requestRefresh();
+    clock.vsync();
+    clock.vsync();
+    assertEquals(1, render.runs);
+    assertTrue(clock.callbacks.isEmpty());
+  }
+
+  @Test
+  public void requestDuringRenderWaitsForNextFrame() {
+    final ManualClock clock = new ManualClock();
+    final int[] runs = new int[1];
+    final RefreshScheduler[] scheduler = new RefreshScheduler[1];
+    scheduler[0] = new RefreshScheduler(new Runnable() {
+      @Override
+      public void run() {
+        if (runs[0]++ == 0) {
+          scheduler[0].requestRefresh();
+        }
+      }
+    }, clock);
+    scheduler[0].requestRefresh();
+    clock.vsync();
+    assertEquals(1, runs[0]);
+    assertTrue(scheduler[0].isPending());
+    clock.vsync();
+    assertEquals(2, runs[0]);
+  }
+
+  @Test
+  public void cancelAndFlush() {
+    ManualClock clock = new ManualClock();
+    Counter render = new Counter();
+    RefreshScheduler scheduler = new RefreshScheduler(render, clock);
+    scheduler.requestRefresh();
+    scheduler.cancel();
+    assertTrue(clock.callbacks.isEmpty());
+    clock.vsync();
+    assertEquals(0, render.runs);
+
+    scheduler.requestRefresh();
+    scheduler.flush();
+    assertEquals(1, render.runs);
+    assertTrue(clock.callbacks.isEmpty());
+    scheduler.flush();
+    assertEquals(1, render.runs);
+  }
+}
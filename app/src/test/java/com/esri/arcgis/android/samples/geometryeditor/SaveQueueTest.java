@@ -0,0 +1,718 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SaveQueueTest {
+
+  /**
+   * Temporizador manual: las tareas se ejecutan cuando la prueba lo indica.
+   */
+  static class ManualTimer implements SaveQueue.Timer {
+    List<Runnable> tasks = new ArrayList<Runnable>();
+
+    List<Long> delays = new ArrayList<Long>();
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+      tasks.add(task);
+      delays.add(delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+      tasks.remove(task);
+    }
+
+    void fire() {
+      for (Runnable task : new ArrayList<Runnable>(tasks)) {
+        tasks.remove(task);
+        task.run();
+      }
+    }
+  }
+
+  /**
+   * Guarda los lotes recibidos para responderlos desde la prueba. Las búsquedas se responden en el acto con las
+   * entidades de {@link #stored}; las de {@link #unknown} no se pueden buscar.
+   */
+  static class RecordingUploader implements SaveQueue.Uploader<String, String> {
+    List<List<String>> batches = new ArrayList<List<String>>();
+
+    List<SaveQueue.Callback> callbacks = new ArrayList<SaveQueue.Callback>();
+
+    List<List<String>> lookups = new ArrayList<List<String>>();
+
+    Set<String> stored = new HashSet<String>();
+
+    Set<String> unknown = new HashSet<String>();
+
+    @Override
+    public void upload(String layer, List<String> features, SaveQueue.Callback callback) {
+      batches.add(new ArrayList<String>(features));
+      callbacks.add(callback);
+    }
+
+    @Override
+    public void findStored(String layer, List<String> features, SaveQueue.LookupCallback callback) {
+      lookups.add(new ArrayList<String>(features));
+      byte[] found = new byte[features.size()];
+      for (int i = 0; i < found.length; i++) {
+        found[i] = unknown.contains(features.get(i)) ? SaveQueue.LOOKUP_UNKNOWN
+            : stored.contains(features.get(i)) ? SaveQueue.LOOKUP_STORED : SaveQueue.LOOKUP_MISSING;
+      }
+      callback.onFound(found);
+    }
+  }
+
+  ManualTimer timer;
+
+  RecordingUploader uploader;
+
+  SaveQueue<String, String> queue;
+
+  List<String> saved = new ArrayList<String>();
+
+  List<String> failed = new ArrayList<String>();
+
+  @Before
+  public void setUp() {
+    timer = new ManualTimer();
+    uploader = new RecordingUploader();
+    queue = new SaveQueue<String, String>(uploader, timer, 3, 5000);
+    queue.setListener(new SaveQueue.Listener<String, String>() {
+      @Override
+      public void onBatchComplete(String layer, List<SaveQueue.Entry<String>> ok,
+          List<SaveQueue.Entry<String>> ko) {
+        for (SaveQueue.Entry<String> entry : ok) {
+          saved.add(entry.getFeature());
+        }
+        for (SaveQueue.Entry<String> entry : ko) {
+          failed.add(entry.getFeature() + ":" + entry.getError() + (entry.isRetryable() ? ":retry" : ""));
+        }
+      }
+    });
+  }
+
+  @Test
+  public void flushesWhenBatchIsFull() {
+    queue.add("points", 1, "a", "a");
+    queue.add("lines", 2, "x", "x");
+    queue.add("points", 3, "b", "b");
+    assertTrue(uploader.batches.isEmpty());
+    queue.add("points", 4, "c", "c");
+    assertEquals(1, uploader.batches.size());
+    assertEquals("[a, b, c]", uploader.batches.get(0).toString());
+    assertEquals(1, queue.getPendingCount());
+  }
+
+  @Test
+  public void flushesWhenDelayExpires() {
+    queue.add("points", 5, "a", "a");
+    queue.add("lines", 6, "x", "x");
+    timer.fire();
+    assertEquals(2, uploader.batches.size());
+    assertEquals(0, queue.getPendingCount());
+    assertTrue(queue.hasWork());
+  }
+
+  @Test
+  public void partialFailuresAreReportedPerFeature() {
+    queue.add("points", 7, "a", "a");
+    queue.add("points", 8, "b", "b");
+    queue.add("points", 9, "c", "c");
+    uploader.callbacks.get(0).onResults(new String[] { null, "bad geometry", null });
+    assertEquals("[a, c]", saved.toString());
+    assertEquals("[b:bad geometry]", failed.toString());
+    assertFalse(queue.hasWork());
+  }
+
+  @Test
+  public void batchFailureFailsEveryFeature() {
+    queue.add("points", 10, "a", "a");
+    queue.flushAll();
+    uploader.callbacks.get(0).onFailure("offline");
+    assertEquals("[a:offline:retry]", failed.toString());
+  }
+
+  @Test
+  public void layerKeepsAtMostMaxBatchesInFlight() {
+    SaveQueue<String, String> limited = new SaveQueue<String, String>(uploader, timer, 1, 5000, 2, null);
+    limited.add("points", 1, "a", "a");
+    limited.add("points", 2, "b", "b");
+    limited.add("points", 3, "c", "c");
+    limited.add("lines", 4, "x", "x");
+    // La tercera entidad de points espera turno; lines tiene su propio límite
+    assertEquals("[[a], [b], [x]]", uploader.batches.toString());
+    assertEquals(1, limited.getPendingCount());
+    assertEquals(3, limited.getStatus().getSending());
+    uploader.callbacks.get(0).onResults(new String[] { null });
+    assertEquals("[[a], [b], [x], [c]]", uploader.batches.toString());
+    assertEquals(0, limited.getPendingCount());
+  }
+
+  @Test
+  public void batchFailureIsRetriedWithGrowingBackoff() {
+    SaveQueue<String, String> retrying = new SaveQueue<String, String>(uploader, timer, 2, 5000, 1,
+        new SaveQueue.Backoff(1000, 6000, 4, new Random(1)));
+    final List<SaveQueue.Entry<String>> failures = new ArrayList<SaveQueue.Entry<String>>();
+    retrying.setListener(new SaveQueue.Listener<String, String>() {
+      @Override
+      public void onBatchComplete(String layer, List<SaveQueue.Entry<String>> ok, List<SaveQueue.Entry<String>> ko) {
+        failures.addAll(ko);
+      }
+    });
+    retrying.add("points", 1, "a", "a");
+    retrying.add("points", 2, "b", "b");
+    long[] ceilings = { 1000, 2000, 4000 };
+    for (int attempt = 0; attempt < 3; attempt++) {
+      timer.delays.clear();
+      uploader.callbacks.get(attempt).onFailure("timeout");
+      assertTrue(failures.isEmpty());
+      assertEquals(2, retrying.getStatus().getRetrying());
+      long delay = timer.delays.get(0);
+      assertTrue(delay >= ceilings[attempt] / 2 && delay <= ceilings[attempt]);
+      timer.fire();
+      assertEquals("[a, b]", uploader.batches.get(attempt + 1).toString());
+    }
+    // Cuarto envío fallido: se acabaron los intentos
+    uploader.callbacks.get(3).onFailure("timeout");
+    assertEquals(2, failures.size());
+    assertTrue(failures.get(0).isRetryable());
+    assertEquals(4, failures.get(0).getAttempts());
+    assertFalse(retrying.hasWork());
+    assertEquals(2, retrying.getStatus().getFailed());
+  }
+
+  @Test
+  public void backoffStaysWithinBounds() {
+    SaveQueue.Backoff backoff = new SaveQueue.Backoff(100, 5000, 10, new Random(7));
+    for (int attempt = 1; attempt < 40; attempt++) {
+      long ceiling = Math.min(5000, 100L << Math.min(attempt - 1, 30));
+      for (int i = 0; i < 50; i++) {
+        long delay = backoff.delay(attempt);
+        assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+      }
+    }
+  }
+
+  @Test
+  public void duplicateIdsAreIgnoredUntilAnswered() {
+    assertTrue(queue.add("points", 1, "a", "a"));
+    assertFalse(queue.add("points", 1, "a", "a"));
+    queue.flushAll();
+    assertFalse(queue.add("points", 1, "a", "a"));
+    uploader.callbacks.get(0).onResults(new String[] { null });
+    assertTrue(queue.add("points", 1, "a", "a"));
+    // Sin identificador no se comparan
+    assertTrue(queue.add("points", 0, "b", "b"));
+    assertTrue(queue.add("points", 0, "b", "b"));
+  }
+
+  @Test
+  public void successOnLayerSendsItsRetriesAtOnce() {
+    SaveQueue<String, String> retrying = new SaveQueue<String, String>(uploader, timer, 1, 5000, 2,
+        new SaveQueue.Backoff(60000, 60000, 3, new Random(1)));
+    retrying.add("points", 1, "a", "a");
+    retrying.add("lines", 2, "x", "x");
+    uploader.callbacks.get(0).onFailure("offline");
+    uploader.callbacks.get(1).onFailure("offline");
+    retrying.add("points", 3, "b", "b");
+    uploader.callbacks.get(2).onResults(new String[] { null });
+    // Sólo se adelanta el reintento de la capa que respondió
+    assertEquals("[[a], [x], [b], [a]]", uploader.batches.toString());
+    assertEquals(1, retrying.getStatus().getRetrying());
+    retrying.retryNow();
+    assertEquals("[[a], [x], [b], [a], [x]]", uploader.batches.toString());
+  }
+
+  @Test
+  public void lateOrRepeatedAnswersAreIgnored() {
+    queue.add("points", 1, "a", "a");
+    queue.flushAll();
+    uploader.callbacks.get(0).onResults(new String[] { null });
+    uploader.callbacks.get(0).onFailure("late");
+    assertEquals("[a]", saved.toString());
+    assertTrue(failed.isEmpty());
+    assertEquals(0, queue.getStatus().getSending());
+  }
+
+  @Test
+  public void lostResponseIsLookedUpBeforeResending() {
+    SaveQueue<String, String> retrying = new SaveQueue<String, String>(uploader, timer, 3, 5000, 1,
+        new SaveQueue.Backoff(1000, 6000, 4, new Random(1)));
+    retrying.setListener(queueListener());
+    retrying.add("points", 1, "a", "a");
+    retrying.add("points", 2, "b", "b");
+    retrying.add("points", 3, "c", "c");
+    // El servidor guardó "a" pero la respuesta no llegó
+    uploader.callbacks.get(0).onFailure("timeout");
+    uploader.stored.add("a");
+    assertTrue(uploader.lookups.isEmpty());
+    timer.fire();
+    assertEquals("[[a, b, c]]", uploader.lookups.toString());
+    assertEquals("[a]", saved.toString());
+    assertEquals("[[a, b, c], [b, c]]", uploader.batches.toString());
+    uploader.callbacks.get(1).onResults(new String[] { null, null });
+    assertEquals("[a, b, c]", saved.toString());
+    assertFalse(retrying.hasWork());
+
+    // Una entidad nueva se envía sin buscarla
+    retrying.add("points", 4, "d", "d");
+    retrying.flushAll();
+    assertEquals(1, uploader.lookups.size());
+    assertEquals("[d]", uploader.batches.get(2).toString());
+  }
+
+  @Test
+  public void unconfirmedFeatureIsLookedUpOnItsFirstTurn() {
+    uploader.stored.add("j");
+    queue.add("points", 1, "j", "j", true);
+    queue.add("points", 2, "k", "k", true);
+    queue.add("points", 3, "l", "l");
+    assertEquals("[[j, k]]", uploader.lookups.toString());
+    assertEquals("[j]", saved.toString());
+    assertEquals("[[k, l]]", uploader.batches.toString());
+    assertEquals(1, uploader.callbacks.size());
+  }
+
+  @Test
+  public void featureThatCannotBeLookedUpIsNotResent() {
+    // La capa no guarda la clave: no hay cómo saber si "m" llegó
+    uploader.unknown.add("m");
+    queue.add("points", 1, "m", "m", true);
+    queue.add("points", 2, "n", "n", true);
+    queue.flushAll();
+    assertEquals("[[m, n]]", uploader.lookups.toString());
+    assertEquals("[[n]]", uploader.batches.toString());
+    assertEquals(1, failed.size());
+    assertTrue(failed.get(0).startsWith("m:"));
+    assertFalse(failed.get(0).endsWith(":retry"));
+    uploader.callbacks.get(0).onResults(new String[] { null });
+    assertEquals("[n]", saved.toString());
+    assertFalse(queue.hasWork());
+    timer.fire();
+    assertEquals(1, uploader.batches.size());
+  }
+
+  @Test
+  public void lookupWithoutAnAnswerForEveryFeatureLeavesTheRestUnverified() {
+    SaveQueue<String, String> retrying = new SaveQueue<String, String>(new RecordingUploader() {
+      @Override
+      public void findStored(String layer, List<String> features, SaveQueue.LookupCallback callback) {
+        lookups.add(new ArrayList<String>(features));
+        callback.onFound(new byte[] { SaveQueue.LOOKUP_MISSING });
+      }
+    }, timer, 5, 5000, 1, new SaveQueue.Backoff(1000, 6000, 3, new Random(1)));
+    final List<Boolean> unverified = new ArrayList<Boolean>();
+    retrying.setListener(new SaveQueue.Listener<String, String>() {
+      @Override
+      public void onBatchComplete(String layer, List<SaveQueue.Entry<String>> ok, List<SaveQueue.Entry<String>> ko) {
+        for (SaveQueue.Entry<String> entry : ko) {
+          failed.add(entry.getFeature());
+          unverified.add(entry.isUnverified());
+        }
+      }
+    });
+    retrying.add("points", 1, "a", "a", true);
+    retrying.add("points", 2, "b", "b", true);
+    retrying.flushAll();
+    assertEquals("[b]", failed.toString());
+    assertEquals("[true]", unverified.toString());
+  }
+
+  @Test
+  public void failedLookupCountsAsAnAttempt() {
+    SaveQueue<String, String> retrying = new SaveQueue<String, String>(new RecordingUploader() {
+      @Override
+      public void findStored(String layer, List<String> features, SaveQueue.LookupCallback callback) {
+        lookups.add(new ArrayList<String>(features));
+        callback.onFailure("offline");
+      }
+    }, timer, 1, 5000, 1, new SaveQueue.Backoff(1000, 6000, 3, new Random(1)));
+    retrying.setListener(queueListener());
+    retrying.add("points", 1, "a", "a", true);
+    timer.fire();
+    timer.fire();
+    assertEquals("[a:offline:retry]", failed.toString());
+    assertFalse(retrying.hasWork());
+  }
+
+  private SaveQueue.Listener<String, String> queueListener() {
+    return new SaveQueue.Listener<String, String>() {
+      @Override
+      public void onBatchComplete(String layer, List<SaveQueue.Entry<String>> ok, List<SaveQueue.Entry<String>> ko) {
+        for (SaveQueue.Entry<String> entry : ok) {
+          saved.add(entry.getFeature());
+        }
+        for (SaveQueue.Entry<String> entry : ko) {
+          failed.add(entry.getFeature() + ":" + entry.getError() + (entry.isRetryable() ? ":retry" : ""));
+        }
+      }
+    };
+  }
+
+  /**
+   * Servidor de entidades de prueba con demoras y fallos al azar. Como un FeatureServer real, cada alta crea una
+   * entidad aunque su clave ya esté guardada; las claves se pueden buscar con {@code /query}. Anota si dos pedidos
+   * de la misma capa o con la misma clave estuvieron en camino a la vez.
+   */
+  static class FlakyFeatureServer implements HttpHandler {
+    final Random random = new Random(11);
+
+    final Map<String, Integer> inFlightByLayer = new HashMap<String, Integer>();
+
+    final Set<String> inFlightKeys = new HashSet<String>();
+
+    final Map<String, Integer> stored = new HashMap<String, Integer>();
+
+    int maxInFlight;
+
+    int overlappingKeys;
+
+    int failures;
+
+    int lostResponses;
+
+    int lookups;
+
+    HttpServer server;
+
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+
+    String url;
+
+    void start() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", this);
+      server.setExecutor(executor);
+      server.start();
+      url = "http://127.0.0.1:" + server.getAddress().getPort() + "/FeatureServer/";
+    }
+
+    void stop() {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String layer = exchange.getRequestURI().getPath().split("/")[2];
+      boolean query = exchange.getRequestURI().getPath().endsWith("/query");
+      String[] keys = new String(readAll(exchange.getRequestBody()), "UTF-8").split(",");
+      double dice;
+      long latency;
+      synchronized (this) {
+        int count = inFlightByLayer.containsKey(layer) ? inFlightByLayer.get(layer) + 1 : 1;
+        inFlightByLayer.put(layer, count);
+        maxInFlight = Math.max(maxInFlight, count);
+        for (String key : keys) {
+          if (!inFlightKeys.add(key)) {
+            overlappingKeys++;
+          }
+        }
+        dice = random.nextDouble();
+        latency = random.nextInt(20);
+      }
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      StringBuilder results = new StringBuilder();
+      synchronized (this) {
+        if (dice >= 0.3 && query) {
+          lookups++;
+          for (String key : keys) {
+            results.append(stored.containsKey(key) ? "1\n" : "0\n");
+          }
+        } else if (dice >= 0.3) {
+          for (String key : keys) {
+            if (key.contains("bad")) {
+              results.append("rejected\n");
+            } else {
+              // Un alta repetida crea otra entidad con la misma clave
+              stored.put(key, stored.containsKey(key) ? stored.get(key) + 1 : 1);
+              results.append("ok\n");
+            }
+          }
+        }
+        if (dice < 0.3) {
+          failures++;
+        } else if (dice < 0.45 && !query) {
+          // El servidor guardó pero la respuesta se perdió
+          lostResponses++;
+        }
+        inFlightByLayer.put(layer, inFlightByLayer.get(layer) - 1);
+        for (String key : keys) {
+          inFlightKeys.remove(key);
+        }
+      }
+      byte[] body = results.toString().getBytes("UTF-8");
+      int code = dice < 0.3 || (dice < 0.45 && !query) ? 503 : 200;
+      exchange.sendResponseHeaders(code, code == 200 ? body.length : -1);
+      OutputStream out = exchange.getResponseBody();
+      if (code == 200) {
+        out.write(body);
+      }
+      out.close();
+    }
+  }
+
+  /**
+   * Envía cada lote al servidor de prueba en otro hilo y responde en el hilo de la cola, como lo hace la actividad.
+   */
+  static class HttpUploader implements SaveQueue.Uploader<String, String> {
+    final String url;
+
+    final ExecutorService network = Executors.newFixedThreadPool(8);
+
+    final ScheduledExecutorService ui;
+
+    HttpUploader(String url, ScheduledExecutorService ui) {
+      this.url = url;
+      this.ui = ui;
+    }
+
+    @Override
+    public void upload(final String layer, final List<String> features, final SaveQueue.Callback callback) {
+      network.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final String[] lines = post(layer + "/applyEdits", features);
+            final String[] errors = new String[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+              errors[i] = "ok".equals(lines[i]) ? null : lines[i];
+            }
+            ui.execute(new Runnable() {
+              @Override
+              public void run() {
+                callback.onResults(errors);
+              }
+            });
+          } catch (final IOException e) {
+            ui.execute(new Runnable() {
+              @Override
+              public void run() {
+                callback.onFailure(e.getMessage());
+              }
+            });
+          }
+        }
+      });
+    }
+
+    @Override
+    public void findStored(final String layer, final List<String> features,
+        final SaveQueue.LookupCallback callback) {
+      network.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final String[] lines = post(layer + "/query", features);
+            final byte[] stored = new byte[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+              stored[i] = "1".equals(lines[i]) ? SaveQueue.LOOKUP_STORED
+                  : "0".equals(lines[i]) ? SaveQueue.LOOKUP_MISSING : SaveQueue.LOOKUP_UNKNOWN;
+            }
+            ui.execute(new Runnable() {
+              @Override
+              public void run() {
+                callback.onFound(stored);
+              }
+            });
+          } catch (final IOException e) {
+            ui.execute(new Runnable() {
+              @Override
+              public void run() {
+                callback.onFailure(e.getMessage());
+              }
+            });
+          }
+        }
+      });
+    }
+
+    /**
+     * Envía las claves separadas por comas y devuelve las líneas de la respuesta.
+     */
+    private String[] post(String path, List<String> features) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+      // Una conexión nueva por lote y sin esperas indefinidas: un pedido colgado cuenta como fallo
+      connection.setRequestProperty("Connection", "close");
+      connection.setConnectTimeout(2000);
+      connection.setReadTimeout(2000);
+      connection.setDoOutput(true);
+      StringBuilder body = new StringBuilder();
+      for (String feature : features) {
+        body.append(body.length() > 0 ? "," : "").append(feature);
+      }
+      OutputStream out = connection.getOutputStream();
+      out.write(body.toString().getBytes("UTF-8"));
+      out.close();
+      if (connection.getResponseCode() != 200) {
+        throw new IOException("HTTP " + connection.getResponseCode());
+      }
+      return new String(readAll(connection.getInputStream()), "UTF-8").split("\n");
+    }
+  }
+
+  /**
+   * Temporizador sobre el hilo de la cola.
+   */
+  static class ExecutorTimer implements SaveQueue.Timer {
+    final ScheduledExecutorService ui;
+
+    final Map<Runnable, ScheduledFuture<?>> futures = new HashMap<Runnable, ScheduledFuture<?>>();
+
+    ExecutorTimer(ScheduledExecutorService ui) {
+      this.ui = ui;
+    }
+
+    @Override
+    public void postDelayed(final Runnable task, long delayMillis) {
+      futures.put(task, ui.schedule(new Runnable() {
+        @Override
+        public void run() {
+          futures.remove(task);
+          task.run();
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+      ScheduledFuture<?> future = futures.remove(task);
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  @Test
+  public void savesEverythingOnceAgainstFlakyServer() throws Exception {
+    FlakyFeatureServer server = new FlakyFeatureServer();
+    server.start();
+    final ScheduledExecutorService ui = Executors.newSingleThreadScheduledExecutor();
+    HttpUploader http = new HttpUploader(server.url, ui);
+    try {
+      final SaveQueue<String, String> pipeline = new SaveQueue<String, String>(http, new ExecutorTimer(ui), 4, 10, 2,
+          new SaveQueue.Backoff(5, 40, 30, new Random(3)));
+      final String[] layers = { "0", "1", "2" };
+      final int perLayer = 60;
+      final CountDownLatch done = new CountDownLatch(layers.length * perLayer);
+      final List<String> ok = Collections.synchronizedList(new ArrayList<String>());
+      final List<String> ko = Collections.synchronizedList(new ArrayList<String>());
+      final List<SaveQueue.Status> statuses = Collections.synchronizedList(new ArrayList<SaveQueue.Status>());
+      ui.execute(new Runnable() {
+        @Override
+        public void run() {
+          pipeline.setListener(new SaveQueue.Listener<String, String>() {
+            @Override
+            public void onBatchComplete(String layer, List<SaveQueue.Entry<String>> saved,
+                List<SaveQueue.Entry<String>> failed) {
+              for (SaveQueue.Entry<String> entry : saved) {
+                ok.add(entry.getFeature());
+                done.countDown();
+              }
+              for (SaveQueue.Entry<String> entry : failed) {
+                ko.add(entry.getFeature() + ":" + entry.getError());
+                done.countDown();
+              }
+            }
+          });
+          pipeline.setStatusListener(new SaveQueue.StatusListener() {
+            @Override
+            public void onStatusChanged(SaveQueue.Status status) {
+              statuses.add(status);
+            }
+          });
+          long id = 1;
+          for (int i = 0; i < perLayer; i++) {
+            for (String layer : layers) {
+              String feature = layer + "-" + i + (i % 20 == 7 ? "bad" : "");
+              pipeline.add(layer, id++, feature, feature);
+            }
+          }
+        }
+      });
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      // Esperar a que el hilo de la cola termine de informar el último lote
+      ui.submit(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }).get();
+
+      int bad = layers.length * perLayer / 20;
+      assertEquals(layers.length * perLayer - bad, ok.size());
+      assertEquals(bad, ko.size());
+      for (String failure : ko) {
+        assertTrue(failure.endsWith("bad:rejected"));
+      }
+      assertEquals(new HashSet<String>(ok), server.stored.keySet());
+      // Ninguna respuesta perdida termina en una entidad repetida
+      for (Map.Entry<String, Integer> entry : server.stored.entrySet()) {
+        assertEquals(entry.getKey(), 1, (int) entry.getValue());
+      }
+      assertTrue(server.lostResponses > 0);
+      assertTrue(server.lookups > 0);
+      assertTrue(server.maxInFlight <= 2);
+      assertEquals(0, server.overlappingKeys);
+
+      SaveQueue.Status last = statuses.get(statuses.size() - 1);
+      assertTrue(last.isIdle());
+      assertEquals(ok.size(), last.getSaved());
+      assertEquals(bad, last.getFailed());
+      boolean sawRetrying = false;
+      for (SaveQueue.Status status : statuses) {
+        sawRetrying |= status.getRetrying() > 0;
+      }
+      assertTrue(sawRetrying);
+    } finally {
+      http.network.shutdownNow();
+      ui.shutdownNow();
+      server.stop();
+    }
+  }
+
+  static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int n;
+    while ((n = in.read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+}
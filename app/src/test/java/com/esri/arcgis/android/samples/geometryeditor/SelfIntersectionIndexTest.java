@@ -0,0 +1,229 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SelfIntersectionIndexTest {
+
+  @Test
+  public void matchesBruteForceUnderRandomEdits() {
+    for (boolean closed : new boolean[] { false, true }) {
+      Random random = new Random(closed ? 3 : 4);
+      VertexBuffer points = new VertexBuffer();
+      SelfIntersectionIndex index = new SelfIntersectionIndex(points);
+      index.setClosed(closed);
+      for (int step = 0; step < 3000; step++) {
+        int op = random.nextInt(4);
+        if (op <= 1 || points.size() < 3) {
+          int at = random.nextInt(points.size() + 1);
+          points.insert(at, random.nextInt(200), random.nextInt(200));
+          index.vertexInserted(at);
+        } else if (op == 2) {
+          int at = random.nextInt(points.size());
+          points.set(at, random.nextInt(200), random.nextInt(200));
+          index.vertexMoved(at);
+        } else {
+          int at = random.nextInt(points.size());
+          points.remove(at);
+          index.vertexRemoved(at);
+        }
+        if (points.size() > 40 && random.nextInt(8) == 0) {
+          points.remove(0);
+          index.vertexRemoved(0);
+        }
+        if (step % 7 == 0) {
+          assertMatches(points, closed, index);
+        }
+      }
+      assertMatches(points, closed, index);
+    }
+  }
+
+  @Test
+  public void bowTieHighlightsBothCrossingSegments() {
+    VertexBuffer points = new VertexBuffer();
+    SelfIntersectionIndex index = new SelfIntersectionIndex(points);
+    index.setClosed(true);
+    double[] square = { 0, 0, 10, 0, 10, 10, 0, 10 };
+    for (int i = 0; i < 4; i++) {
+      points.add(square[2 * i], square[2 * i + 1]);
+      index.vertexInserted(i);
+    }
+    assertTrue(index.isSimple());
+
+    // Cambiar dos vértices de lugar convierte el cuadrado en un moño
+    int version = index.getVersion();
+    points.set(2, 0, 10);
+    index.vertexMoved(2);
+    points.set(3, 10, 10);
+    index.vertexMoved(3);
+    assertEquals(1, index.getCrossingCount());
+    assertNotEquals(version, index.getVersion());
+    VertexBuffer offending = new VertexBuffer();
+    index.getOffending(offending);
+    assertEquals(4, offending.size());
+    assertSegment(offending, 10, 0, 0, 10);
+    assertSegment(offending, 10, 10, 0, 0);
+
+    // Abierto, el segmento de cierre no existe y el moño desaparece
+    index.setClosed(false);
+    assertTrue(index.isSimple());
+    index.setClosed(true);
+    assertEquals(1, index.getCrossingCount());
+
+    points.set(2, 10, 10);
+    index.vertexMoved(2);
+    points.set(3, 0, 10);
+    index.vertexMoved(3);
+    assertTrue(index.isSimple());
+    assertEquals(0, index.getOffendingCount());
+  }
+
+  @Test
+  public void touchingAndCollinearOverlapCountAsCrossings() {
+    VertexBuffer points = new VertexBuffer();
+    SelfIntersectionIndex index = new SelfIntersectionIndex(points);
+    // Una línea que vuelve sobre sí misma
+    double[] line = { 0, 0, 10, 0, 10, 5, 5, 5, 5, 0 };
+    for (int i = 0; i < 5; i++) {
+      points.add(line[2 * i], line[2 * i + 1]);
+      index.vertexInserted(i);
+    }
+    assertEquals(1, index.getCrossingCount());
+    points.add(2, 0);
+    index.vertexInserted(5);
+    assertEquals(2, index.getCrossingCount());
+    assertMatches(points, false, index);
+  }
+
+  @Test
+  public void spiralEditsStayLocal() {
+    // Espiral de Arquímedes con vueltas a la distancia de un segmento: muchos vecinos, ningún cruce
+    VertexBuffer points = new VertexBuffer();
+    SelfIntersectionIndex index = new SelfIntersectionIndex(points);
+    int n = 100000;
+    long comparisons = 0;
+    double angle = 1;
+    for (int i = 0; i < n; i++) {
+      double radius = 1.5 * angle / (2 * Math.PI);
+      points.add(radius * Math.cos(angle), radius * Math.sin(angle));
+      index.vertexInserted(i);
+      comparisons += index.mComparisons;
+      angle += 1 / radius;
+    }
+    assertTrue(index.isSimple());
+    assertTrue(comparisons / n < 32);
+
+    // Cerrar la espiral cruza cada vuelta una vez
+    index.setClosed(true);
+    int turns = (int) (angle / (2 * Math.PI));
+    assertTrue(Math.abs(index.getCrossingCount() - turns) <= 2);
+
+    // Mover un vértice de afuera hacia adentro de la espiral cruza unas pocas vueltas
+    index.setClosed(false);
+    Random random = new Random(9);
+    for (int k = 0; k < 1000; k++) {
+      int at = 1000 + random.nextInt(n - 2000);
+      double x = points.getX(at);
+      double y = points.getY(at);
+      points.set(at, x * 0.999, y * 0.999);
+      index.vertexMoved(at);
+      assertTrue(index.mComparisons < 64);
+      points.set(at, x, y);
+      index.vertexMoved(at);
+    }
+    assertTrue(index.isSimple());
+  }
+
+  @Test
+  public void smallClosedSpiralMatchesBruteForce() {
+    VertexBuffer points = new VertexBuffer();
+    SelfIntersectionIndex index = new SelfIntersectionIndex(points);
+    index.setClosed(true);
+    double angle = 1;
+    for (int i = 0; i < 800; i++) {
+      double radius = 3 * angle / (2 * Math.PI);
+      points.add(radius * Math.cos(angle), radius * Math.sin(angle));
+      index.vertexInserted(i);
+      angle += 1 / radius;
+    }
+    assertMatches(points, true, index);
+    assertTrue(index.getCrossingCount() > 5);
+    index.rebuild();
+    assertMatches(points, true, index);
+  }
+
+  private static void assertSegment(VertexBuffer offending, double x1, double y1, double x2, double y2) {
+    for (int i = 0; i < offending.size(); i += 2) {
+      boolean forward = offending.getX(i) == x1 && offending.getY(i) == y1 && offending.getX(i + 1) == x2
+          && offending.getY(i + 1) == y2;
+      boolean backward = offending.getX(i) == x2 && offending.getY(i) == y2 && offending.getX(i + 1) == x1
+          && offending.getY(i + 1) == y1;
+      if (forward || backward) {
+        return;
+      }
+    }
+    fail("Falta el segmento " + x1 + "," + y1 + " - " + x2 + "," + y2);
+  }
+
+  private static void assertMatches(VertexBuffer points, boolean closed, SelfIntersectionIndex index) {
+    int n = points.size();
+    int segments = closed && n > 2 ? n : Math.max(0, n - 1);
+    int crossings = 0;
+    boolean[] offending = new boolean[Math.max(segments, 1)];
+    for (int i = 0; i < segments; i++) {
+      for (int j = i + 1; j < segments; j++) {
+        if (adjacent(i, j, n, segments) || !crosses(points, i, j, n)) {
+          continue;
+        }
+        crossings++;
+        offending[i] = true;
+        offending[j] = true;
+      }
+    }
+    assertEquals(crossings, index.getCrossingCount());
+    int count = 0;
+    for (boolean b : offending) {
+      if (b) {
+        count++;
+      }
+    }
+    assertEquals(count, index.getOffendingCount());
+  }
+
+  private static boolean adjacent(int i, int j, int n, int segments) {
+    int ie = (i + 1) % n;
+    int je = (j + 1) % n;
+    return i == je || ie == j || ie == je;
+  }
+
+  private static boolean crosses(VertexBuffer p, int i, int j, int n) {
+    double ax = p.getX(i);
+    double ay = p.getY(i);
+    double bx = p.getX((i + 1) % n);
+    double by = p.getY((i + 1) % n);
+    double cx = p.getX(j);
+    double cy = p.getY(j);
+    double dx = p.getX((j + 1) % n);
+    double dy = p.getY((j + 1) % n);
+    if ((ax == bx && ay == by) || (cx == dx && cy == dy)) {
+      return false;
+    }
+    double o1 = Math.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax));
+    double o2 = Math.signum((bx - ax) * (dy - ay) - (by - ay) * (dx - ax));
+    double o3 = Math.signum((dx - cx) * (ay - cy) - (dy - cy) * (ax - cx));
+    double o4 = Math.signum((dx - cx) * (by - cy) - (dy - cy) * (bx - cx));
+    if (o1 * o2 < 0 && o3 * o4 < 0) {
+      return true;
+    }
+    return (o1 == 0 && inBox(ax, ay, bx, by, cx, cy)) || (o2 == 0 && inBox(ax, ay, bx, by, dx, dy))
+        || (o3 == 0 && inBox(cx, cy, dx, dy, ax, ay)) || (o4 == 0 && inBox(cx, cy, dx, dy, bx, by));
+  }
+
+  private static boolean inBox(double ax, double ay, double bx, double by, double px, double py) {
+    return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+  }
+}
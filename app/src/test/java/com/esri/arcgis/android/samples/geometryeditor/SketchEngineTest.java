@@ -0,0 +1,378 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SketchEngineTest {
+
+  private static final double TOLERANCE = 5;
+
+  /**
+   * Copia del boceto construida sólo con los avisos, como la que mantienen los gráficos.
+   */
+  static class Mirror implements SketchEngine.Listener {
+    final SketchEngine engine;
+
+    VertexBuffer vertices = new VertexBuffer();
+
+    VertexBuffer midPoints = new VertexBuffer();
+
+    int selectionChanges;
+
+    int resets;
+
+    Mirror(SketchEngine engine) {
+      this.engine = engine;
+    }
+
+    @Override
+    public void onVertexInserted(int index, double x, double y) {
+      vertices.insert(index, x, y);
+    }
+
+    @Override
+    public void onVertexMoved(int index, double x, double y) {
+      vertices.set(index, x, y);
+    }
+
+    @Override
+    public void onVertexRemoved(int index) {
+      vertices.remove(index);
+    }
+
+    @Override
+    public void onMidPointInserted(int index, double x, double y) {
+      midPoints.insert(index, x, y);
+    }
+
+    @Override
+    public void onMidPointMoved(int index, double x, double y) {
+      midPoints.set(index, x, y);
+    }
+
+    @Override
+    public void onMidPointRemoved(int index) {
+      midPoints.remove(index);
+    }
+
+    @Override
+    public void onSelectionChanged() {
+      selectionChanges++;
+    }
+
+    @Override
+    public void onSketchReset() {
+      resets++;
+      copy(engine.getPoints(), vertices);
+      copy(engine.getMidPoints(), midPoints);
+    }
+
+    private static void copy(HandleIndex.Coordinates from, VertexBuffer to) {
+      to.clear();
+      for (int i = 0; i < from.size(); i++) {
+        to.add(from.getX(i), from.getY(i));
+      }
+    }
+  }
+
+  SketchEngine engine;
+
+  Mirror mirror;
+
+  @Before
+  public void setUp() {
+    engine = new SketchEngine(0.25, 8);
+    mirror = new Mirror(engine);
+    engine.setListener(mirror);
+  }
+
+  private void tap(double x, double y) {
+    engine.tap(x, y, TOLERANCE, 0);
+  }
+
+  private static double[] coords(double... xy) {
+    return xy;
+  }
+
+  @Test
+  public void tapsAppendSelectAndMove() {
+    engine.start(EditJournal.POLYLINE);
+    tap(0, 0);
+    tap(100, 0);
+    assertArrayEquals(coords(0, 0, 100, 0), engine.toCoordinates(), 0);
+
+    // Tocar el punto medio lo selecciona; el siguiente toque lo convierte en vértice
+    tap(50, 1);
+    assertTrue(engine.isMidPointSelected());
+    assertEquals(0, engine.getSelectedIndex());
+    assertEquals(1, mirror.selectionChanges);
+    tap(50, 40);
+    assertFalse(engine.isMidPointSelected());
+    assertEquals(2, mirror.selectionChanges);
+    assertArrayEquals(coords(0, 0, 50, 40, 100, 0), engine.toCoordinates(), 0);
+
+    // Tocar un vértice lo selecciona; el siguiente toque lo mueve
+    tap(101, 1);
+    assertTrue(engine.isVertexSelected());
+    assertEquals(2, engine.getSelectedIndex());
+    tap(100, 60);
+    assertFalse(engine.isVertexSelected());
+    assertArrayEquals(coords(0, 0, 50, 40, 100, 60), engine.toCoordinates(), 0);
+
+    // Todo quedó en el historial
+    assertTrue(engine.undo());
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(0, 0, 100, 0), engine.toCoordinates(), 0);
+    assertTrue(engine.redo());
+    assertArrayEquals(coords(0, 0, 50, 40, 100, 0), engine.toCoordinates(), 0);
+  }
+
+  @Test
+  public void pointModeMovesTheOnlyVertex() {
+    engine.start(EditJournal.POINT);
+    assertFalse(engine.isSaveValid());
+    tap(10, 10);
+    tap(10, 12);
+    tap(30, 30);
+    assertArrayEquals(coords(30, 30), engine.toCoordinates(), 0);
+    assertTrue(engine.isSaveValid());
+    assertFalse(engine.canDelete());
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(10, 12), engine.toCoordinates(), 0);
+  }
+
+  @Test
+  public void deleteRemovesSelectedOrLastVertex() {
+    engine.start(EditJournal.POLYGON);
+    tap(0, 0);
+    tap(100, 0);
+    tap(100, 100);
+    tap(0, 100);
+    assertTrue(engine.deleteSelected());
+    assertArrayEquals(coords(0, 0, 100, 0, 100, 100), engine.toCoordinates(), 0);
+
+    engine.selectVertex(1);
+    assertTrue(engine.deleteSelected());
+    assertArrayEquals(coords(0, 0, 100, 100), engine.toCoordinates(), 0);
+    assertFalse(engine.isSaveValid());
+
+    // Con un punto medio seleccionado no hay nada que borrar
+    engine.selectMidPoint(0);
+    assertFalse(engine.canDelete());
+    assertFalse(engine.deleteSelected());
+
+    engine.clearSelection();
+    assertTrue(engine.undo());
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(0, 0, 100, 0, 100, 100, 0, 100), engine.toCoordinates(), 0);
+  }
+
+  @Test
+  public void dragIsOneHistoryEntry() {
+    engine.start(EditJournal.POLYLINE);
+    tap(0, 0);
+    tap(100, 0);
+
+    // Arrastrar desde un punto medio inserta el vértice al empezar
+    assertTrue(engine.beginDrag(50, 0, TOLERANCE));
+    assertEquals(1, engine.getDragIndex());
+    assertTrue(engine.isVertexSelected());
+    for (int i = 1; i <= 10; i++) {
+      engine.dragTo(50, 5 * i);
+    }
+    engine.endDrag();
+    assertEquals(-1, engine.getDragIndex());
+    assertFalse(engine.isVertexSelected());
+    assertArrayEquals(coords(0, 0, 50, 50, 100, 0), engine.toCoordinates(), 0);
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(0, 0, 100, 0), engine.toCoordinates(), 0);
+
+    // Un vértice arrastrado y devuelto a su lugar no deja nada en el historial
+    assertTrue(engine.beginDrag(100, 1, TOLERANCE));
+    engine.dragTo(120, 20);
+    engine.dragTo(100, 0);
+    engine.endDrag();
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(0, 0), engine.toCoordinates(), 0);
+
+    assertFalse(engine.beginDrag(500, 500, TOLERANCE));
+  }
+
+  @Test
+  public void longVertexDragAllocatesNothing() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+    engine.start(EditJournal.POLYGON);
+    for (int i = 0; i < 100; i++) {
+      tap(i * 100, (i % 2) * 50);
+    }
+    assertTrue(engine.beginDrag(5000, 0, TOLERANCE));
+    long id = Thread.currentThread().getId();
+    for (int i = 0; i < 1000; i++) {
+      engine.dragTo(5000 + i * 10, -100 - i);
+    }
+
+    long before = threads.getThreadAllocatedBytes(id);
+    // El vértice recorre miles de celdas de la rejilla de búsqueda
+    for (int i = 0; i < 100000; i++) {
+      engine.dragTo(5000 + (i % 1000) * 10, -100 - (i / 1000) * 10);
+    }
+    long after = threads.getThreadAllocatedBytes(id);
+    engine.endDrag();
+
+    assertTrue("allocated " + (after - before), after - before < 16 * 1024);
+  }
+
+  @Test
+  public void longVertexDragIsUndoneInOneStep() {
+    engine.start(EditJournal.POLYLINE);
+    tap(0, 0);
+    tap(100, 0);
+    tap(200, 0);
+    assertTrue(engine.beginDrag(100, 2, TOLERANCE));
+    for (int i = 1; i <= 50; i++) {
+      engine.dragTo(100, 5 * i);
+    }
+    engine.endDrag();
+    assertArrayEquals(coords(0, 0, 100, 250, 200, 0), engine.toCoordinates(), 0);
+
+    // Un paso deshace el arrastre entero y el siguiente el último toque
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(0, 0, 100, 0, 200, 0), engine.toCoordinates(), 0);
+    assertTrue(engine.undo());
+    assertArrayEquals(coords(0, 0, 100, 0), engine.toCoordinates(), 0);
+    assertTrue(engine.redo());
+    assertTrue(engine.redo());
+    assertArrayEquals(coords(0, 0, 100, 250, 200, 0), engine.toCoordinates(), 0);
+    assertFalse(engine.canRedo());
+  }
+
+  @Test
+  public void snapsToOwnVerticesThenToLayers() {
+    engine.start(EditJournal.POLYLINE);
+    final SnapIndex layer = new SnapIndex();
+    layer.add(1, new double[] { 1000, 0, 1000, 1000 }, 1, false);
+    engine.setSnapper(new SketchEngine.Snapper() {
+
+      @Override
+      public boolean snap(double x, double y, double tolerance, SnapIndex.Result out) {
+        return layer.snap(x, y, tolerance, out);
+      }
+
+    });
+    engine.tap(0, 0, TOLERANCE, 10);
+    engine.tap(200, 0, TOLERANCE, 10);
+    // Lejos de los puntos de control pero cerca del primer vértice para el ajuste
+    engine.tap(8, 0, 1, 10);
+    engine.tap(995, 500, TOLERANCE, 10);
+    assertArrayEquals(coords(0, 0, 200, 0, 0, 0, 1000, 500), engine.toCoordinates(), 0);
+  }
+
+  @Test
+  public void changeFeedMatchesTheSketch() {
+    Random random = new Random(7);
+    for (byte type : new byte[] { EditJournal.POLYLINE, EditJournal.POLYGON }) {
+      engine.start(type);
+      for (int step = 0; step < 3000; step++) {
+        double x = random.nextInt(1000);
+        double y = random.nextInt(1000);
+        int op = random.nextInt(10);
+        if (op < 5) {
+          tap(x, y);
+        } else if (op < 7) {
+          if (engine.beginDrag(x, y, 50)) {
+            engine.dragTo(random.nextInt(1000), random.nextInt(1000));
+            engine.endDrag();
+          }
+        } else if (op == 7) {
+          engine.deleteSelected();
+        } else if (op == 8) {
+          engine.undo();
+        } else {
+          engine.redo();
+        }
+        assertSame(engine.getPoints(), mirror.vertices);
+        assertSame(engine.getMidPoints(), mirror.midPoints);
+      }
+    }
+  }
+
+  @Test
+  public void trackCaptureResetsOnce() {
+    engine.start(EditJournal.POLYLINE);
+    tap(0, 0);
+    tap(0, 1);
+    assertTrue(engine.isVertexSelected());
+    int resets = mirror.resets;
+
+    TrackDecimator decimator = new TrackDecimator(1, 32);
+    engine.beginTrack(decimator);
+    assertFalse(engine.isVertexSelected());
+    assertTrue(engine.isTracking());
+    for (int i = 1; i <= 100; i++) {
+      engine.addTrackPosition(i, i % 2 == 0 ? 0 : 5);
+    }
+    // Mientras se captura no se aceptan toques
+    tap(500, 500);
+    engine.finishTrack();
+    assertFalse(engine.isTracking());
+    assertEquals(resets + 1, mirror.resets);
+    assertTrue(engine.getPoints().size() > 2);
+    assertSame(engine.getPoints(), mirror.vertices);
+    assertSame(engine.getMidPoints(), mirror.midPoints);
+
+    // Cada vértice del recorrido se deshace por separado
+    int size = engine.getPoints().size();
+    assertTrue(engine.undo());
+    assertEquals(size - 1, engine.getPoints().size());
+  }
+
+  @Test
+  public void loadKeepsTheHistory() {
+    engine.start(EditJournal.POLYGON);
+    tap(0, 0);
+    tap(100, 0);
+    tap(100, 100);
+    VertexBuffer points = new VertexBuffer();
+    for (int i = 0; i < engine.getPoints().size(); i++) {
+      points.add(engine.getPoints().getX(i), engine.getPoints().getY(i));
+    }
+    EditHistory history = engine.getHistory();
+
+    SketchEngine restored = new SketchEngine(0.25, 8);
+    restored.load(EditJournal.POLYGON, points, history);
+    assertEquals(3, restored.getMidPoints().size());
+    assertTrue(restored.getIntersections().isSimple());
+    restored.tap(50, 1, TOLERANCE, 0);
+    assertTrue(restored.isMidPointSelected());
+    assertTrue(restored.undo());
+    assertArrayEquals(coords(0, 0, 100, 0), restored.toCoordinates(), 0);
+  }
+
+  @Test
+  public void noSketchIgnoresCommands() {
+    tap(0, 0);
+    assertFalse(engine.beginDrag(0, 0, TOLERANCE));
+    assertFalse(engine.deleteSelected());
+    assertFalse(engine.undo());
+    assertFalse(engine.isSaveValid());
+    assertEquals(0, engine.getPoints().size());
+  }
+
+  private static void assertSame(HandleIndex.Coordinates expected, VertexBuffer actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.getX(i), actual.getX(i), 1e-9);
+      assertEquals(expected.getY(i), actual.getY(i), 1e-9);
+    }
+  }
+}
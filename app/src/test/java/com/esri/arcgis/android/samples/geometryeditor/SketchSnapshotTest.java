@@ -0,0 +1,161 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SketchSnapshotTest {
+
+  /**
+   * Destino de prueba sobre un buffer de vértices.
+   */
+  static class BufferTarget implements EditHistory.Target {
+    final VertexBuffer points;
+
+    BufferTarget(VertexBuffer points) {
+      this.points = points;
+    }
+
+    @Override
+    public void insertVertex(int index, double x, double y) {
+      points.insert(index, x, y);
+    }
+
+    @Override
+    public void moveVertex(int index, double x, double y) {
+      points.set(index, x, y);
+    }
+
+    @Override
+    public void removeVertex(int index) {
+      points.remove(index);
+    }
+  }
+
+  /**
+   * Un boceto editado al azar como en la actividad: cada operación se aplica y se registra.
+   */
+  private static void edit(VertexBuffer points, EditHistory history, int steps, long seed) {
+    Random random = new Random(seed);
+    double x = -8236000;
+    double y = 4970000;
+    for (int step = 0; step < steps; step++) {
+      int op = random.nextInt(4);
+      if (op <= 1 || points.size() < 2) {
+        x += random.nextDouble() * 20 - 10;
+        y += random.nextDouble() * 20 - 10;
+        int at = op == 0 ? points.size() : random.nextInt(points.size() + 1);
+        points.insert(at, x, y);
+        history.recordInsert(at, x, y);
+      } else if (op == 2) {
+        int at = random.nextInt(points.size());
+        double nx = points.getX(at) + random.nextDouble() - 0.5;
+        double ny = points.getY(at) + random.nextDouble() - 0.5;
+        history.recordMove(at, points.getX(at), points.getY(at), nx, ny);
+        points.set(at, nx, ny);
+      } else {
+        int at = random.nextInt(points.size());
+        history.recordDelete(at, points.getX(at), points.getY(at));
+        points.remove(at);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripKeepsSketchAndHistory() throws IOException {
+    VertexBuffer points = new VertexBuffer();
+    EditHistory history = new EditHistory();
+    edit(points, history, 3000, 1);
+    BufferTarget target = new BufferTarget(points);
+    for (int i = 0; i < 10; i++) {
+      history.undo(target);
+    }
+
+    SketchSnapshot snapshot = new SketchSnapshot(EditJournal.POLYGON, "http://server/layer/0", "Parque", true,
+        false, 7);
+    byte[] data = SketchSnapshot.encode(snapshot, points, history, 3);
+    // Los vértices solos ocupan mucho menos que dos doubles cada uno
+    assertTrue(SketchSnapshot.encode(snapshot, points, new EditHistory(), 3).length < points.size() * 16 / 2);
+
+    VertexBuffer restored = new VertexBuffer();
+    EditHistory restoredHistory = new EditHistory();
+    SketchSnapshot header = SketchSnapshot.decode(data, restored, restoredHistory);
+    assertEquals(EditJournal.POLYGON, header.getGeometryType());
+    assertEquals("http://server/layer/0", header.getLayerUrl());
+    assertEquals("Parque", header.getTemplateName());
+    assertTrue(header.isVertexSelected());
+    assertFalse(header.isMidPointSelected());
+    assertEquals(7, header.getSelectedIndex());
+    assertArrayEquals(points.toInterleavedArray(), restored.toInterleavedArray(), 0.5e-3);
+
+    // Rehacer y deshacer todo da lo mismo en los dos bocetos
+    BufferTarget restoredTarget = new BufferTarget(restored);
+    assertTrue(restoredHistory.canRedo());
+    while (history.redo(target)) {
+      assertTrue(restoredHistory.redo(restoredTarget));
+    }
+    assertFalse(restoredHistory.canRedo());
+    while (history.undo(target)) {
+      assertTrue(restoredHistory.undo(restoredTarget));
+      assertArrayEquals(points.toInterleavedArray(), restored.toInterleavedArray(), 1e-3);
+    }
+    assertFalse(restoredHistory.canUndo());
+  }
+
+  @Test
+  public void missingTemplateAndEmptySketch() throws IOException {
+    SketchSnapshot snapshot = new SketchSnapshot(EditJournal.POINT, null, null, false, false, 0);
+    byte[] data = SketchSnapshot.encode(snapshot, new VertexBuffer(), new EditHistory(), 3);
+    VertexBuffer restored = new VertexBuffer();
+    restored.add(1, 1);
+    SketchSnapshot header = SketchSnapshot.decode(data, restored, new EditHistory());
+    assertNull(header.getLayerUrl());
+    assertNull(header.getTemplateName());
+    assertEquals(0, restored.size());
+  }
+
+  @Test
+  public void truncatedOrForeignDataIsRejected() {
+    VertexBuffer points = new VertexBuffer();
+    EditHistory history = new EditHistory();
+    edit(points, history, 200, 2);
+    byte[] data = SketchSnapshot.encode(new SketchSnapshot(EditJournal.POLYLINE, "u", "t", false, false, 0), points,
+        history, 3);
+    for (int length = 0; length < data.length; length += 7) {
+      byte[] truncated = new byte[length];
+      System.arraycopy(data, 0, truncated, 0, length);
+      try {
+        SketchSnapshot.decode(truncated, new VertexBuffer(), new EditHistory());
+        fail("longitud " + length);
+      } catch (IOException expected) {
+        // El boceto no se restaura
+      }
+    }
+    try {
+      SketchSnapshot.decode(new byte[] { 1, 2, 3 }, new VertexBuffer(), new EditHistory());
+      fail();
+    } catch (IOException expected) {
+      // Otro formato
+    }
+  }
+
+  @Test
+  public void largeSketchRoundTrips() throws IOException {
+    VertexBuffer points = new VertexBuffer();
+    EditHistory history = new EditHistory();
+    edit(points, history, 20000, 3);
+    while (points.size() < 10000) {
+      points.add(points.getX(points.size() - 1) + 3, points.getY(points.size() - 1) - 2);
+    }
+    SketchSnapshot snapshot = new SketchSnapshot(EditJournal.POLYGON, "u", "t", false, false, 0);
+    byte[] data = SketchSnapshot.encode(snapshot, points, history, 3);
+    VertexBuffer restored = new VertexBuffer(points.size());
+    EditHistory restoredHistory = new EditHistory();
+    SketchSnapshot.decode(data, restored, restoredHistory);
+    assertArrayEquals(points.toInterleavedArray(), restored.toInterleavedArray(), 0.5e-3);
+    assertEquals(history.canUndo(), restoredHistory.canUndo());
+  }
+}
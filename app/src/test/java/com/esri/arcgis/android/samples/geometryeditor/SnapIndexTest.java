@@ -0,0 +1,164 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SnapIndexTest {
+
+  /**
+   * Segmentos de una entidad: una línea quebrada al azar dentro de un cuadrado de 10000 x 10000.
+   */
+  private static double[] feature(Random random, int segments) {
+    double[] coords = new double[segments * 4];
+    double x = random.nextDouble() * 10000;
+    double y = random.nextDouble() * 10000;
+    for (int i = 0; i < segments; i++) {
+      double nx = x + (random.nextDouble() - 0.5) * 40;
+      double ny = y + (random.nextDouble() - 0.5) * 40;
+      coords[4 * i] = x;
+      coords[4 * i + 1] = y;
+      coords[4 * i + 2] = nx;
+      coords[4 * i + 3] = ny;
+      x = nx;
+      y = ny;
+    }
+    return coords;
+  }
+
+  @Test
+  public void matchesBruteForceAfterBulkLoadInsertsAndRemovals() {
+    Random random = new Random(7);
+    SnapIndex index = new SnapIndex();
+    List<double[]> features = new ArrayList<double[]>();
+    for (int i = 0; i < 300; i++) {
+      double[] coords = feature(random, 1 + random.nextInt(10));
+      features.add(coords);
+      index.add(i, coords, coords.length / 4, true);
+    }
+    index.bulkLoad();
+    for (int i = 300; i < 600; i++) {
+      double[] coords = feature(random, 1 + random.nextInt(10));
+      features.add(coords);
+      index.add(i, coords, coords.length / 4, false);
+    }
+    for (int i = 0; i < 600; i += 3) {
+      index.remove(i);
+      features.set(i, null);
+    }
+
+    SnapIndex.Result result = new SnapIndex.Result();
+    for (int q = 0; q < 2000; q++) {
+      double x = random.nextDouble() * 10000;
+      double y = random.nextDouble() * 10000;
+      double tolerance = 5 + random.nextDouble() * 50;
+      double[] expected = bruteForce(features, x, y, tolerance);
+      index.snap(x, y, tolerance, result);
+      assertEquals((int) expected[0], result.getType());
+      if (result.getType() != SnapIndex.Result.NONE) {
+        assertEquals(expected[1], Math.hypot(result.getX() - x, result.getY() - y), 1e-9);
+        assertNotNull(features.get((int) result.getOwner()));
+      }
+    }
+  }
+
+  @Test
+  public void prefersVertexOverCloserEdge() {
+    SnapIndex index = new SnapIndex();
+    index.add(1, new double[] { 0, 0, 100, 0 }, 1, false);
+    index.add(2, new double[] { 50, 8, 50, 8 }, 1, false);
+    SnapIndex.Result result = new SnapIndex.Result();
+    assertTrue(index.snap(50, 2, 10, result));
+    assertEquals(SnapIndex.Result.VERTEX, result.getType());
+    assertEquals(2, result.getOwner());
+    assertEquals(8, result.getY(), 0);
+
+    assertTrue(index.snap(30, 3, 10, result));
+    assertEquals(SnapIndex.Result.EDGE, result.getType());
+    assertEquals(30, result.getX(), 0);
+    assertEquals(0, result.getY(), 0);
+
+    assertFalse(index.snap(30, 30, 10, result));
+    index.remove(1);
+    assertFalse(index.snap(30, 3, 10, result));
+    assertFalse(index.contains(1));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void readdingAnOwnerReplacesItsSegments() {
+    SnapIndex index = new SnapIndex();
+    index.add(1, new double[] { 0, 0, 10, 0 }, 1, false);
+    index.add(1, new double[] { 0, 100, 10, 100 }, 1, false);
+    assertEquals(1, index.size());
+    SnapIndex.Result result = new SnapIndex.Result();
+    assertFalse(index.snap(5, 0, 1, result));
+    assertTrue(index.snap(5, 100, 1, result));
+  }
+
+  @Test
+  public void hundredThousandSegmentsMatchBruteForce() {
+    Random random = new Random(8);
+    SnapIndex index = new SnapIndex();
+    List<double[]> features = new ArrayList<double[]>();
+    while (index.size() < 100000) {
+      double[] coords = feature(random, 50);
+      index.add(features.size(), coords, 50, true);
+      features.add(coords);
+    }
+    index.bulkLoad();
+    // Algunas entidades llegan después, una por una
+    for (int i = 0; i < 200; i++) {
+      double[] coords = feature(random, 50);
+      index.add(features.size(), coords, 50, false);
+      features.add(coords);
+    }
+    SnapIndex.Result result = new SnapIndex.Result();
+    for (int q = 0; q < 200; q++) {
+      double x = random.nextDouble() * 10000;
+      double y = random.nextDouble() * 10000;
+      double[] expected = bruteForce(features, x, y, 30);
+      index.snap(x, y, 30, result);
+      assertEquals((int) expected[0], result.getType());
+      if (result.getType() != SnapIndex.Result.NONE) {
+        assertEquals(expected[1], Math.hypot(result.getX() - x, result.getY() - y), 1e-9);
+      }
+    }
+  }
+
+  /**
+   * @return Tipo y distancia del mejor ajuste, recorriendo todos los segmentos.
+   */
+  private static double[] bruteForce(List<double[]> features, double x, double y, double tolerance) {
+    double bestVertex = Double.MAX_VALUE;
+    double bestEdge = Double.MAX_VALUE;
+    for (double[] coords : features) {
+      if (coords == null) {
+        continue;
+      }
+      for (int i = 0; i < coords.length; i += 4) {
+        double ax = coords[i];
+        double ay = coords[i + 1];
+        double bx = coords[i + 2];
+        double by = coords[i + 3];
+        bestVertex = Math.min(bestVertex, Math.min(Math.hypot(x - ax, y - ay), Math.hypot(x - bx, y - by)));
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length2));
+        bestEdge = Math.min(bestEdge, Math.hypot(x - ax - t * dx, y - ay - t * dy));
+      }
+    }
+    if (bestVertex <= tolerance) {
+      return new double[] { SnapIndex.Result.VERTEX, bestVertex };
+    }
+    if (bestEdge <= tolerance) {
+      return new double[] { SnapIndex.Result.EDGE, bestEdge };
+    }
+    return new double[] { SnapIndex.Result.NONE, 0 };
+  }
+}
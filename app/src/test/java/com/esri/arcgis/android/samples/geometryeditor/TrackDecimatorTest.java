@@ -0,0 +1,99 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrackDecimatorTest {
+
+  private static final double TOLERANCE = 2;
+
+  @Test
+  public void everyPositionStaysWithinTolerance() {
+    Random random = new Random(5);
+    TrackDecimator decimator = new TrackDecimator(TOLERANCE, 32);
+    VertexBuffer out = new VertexBuffer();
+    VertexBuffer track = new VertexBuffer();
+    double x = 0;
+    double y = 0;
+    double heading = 0;
+    for (int i = 0; i < 5000; i++) {
+      heading += (random.nextDouble() - 0.5) * 0.3;
+      x += Math.cos(heading) * 0.7;
+      y += Math.sin(heading) * 0.7;
+      track.add(x, y);
+      decimator.add(x, y, out);
+    }
+    decimator.finish(out);
+
+    assertTrue(out.size() < track.size() / 5);
+    assertEquals(track.getX(0), out.getX(0), 0);
+    for (int i = 0; i < track.size(); i++) {
+      assertTrue("posicion " + i, distanceToPolyline(track.getX(i), track.getY(i), out) <= TOLERANCE + 1e-9);
+    }
+  }
+
+  @Test
+  public void standingStillAddsNothing() {
+    Random random = new Random(6);
+    TrackDecimator decimator = new TrackDecimator(TOLERANCE, 8);
+    VertexBuffer out = new VertexBuffer();
+    decimator.seed(100, 100);
+    for (int i = 0; i < 10000; i++) {
+      // Ruido del GPS alrededor de un punto fijo
+      decimator.add(100 + (random.nextDouble() - 0.5) * TOLERANCE / 2,
+          100 + (random.nextDouble() - 0.5) * TOLERANCE / 2, out);
+    }
+    assertEquals(0, out.size());
+    assertFalse(decimator.hasTail());
+  }
+
+  @Test
+  public void lookaheadBoundsTheWindow() {
+    TrackDecimator decimator = new TrackDecimator(TOLERANCE, 4);
+    VertexBuffer out = new VertexBuffer();
+    // Una recta perfecta sólo se confirma cuando la ventana se llena
+    for (int i = 0; i <= 20; i++) {
+      decimator.add(i * 10, 0, out);
+    }
+    assertEquals(5, out.size());
+    assertTrue(decimator.hasTail());
+    assertEquals(200, decimator.getTailX(), 0);
+    assertEquals(1, decimator.finish(out));
+    assertEquals(200, out.getX(out.size() - 1), 0);
+  }
+
+  @Test
+  public void replaySourceDeliversEveryPositionInOrder() {
+    SaveQueueTest.ManualTimer timer = new SaveQueueTest.ManualTimer();
+    ReplayLocationSource source = new ReplayLocationSource(new double[] { 1, 2, 3, 4, 5, 6 }, 50, timer);
+    final VertexBuffer received = new VertexBuffer();
+    source.start(new LocationSource.Listener() {
+      @Override
+      public void onLocation(double longitude, double latitude, long timeMillis) {
+        received.add(longitude, latitude);
+      }
+    });
+    while (!timer.tasks.isEmpty()) {
+      timer.fire();
+    }
+    assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6 }, received.toInterleavedArray(), 0);
+    assertFalse(source.isRunning());
+  }
+
+  private static double distanceToPolyline(double x, double y, VertexBuffer line) {
+    double best = Double.MAX_VALUE;
+    for (int i = 1; i < line.size(); i++) {
+      double ax = line.getX(i - 1);
+      double ay = line.getY(i - 1);
+      double dx = line.getX(i) - ax;
+      double dy = line.getY(i) - ay;
+      double length2 = dx * dx + dy * dy;
+      double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length2));
+      best = Math.min(best, Math.hypot(x - ax - t * dx, y - ay - t * dy));
+    }
+    return best;
+  }
+}
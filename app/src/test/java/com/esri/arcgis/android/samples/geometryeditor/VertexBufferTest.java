@@ -0,0 +1,102 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VertexBufferTest {
+
+  @Test
+  public void insertMoveAndRemoveInPlace() {
+    VertexBuffer buffer = new VertexBuffer(1);
+    for (int i = 0; i < 100; i++) {
+      buffer.add(i, -i);
+    }
+    buffer.insert(0, 1000, 1000);
+    buffer.insert(50, 2000, 2000);
+    buffer.set(101, 3000, 3000);
+    assertEquals(102, buffer.size());
+    assertEquals(1000, buffer.getX(0), 0);
+    assertEquals(48, buffer.getX(49), 0);
+    assertEquals(2000, buffer.getY(50), 0);
+    assertEquals(49, buffer.getX(51), 0);
+    assertEquals(3000, buffer.getX(101), 0);
+
+    buffer.remove(50);
+    buffer.remove(0);
+    assertEquals(100, buffer.size());
+    for (int i = 0; i < 99; i++) {
+      assertEquals(i, buffer.getX(i), 0);
+      assertEquals(-i, buffer.getY(i), 0);
+    }
+  }
+
+  @Test
+  public void editsAcrossChunksMatchAList() {
+    Random random = new Random(11);
+    VertexBuffer buffer = new VertexBuffer();
+    ArrayList<Double> list = new ArrayList<Double>();
+    // Crece hasta varios trozos con ediciones agrupadas, que parten trozos, y se vacía, que los une y los libera
+    for (int round = 0; round < 2; round++) {
+      int hot = 0;
+      for (int step = 0; step < 6000; step++) {
+        if (step % 500 == 0) {
+          hot = random.nextInt(list.size() + 1);
+        }
+        int at = Math.min(list.size(), Math.max(0, hot + random.nextInt(21) - 10));
+        double v = random.nextDouble();
+        if (random.nextInt(4) == 0 && !list.isEmpty()) {
+          at = Math.min(at, list.size() - 1);
+          list.remove(at);
+          buffer.remove(at);
+        } else if (random.nextInt(4) == 0 && !list.isEmpty()) {
+          at = Math.min(at, list.size() - 1);
+          list.set(at, v);
+          buffer.set(at, v, -v);
+        } else {
+          list.add(at, v);
+          buffer.insert(at, v, -v);
+        }
+      }
+      assertSameValues(list, buffer);
+      while (!list.isEmpty()) {
+        int at = random.nextInt(list.size());
+        list.remove(at);
+        buffer.remove(at);
+        if (list.size() % 701 == 0) {
+          assertSameValues(list, buffer);
+        }
+      }
+      assertTrue(buffer.isEmpty());
+    }
+  }
+
+  @Test
+  public void interleavedCopy() {
+    VertexBuffer buffer = new VertexBuffer();
+    buffer.add(1, 2);
+    buffer.add(3, 4);
+    assertArrayEquals(new double[] { 1, 2, 3, 4 }, buffer.toInterleavedArray(), 0);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void readingPastTheEndFails() {
+    VertexBuffer buffer = new VertexBuffer();
+    buffer.add(1, 2);
+    buffer.remove(0);
+    buffer.getX(0);
+  }
+
+  private static void assertSameValues(ArrayList<Double> list, VertexBuffer buffer) {
+    assertEquals(list.size(), buffer.size());
+    double[] coords = buffer.toInterleavedArray();
+    for (int i = 0; i < list.size(); i++) {
+      assertEquals(list.get(i), buffer.getX(i), 0);
+      assertEquals(-list.get(i), buffer.getY(i), 0);
+      assertEquals(list.get(i), coords[2 * i], 0);
+    }
+  }
+}
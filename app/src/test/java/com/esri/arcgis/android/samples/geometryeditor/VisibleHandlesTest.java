@@ -0,0 +1,158 @@
+package com.esri.arcgis.android.samples.geometryeditor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VisibleHandlesTest {
+
+  private static VertexBuffer grid(int side, double spacing) {
+    VertexBuffer points = new VertexBuffer();
+    for (int i = 0; i < side; i++) {
+      for (int j = 0; j < side; j++) {
+        points.add(i * spacing, j * spacing);
+      }
+    }
+    return points;
+  }
+
+  private static HandleIndex index(VertexBuffer points) {
+    HandleIndex index = new HandleIndex();
+    index.sync(points);
+    return index;
+  }
+
+  @Test
+  public void cullsPointsOutsideTheView() {
+    VertexBuffer points = grid(100, 1);
+    VisibleHandles handles = new VisibleHandles(index(points));
+    handles.update(10, 10, 19.5, 19.5, 5, 1000, -1);
+    assertFalse(handles.isClustered());
+    assertEquals(100, handles.size());
+    for (int i = 0; i < handles.size(); i++) {
+      int source = handles.getSourceIndex(i);
+      assertEquals(points.getX(source), handles.getX(i), 0);
+      assertTrue(handles.getX(i) >= 10 && handles.getX(i) < 20);
+      assertTrue(handles.getY(i) >= 10 && handles.getY(i) < 20);
+      assertEquals(i, handles.indexOf(source));
+    }
+  }
+
+  @Test
+  public void pinnedPointIsAlwaysShown() {
+    VertexBuffer points = grid(100, 1);
+    VisibleHandles handles = new VisibleHandles(index(points));
+    handles.update(10, 10, 19.5, 19.5, 5, 1000, 0);
+    assertEquals(101, handles.size());
+    assertEquals(0, handles.indexOf(0));
+
+    handles.showOnly(42);
+    assertEquals(1, handles.size());
+    assertEquals(0, handles.indexOf(42));
+  }
+
+  @Test
+  public void densePointsCollapseIntoClusters() {
+    VertexBuffer points = grid(100, 1);
+    VisibleHandles handles = new VisibleHandles(index(points));
+    int pinned = 5050;
+    handles.update(0, 0, 99.5, 99.5, 10, 50, pinned);
+    assertTrue(handles.isClustered());
+    assertEquals(101, handles.size());
+
+    int total = 0;
+    for (int i = 0; i < handles.size(); i++) {
+      total += handles.getCount(i);
+      if (handles.getCount(i) > 1) {
+        // Cada grupo se dibuja en el centro de sus puntos, dentro de su celda
+        assertEquals(-1, handles.getSourceIndex(i));
+        double x = handles.getX(i) - Math.floor(handles.getX(i) / 10) * 10;
+        assertTrue(x > 4 && x < 5);
+      }
+    }
+    assertEquals(points.size(), total);
+    assertEquals(1, handles.getCount(handles.indexOf(pinned)));
+    assertEquals(-1, handles.indexOf(0));
+
+    // La rejilla queda limpia para el siguiente cálculo
+    handles.update(0, 0, 99.5, 99.5, 10, 50, -1);
+    assertEquals(100, handles.size());
+    for (int i = 0; i < handles.size(); i++) {
+      assertEquals(100, handles.getCount(i));
+    }
+  }
+
+  @Test
+  public void moveFollowsShownPointsUntilInvalidated() {
+    VertexBuffer points = grid(10, 1);
+    VisibleHandles handles = new VisibleHandles(index(points));
+    handles.showAll(-1);
+    assertEquals(3, handles.move(3, 50, 60));
+    assertEquals(50, handles.getX(3), 0);
+    handles.invalidate();
+    assertEquals(-1, handles.move(3, 0, 0));
+  }
+
+  @Test
+  public void viewportQueryMatchesLinearScanAfterEdits() {
+    Random random = new Random(7);
+    VertexBuffer points = new VertexBuffer();
+    HandleIndex index = new HandleIndex();
+    VisibleHandles handles = new VisibleHandles(index);
+    for (int i = 0; i < 5000; i++) {
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      int at = random.nextInt(points.size() + 1);
+      points.insert(at, x, y);
+      index.insert(at, x, y);
+    }
+    for (int round = 0; round < 200; round++) {
+      int i = random.nextInt(points.size());
+      double x = random.nextDouble() * 1000;
+      double y = random.nextDouble() * 1000;
+      points.set(i, x, y);
+      index.move(i, x, y);
+      if (round % 3 == 0) {
+        points.remove(i);
+        index.remove(i);
+        handles.invalidate();
+      }
+
+      double xmin = random.nextDouble() * 900;
+      double ymin = random.nextDouble() * 900;
+      double size = 20 + random.nextDouble() * 80;
+      int pinned = random.nextInt(points.size());
+      handles.update(xmin, ymin, xmin + size, ymin + size, 10, 100000, pinned);
+      assertFalse(handles.isClustered());
+
+      // Se muestran los puntos de las celdas que tocan la vista, en orden, y el elegido
+      double cell = index.getCellSize();
+      int expected = 0;
+      for (int p = 0; p < points.size(); p++) {
+        double px = points.getX(p);
+        double py = points.getY(p);
+        boolean inside = Math.floor(px / cell) >= Math.floor(xmin / cell)
+            && Math.floor(px / cell) <= Math.floor((xmin + size) / cell)
+            && Math.floor(py / cell) >= Math.floor(ymin / cell)
+            && Math.floor(py / cell) <= Math.floor((ymin + size) / cell);
+        if (inside || p == pinned) {
+          assertEquals(p, handles.getSourceIndex(expected));
+          assertEquals(px, handles.getX(expected), 0);
+          expected++;
+        }
+      }
+      assertEquals(expected, handles.size());
+      assertEquals(pinned, handles.getSourceIndex(handles.indexOf(pinned)));
+
+      // Agrupados, los grupos suman los mismos puntos
+      handles.update(xmin, ymin, xmin + size, ymin + size, 10, 1, pinned);
+      int total = 0;
+      for (int e = 0; e < handles.size(); e++) {
+        total += handles.getCount(e);
+      }
+      assertEquals(expected, total);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.EditHistory;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro de una edición en el historial de deshacer. El costo no debería depender del tamaño del boceto; el
+ * parámetro de vértices está para comprobarlo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditHistoryBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int vertices;
+
+  private VertexBuffer mPoints;
+
+  private EditHistory mHistory;
+
+  private EditHistory.Target mTarget;
+
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    mPoints = Sketches.walk(vertices, 1);
+    mHistory = new EditHistory();
+    mTarget = new PointsTarget(mPoints);
+  }
+
+  @Benchmark
+  public boolean recordMove() {
+    int i = mNext;
+    mNext = (i + 1) % vertices;
+    double x = mPoints.getX(i);
+    double y = mPoints.getY(i);
+    mHistory.recordMove(i, x, y, x + 1, y + 1);
+    return mHistory.canUndo();
+  }
+
+  @Benchmark
+  public boolean recordAndUndo() {
+    int i = mNext;
+    mNext = (i + 1) % vertices;
+    double x = mPoints.getX(i);
+    double y = mPoints.getY(i);
+    mHistory.recordMove(i, x, y, x, y);
+    return mHistory.undo(mTarget);
+  }
+
+  /**
+   * Aplica el historial sobre el boceto, igual que el destino del historial en la actividad.
+   */
+  static final class PointsTarget implements EditHistory.Target {
+    private final VertexBuffer mPoints;
+
+    PointsTarget(VertexBuffer points) {
+      mPoints = points;
+    }
+
+    @Override
+    public void insertVertex(int index, double x, double y) {
+      mPoints.insert(index, x, y);
+    }
+
+    @Override
+    public void moveVertex(int index, double x, double y) {
+      mPoints.set(index, x, y);
+    }
+
+    @Override
+    public void removeVertex(int index) {
+      mPoints.remove(index);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.Generalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generalización del boceto antes de guardarlo, como en generalize de la actividad, con una tolerancia de un décimo
+ * de la distancia entre vértices. El presupuesto es de menos de 1 s por método con 200000 vértices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneralizerBenchmark {
+
+  @Param({"10", "1000", "100000", "200000"})
+  public int vertices;
+
+  private double[] mCoords;
+
+  @Setup
+  public void setUp() {
+    mCoords = Sketches.walk(vertices, 1).toInterleavedArray();
+  }
+
+  @Benchmark
+  public double[] douglasPeucker() {
+    return Generalizer.simplify(mCoords, false, Generalizer.Method.DOUGLAS_PEUCKER, Sketches.STEP / 10);
+  }
+
+  @Benchmark
+  public double[] visvalingamWhyatt() {
+    return Generalizer.simplify(mCoords, false, Generalizer.Method.VISVALINGAM_WHYATT, Sketches.STEP / 10);
+  }
+}
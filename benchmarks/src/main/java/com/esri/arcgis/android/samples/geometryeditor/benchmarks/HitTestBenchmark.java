@@ -0,0 +1,75 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.HandleIndex;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda del vértice tocado, como en getSelectedIndex de la actividad: una consulta al índice de manijas por
+ * toque. El presupuesto es de menos de 1 ms por consulta también con 100000 vértices; las pruebas unitarias sólo
+ * comprueban el resultado.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitTestBenchmark {
+
+  private static final int TAPS = 1024;
+
+  @Param({"10", "1000", "100000"})
+  public int vertices;
+
+  private HandleIndex mIndex;
+
+  private double[] mTaps;
+
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    VertexBuffer points = Sketches.walk(vertices, 1);
+    mIndex = new HandleIndex();
+    mIndex.fitCellSize(Sketches.TOLERANCE);
+    mIndex.sync(points);
+    mTaps = Sketches.taps(points, TAPS, 2);
+  }
+
+  @Benchmark
+  public int nearest() {
+    int i = mNext;
+    mNext = (i + 1) & (TAPS - 1);
+    return mIndex.nearest(mTaps[2 * i], mTaps[2 * i + 1], Sketches.TOLERANCE);
+  }
+}
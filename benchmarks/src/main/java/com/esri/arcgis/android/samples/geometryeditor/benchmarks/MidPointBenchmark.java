@@ -0,0 +1,129 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.HandleIndex;
+import com.esri.arcgis.android.samples.geometryeditor.MidPointList;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puntos medios de un polígono tras mover un vértice. {@link #moveAndRegenerate} es el método anterior de
+ * drawMidPoints: recalcular todos y sincronizar el índice de manijas, O(n) por edición. {@link #moveIncremental} es
+ * el actual: {@link MidPointList} actualiza sólo los puntos medios afectados y el índice recibe cada cambio, O(1)
+ * por edición.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MidPointBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int vertices;
+
+  private VertexBuffer mPoints;
+
+  private VertexBuffer mMidPoints;
+
+  private HandleIndex mMidPointIndex;
+
+  private MidPointList mIncremental;
+
+  private HandleIndex mIncrementalIndex;
+
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    mPoints = Sketches.walk(vertices, 1);
+    mMidPoints = new VertexBuffer(vertices);
+    mMidPointIndex = new HandleIndex();
+    mMidPointIndex.fitCellSize(Sketches.TOLERANCE);
+    regenerate();
+
+    mIncremental = new MidPointList(mPoints);
+    mIncremental.setClosed(true);
+    mIncrementalIndex = new HandleIndex();
+    mIncrementalIndex.fitCellSize(Sketches.TOLERANCE);
+    mIncrementalIndex.sync(mIncremental);
+    mIncremental.setListener(new MidPointList.Listener() {
+      @Override
+      public void onMidPointInserted(int index, double x, double y) {
+        mIncrementalIndex.insert(index, x, y);
+      }
+
+      @Override
+      public void onMidPointMoved(int index, double x, double y) {
+        mIncrementalIndex.move(index, x, y);
+      }
+
+      @Override
+      public void onMidPointRemoved(int index) {
+        mIncrementalIndex.remove(index);
+      }
+    });
+  }
+
+  @Benchmark
+  public int moveIncremental() {
+    int i = mNext;
+    mNext = (i + 1) % vertices;
+    double dx = (i & 1) == 0 ? 1 : -1;
+    mPoints.set(i, mPoints.getX(i) + dx, mPoints.getY(i));
+    mIncremental.vertexMoved(i);
+    return mIncrementalIndex.size();
+  }
+
+  @Benchmark
+  public int moveAndRegenerate() {
+    // Un arrastre pequeño de un vértice distinto en cada llamada, para que el índice tenga algo que actualizar
+    int i = mNext;
+    mNext = (i + 1) % vertices;
+    double dx = (i & 1) == 0 ? 1 : -1;
+    mPoints.set(i, mPoints.getX(i) + dx, mPoints.getY(i));
+    return regenerate();
+  }
+
+  private int regenerate() {
+    mMidPoints.clear();
+    int n = mPoints.size();
+    for (int i = 1; i < n; i++) {
+      mMidPoints.add((mPoints.getX(i - 1) + mPoints.getX(i)) / 2, (mPoints.getY(i - 1) + mPoints.getY(i)) / 2);
+    }
+    if (n > 2) {
+      mMidPoints.add((mPoints.getX(0) + mPoints.getX(n - 1)) / 2, (mPoints.getY(0) + mPoints.getY(n - 1)) / 2);
+    }
+    mMidPointIndex.sync(mMidPoints);
+    return mMidPointIndex.size();
+  }
+}
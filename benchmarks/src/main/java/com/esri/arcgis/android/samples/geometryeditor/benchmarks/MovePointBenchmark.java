@@ -0,0 +1,81 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.EditHistory;
+import com.esri.arcgis.android.samples.geometryeditor.HandleIndex;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mover un vértice como en movePoint de la actividad: registrar el movimiento en el historial, cambiar la
+ * coordenada y sincronizar el índice de vértices como hace el redibujado que sigue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovePointBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int vertices;
+
+  private VertexBuffer mPoints;
+
+  private HandleIndex mVertexIndex;
+
+  private EditHistory mHistory;
+
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    mPoints = Sketches.walk(vertices, 1);
+    mVertexIndex = new HandleIndex();
+    mVertexIndex.fitCellSize(Sketches.TOLERANCE);
+    mVertexIndex.sync(mPoints);
+    mHistory = new EditHistory();
+  }
+
+  @Benchmark
+  public int movePoint() {
+    int i = mNext;
+    mNext = (i + 1) % vertices;
+    double x = mPoints.getX(i);
+    double y = mPoints.getY(i);
+    double dx = (i & 1) == 0 ? Sketches.STEP : -Sketches.STEP;
+    mHistory.recordMove(i, x, y, x + dx, y);
+    mPoints.set(i, x + dx, y);
+    mVertexIndex.sync(mPoints);
+    return mVertexIndex.size();
+  }
+}
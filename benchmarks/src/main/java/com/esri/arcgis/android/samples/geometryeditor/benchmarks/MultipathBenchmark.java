@@ -0,0 +1,81 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construcción de la geometría al guardar, como en buildGeometry de la actividad: las coordenadas del boceto se
+ * copian en un arreglo intercalado y se arma el polígono con startPath y lineTo. Usa la biblioteca de geometría de
+ * Esri para la JVM, que tiene las mismas clases que el SDK de Android.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipathBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int vertices;
+
+  private VertexBuffer mPoints;
+
+  private SpatialReference mSpatialReference;
+
+  @Setup
+  public void setUp() {
+    mPoints = Sketches.walk(vertices, 1);
+    mSpatialReference = SpatialReference.create(102100);
+  }
+
+  @Benchmark
+  public MultiPath build() {
+    double[] coords = mPoints.toInterleavedArray();
+    MultiPath multipath = new Polygon();
+    multipath.startPath(coords[0], coords[1]);
+    for (int i = 2; i < coords.length; i += 2) {
+      multipath.lineTo(coords[i], coords[i + 1]);
+    }
+    return multipath;
+  }
+
+  @Benchmark
+  public Geometry buildAndSimplify() {
+    return GeometryEngine.simplify(build(), mSpatialReference);
+  }
+}
@@ -0,0 +1,113 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.HandleIndex;
+import com.esri.arcgis.android.samples.geometryeditor.OutlinePyramid;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Polygon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contorno que se entrega a la capa de gráficos después de mover un vértice, como en drawPolylineOrPolygon.
+ * {@link #fullDetail} arma el polígono con todos los vértices; {@link #pyramidLevel} usa el nivel de
+ * {@link OutlinePyramid} que corresponde a una resolución de {@value #RESOLUTION} unidades por píxel, y sólo
+ * vuelve a generalizar el bloque del vértice movido. El tamaño del polígono es lo que paga el dibujo nativo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutlineBenchmark {
+
+  // Mismos valores que la actividad
+  private static final double BASE_TOLERANCE = 0.25;
+
+  private static final int LEVELS = 8;
+
+  private static final double PIXEL_TOLERANCE = 0.5;
+
+  static final double RESOLUTION = 50;
+
+  @Param({"10", "1000", "100000"})
+  public int vertices;
+
+  private VertexBuffer mPoints;
+
+  private OutlinePyramid mPyramid;
+
+  private VertexBuffer mLevelPoints;
+
+  private int mLevel;
+
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    mPoints = Sketches.walk(vertices, 1);
+    mPyramid = new OutlinePyramid(mPoints, BASE_TOLERANCE, LEVELS);
+    mLevelPoints = new VertexBuffer();
+    mLevel = mPyramid.levelFor(PIXEL_TOLERANCE * RESOLUTION);
+    mPyramid.build(mLevel, mLevelPoints);
+  }
+
+  @Benchmark
+  public int fullDetail() {
+    move();
+    return build(mPoints).getPointCount();
+  }
+
+  @Benchmark
+  public int pyramidLevel() {
+    move();
+    mPyramid.build(mLevel, mLevelPoints);
+    return build(mLevelPoints).getPointCount();
+  }
+
+  private void move() {
+    int i = mNext;
+    mNext = (i + 1) % vertices;
+    double dx = (i & 1) == 0 ? 1 : -1;
+    mPoints.set(i, mPoints.getX(i) + dx, mPoints.getY(i));
+    mPyramid.vertexMoved(i);
+  }
+
+  private static MultiPath build(HandleIndex.Coordinates points) {
+    MultiPath multipath = new Polygon();
+    multipath.startPath(points.getX(0), points.getY(0));
+    for (int i = 1; i < points.size(); i++) {
+      multipath.lineTo(points.getX(i), points.getY(i));
+    }
+    return multipath;
+  }
+}
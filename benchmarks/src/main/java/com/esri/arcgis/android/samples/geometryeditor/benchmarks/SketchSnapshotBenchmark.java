@@ -0,0 +1,85 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.EditHistory;
+import com.esri.arcgis.android.samples.geometryeditor.EditJournal;
+import com.esri.arcgis.android.samples.geometryeditor.SketchSnapshot;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Guardado y restauración del boceto en curso, como en onSaveInstanceState y restoreSketch de la actividad. El
+ * historial tiene una inserción por vértice, como un boceto digitalizado de corrido. El presupuesto es de menos de
+ * un cuadro (16 ms) para codificar y decodificar un boceto de 10000 vértices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SketchSnapshotBenchmark {
+
+  private static final int DECIMALS = 3;
+
+  @Param({"10", "10000", "100000"})
+  public int vertices;
+
+  private SketchSnapshot mSnapshot;
+
+  private VertexBuffer mPoints;
+
+  private EditHistory mHistory;
+
+  private byte[] mData;
+
+  @Setup
+  public void setUp() {
+    mPoints = Sketches.walk(vertices, 1);
+    mHistory = new EditHistory();
+    for (int i = 0; i < vertices; i++) {
+      mHistory.recordInsert(i, mPoints.getX(i), mPoints.getY(i));
+    }
+    mSnapshot = new SketchSnapshot(EditJournal.POLYLINE, "http://server/layer/0", "Sendero", false, false, 0);
+    mData = SketchSnapshot.encode(mSnapshot, mPoints, mHistory, DECIMALS);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return SketchSnapshot.encode(mSnapshot, mPoints, mHistory, DECIMALS);
+  }
+
+  @Benchmark
+  public SketchSnapshot decode() throws IOException {
+    return SketchSnapshot.decode(mData, new VertexBuffer(vertices), new EditHistory());
+  }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import java.util.Random;
+
+/**
+ * Bocetos de prueba para las mediciones: un recorrido aleatorio parecido a un trazo digitalizado, en unidades de
+ * mapa (metros), siempre con la misma semilla para que las corridas sean comparables.
+ */
+final class Sketches {
+
+  // Distancia media entre vértices consecutivos
+  static final double STEP = 10;
+
+  // Radio de búsqueda de un toque: 40 px a 1 m/px
+  static final double TOLERANCE = 40;
+
+  private Sketches() {
+  }
+
+  static VertexBuffer walk(int vertices, long seed) {
+    Random random = new Random(seed);
+    VertexBuffer points = new VertexBuffer(vertices);
+    double x = 0;
+    double y = 0;
+    double heading = 0;
+    for (int i = 0; i < vertices; i++) {
+      points.add(x, y);
+      heading += (random.nextDouble() - 0.5) * 0.6;
+      x += Math.cos(heading) * STEP;
+      y += Math.sin(heading) * STEP;
+    }
+    return points;
+  }
+
+  /**
+   * Puntos de toque cerca de vértices al azar del boceto, para que la mitad de las búsquedas encuentren algo.
+   */
+  static double[] taps(VertexBuffer points, int count, long seed) {
+    Random random = new Random(seed);
+    double[] taps = new double[count * 2];
+    for (int i = 0; i < count; i++) {
+      int v = random.nextInt(points.size());
+      taps[2 * i] = points.getX(v) + (random.nextDouble() - 0.5) * 4 * TOLERANCE;
+      taps[2 * i + 1] = points.getY(v) + (random.nextDouble() - 0.5) * 4 * TOLERANCE;
+    }
+    return taps;
+  }
+}
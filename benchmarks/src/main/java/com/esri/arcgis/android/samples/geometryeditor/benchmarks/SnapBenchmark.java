@@ -0,0 +1,93 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.SnapIndex;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ajuste de un toque a las entidades descargadas, como en snap de la actividad: una consulta al árbol R de
+ * segmentos por toque. Las entidades son tramos de {@value #FEATURE_SEGMENTS} segmentos de un recorrido. El
+ * presupuesto es de menos de 1 ms por toque con 100000 segmentos.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapBenchmark {
+
+  private static final int TAPS = 1024;
+
+  private static final int FEATURE_SEGMENTS = 50;
+
+  // Tolerancia de ajuste: 16 dp a 1 m/px en una pantalla hdpi
+  private static final double SNAP_TOLERANCE = 24;
+
+  @Param({"1000", "100000"})
+  public int segments;
+
+  private SnapIndex mIndex;
+
+  private SnapIndex.Result mResult;
+
+  private double[] mTaps;
+
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    VertexBuffer points = Sketches.walk(segments + 1, 1);
+    mIndex = new SnapIndex();
+    double[] coords = new double[FEATURE_SEGMENTS * 4];
+    for (int first = 0; first < segments; first += FEATURE_SEGMENTS) {
+      int count = Math.min(FEATURE_SEGMENTS, segments - first);
+      for (int i = 0; i < count; i++) {
+        coords[4 * i] = points.getX(first + i);
+        coords[4 * i + 1] = points.getY(first + i);
+        coords[4 * i + 2] = points.getX(first + i + 1);
+        coords[4 * i + 3] = points.getY(first + i + 1);
+      }
+      mIndex.add(first, coords, count, true);
+    }
+    mIndex.bulkLoad();
+    mResult = new SnapIndex.Result();
+    mTaps = Sketches.taps(points, TAPS, 2);
+  }
+
+  @Benchmark
+  public boolean snap() {
+    int i = mNext;
+    mNext = (i + 1) & (TAPS - 1);
+    return mIndex.snap(mTaps[2 * i], mTaps[2 * i + 1], SNAP_TOLERANCE, mResult);
+  }
+}
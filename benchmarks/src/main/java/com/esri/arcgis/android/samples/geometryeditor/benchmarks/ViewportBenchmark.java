@@ -0,0 +1,93 @@
+/* Copyright 2015 Esri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.esri.arcgis.android.samples.geometryeditor.benchmarks;
+
+import com.esri.arcgis.android.samples.geometryeditor.HandleIndex;
+import com.esri.arcgis.android.samples.geometryeditor.VertexBuffer;
+import com.esri.arcgis.android.samples.geometryeditor.VisibleHandles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recorte y agrupación de los puntos de control en cada cuadro de un desplazamiento del mapa, como en drawVertices
+ * de la actividad: una pantalla de 1080 x 1920 px a 1 m/px con grupos de 96 px. El costo por cuadro debe quedar
+ * igual con 1000 que con 1000000 vértices, porque sólo depende de las celdas a la vista.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportBenchmark {
+
+  private static final double WIDTH = 1080;
+
+  private static final double HEIGHT = 1920;
+
+  private static final double CLUSTER_SIZE = 96;
+
+  private static final int MAX_HANDLES = (int) ((WIDTH / CLUSTER_SIZE) * (HEIGHT / CLUSTER_SIZE));
+
+  // Desplazamiento por cuadro y cuadros hasta volver al comienzo
+  private static final double PAN = 8;
+
+  private static final int FRAMES = 256;
+
+  @Param({"1000", "100000", "1000000"})
+  public int vertices;
+
+  private VisibleHandles mHandles;
+
+  private double mX;
+
+  private double mY;
+
+  private int mFrame;
+
+  @Setup
+  public void setUp() {
+    VertexBuffer points = Sketches.walk(vertices, 1);
+    HandleIndex index = new HandleIndex();
+    index.fitCellSize(Sketches.TOLERANCE);
+    index.sync(points);
+    mHandles = new VisibleHandles(index);
+    // La vista parte del vértice del medio, donde el trazo pasa por la pantalla
+    mX = points.getX(vertices / 2) - WIDTH / 2;
+    mY = points.getY(vertices / 2) - HEIGHT / 2;
+  }
+
+  @Benchmark
+  public int pan() {
+    double x = mX + mFrame * PAN;
+    mFrame = (mFrame + 1) & (FRAMES - 1);
+    mHandles.update(x, mY, x + WIDTH, mY + HEIGHT, CLUSTER_SIZE, MAX_HANDLES, 0);
+    return mHandles.size();
+  }
+}